@@ -0,0 +1,122 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import bench.Workload;
+
+/**
+ * @author Oliver Griffiths
+ * The benchmarks' way into the reader, see Workload
+ */
+public class VolumeWorkload implements Workload {
+	private Volume vol;
+	private VolumeManager manager;
+	private String[] directories;
+	private String[] files;
+	private Ext2File file;
+
+	@Override
+	public String generate(int blockSize) throws IOException {
+		File temp = File.createTempFile("bench", ".img");
+		temp.deleteOnExit();
+		ImageGenerator generator = new ImageGenerator(1234L);
+		generator.setBlockSize(blockSize);
+		generator.setDirectories(8);
+		generator.setFilesPerDirectory(512);
+		generator.setMaxFileSize(16 * 1024);
+		generator.generate(temp.getPath());
+		return temp.getPath();
+	}
+
+	@Override
+	public void open(String image, boolean cached) throws IOException {
+		if(cached) {
+			manager = new VolumeManager(256L * 1024 * 1024, 4, 0);
+			vol = manager.get(image);
+		} else {
+			vol = new Volume(image);
+		}
+	}
+
+	// Finds the directories a level down from the root and the files in them, the first time they're asked for
+	private void scan() {
+		if(files != null) {
+			return;
+		}
+		List<String> directoryPaths = new ArrayList<String>();
+		List<String> filePaths = new ArrayList<String>();
+		for (FileInfo info : new Directory(vol.getInode(2), vol).getFileInfo()) { // The root, by inode as "/" isn't a path getInodeFromPath resolves
+			String name = info.getName();
+			if(info.getMode().charAt(0) == 'd' && !name.equals(".") && !name.equals("..")) {
+				directoryPaths.add("/" + name);
+				for (FileInfo child : new Directory(vol, "/" + name).getFileInfo()) {
+					if(child.getMode().charAt(0) == '-') {
+						filePaths.add("/" + name + "/" + child.getName());
+					}
+				}
+			}
+		}
+		directories = directoryPaths.toArray(new String[0]);
+		files = filePaths.toArray(new String[0]);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(manager != null) {
+			manager.close();
+		} else if(vol != null) {
+			vol.close();
+		}
+	}
+
+	@Override
+	public int getInodeCount() {
+		return vol.getSuperBlock().getInodes();
+	}
+
+	@Override
+	public String[] getDirectories() {
+		scan();
+		return directories;
+	}
+
+	@Override
+	public String[] getFiles() {
+		scan();
+		return files;
+	}
+
+	@Override
+	public int getInode(int id) {
+		Inode inode = vol.getInode(id);
+		return inode == null ? 0 : inode.getModeBits();
+	}
+
+	@Override
+	public int getInodeFromPath(String path) {
+		Inode inode = vol.getInodeFromPath(path);
+		return inode == null ? 0 : inode.getModeBits();
+	}
+
+	@Override
+	public int getFileInfo(String path) {
+		return new Directory(vol, path).getFileInfo().length;
+	}
+
+	@Override
+	public long openFile(String path) {
+		file = new Ext2File(vol, path);
+		return path.endsWith("/treble") ? ImageGenerator.getTrebleStart((int) vol.getBlockSize()) : 0;
+	}
+
+	@Override
+	public long size() {
+		return file.size();
+	}
+
+	@Override
+	public int read(long position, byte[] bytes, int length) throws IOException {
+		return file.read(position, bytes, 0, length);
+	}
+}
@@ -0,0 +1,51 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * @author Oliver Griffiths
+ * The image every benchmark of a trial reads, generated by ImageGenerator unless one is given with -p path=...,
+ * along with the inodes, directories and files the benchmarks pick from
+ */
+@State(Scope.Benchmark)
+public class Image {
+	@Param({"1024", "4096"})
+	public int blockSize;
+
+	@Param({""})
+	public String path; // An existing image with files under /bench, or empty to generate one
+
+	String image;
+	int inodeCount;
+	String[] directories;
+	String[] files;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Workload workload = Workload.load();
+		image = path.isEmpty() ? workload.generate(blockSize) : path;
+		workload.open(image, false);
+		inodeCount = workload.getInodeCount();
+		directories = workload.getDirectories();
+		files = workload.getFiles();
+		workload.close();
+		if(files.length == 0) {
+			throw new IOException("No files found a directory down from the root of " + image);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if(path.isEmpty()) {
+			new File(image).delete();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Oliver Griffiths
+ * Times loading inodes, following paths and listing directories, picked at random.
+ * Cold opens the image afresh for every operation, outside the timing, so nothing the volume or a cache
+ * above it holds can help; warm reads through a VolumeManager whose cache the warmup iterations fill.
+ * Neither can drop the operating system's page cache, so cold times are of the volume's own work, not the disk's.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetadataBenchmark {
+	private final Random random = new Random(1234L);
+
+	@State(Scope.Thread)
+	public static class Cold {
+		Workload workload;
+
+		@Setup(Level.Invocation)
+		public void open(Image image) throws IOException {
+			workload = Workload.load();
+			workload.open(image.image, false);
+		}
+
+		@TearDown(Level.Invocation)
+		public void close() throws IOException {
+			workload.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Warm {
+		Workload workload;
+
+		@Setup(Level.Trial)
+		public void open(Image image) throws IOException {
+			workload = Workload.load();
+			workload.open(image.image, true);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			workload.close();
+		}
+	}
+
+	@Benchmark
+	public int getInodeCold(Image image, Cold cold) {
+		return cold.workload.getInode(1 + random.nextInt(image.inodeCount));
+	}
+
+	@Benchmark
+	public int getInodeWarm(Image image, Warm warm) {
+		return warm.workload.getInode(1 + random.nextInt(image.inodeCount));
+	}
+
+	@Benchmark
+	public int getInodeFromPathCold(Image image, Cold cold) {
+		return cold.workload.getInodeFromPath(image.files[random.nextInt(image.files.length)]);
+	}
+
+	@Benchmark
+	public int getInodeFromPathWarm(Image image, Warm warm) {
+		return warm.workload.getInodeFromPath(image.files[random.nextInt(image.files.length)]);
+	}
+
+	@Benchmark
+	public int getFileInfoCold(Image image, Cold cold) {
+		return cold.workload.getFileInfo(image.directories[random.nextInt(image.directories.length)]);
+	}
+
+	@Benchmark
+	public int getFileInfoWarm(Image image, Warm warm) {
+		return warm.workload.getFileInfo(image.directories[random.nextInt(image.directories.length)]);
+	}
+}
@@ -0,0 +1,118 @@
+package bench;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author Oliver Griffiths
+ * Times reading the files under /bench, each reaching into a different pointer range, sequentially in 64KB
+ * chunks and at random in 4KB ones. Cold and warm are as in MetadataBenchmark; a cold operation finds its file
+ * before the clock starts, so only the read is timed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ReadBenchmark {
+	private static final int SEQUENTIAL_CHUNK = 64 * 1024;
+	private static final int RANDOM_CHUNK = 4096;
+
+	private final Random random = new Random(1234L);
+	private final byte[] buffer = new byte[SEQUENTIAL_CHUNK];
+	private long position = 0;
+
+	@State(Scope.Benchmark)
+	public static class BenchFile {
+		@Param({"direct", "indirect", "double", "treble"})
+		public String file;
+	}
+
+	@State(Scope.Thread)
+	public static class Cold {
+		Workload workload;
+		long start;
+
+		@Setup(Level.Invocation)
+		public void open(Image image, BenchFile bench) throws IOException {
+			workload = Workload.load();
+			workload.open(image.image, false);
+			start = workload.openFile("/bench/" + bench.file);
+		}
+
+		@TearDown(Level.Invocation)
+		public void close() throws IOException {
+			workload.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Warm {
+		Workload workload;
+		long start;
+
+		@Setup(Level.Trial)
+		public void open(Image image, BenchFile bench) throws IOException {
+			workload = Workload.load();
+			workload.open(image.image, true);
+			start = workload.openFile("/bench/" + bench.file);
+		}
+
+		@TearDown(Level.Trial)
+		public void close() throws IOException {
+			workload.close();
+		}
+	}
+
+	@Benchmark
+	public int sequentialCold(Cold cold) throws IOException {
+		return sequential(cold.workload, cold.start);
+	}
+
+	@Benchmark
+	public int sequentialWarm(Warm warm) throws IOException {
+		return sequential(warm.workload, warm.start);
+	}
+
+	@Benchmark
+	public int randomCold(Cold cold) throws IOException {
+		return random(cold.workload, cold.start);
+	}
+
+	@Benchmark
+	public int randomWarm(Warm warm) throws IOException {
+		return random(warm.workload, warm.start);
+	}
+
+	// The next chunk on from the last, going back to the start at the end of the file
+	private int sequential(Workload workload, long start) throws IOException {
+		if(position < start || position >= workload.size()) {
+			position = start;
+		}
+		int read = workload.read(position, buffer, SEQUENTIAL_CHUNK);
+		position += read;
+		return read;
+	}
+
+	private int random(Workload workload, long start) throws IOException {
+		long chunks = (workload.size() - start) / RANDOM_CHUNK;
+		long chosen = start + ((long) random.nextInt((int) Math.max(1, chunks)) * RANDOM_CHUNK);
+		return workload.read(chosen, buffer, RANDOM_CHUNK);
+	}
+}
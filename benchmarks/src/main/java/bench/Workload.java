@@ -0,0 +1,108 @@
+package bench;
+
+import java.io.IOException;
+
+/**
+ * @author Oliver Griffiths
+ * What the benchmarks do to a volume. The reader lives in the default package, which JMH won't generate code
+ * against and a named package can't refer to, so VolumeWorkload in the default package implements this and
+ * load() finds it by name, the way Tracer finds JfrTracer. Calls go through this interface to a single
+ * implementation, so the JIT inlines them and the benchmarks time the reader rather than the indirection.
+ */
+public interface Workload {
+	/**
+	 * Generates an image with ImageGenerator, with /bench holding a file in each pointer range
+	 * @param blockSize 1024, 2048 or 4096
+	 * @return The path of the image, a temporary file
+	 * @throws IOException If the image can't be written
+	 */
+	String generate(int blockSize) throws IOException;
+
+	/**
+	 * Opens an image
+	 * @param image The path of the image
+	 * @param cached Whether to read through a VolumeManager with a 256MB cache, rather than straight from the file
+	 * @throws IOException If the image can't be opened
+	 */
+	void open(String image, boolean cached) throws IOException;
+
+	/**
+	 * Closes the volume and anything caching it
+	 * @throws IOException If the image can't be closed
+	 */
+	void close() throws IOException;
+
+	/**
+	 * Returns the amount of inodes on the volume
+	 * @return Inode count
+	 */
+	int getInodeCount();
+
+	/**
+	 * Returns the directories a level down from the root, found the first time they're asked for
+	 * @return Directory paths
+	 */
+	String[] getDirectories();
+
+	/**
+	 * Returns the regular files in the directories a level down from the root, found the first time they're asked for
+	 * @return File paths
+	 */
+	String[] getFiles();
+
+	/**
+	 * Loads an inode
+	 * @param id The inode pointer
+	 * @return The mode bits of the inode
+	 */
+	int getInode(int id);
+
+	/**
+	 * Follows a path to its inode
+	 * @param path The path of the file
+	 * @return The mode bits of the inode
+	 */
+	int getInodeFromPath(String path);
+
+	/**
+	 * Lists a directory with Directory.getFileInfo
+	 * @param path The path of the directory
+	 * @return The amount of entries
+	 */
+	int getFileInfo(String path);
+
+	/**
+	 * Opens a file for read() to read from
+	 * @param path The path of the file
+	 * @return Where the file's data starts, past the hole /bench/treble begins with
+	 */
+	long openFile(String path);
+
+	/**
+	 * Returns the size of the file opened
+	 * @return Size in bytes
+	 */
+	long size();
+
+	/**
+	 * Reads from the file opened with Ext2File.read
+	 * @param position The first byte to read
+	 * @param bytes The array to read into
+	 * @param length The most bytes to read
+	 * @return The amount of bytes read
+	 * @throws IOException If the volume can't be read
+	 */
+	int read(long position, byte[] bytes, int length) throws IOException;
+
+	/**
+	 * Makes a new workload
+	 * @return The workload over the reader
+	 */
+	static Workload load() {
+		try {
+			return (Workload) Class.forName("VolumeWorkload").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("VolumeWorkload isn't on the class path", e);
+		}
+	}
+}
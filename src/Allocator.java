@@ -0,0 +1,314 @@
+import java.io.IOException;
+
+/**
+ * @author Oliver Griffiths
+ * Hands out and takes back the blocks and inodes of an EXT2 volume being written to.
+ * Blocks are given out in contiguous runs, starting from a goal block so a file carries on where it left off,
+ * and new regions are started on a fully free byte of the bitmap so files don't get threaded through small gaps.
+ *
+ * Bitmaps and the descriptor table are kept in memory once read, and only written back, together with the
+ * SuperBlock free counts, by flush(). Until then the volume's file doesn't show the allocations.
+ */
+public class Allocator {
+	private final Volume vol;
+	private final long blockSize;
+	private final long firstDataBlock;
+	private final long blockCount;
+	private final int groupBlocks;
+	private final int groupInodes;
+	private final int inodeCount;
+	private final int firstInode;
+	private final int groups;
+
+	private final byte[] descriptorTable;
+	private final GroupDescriptorView desc = new GroupDescriptorView();
+	private final byte[][] blockBitmaps;
+	private final byte[][] inodeBitmaps;
+	private final boolean[] dirtyBlockBitmaps;
+	private final boolean[] dirtyInodeBitmaps;
+	private final long[] lastAllocated; // The end of the last run handed out in each group, 0 if none yet
+	private long freeBlocks;
+	private long freeInodes;
+	private boolean dirty = false;
+
+	/**
+	 * Creates a new Allocator, reading the descriptor table of the volume
+	 * @param v The volume being written to
+	 */
+	public Allocator(Volume v) {
+		vol = v;
+		SuperBlock superBlock = v.getSuperBlock();
+		blockSize = v.getBlockSize();
+		firstDataBlock = 0xFFFFFFFFL & superBlock.getFirstDataBlock();
+		blockCount = 0xFFFFFFFFL & superBlock.getBlocks();
+		groupBlocks = superBlock.getGroupBlocks();
+		groupInodes = superBlock.getGroupInodes();
+		inodeCount = superBlock.getInodes();
+		firstInode = superBlock.getFirstInode();
+		groups = v.getGroupCount();
+		freeBlocks = 0xFFFFFFFFL & superBlock.getFreeBlocks();
+		freeInodes = 0xFFFFFFFFL & superBlock.getFreeInodes();
+
+		descriptorTable = v.readDescriptorTable();
+		blockBitmaps = new byte[groups][];
+		inodeBitmaps = new byte[groups][];
+		dirtyBlockBitmaps = new boolean[groups];
+		dirtyInodeBitmaps = new boolean[groups];
+		lastAllocated = new long[groups];
+	}
+
+	/**
+	 * Returns the block group a block belongs to
+	 * @param block The block
+	 * @return Block group
+	 */
+	public int groupOfBlock(long block) {
+		return (int) Math.min(groups - 1, Math.max(0, (block - firstDataBlock) / groupBlocks));
+	}
+
+	/**
+	 * Returns the block group an inode belongs to
+	 * @param inodePtr The inode
+	 * @return Block group
+	 */
+	public int groupOfInode(int inodePtr) {
+		return (inodePtr - 1) / groupInodes;
+	}
+
+	/**
+	 * Returns the first block of a block group
+	 * @param group The block group
+	 * @return First block
+	 */
+	public long groupStart(int group) {
+		return firstDataBlock + ((long) group * groupBlocks);
+	}
+
+	/**
+	 * Returns the block holding the start of a group's inode table, from the copy of the descriptor table in memory
+	 * @param group The block group
+	 * @return Inode table block
+	 */
+	public long getInodeTable(int group) {
+		return 0xFFFFFFFFL & desc.wrap(descriptorTable, group).getInodeTablePtr();
+	}
+
+	/**
+	 * Returns where a new file in a group should start: straight after the last blocks handed out there,
+	 * so files written one after another end up one after another on the volume
+	 * @param group The block group
+	 * @return Goal block
+	 */
+	public long newFileGoal(int group) {
+		return lastAllocated[group] != 0 ? lastAllocated[group] : groupStart(group);
+	}
+
+	/**
+	 * Allocates a run of contiguous blocks. The goal block is taken if it's free, so a file grows in place,
+	 * otherwise the run starts on a fully free byte of the goal's group, or failing that the first free block.
+	 * Later groups are tried in turn once the goal's group is full, carrying on from their own last run.
+	 * @param goal The block the run should ideally start on
+	 * @param max The most blocks wanted
+	 * @return The first block of the run and its length, which may be less than max
+	 * @throws IOException If the volume is full
+	 */
+	public long[] allocate(long goal, int max) throws IOException {
+		if(goal < firstDataBlock || goal >= blockCount) {
+			goal = firstDataBlock;
+		}
+		int start = groupOfBlock(goal);
+		for (int i = 0; i < groups; i++) {
+			int group = (start + i) % groups;
+			if(freeCount(group, true) == 0) {
+				continue;
+			}
+			byte[] bitmap = blockBitmap(group);
+			int bits = groupBlockCount(group);
+			long target = i == 0 ? goal : lastAllocated[group]; // Spilling into another group carries on from its last run
+			int from = target != 0 ? (int) (target - groupStart(group)) : 0;
+			int bit = -1;
+			if(target != 0 && from < bits && !isSet(bitmap, from)) {
+				bit = from; // Carry straight on from the goal
+			}
+			if(bit < 0) {
+				bit = freeByte(bitmap, from, bits);
+			}
+			if(bit < 0) {
+				bit = freeBit(bitmap, from, bits);
+			}
+			if(bit < 0 && from > 0) {
+				bit = freeBit(bitmap, 0, from);
+			}
+			if(bit < 0) {
+				continue;
+			}
+			int length = 0;
+			while(length < max && bit + length < bits && !isSet(bitmap, bit + length)) {
+				set(bitmap, bit + length, true);
+				length++;
+			}
+			dirtyBlockBitmaps[group] = true;
+			addFree(group, true, -length);
+			lastAllocated[group] = groupStart(group) + bit + length;
+			return new long[] {groupStart(group) + bit, length};
+		}
+		throw new IOException("No free blocks left on the volume");
+	}
+
+	/**
+	 * Gives a block back
+	 * @param block The block to free
+	 */
+	public void free(long block) {
+		int group = groupOfBlock(block);
+		byte[] bitmap = blockBitmap(group);
+		int bit = (int) (block - groupStart(group));
+		if(isSet(bitmap, bit)) {
+			set(bitmap, bit, false);
+			dirtyBlockBitmaps[group] = true;
+			addFree(group, true, 1);
+		}
+	}
+
+	/**
+	 * Allocates an inode. Files go in the group of their directory if they can, so they end up near
+	 * each other, while directories go in the group with the most free blocks, so they spread out.
+	 * @param parentGroup The group of the directory the inode will be linked into
+	 * @param directory Whether the inode is for a directory
+	 * @return The inode pointer
+	 * @throws IOException If there are no free inodes left
+	 */
+	public int allocateInode(int parentGroup, boolean directory) throws IOException {
+		int start = parentGroup;
+		if(directory) {
+			for (int group = 0; group < groups; group++) {
+				if(freeCount(group, false) > 0 && freeCount(group, true) > freeCount(start, true)) {
+					start = group;
+				}
+			}
+		}
+		for (int i = 0; i < groups; i++) {
+			int group = (start + i) % groups;
+			if(freeCount(group, false) == 0) {
+				continue;
+			}
+			byte[] bitmap = inodeBitmap(group);
+			int first = group == 0 ? firstInode - 1 : 0; // Reserved inodes are never handed out
+			int bits = (int) Math.min(groupInodes, inodeCount - ((long) group * groupInodes));
+			int bit = freeBit(bitmap, first, bits);
+			if(bit < 0) {
+				continue;
+			}
+			set(bitmap, bit, true);
+			dirtyInodeBitmaps[group] = true;
+			addFree(group, false, -1);
+			if(directory) {
+				desc.wrap(descriptorTable, group).setUsedDirs((desc.getUsedDirs() & 0xFFFF) + 1);
+			}
+			return (group * groupInodes) + bit + 1;
+		}
+		throw new IOException("No free inodes left on the volume");
+	}
+
+	/**
+	 * Writes the changed bitmaps, the descriptor table and the SuperBlock free counts back to the volume
+	 * @param largeFile Whether a file has grown past 2GB, so the SuperBlock has to say large files are in use
+	 * @throws IOException If the volume can't be written
+	 */
+	public void flush(boolean largeFile) throws IOException {
+		if(!dirty && !largeFile) {
+			return;
+		}
+		for (int group = 0; group < groups; group++) {
+			if(dirtyBlockBitmaps[group]) {
+				vol.writeBlock(0xFFFFFFFFL & desc.wrap(descriptorTable, group).getBlockBitmapPtr(), blockBitmaps[group]);
+				dirtyBlockBitmaps[group] = false;
+			}
+			if(dirtyInodeBitmaps[group]) {
+				vol.writeBlock(0xFFFFFFFFL & desc.wrap(descriptorTable, group).getInodeBitmapPtr(), inodeBitmaps[group]);
+				dirtyInodeBitmaps[group] = false;
+			}
+		}
+		vol.writeBytes((firstDataBlock + 1) * blockSize, descriptorTable, 0, descriptorTable.length);
+
+		byte[] superBlock = vol.getBytes(1024, 2048);
+		SuperBlockView view = new SuperBlockView().wrap(superBlock, 0);
+		view.setFreeBlocks((int) freeBlocks);
+		view.setFreeInodes((int) freeInodes);
+		view.setWriteSeconds(System.currentTimeMillis() / 1000);
+		if(largeFile) {
+			view.setRoCompatFeatures(view.getRoCompatFeatures() | SuperBlock.RO_COMPAT_LARGE_FILE);
+		}
+		vol.writeBytes(1024, superBlock, 0, superBlock.length);
+		dirty = false;
+	}
+
+	private int freeCount(int group, boolean blocks) {
+		desc.wrap(descriptorTable, group);
+		return (blocks ? desc.getFreeBlocks() : desc.getFreeInodes()) & 0xFFFF;
+	}
+
+	private void addFree(int group, boolean blocks, int change) {
+		desc.wrap(descriptorTable, group);
+		if(blocks) {
+			desc.setFreeBlocks((desc.getFreeBlocks() & 0xFFFF) + change);
+			freeBlocks += change;
+		} else {
+			desc.setFreeInodes((desc.getFreeInodes() & 0xFFFF) + change);
+			freeInodes += change;
+		}
+		dirty = true;
+	}
+
+	// The last group is usually cut short by the end of the volume
+	private int groupBlockCount(int group) {
+		return (int) Math.min(groupBlocks, blockCount - groupStart(group));
+	}
+
+	private byte[] blockBitmap(int group) {
+		if(blockBitmaps[group] == null) {
+			blockBitmaps[group] = vol.readBlock(0xFFFFFFFFL & desc.wrap(descriptorTable, group).getBlockBitmapPtr());
+		}
+		return blockBitmaps[group];
+	}
+
+	private byte[] inodeBitmap(int group) {
+		if(inodeBitmaps[group] == null) {
+			inodeBitmaps[group] = vol.readBlock(0xFFFFFFFFL & desc.wrap(descriptorTable, group).getInodeBitmapPtr());
+		}
+		return inodeBitmaps[group];
+	}
+
+	// The first bit of a completely free byte at or after from, so a new run has room to grow
+	private static int freeByte(byte[] bitmap, int from, int bits) {
+		for (int i = (from + 7) / 8; (i + 1) * 8 <= bits; i++) {
+			if(bitmap[i] == 0) {
+				return i * 8;
+			}
+		}
+		return -1;
+	}
+
+	private static int freeBit(byte[] bitmap, int from, int bits) {
+		for (int i = from; i < bits; i++) {
+			if(bitmap[i / 8] == (byte) 0xFF) {
+				i = (i / 8) * 8 + 7; // Skip full bytes
+			} else if(!isSet(bitmap, i)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isSet(byte[] bitmap, int bit) {
+		return (bitmap[bit / 8] & (1 << (bit % 8))) != 0;
+	}
+
+	private static void set(byte[] bitmap, int bit, boolean used) {
+		if(used) {
+			bitmap[bit / 8] |= 1 << (bit % 8);
+		} else {
+			bitmap[bit / 8] &= ~(1 << (bit % 8));
+		}
+	}
+}
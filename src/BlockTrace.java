@@ -0,0 +1,210 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Oliver Griffiths
+ * Records every block a volume reads to a trace file, tagged with what the block holds, for replaying offline
+ * against cache policies with TraceReplay. Start one with Volume.startTrace().
+ *
+ * After a header of the magic number, version and block size, each access is one varint holding the distance
+ * from the block before, zigzag encoded, shifted past a three bit type. Reading through a file costs a byte a block.
+ * Reads whose type the volume doesn't know are told apart by where they are: the SuperBlock copies, descriptor
+ * tables, bitmaps and inode tables are found from the descriptors when the trace starts, and anything else is data.
+ */
+public class BlockTrace {
+	public static final int MAGIC = 0x45324254; // "E2BT"
+	public static final int TYPE_SUPERBLOCK = 0;
+	public static final int TYPE_DESCRIPTOR = 1;
+	public static final int TYPE_BITMAP = 2;
+	public static final int TYPE_INODE_TABLE = 3;
+	public static final int TYPE_INDIRECT = 4;
+	public static final int TYPE_DIRECTORY = 5;
+	public static final int TYPE_DATA = 6;
+	public static final String[] TYPE_NAMES = {"superblock", "descriptor", "bitmap", "inode table", "indirect", "directory", "data"};
+	private static final int VERSION = 1;
+
+	private final DataOutputStream out;
+	private final long blockSize;
+	private final long[] metadataStarts; // Sorted starts of the stretches of metadata blocks
+	private final long[] metadataEnds;
+	private final int[] metadataTypes;
+	private long previous = 0;
+	private long accesses = 0;
+
+	/**
+	 * Creates a new BlockTrace, writing the header straight away
+	 * @param vol The volume being traced, whose layout tells untyped reads apart
+	 * @param path The path of the trace file, replaced if it exists
+	 * @throws IOException If the trace file can't be written
+	 */
+	public BlockTrace(Volume vol, String path) throws IOException {
+		blockSize = vol.getBlockSize();
+		SuperBlock superBlock = vol.getSuperBlock();
+		long firstDataBlock = 0xFFFFFFFFL & superBlock.getFirstDataBlock();
+		int groups = vol.getGroupCount();
+		long descriptorBlocks = ((groups * (long) superBlock.getDescriptorSize()) + blockSize - 1) / blockSize + superBlock.getReservedGdtBlocks();
+		long tableBlocks = ((superBlock.getGroupInodes() * (long) superBlock.getInodeSize()) + blockSize - 1) / blockSize;
+		boolean sparse = (superBlock.getRoCompatFeatures() & SuperBlock.RO_COMPAT_SPARSE_SUPER) != 0;
+
+		List<long[]> stretches = new ArrayList<long[]>(); // Start, end and type of each stretch of metadata
+		stretches.add(new long[] {0, firstDataBlock + 1, TYPE_SUPERBLOCK}); // The boot block goes with the SuperBlock
+		stretches.add(new long[] {firstDataBlock + 1, firstDataBlock + 1 + descriptorBlocks, TYPE_DESCRIPTOR});
+		GroupDescriptorView descriptor = new GroupDescriptorView();
+		byte[] table = vol.readDescriptorTable();
+		for (int group = 0; group < groups; group++) {
+			long start = firstDataBlock + ((long) group * superBlock.getGroupBlocks());
+			if(group > 0 && (!sparse || group == 1 || isPower(group, 3) || isPower(group, 5) || isPower(group, 7))) {
+				stretches.add(new long[] {start, start + 1, TYPE_SUPERBLOCK});
+				stretches.add(new long[] {start + 1, start + 1 + descriptorBlocks, TYPE_DESCRIPTOR});
+			}
+			descriptor.wrap(table, group);
+			long blockBitmap = 0xFFFFFFFFL & descriptor.getBlockBitmapPtr();
+			long inodeBitmap = 0xFFFFFFFFL & descriptor.getInodeBitmapPtr();
+			long inodeTable = 0xFFFFFFFFL & descriptor.getInodeTablePtr();
+			stretches.add(new long[] {blockBitmap, blockBitmap + 1, TYPE_BITMAP});
+			stretches.add(new long[] {inodeBitmap, inodeBitmap + 1, TYPE_BITMAP});
+			stretches.add(new long[] {inodeTable, inodeTable + tableBlocks, TYPE_INODE_TABLE});
+		}
+		stretches.sort((a, b) -> Long.compare(a[0], b[0]));
+		metadataStarts = new long[stretches.size()];
+		metadataEnds = new long[stretches.size()];
+		metadataTypes = new int[stretches.size()];
+		for (int i = 0; i < stretches.size(); i++) {
+			metadataStarts[i] = stretches.get(i)[0];
+			metadataEnds[i] = stretches.get(i)[1];
+			metadataTypes[i] = (int) stretches.get(i)[2];
+		}
+
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 64 * 1024));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt((int) blockSize);
+	}
+
+	/**
+	 * Records a read of a range of bytes, as an access to every block it touches
+	 * @param start The first byte read
+	 * @param end The byte after the last one read
+	 * @param type What the bytes hold, or -1 to tell by where they are
+	 */
+	public synchronized void record(long start, long end, int type) {
+		if(end <= start) {
+			return;
+		}
+		try {
+			for (long block = start / blockSize; block <= (end - 1) / blockSize; block++) {
+				long delta = block - previous;
+				long zigzag = (delta << 1) ^ (delta >> 63);
+				writeVarint((zigzag << 3) | (type < 0 ? typeOf(block) : type));
+				previous = block;
+				accesses++;
+			}
+		} catch (IOException e) {
+			System.out.println("IO Exception: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the amount of block accesses recorded so far
+	 * @return Access count
+	 */
+	public synchronized long getAccesses() {
+		return accesses;
+	}
+
+	/**
+	 * Writes out anything buffered and closes the trace file
+	 * @throws IOException If the trace file can't be written
+	 */
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Reads a trace file, handing every access to a visitor in order
+	 * @param path The path of the trace file
+	 * @param visitor Receives the accesses
+	 * @return The block size of the traced volume
+	 * @throws IOException If the file can't be read or isn't a trace
+	 */
+	public static int read(String path, TraceVisitor visitor) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 64 * 1024))) {
+			if(in.readInt() != MAGIC) {
+				throw new IOException(path + " isn't a block trace");
+			}
+			int version = in.readInt();
+			if(version != VERSION) {
+				throw new IOException(path + " is a version " + version + " trace, only version " + VERSION + " can be read");
+			}
+			int size = in.readInt();
+			long block = 0;
+			while(true) {
+				long value = readVarint(in);
+				if(value < 0) {
+					return size;
+				}
+				long zigzag = value >>> 3;
+				block += (zigzag >>> 1) ^ -(zigzag & 1);
+				visitor.access(block, (int) (value & 7));
+			}
+		}
+	}
+
+	// Where the block falls among the metadata, or data if it's in none of it
+	private int typeOf(long block) {
+		int low = 0;
+		int high = metadataStarts.length - 1;
+		while(low <= high) { // The last stretch starting at or before the block
+			int middle = (low + high) >>> 1;
+			if(metadataStarts[middle] <= block) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return high >= 0 && block < metadataEnds[high] ? metadataTypes[high] : TYPE_DATA;
+	}
+
+	private void writeVarint(long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	// The next varint, or -1 at the end of the trace
+	private static long readVarint(InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int next = in.read();
+			if(next < 0) {
+				if(shift == 0) {
+					return -1;
+				}
+				throw new EOFException("Trace ends part way through an access");
+			}
+			value |= (long) (next & 0x7F) << shift;
+			if((next & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt access in trace");
+	}
+
+	private static boolean isPower(int number, int base) {
+		while(number % base == 0) {
+			number = number / base;
+		}
+		return number == 1;
+	}
+}
@@ -0,0 +1,31 @@
+/**
+ * @author Oliver Griffiths
+ * Receives the blocks of a file as a Volume walks its block pointers
+ */
+public interface BlockVisitor {
+	/**
+	 * Called for every allocated data block of the file, in logical order
+	 * @param logical The position of the block within the file
+	 * @param physical Pointer to the block on the volume
+	 */
+	void dataBlock(long logical, int physical);
+
+	/**
+	 * Called for every indirect pointer table, or extent tree node below the inode, before its pointers are followed
+	 * @param physical Pointer to the table's block on the volume
+	 * @param level 1 for indirect, 2 for double indirect and 3 for treble indirect tables.
+	 * An extent tree node's level is its height above the data, 1 for a node of extents.
+	 * @return Whether the pointers in the table should be followed
+	 */
+	default boolean indirectBlock(int physical, int level) {
+		return true;
+	}
+
+	/**
+	 * Called for every block of an unwritten extent, which is allocated but reads as zeros, so isn't a data block
+	 * @param logical The position of the block within the file
+	 * @param physical Pointer to the block on the volume
+	 */
+	default void unwrittenBlock(long logical, int physical) {
+	}
+}
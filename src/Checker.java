@@ -0,0 +1,311 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * @author Oliver Griffiths
+ * A read-only consistency checker for an EXT2 volume, in the spirit of fsck.
+ * Block groups are scanned in parallel, in a single pass over the metadata.
+ * The ext4 features the rest of the library reads are understood too: extents, 64 bit descriptors,
+ * flexible block groups, and the uninitialised groups and inode tables that come with descriptor checksums.
+ * Volumes with any other incompatible feature aren't checked.
+ */
+public class Checker {
+	private final Volume vol;
+	private final SuperBlock superBlock;
+	private final long blockSize;
+	private final long firstDataBlock;
+	private final long blockCount;
+	private final int groupBlocks;
+	private final int groupInodes;
+	private final int inodeCount;
+	private final int inodeSize;
+	private final int groups;
+	private final int descriptorBlocks;
+	private final boolean uninitGroups; // Whether the descriptors' flags and unused inode counts are kept
+
+	private final int ROOT_INODE_PTR = 2;
+	private static final int SUPPORTED_INCOMPAT = SuperBlock.INCOMPAT_FILETYPE | SuperBlock.INCOMPAT_EXTENTS
+		| SuperBlock.INCOMPAT_64BIT | SuperBlock.INCOMPAT_FLEX_BG;
+
+	private ConcurrentBitSet claimed; // Blocks reached from the group metadata and the inodes
+	private ConcurrentBitSet liveInodes; // Inodes in use according to the inode tables
+	private AtomicIntegerArray references; // Directory entries pointing at each inode
+	private int[] linkCounts;
+	private byte[] descriptorTable;
+	private byte[][] blockBitmaps;
+	private byte[][] inodeBitmaps;
+	private int[] directories;
+	private List<String> problems;
+
+	/**
+	 * Creates a new Checker for a volume
+	 * @param v The volume to be checked
+	 */
+	public Checker(Volume v) {
+		vol = v;
+		superBlock = v.getSuperBlock();
+		blockSize = v.getBlockSize();
+		firstDataBlock = 0xFFFFFFFFL & superBlock.getFirstDataBlock();
+		blockCount = 0xFFFFFFFFL & superBlock.getBlocks();
+		groupBlocks = superBlock.getGroupBlocks();
+		groupInodes = superBlock.getGroupInodes();
+		inodeCount = superBlock.getInodes();
+		inodeSize = superBlock.getInodeSize();
+		groups = v.getGroupCount();
+		descriptorBlocks = (int) (((long) groups * superBlock.getDescriptorSize() + blockSize - 1) / blockSize);
+		uninitGroups = (superBlock.getRoCompatFeatures() & (SuperBlock.RO_COMPAT_GDT_CSUM | SuperBlock.RO_COMPAT_METADATA_CSUM)) != 0;
+	}
+
+	/**
+	 * Checks the volume, cross-checking the bitmaps, descriptor free counts and link counts
+	 * against the inodes and blocks actually in use.
+	 * @return A description of every problem found, empty if the volume is consistent
+	 */
+	public List<String> check() {
+		int unsupported = superBlock.getIncompatFeatures() & ~SUPPORTED_INCOMPAT;
+		if(unsupported != 0) {
+			return Collections.singletonList("SuperBlock: can't check a volume with incompatible features 0x" + Integer.toHexString(unsupported));
+		}
+		claimed = new ConcurrentBitSet(blockCount);
+		liveInodes = new ConcurrentBitSet(inodeCount + 1L);
+		references = new AtomicIntegerArray(inodeCount + 1);
+		linkCounts = new int[inodeCount + 1];
+		descriptorTable = vol.readDescriptorTable();
+		blockBitmaps = new byte[groups][];
+		inodeBitmaps = new byte[groups][];
+		directories = new int[groups];
+		problems = Collections.synchronizedList(new ArrayList<String>());
+
+		IntStream.range(0, groups).parallel().forEach(this::scanGroup); // Every claim has to be in before the bitmaps can be compared
+		IntStream.range(0, groups).parallel().forEach(this::checkGroup);
+		checkTotals();
+
+		List<String> sorted = new ArrayList<String>(problems);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	// Claims the group's metadata, then reads its inode table in one go and claims the blocks of every live inode
+	private void scanGroup(int group) {
+		GroupDescriptorView desc = new GroupDescriptorView().wrap(descriptorTable, group);
+		String owner = "Group " + group + " metadata";
+
+		long start = firstDataBlock + ((long) group * groupBlocks);
+		if(hasSuperBlockCopy(group)) {
+			for (long b = start; b <= start + descriptorBlocks; b++) { // SuperBlock followed by the Descriptor Table
+				claim(b, owner);
+			}
+		}
+		claim(0xFFFFFFFFL & desc.getBlockBitmapPtr(), owner);
+		claim(0xFFFFFFFFL & desc.getInodeBitmapPtr(), owner);
+		int tableBlocks = (int) (((long) groupInodes * inodeSize + blockSize - 1) / blockSize);
+		for (int i = 0; i < tableBlocks; i++) {
+			claim((0xFFFFFFFFL & desc.getInodeTablePtr()) + i, owner);
+		}
+
+		int flags = uninitGroups ? desc.getFlags() : 0;
+		if((flags & GroupDescriptorView.BLOCK_UNINIT) == 0) { // Otherwise the bitmap was never written
+			blockBitmaps[group] = vol.readBlock(0xFFFFFFFFL & desc.getBlockBitmapPtr());
+		}
+		if((flags & GroupDescriptorView.INODE_UNINIT) != 0) { // Nothing to read, every inode is free
+			return;
+		}
+		inodeBitmaps[group] = vol.readBlock(0xFFFFFFFFL & desc.getInodeBitmapPtr());
+		byte[] table = vol.readInodeTable(group);
+
+		InodeView inode = new InodeView(); // Moved along the table rather than copying every inode out
+		DirectoryEntryView entryView = new DirectoryEntryView();
+		int usedInodes = groupInodes - (uninitGroups ? desc.getUnusedInodes() : 0); // The rest of the table may never have been zeroed
+		for (int i = 0; i < usedInodes; i++) {
+			final int id = (group * groupInodes) + i + 1;
+			if(id > inodeCount) {
+				break;
+			}
+			inode.wrap(table, i * inodeSize);
+			linkCounts[id] = inode.getHardLinks() & 0xFFFF;
+			if(inode.getHardLinks() == 0 || inode.getModeBits() == 0) { // Free inode
+				continue;
+			}
+			liveInodes.set(id);
+			if(inode.isDirectory()) {
+				directories[group]++;
+			}
+			scanInode(id, inode, entryView);
+		}
+	}
+
+	// Claims every block of an inode, reading the entries of directories along the way
+	private void scanInode(final int id, InodeView inode, final DirectoryEntryView entryView) {
+		final String owner = "Inode " + id;
+		final boolean directory = inode.isDirectory();
+		vol.walkBlocks(inode, new BlockVisitor() {
+			public void dataBlock(long logical, int physical) {
+				long block = 0xFFFFFFFFL & physical;
+				if(claim(block, owner) && directory) {
+					Directory.parseEntries(vol.readBlock(block), entryView, new EntryViewVisitor() {
+						public boolean entry(DirectoryEntryView entry) {
+							int inodePtr = entry.getInodePtr();
+							if(inodePtr < 1 || inodePtr > inodeCount) {
+								problems.add(owner + ": entry '" + entry.getName() + "' points at invalid inode " + (0xFFFFFFFFL & inodePtr));
+							} else {
+								references.incrementAndGet(inodePtr);
+							}
+							return true;
+						}
+					});
+				}
+			}
+
+			public boolean indirectBlock(int physical, int level) {
+				return claim(0xFFFFFFFFL & physical, owner); // Don't follow tables that are out of range or already in use
+			}
+
+			public void unwrittenBlock(long logical, int physical) {
+				claim(0xFFFFFFFFL & physical, owner);
+			}
+		});
+	}
+
+	// Marks a block as in use, reporting blocks outside the volume and blocks that are already in use
+	private boolean claim(long block, String owner) {
+		if(block < firstDataBlock || block >= blockCount) {
+			problems.add(owner + ": illegal block " + block);
+			return false;
+		}
+		if(!claimed.set(block)) {
+			problems.add(owner + ": block " + block + " is claimed more than once");
+			return false;
+		}
+		return true;
+	}
+
+	// Compares the group's bitmaps and descriptor against what the scan found, and the link counts of its inodes
+	private void checkGroup(int group) {
+		GroupDescriptorView desc = new GroupDescriptorView().wrap(descriptorTable, group);
+		String name = "Group " + group;
+
+		long start = firstDataBlock + ((long) group * groupBlocks);
+		int blocksInGroup = (int) Math.min(groupBlocks, blockCount - start);
+		if(blockBitmaps[group] == null) { // BLOCK_UNINIT, the free count is all there is and it's worked out from the layout
+			blocksInGroup = 0;
+		}
+		Runs usedButFree = new Runs(name + ": blocks in use but marked free");
+		Runs freeButUsed = new Runs(name + ": blocks marked in use but not used");
+		int freeBlocks = 0;
+		for (int i = 0; i < blocksInGroup; i++) {
+			boolean marked = isSet(blockBitmaps[group], i);
+			boolean used = claimed.get(start + i);
+			if(!marked) {
+				freeBlocks++;
+			}
+			usedButFree.add(used && !marked, start + i);
+			freeButUsed.add(marked && !used, start + i);
+		}
+		usedButFree.flush();
+		freeButUsed.flush();
+		if(blockBitmaps[group] != null && freeBlocks != (desc.getFreeBlocks() & 0xFFFF)) {
+			problems.add(name + ": descriptor free block count " + (desc.getFreeBlocks() & 0xFFFF) + " should be " + freeBlocks);
+		}
+
+		Runs liveButFree = new Runs(name + ": inodes in use but marked free");
+		Runs freeButLive = new Runs(name + ": inodes marked in use but not used");
+		int freeInodes = 0;
+		for (int i = 0; i < groupInodes; i++) {
+			int id = (group * groupInodes) + i + 1;
+			if(id > inodeCount) {
+				break;
+			}
+			boolean marked = inodeBitmaps[group] != null && isSet(inodeBitmaps[group], i); // INODE_UNINIT groups have no bitmap and no inodes in use
+			boolean live = liveInodes.get(id);
+			if(!marked) {
+				freeInodes++;
+			}
+			boolean reserved = id < superBlock.getFirstInode() && id != ROOT_INODE_PTR; // Reserved inodes are always marked
+			liveButFree.add(live && !marked, id);
+			freeButLive.add(marked && !live && !reserved, id);
+
+			int refs = references.get(id);
+			if(live && !reserved && refs != linkCounts[id]) {
+				problems.add("Inode " + id + ": link count " + linkCounts[id] + " should be " + refs);
+			} else if(!live && refs > 0) {
+				problems.add("Inode " + id + ": free but referenced by " + refs + " directory entries");
+			}
+		}
+		liveButFree.flush();
+		freeButLive.flush();
+		if(freeInodes != (desc.getFreeInodes() & 0xFFFF)) {
+			problems.add(name + ": descriptor free inode count " + (desc.getFreeInodes() & 0xFFFF) + " should be " + freeInodes);
+		}
+		if(directories[group] != (desc.getUsedDirs() & 0xFFFF)) {
+			problems.add(name + ": descriptor directory count " + (desc.getUsedDirs() & 0xFFFF) + " should be " + directories[group]);
+		}
+	}
+
+	// Compares the SuperBlock free counts against the sums of the descriptors
+	private void checkTotals() {
+		long freeBlocks = 0;
+		long freeInodes = 0;
+		GroupDescriptorView desc = new GroupDescriptorView();
+		for (int i = 0; i < groups; i++) {
+			freeBlocks += desc.wrap(descriptorTable, i).getFreeBlocks() & 0xFFFF;
+			freeInodes += desc.getFreeInodes() & 0xFFFF;
+		}
+		if(freeBlocks != (0xFFFFFFFFL & superBlock.getFreeBlocks())) {
+			problems.add("SuperBlock: free block count " + (0xFFFFFFFFL & superBlock.getFreeBlocks()) + " should be " + freeBlocks);
+		}
+		if(freeInodes != (0xFFFFFFFFL & superBlock.getFreeInodes())) {
+			problems.add("SuperBlock: free inode count " + (0xFFFFFFFFL & superBlock.getFreeInodes()) + " should be " + freeInodes);
+		}
+	}
+
+	// Groups 0 and 1 and powers of 3, 5 and 7 keep a copy of the SuperBlock when sparse superblocks are on, otherwise all do
+	private boolean hasSuperBlockCopy(int group) {
+		if(group <= 1 || (superBlock.getRoCompatFeatures() & SuperBlock.RO_COMPAT_SPARSE_SUPER) == 0) {
+			return true;
+		}
+		return isPower(group, 3) || isPower(group, 5) || isPower(group, 7);
+	}
+
+	private static boolean isPower(int number, int base) {
+		while(number % base == 0) {
+			number = number / base;
+		}
+		return number == 1;
+	}
+
+	private static boolean isSet(byte[] bitmap, int bit) {
+		return (bitmap[bit >>> 3] & (1 << (bit & 7))) != 0;
+	}
+
+	// Collects consecutive numbers into ranges, so a damaged bitmap produces one line per run instead of one per bit
+	private class Runs {
+		private final String label;
+		private long first = -1;
+		private long last = -1;
+
+		Runs(String label) {
+			this.label = label;
+		}
+
+		void add(boolean member, long number) {
+			if(member && first >= 0 && number == last + 1) {
+				last = number;
+			} else if(member) {
+				flush();
+				first = number;
+				last = number;
+			}
+		}
+
+		void flush() {
+			if(first >= 0) {
+				problems.add(label + " " + (first == last ? Long.toString(first) : first + "-" + last));
+			}
+			first = -1;
+		}
+	}
+}
@@ -0,0 +1,240 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * @author Oliver Griffiths
+ * Copies an EXT2 volume block for block, but only the blocks the block bitmaps mark as allocated.
+ * Allocated runs are copied channel to channel, one block group per task.
+ *
+ * A clone is either a sparse image, with free blocks left as holes, or a compact image laid out as:
+ * the magic number "E2CL", a format version, the block size, the total amount of blocks and the amount
+ * of runs, then a (start block, block count) index entry for every run, then the data of the runs back to back.
+ */
+public class Cloner {
+	private final Volume vol;
+	private final long blockSize;
+	private final long firstDataBlock;
+	private final long blockCount;
+	private final int groupBlocks;
+	private final boolean uninitGroups; // Whether groups can be flagged as never initialised
+
+	/**
+	 * Magic number at the start of a compact clone
+	 */
+	public static final int COMPACT_MAGIC = 0x4532434C;
+	private static final int COMPACT_VERSION = 1;
+
+	/**
+	 * Creates a new Cloner for a volume
+	 * @param v The volume to be cloned
+	 */
+	public Cloner(Volume v) {
+		vol = v;
+		SuperBlock superBlock = v.getSuperBlock();
+		blockSize = v.getBlockSize();
+		firstDataBlock = 0xFFFFFFFFL & superBlock.getFirstDataBlock();
+		blockCount = 0xFFFFFFFFL & superBlock.getBlocks();
+		groupBlocks = superBlock.getGroupBlocks();
+		uninitGroups = (superBlock.getRoCompatFeatures() & (SuperBlock.RO_COMPAT_GDT_CSUM | SuperBlock.RO_COMPAT_METADATA_CSUM)) != 0;
+	}
+
+	/**
+	 * Finds the runs of allocated blocks in every block group, read from the group's block bitmap.
+	 * Blocks ahead of the first block group, such as the boot block, are always included.
+	 * A group flagged as never initialised has no bitmap to read, and only its metadata is allocated:
+	 * any SuperBlock and descriptor table copy, and whichever groups' bitmaps and inode tables lie within it.
+	 * @return For every block group, its runs as {start block, block count} pairs
+	 */
+	public List<List<long[]>> getRuns() {
+		final int groups = vol.getGroupCount();
+		final byte[] table = vol.readDescriptorTable();
+		final List<List<long[]>> runs = new ArrayList<List<long[]>>();
+		for (int i = 0; i < groups; i++) {
+			runs.add(null);
+		}
+		final GroupLayout layout = uninitGroups ? new GroupLayout(vol, table) : null;
+		IntStream.range(0, groups).parallel().forEach(group -> {
+			GroupDescriptorView desc = new GroupDescriptorView().wrap(table, group);
+			if(uninitGroups && (desc.getFlags() & GroupDescriptorView.BLOCK_UNINIT) != 0) {
+				runs.set(group, layout.metadataRuns(group));
+			} else {
+				runs.set(group, groupRuns(group, desc));
+			}
+		});
+		if(firstDataBlock > 0) {
+			runs.get(0).add(0, new long[] {0, firstDataBlock});
+		}
+		return runs;
+	}
+
+	/**
+	 * Clones the volume into a sparse image the same size as the original, free blocks left as holes
+	 * @param target The path of the new image
+	 * @return The amount of bytes copied
+	 * @throws IOException If the volume can't be read or the image can't be written
+	 */
+	public long cloneSparse(String target) throws IOException {
+		List<List<long[]>> runs = getRuns();
+		try (RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+			out.setLength(0); // Drop anything left from an earlier file, so the gaps become holes
+			out.setLength(blockCount * blockSize);
+			return copyRuns(runs, out.getChannel(), null);
+		}
+	}
+
+	/**
+	 * Clones the volume into a compact image holding only the allocated blocks and an index of where they go
+	 * @param target The path of the new image
+	 * @return The amount of bytes copied, not counting the index
+	 * @throws IOException If the volume can't be read or the image can't be written
+	 */
+	public long cloneCompact(String target) throws IOException {
+		List<List<long[]>> runs = getRuns();
+		int runCount = 0;
+		for (List<long[]> group : runs) {
+			runCount += group.size();
+		}
+
+		ByteArrayOutputStream index = new ByteArrayOutputStream();
+		DataOutputStream header = new DataOutputStream(index);
+		header.writeInt(COMPACT_MAGIC);
+		header.writeInt(COMPACT_VERSION);
+		header.writeInt((int) blockSize);
+		header.writeLong(blockCount);
+		header.writeInt(runCount);
+		long[] offsets = new long[runs.size()]; // Where each group's data starts in the clone
+		long offset = 24 + (16L * runCount);
+		for (int i = 0; i < runs.size(); i++) {
+			offsets[i] = offset;
+			for (long[] run : runs.get(i)) {
+				header.writeLong(run[0]);
+				header.writeLong(run[1]);
+				offset += run[1] * blockSize;
+			}
+		}
+
+		try (RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+			out.setLength(0);
+			out.setLength(offset); // Transfers can't start past the end of the file, so make room for every group first
+			out.write(index.toByteArray());
+			return copyRuns(runs, out.getChannel(), offsets);
+		}
+	}
+
+	/**
+	 * Expands a compact clone back into a sparse image the original size
+	 * @param source The path of the compact clone
+	 * @param target The path of the new image
+	 * @throws IOException If the clone isn't a valid compact image or the image can't be written
+	 */
+	public static void restoreCompact(String source, String target) throws IOException {
+		try (DataInputStream header = new DataInputStream(new BufferedInputStream(new FileInputStream(source)));
+			FileChannel in = new FileInputStream(source).getChannel();
+			RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+			if(header.readInt() != COMPACT_MAGIC || header.readInt() != COMPACT_VERSION) {
+				throw new IOException(source + " is not a compact clone");
+			}
+			long size = header.readInt();
+			long blocks = header.readLong();
+			int runCount = header.readInt();
+			out.setLength(0);
+			out.setLength(blocks * size);
+
+			FileChannel channel = out.getChannel();
+			in.position(24 + (16L * runCount));
+			for (int i = 0; i < runCount; i++) { // The data follows the index in the same order, so it can be read straight through
+				long start = header.readLong();
+				long length = header.readLong();
+				transfer(in, channel, start * size, length * size);
+			}
+		}
+	}
+
+	// Copies every group's runs on its own task. Runs go to their own place in the target, or one after another from the group's offset.
+	private long copyRuns(final List<List<long[]>> runs, final FileChannel target, final long[] offsets) throws IOException {
+		final boolean raw = vol.getStorage() instanceof FileStorage;
+		try {
+			return IntStream.range(0, runs.size()).parallel().mapToLong(group -> {
+				long copied = 0;
+				// Own channel, as transfers move its position. Images that aren't raw files are read through the volume instead.
+				try (FileChannel in = raw ? new FileInputStream(vol.getVolumeName()).getChannel() : null) {
+					long position = offsets == null ? 0 : offsets[group];
+					for (long[] run : runs.get(group)) {
+						long length = run[1] * blockSize;
+						long to = offsets == null ? run[0] * blockSize : position;
+						if(in != null) {
+							in.position(run[0] * blockSize);
+							transfer(in, target, to, length);
+						} else {
+							copyThroughVolume(run[0], run[1], target, to);
+						}
+						position += length;
+						copied += length;
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return copied;
+			}).sum();
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	// Reads a run through the volume a stretch at a time, for images such as compressed ones that can't be transferred from directly
+	private void copyThroughVolume(long block, long count, FileChannel target, long position) throws IOException {
+		int stretch = (int) Math.max(1, (1024 * 1024) / blockSize);
+		for (long done = 0; done < count; done += stretch) {
+			int blocks = (int) Math.min(stretch, count - done);
+			ByteBuffer buffer = ByteBuffer.wrap(vol.readBlocks(block + done, blocks));
+			long at = position + (done * blockSize);
+			while(buffer.hasRemaining()) {
+				target.write(buffer, at + buffer.position());
+			}
+		}
+	}
+
+	// Moves bytes from the source's current position to a place in the target without copying them through the heap
+	private static void transfer(FileChannel in, FileChannel out, long position, long length) throws IOException {
+		long done = 0;
+		while(done < length) {
+			long moved = out.transferFrom(in, position + done, length - done);
+			if(moved <= 0) {
+				throw new IOException("Unexpected end of file at byte " + in.position());
+			}
+			done += moved;
+		}
+	}
+
+	// Collects consecutive set bits of the group's block bitmap into runs
+	private List<long[]> groupRuns(int group, GroupDescriptorView desc) {
+		byte[] bitmap = vol.readBlock(0xFFFFFFFFL & desc.getBlockBitmapPtr());
+		long start = firstDataBlock + ((long) group * groupBlocks);
+		int blocksInGroup = (int) Math.min(groupBlocks, blockCount - start);
+
+		List<long[]> runs = new ArrayList<long[]>();
+		long[] run = null;
+		for (int i = 0; i < blocksInGroup; i++) {
+			if((bitmap[i >>> 3] & (1 << (i & 7))) == 0) {
+				run = null;
+			} else if(run == null) {
+				run = new long[] {start + i, 1};
+				runs.add(run);
+			} else {
+				run[1]++;
+			}
+		}
+		return runs;
+	}
+}
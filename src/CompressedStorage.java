@@ -0,0 +1,333 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author Oliver Griffiths
+ * Storage for an image kept as fixed size chunks, each deflated on its own, so any byte can be reached
+ * by inflating just the chunk holding it. The most recently used chunks are kept inflated in memory.
+ *
+ * The container is laid out as: the magic number "E2CZ", a format version, the chunk size, the amount of chunks
+ * and the size of the raw image, then the file offset of every chunk plus one for the end of the last, then the chunks.
+ * A chunk stored in no bytes is all zeros, and one stored in as many bytes as it holds wasn't worth deflating.
+ */
+public class CompressedStorage implements Storage {
+	/**
+	 * Magic number at the start of a compressed image
+	 */
+	public static final int MAGIC = 0x4532435A;
+	/**
+	 * Chunk size used by convert when none is given
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+	/**
+	 * Inflated chunks kept in memory when no amount is given
+	 */
+	public static final int DEFAULT_CACHE_CHUNKS = 64;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+	private static final int CONVERT_BATCH = 64; // Chunks deflated side by side before being written out
+	private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+
+	private final String filename;
+	private final Map<Integer, byte[]> cache;
+	private volatile FileChannel channel;
+	private int chunkSize;
+	private long imageSize;
+	private long[] offsets;
+	private volatile VolumeMetrics metrics; // Of the volume reading the image, once it's handed over
+
+	/**
+	 * Creates storage for a compressed image. The file isn't opened until the first read.
+	 * @param filename The path of the compressed image
+	 */
+	public CompressedStorage(String filename) {
+		this(filename, DEFAULT_CACHE_CHUNKS);
+	}
+
+	/**
+	 * Creates storage for a compressed image with a given amount of inflated chunks kept in memory
+	 * @param filename The path of the compressed image
+	 * @param cacheChunks The most chunks to keep inflated
+	 */
+	public CompressedStorage(String filename, final int cacheChunks) {
+		this.filename = filename;
+		cache = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+				return size() > cacheChunks;
+			}
+		};
+	}
+
+	@Override
+	public void read(long position, byte[] bytes, int offset, int length) throws IOException {
+		FileChannel in = channel();
+		if(position < 0 || position + length > imageSize) {
+			throw new EOFException("Unexpected end of file at byte " + Math.min(Math.max(position, 0), imageSize));
+		}
+		while(length > 0) {
+			int chunk = (int) (position / chunkSize);
+			int from = (int) (position % chunkSize);
+			int count = Math.min(length, chunkLength(chunk) - from);
+			byte[] data = chunk(in, chunk);
+			if(data == null) {
+				Arrays.fill(bytes, offset, offset + count, (byte) 0);
+			} else {
+				System.arraycopy(data, from, bytes, offset, count);
+			}
+			position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	@Override
+	public long size() throws IOException {
+		channel();
+		return imageSize;
+	}
+
+	@Override
+	public void setMetrics(VolumeMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(channel != null) {
+			channel.close();
+			channel = null;
+		}
+		synchronized(cache) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Returns the path of the compressed image
+	 * @return File name
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Converts a raw image into a compressed image with the default chunk size
+	 * @param source The path of the raw image
+	 * @param target The path of the compressed image to write
+	 * @return The size of the compressed image in bytes
+	 * @throws IOException If the raw image can't be read or the compressed image can't be written
+	 */
+	public static long convert(String source, String target) throws IOException {
+		return convert(source, target, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Converts a raw image into a compressed image. Batches of chunks are deflated in parallel
+	 * and written out in order, with the offset index filled in once every chunk's size is known.
+	 * @param source The path of the raw image
+	 * @param target The path of the compressed image to write
+	 * @param chunkSize The amount of raw bytes in each chunk
+	 * @return The size of the compressed image in bytes
+	 * @throws IOException If the raw image can't be read or the compressed image can't be written
+	 */
+	public static long convert(String source, String target, final int chunkSize) throws IOException {
+		if(chunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		try (RandomAccessFile in = new RandomAccessFile(source, "r");
+			RandomAccessFile out = new RandomAccessFile(target, "rw")) {
+			final long imageSize = in.length();
+			long chunks = (imageSize + chunkSize - 1) / chunkSize;
+			if(chunks >= Integer.MAX_VALUE) {
+				throw new IOException("Image too large for a chunk size of " + chunkSize);
+			}
+			int chunkCount = (int) chunks;
+			long[] offsets = new long[chunkCount + 1];
+			long position = HEADER_SIZE + (8L * offsets.length);
+			out.setLength(0);
+			out.seek(position);
+
+			final byte[] raw = new byte[CONVERT_BATCH * chunkSize];
+			final byte[][] packed = new byte[CONVERT_BATCH][];
+			for (int first = 0; first < chunkCount; first += CONVERT_BATCH) {
+				final int batch = Math.min(CONVERT_BATCH, chunkCount - first);
+				final long start = (long) first * chunkSize;
+				final int length = (int) Math.min((long) batch * chunkSize, imageSize - start);
+				in.seek(start);
+				in.readFully(raw, 0, length);
+				IntStream.range(0, batch).parallel().forEach(i -> {
+					int from = i * chunkSize;
+					packed[i] = pack(raw, from, Math.min(chunkSize, length - from));
+				});
+				for (int i = 0; i < batch; i++) {
+					offsets[first + i] = position;
+					out.write(packed[i]);
+					position += packed[i].length;
+				}
+			}
+			offsets[chunkCount] = position;
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + (8 * offsets.length));
+			header.putInt(MAGIC).putInt(VERSION).putInt(chunkSize).putInt(chunkCount).putLong(imageSize);
+			header.asLongBuffer().put(offsets);
+			out.seek(0);
+			out.write(header.array());
+			return position;
+		}
+	}
+
+	// Deflates a chunk, leaving it empty if it's all zeros and as it is if deflating doesn't shrink it
+	private static byte[] pack(byte[] raw, int from, int length) {
+		boolean zero = true;
+		for (int i = from; i < from + length && zero; i++) {
+			zero = raw[i] == 0;
+		}
+		if(zero) {
+			return new byte[0];
+		}
+		Deflater deflater = new Deflater();
+		try {
+			deflater.setInput(raw, from, length);
+			deflater.finish();
+			byte[] out = new byte[length];
+			int size = 0;
+			while(!deflater.finished() && size < length) {
+				size += deflater.deflate(out, size, length - size);
+			}
+			if(!deflater.finished() || size >= length) {
+				return Arrays.copyOfRange(raw, from, from + length);
+			}
+			return Arrays.copyOf(out, size);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	// The chunk's raw bytes, from the cache or inflated from the file, or null if it's all zeros
+	private byte[] chunk(FileChannel in, int chunk) throws IOException {
+		long stored = offsets[chunk + 1] - offsets[chunk];
+		if(stored == 0) {
+			return null;
+		}
+		byte[] data;
+		synchronized(cache) {
+			data = cache.get(chunk);
+		}
+		VolumeMetrics counted = metrics;
+		if(data != null) {
+			if(counted != null) {
+				counted.cacheHit(VolumeMetrics.CACHE_CHUNKS);
+			}
+			return data;
+		}
+		if(counted != null) {
+			counted.cacheMiss(VolumeMetrics.CACHE_CHUNKS);
+		}
+
+		byte[] packed = new byte[(int) stored];
+		ByteBuffer buffer = ByteBuffer.wrap(packed);
+		while(buffer.hasRemaining()) {
+			if(in.read(buffer, offsets[chunk] + buffer.position()) < 0) {
+				throw new EOFException("Compressed image " + filename + " is cut short in chunk " + chunk);
+			}
+		}
+		int length = chunkLength(chunk);
+		if(stored == length) {
+			data = packed; // Stored as it is
+		} else {
+			data = new byte[length];
+			Inflater inflater = INFLATERS.get();
+			inflater.reset();
+			inflater.setInput(packed);
+			try {
+				int size = 0;
+				while(size < length && !inflater.finished()) {
+					int inflated = inflater.inflate(data, size, length - size);
+					if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					size += inflated;
+				}
+				if(size != length) {
+					throw new IOException("Chunk " + chunk + " of " + filename + " inflates to " + size + " bytes, not " + length);
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Chunk " + chunk + " of " + filename + " is corrupt: " + e.getMessage());
+			}
+		}
+		synchronized(cache) {
+			cache.put(chunk, data);
+		}
+		return data;
+	}
+
+	// The last chunk is cut short by the end of the image
+	private int chunkLength(int chunk) {
+		return (int) Math.min(chunkSize, imageSize - ((long) chunk * chunkSize));
+	}
+
+	// Opens the file and reads the header and offset index the first time it's needed
+	private FileChannel channel() throws IOException {
+		FileChannel in = channel;
+		if(in == null) {
+			synchronized(this) {
+				if(channel == null) {
+					FileChannel opened = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+					try {
+						if(offsets == null) {
+							readIndex(opened);
+						}
+					} catch (IOException e) {
+						opened.close();
+						throw e;
+					}
+					channel = opened;
+				}
+				in = channel;
+			}
+		}
+		return in;
+	}
+
+	private void readIndex(FileChannel in) throws IOException {
+		ByteBuffer header = readFully(in, 0, HEADER_SIZE);
+		if(header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException(filename + " is not a compressed image");
+		}
+		int size = header.getInt();
+		int chunkCount = header.getInt();
+		long length = header.getLong();
+		if(size <= 0 || chunkCount < 0 || length != 0 && (length - 1) / size != chunkCount - 1) {
+			throw new IOException(filename + " has a corrupt header");
+		}
+		long[] index = new long[chunkCount + 1];
+		readFully(in, HEADER_SIZE, 8 * index.length).asLongBuffer().get(index);
+		chunkSize = size;
+		imageSize = length;
+		offsets = index;
+	}
+
+	private static ByteBuffer readFully(FileChannel in, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while(buffer.hasRemaining()) {
+			if(in.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("Unexpected end of file at byte " + (position + buffer.position()));
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
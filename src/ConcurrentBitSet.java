@@ -0,0 +1,67 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author Oliver Griffiths
+ * A fixed size set of bits that many threads can set at once without locking
+ */
+public class ConcurrentBitSet {
+	private final AtomicLongArray words;
+	private final long size;
+
+	/**
+	 * Creates a new ConcurrentBitSet with every bit cleared
+	 * @param bits The amount of bits in the set
+	 */
+	public ConcurrentBitSet(long bits) {
+		size = bits;
+		words = new AtomicLongArray((int) ((bits + 63) >>> 6));
+	}
+
+	/**
+	 * Sets a bit
+	 * @param index The bit to set
+	 * @return True if this call set the bit, false if it was already set
+	 */
+	public boolean set(long index) {
+		int word = (int) (index >>> 6);
+		long mask = 1L << index; // Shifts only use the low 6 bits of index
+		while(true) {
+			long old = words.get(word);
+			if((old & mask) != 0) {
+				return false;
+			}
+			if(words.compareAndSet(word, old, old | mask)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns whether a bit is set
+	 * @param index The bit to check
+	 * @return True if the bit is set
+	 */
+	public boolean get(long index) {
+		return (words.get((int) (index >>> 6)) & (1L << index)) != 0;
+	}
+
+	/**
+	 * Returns the amount of set bits
+	 * @return Set bit count
+	 */
+	public long cardinality() {
+		long count = 0;
+		for (int i = 0; i < words.length(); i++) {
+			count += Long.bitCount(words.get(i));
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the amount of bits in the set
+	 * @return Bit count
+	 */
+	public long size() {
+		return size;
+	}
+}
@@ -0,0 +1,15 @@
+/**
+ * @author Oliver Griffiths
+ * Receives the content of a file piece by piece as a Volume streams it
+ */
+public interface ContentVisitor {
+	/**
+	 * Called with consecutive pieces of the file's content, from the start of the file to its end.
+	 * The array is only valid for the duration of the call and must not be changed.
+	 * @param bytes Array holding the piece
+	 * @param offset Where the piece starts in the array
+	 * @param length The length of the piece
+	 * @return Whether the rest of the file should be read
+	 */
+	boolean content(byte[] bytes, int offset, int length);
+}
@@ -1,10 +1,10 @@
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.Arrays;
 
 /**
  * @author Oliver Griffiths
- * A class to aid in dealing with little endian byte conversions
+ * A class to aid in dealing with little endian byte conversions.
+ * The range conversions decode in place, without copying the bytes.
  */
 public class Converter {
 
@@ -31,7 +31,7 @@ public class Converter {
 	 * @return The decoded long value
 	 */
 	public static long bytesToLong(byte[] bytes, int start, int end) {
-		return makeBuffer(Arrays.copyOfRange(bytes, start, end)).getLong();
+		return (0xFFFFFFFFL & bytesToInt(bytes, start, start + 4)) | ((long) bytesToInt(bytes, start + 4, end) << 32);
 	}
 
 	/**
@@ -51,7 +51,7 @@ public class Converter {
 	 * @return The decoded int value
 	 */
 	public static int bytesToInt(byte[] bytes, int start, int end) {
-		return makeBuffer(Arrays.copyOfRange(bytes, start, end)).getInt();
+		return (bytes[start] & 0xFF) | ((bytes[start + 1] & 0xFF) << 8) | ((bytes[start + 2] & 0xFF) << 16) | (bytes[start + 3] << 24);
 	}
 
 	/**
@@ -71,7 +71,31 @@ public class Converter {
 	 * @return The decoded short value
 	 */
 	public static short bytesToShort(byte[] bytes, int start, int end) {
-		return makeBuffer(Arrays.copyOfRange(bytes, start, end)).getShort();
+		return (short) ((bytes[start] & 0xFF) | (bytes[start + 1] << 8));
+	}
+
+	/**
+	 * Writes an int into an array of bytes as 4 little endian bytes
+	 * @param value The value to write
+	 * @param bytes The array of bytes
+	 * @param start Where the value goes in the array
+	 */
+	public static void intToBytes(int value, byte[] bytes, int start) {
+		bytes[start] = (byte) value;
+		bytes[start + 1] = (byte) (value >> 8);
+		bytes[start + 2] = (byte) (value >> 16);
+		bytes[start + 3] = (byte) (value >> 24);
+	}
+
+	/**
+	 * Writes a short into an array of bytes as 2 little endian bytes
+	 * @param value The value to write
+	 * @param bytes The array of bytes
+	 * @param start Where the value goes in the array
+	 */
+	public static void shortToBytes(int value, byte[] bytes, int start) {
+		bytes[start] = (byte) value;
+		bytes[start + 1] = (byte) (value >> 8);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+import java.util.Date;
+
+/**
+ * @author Oliver Griffiths
+ * Describes a deleted file found by a Recovery scan, and how much of it can still be recovered.
+ */
+public class DeletedFile {
+	private int inodePtr;
+	private Inode inode;
+	private long expectedBlocks;
+	private long freeBlocks;
+
+	/**
+	 * Creates a new DeletedFile
+	 * @param ptr Pointer to the inode of the file
+	 * @param i The inode of the file
+	 * @param expected The amount of data blocks the file had before deletion
+	 * @param free The amount of the file's data blocks that are still unallocated
+	 */
+	public DeletedFile(int ptr, Inode i, long expected, long free) {
+		inodePtr = ptr;
+		inode = i;
+		expectedBlocks = expected;
+		freeBlocks = free;
+	}
+
+	/**
+	 * Returns the pointer to the Inode of the file
+	 * @return Inode pointer
+	 */
+	public int getInodePtr() {
+		return inodePtr;
+	}
+
+	/**
+	 * Returns the Inode of the file as it was left on deletion
+	 * @return The file's Inode
+	 */
+	public Inode getInode() {
+		return inode;
+	}
+
+	/**
+	 * Returns the time the file was deleted
+	 * @return Deletion Time
+	 */
+	public Date getDeletedTime() {
+		return inode.getDeletedTime();
+	}
+
+	/**
+	 * Returns the size the file had before deletion
+	 * @return Filesize
+	 */
+	public long getSize() {
+		return inode.getFileSize();
+	}
+
+	/**
+	 * Returns the amount of data blocks the file had before deletion
+	 * @return Expected block count
+	 */
+	public long getExpectedBlocks() {
+		return expectedBlocks;
+	}
+
+	/**
+	 * Returns the amount of data blocks that are still unallocated, so still hold the file's data
+	 * @return Recoverable block count
+	 */
+	public long getFreeBlocks() {
+		return freeBlocks;
+	}
+
+	/**
+	 * Returns how likely the recovered content is to be intact, from 0 to 1.
+	 * This is the share of the file's blocks that can still be reached and haven't been reused.
+	 * @return Confidence score
+	 */
+	public double getConfidence() {
+		if(expectedBlocks == 0) {
+			return 0;
+		}
+		return Math.min(1.0, (double) freeBlocks / expectedBlocks);
+	}
+}
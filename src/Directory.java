@@ -1,3 +1,6 @@
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * @author Oliver Griffiths
  * Class to represent an EXT2 Directory
@@ -5,6 +8,17 @@
 public class Directory {
 	private Volume vol;
 	private Inode inode;
+
+	/**
+	 * Directory entry file type of a regular file, on volumes that record file types in their entries
+	 */
+	public static final int TYPE_REGULAR_FILE = 1;
+
+	/**
+	 * Directory entry file type of a subdirectory, on volumes that record file types in their entries
+	 */
+	public static final int TYPE_DIRECTORY = 2;
+
 	/**
 	 * Creates a new Directory, given an inode and the volume
 	 * @param i The inode of the directory
@@ -30,36 +44,85 @@ public class Directory {
 	 * @return Infromation about all the files in the directory
 	 */
 	public FileInfo[] getFileInfo() {
-		int length = getLength();
-		FileInfo[] files = new FileInfo[length];
+		final List<FileInfo> files = new ArrayList<FileInfo>();
+		forEachEntry((inodePtr, type, name) -> {
+			files.add(new FileInfo(vol.getInode(inodePtr), name, inodePtr));
+			return true;
+		});
+		return files.toArray(new FileInfo[files.size()]);
+	}
 
-		int count = 0;
-		for(int i = 0; i < length; i++) {
-			int fileInodePtr = Converter.bytesToInt(vol.readFromFile(inode, count, count+4));
-			Inode fileInode = vol.getInode(fileInodePtr);
-			String fileName = "";
-			byte nameLength = vol.readFromFile(inode, count+6, count+7)[0];
-			for (int j = 0; j < nameLength; j++) { // Reading in the name of the file one character at a time
-				fileName = fileName + Character.toString((char) (vol.readFromFile(inode, count+8+j, count+9+j)[0] & 0xFF));
+	/**
+	 * Reads the entries of the directory block by block, without loading the inode of every entry
+	 * @param visitor Receives every entry of the directory
+	 */
+	public void forEachEntry(final EntryVisitor visitor) {
+		forEachEntry(entry -> visitor.entry(entry.getInodePtr(), entry.getType(), entry.getName()));
+	}
+
+	/**
+	 * Reads the entries of the directory block by block through a single view, so no names are built
+	 * unless the visitor asks for them
+	 * @param visitor Receives every entry of the directory
+	 */
+	public void forEachEntry(final EntryViewVisitor visitor) {
+		Object event = Tracer.INSTANCE.begin(Tracer.DIRECTORY_SCAN);
+		long started = System.nanoTime();
+		final boolean[] stopped = {false};
+		final int[] entries = {0};
+		final EntryViewVisitor counted = entry -> {
+			entries[0]++;
+			return visitor.entry(entry);
+		};
+		final DirectoryEntryView view = new DirectoryEntryView();
+		vol.walkBlocks(inode, new BlockVisitor() {
+			public void dataBlock(long logical, int physical) {
+				if(!stopped[0]) {
+					stopped[0] = !parseEntries(vol.readBlock(0xFFFFFFFFL & physical, BlockTrace.TYPE_DIRECTORY), view, counted);
+				}
 			}
-			
-			files[i] = new FileInfo(fileInode, fileName, fileInodePtr);
-			short point = Converter.bytesToShort(vol.readFromFile(inode, count+4, count+6));
-			count = count + point;
+
+			public boolean indirectBlock(int physical, int level) {
+				return !stopped[0];
+			}
+		});
+		vol.getMetrics().directoryEntries(entries[0]);
+		vol.getMetrics().record(VolumeMetrics.DIRECTORY_PARSE, started);
+		if(event != null) {
+			Tracer.INSTANCE.directoryScan(event, inode.getFileSize(), entries[0]);
 		}
-		return files;
-		
 	}
 
-	//The amount of files inside the directory needs to be found to initialise a FileInfo array
-	private int getLength() { 
+	/**
+	 * Hands every used entry in one directory block to the visitor
+	 * @param block The bytes of a single directory block
+	 * @param visitor Receives the entries of the block
+	 * @return False if the visitor asked to stop reading
+	 */
+	public static boolean parseEntries(byte[] block, final EntryVisitor visitor) {
+		return parseEntries(block, new DirectoryEntryView(), entry -> visitor.entry(entry.getInodePtr(), entry.getType(), entry.getName()));
+	}
+
+	/**
+	 * Hands every used entry in one directory block to the visitor, moving one view along the block
+	 * @param block The bytes of a single directory block
+	 * @param view The view to move along the block
+	 * @param visitor Receives the entries of the block
+	 * @return False if the visitor asked to stop reading
+	 */
+	public static boolean parseEntries(byte[] block, DirectoryEntryView view, EntryViewVisitor visitor) {
 		int count = 0;
-		int length = 0;
-		while(count < inode.getFileSize()) { //Follow the pointers and increment the counter
-			short point = Converter.bytesToShort(vol.readFromFile(inode, count+4, count+6)); 
-			length++;
+		while(count + 8 <= block.length) {
+			view.wrap(block, count);
+			int point = view.getRecordLength();
+			if(point < 8 || count + 8 + view.getNameLength() > block.length) { // Corrupt entry, nothing more can be trusted in this block
+				return true;
+			}
+			if(view.getInodePtr() != 0 && !visitor.entry(view)) { // Entries without an inode are unused space
+				return false;
+			}
 			count = count + point;
 		}
-		return length;
+		return true;
 	}
-} 
\ No newline at end of file
+}
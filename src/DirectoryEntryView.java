@@ -0,0 +1,82 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Oliver Griffiths
+ * A reusable view of an EXT2 Directory entry inside a directory block.
+ * Fields are decoded from the block each time they're asked for, and the name is only turned into a String
+ * when getName() is called, so going through a block with wrap() doesn't create any objects.
+ */
+public class DirectoryEntryView {
+	private byte[] block;
+	private int base;
+
+	/**
+	 * Points the view at a directory entry
+	 * @param bytes The directory block holding the entry
+	 * @param offset Where the entry starts in the block
+	 * @return This view
+	 */
+	public DirectoryEntryView wrap(byte[] bytes, int offset) {
+		block = bytes;
+		base = offset;
+		return this;
+	}
+
+	/**
+	 * Returns the pointer to the inode of the entry
+	 * @return Inode pointer, 0 for unused space
+	 */
+	public int getInodePtr() {
+		return Converter.bytesToInt(block, base, base+4);
+	}
+
+	/**
+	 * Returns how far it is from the start of this entry to the start of the next
+	 * @return Record length in bytes
+	 */
+	public int getRecordLength() {
+		return Converter.bytesToShort(block, base+4, base+6) & 0xFFFF;
+	}
+
+	/**
+	 * Returns the length of the name of the entry
+	 * @return Name length in bytes
+	 */
+	public int getNameLength() {
+		return block[base+6] & 0xFF;
+	}
+
+	/**
+	 * Returns the ext2 file type of the entry
+	 * @return File type, 0 if the volume doesn't record it
+	 */
+	public int getType() {
+		return block[base+7] & 0xFF;
+	}
+
+	/**
+	 * Returns the name of the entry, built on each call
+	 * @return The name of the entry
+	 */
+	public String getName() {
+		return new String(block, base+8, getNameLength(), StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Compares the name of the entry with a String without building the name
+	 * @param name The name to compare against
+	 * @return True if the names are the same
+	 */
+	public boolean nameEquals(String name) {
+		int length = getNameLength();
+		if(name.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if(name.charAt(i) != (char) (block[base+8+i] & 0xFF)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,26 +1,441 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * @author Oliver Griffiths
+ * Command line tool for looking around an image and copying files out of it.
+ * cat and extract stream each file through Volume.readContent in runs of at most a megabyte, holes as zeros,
+ * so memory stays the same however large the file. Listings are printed as the directories are read.
+ *
+ * Usage: java Driver [-t] [--trace file] image command [arguments]
+ *   ls [path]                        List a directory, or a single file, like "ls -l"
+ *   stat path...                     Print the inode of each file and how its blocks are laid out
+ *   cat path...                      Write the content of each file to stdout
+ *   find [path] [-name glob] [-type f|d]   Print the path of every file below a directory that matches
+ *   extract path destination         Copy a file, or a directory and everything below it, out of the image
+ *   tree [path]                      Print the directory tree, indented by depth
+ * -t prints the time taken, throughput and reads of the image to stderr, out of the way of the output.
+ * --trace records every block read to a file for TraceReplay.
+ */
 public class Driver {
+	private final Volume vol;
+	private final PrintStream out;
+	private final WritableByteChannel stdout; // Raw standard output, for file content
+	private long bytes = 0; // Bytes of file content written
+	private long entries = 0; // Files listed or copied
+	private boolean failed = false;
+
+	/**
+	 * Creates a new Driver
+	 * @param vol The volume to read
+	 * @param out Where listings are printed
+	 * @param stdout Where cat writes file content
+	 */
+	public Driver(Volume vol, PrintStream out, WritableByteChannel stdout) {
+		this.vol = vol;
+		this.out = out;
+		this.stdout = stdout;
+	}
+
 	public static void main(String[] args) {
-		Volume vol = new Volume("ext2fs");
-		//Ext2File file = new Ext2File(vol, "/files/trpl-ind-s");
+		boolean timed = false;
+		String tracePath = null;
+		int i = 0;
+		for (; i < args.length && args[i].startsWith("-"); i++) {
+			if(args[i].equals("-t")) {
+				timed = true;
+			} else if(args[i].equals("--trace") && i + 1 < args.length) {
+				tracePath = args[++i];
+			} else {
+				System.err.println("Unknown option " + args[i]);
+				usage();
+				System.exit(2);
+			}
+		}
+		if(args.length - i < 2) {
+			usage();
+			System.exit(2);
+		}
+		String image = args[i];
+		String command = args[i + 1];
+		List<String> arguments = new ArrayList<String>();
+		for (int j = i + 2; j < args.length; j++) {
+			arguments.add(args[j]);
+		}
+		if(!new File(image).isFile()) {
+			System.err.println("No image at " + image);
+			System.exit(1);
+		}
 
-		//Example print of file
-		Ext2File file = new Ext2File(vol, "/two-cities");
-		byte buf[ ] = file.read(0L, file.size());
-        System.out.format ("%s\n", new String(buf));
+		FileOutputStream standard = new FileOutputStream(FileDescriptor.out);
+		PrintStream out = new PrintStream(new BufferedOutputStream(standard, 64 * 1024), false);
+		Volume vol = new Volume(image);
+		Driver driver = new Driver(vol, out, standard.getChannel());
+		boolean known = true;
+		long started = System.nanoTime();
+		try {
+			if(tracePath != null) {
+				vol.startTrace(tracePath);
+			}
+			known = driver.run(command, arguments);
+		} catch (IOException e) {
+			System.err.println("IO Exception: " + e.getMessage());
+			driver.failed = true;
+		} finally {
+			out.flush();
+		}
+		long elapsed = System.nanoTime() - started;
+		try {
+			long accesses = vol.stopTrace();
+			if(tracePath != null) {
+				System.err.println("Traced " + accesses + " block reads to " + tracePath);
+			}
+			vol.close();
+		} catch (IOException e) {
+			System.err.println("IO Exception: " + e.getMessage());
+		}
+		if(!known) {
+			System.err.println("Unknown command " + command);
+			usage();
+			System.exit(2);
+		}
+		if(timed) {
+			driver.printStats(elapsed);
+		}
+		System.exit(driver.failed ? 1 : 0);
+	}
 
+	private static void usage() {
+		System.err.println("Usage: java Driver [-t] [--trace file] image command [arguments]");
+		System.err.println("  ls [path]");
+		System.err.println("  stat path...");
+		System.err.println("  cat path...");
+		System.err.println("  find [path] [-name glob] [-type f|d]");
+		System.err.println("  extract path destination");
+		System.err.println("  tree [path]");
+	}
+
+	/**
+	 * Runs one command against the volume
+	 * @param command The name of the command
+	 * @param arguments Everything after the command
+	 * @return False if there is no such command
+	 * @throws IOException If the output can't be written
+	 */
+	public boolean run(String command, List<String> arguments) throws IOException {
+		String path = arguments.isEmpty() ? "/" : arguments.get(0);
+		switch(command) {
+			case "ls":
+				ls(path);
+				break;
+			case "stat":
+				for (String each : arguments) {
+					stat(each);
+				}
+				break;
+			case "cat":
+				for (String each : arguments) {
+					cat(each);
+				}
+				break;
+			case "find":
+				find(arguments);
+				break;
+			case "extract":
+				if(arguments.size() != 2) {
+					System.err.println("extract needs a path in the image and a destination");
+					failed = true;
+				} else {
+					extract(arguments.get(0), new File(arguments.get(1)));
+				}
+				break;
+			case "tree":
+				tree(path);
+				break;
+			default:
+				return false;
+		}
+		return true;
+	}
 
-		//Helper.printInode(file.getInode());
+	/**
+	 * Lists a directory one line per entry, loading each entry's inode as it's read, or a single file
+	 * @param path The path of the directory or file
+	 */
+	public void ls(String path) {
+		int inodePtr = resolve(path);
+		if(inodePtr < 0) {
+			return;
+		}
+		Inode inode = vol.getInode(inodePtr);
+		if(!inode.isDirectory()) {
+			printListing(inode, nameOf(path));
+			return;
+		}
+		new Directory(inode, vol).forEachEntry((entryPtr, type, name) -> {
+			printListing(vol.getInode(entryPtr), name);
+			return true;
+		});
+	}
 
-		//Helper.printSuperBlock(vol.getSuperBlock());
+	/**
+	 * Prints the inode of a file, along with how many blocks it has and how many physical runs they fall in
+	 * @param path The path of the file
+	 */
+	public void stat(String path) {
+		int inodePtr = resolve(path);
+		if(inodePtr < 0) {
+			return;
+		}
+		Inode inode = vol.getInode(inodePtr);
+		final long[] layout = new long[3]; // Data blocks, runs and pointer tables or tree nodes
+		vol.walkBlocks(inode, new BlockVisitor() {
+			private long next = -1; // The physical block that would carry on the current run
 
-		//Helper.dumpHexBytes(file.read(0L, 1024L)); //Print first block
-		//Helper.dumpHexBytes(file.read(file.size() - 1024L, file.size())); //Print Second block
+			public void dataBlock(long logical, int physical) {
+				long block = 0xFFFFFFFFL & physical;
+				if(block != next) {
+					layout[1]++;
+				}
+				layout[0]++;
+				next = block + 1;
+			}
+
+			public boolean indirectBlock(int physical, int level) {
+				layout[2]++;
+				return true;
+			}
+		});
+		out.println("File: " + path);
+		out.println("Inode: " + inodePtr + "  Mode: " + inode.getFileMode() + "  Links: " + inode.getHardLinks()
+			+ "  Owner: " + inode.getUserID() + "  Group: " + inode.getGroupID());
+		out.println("Size: " + inode.getFileSize() + "  Sectors: " + inode.getSectors()
+			+ "  Flags: 0x" + Integer.toHexString(inode.getFlags()));
+		out.println("Blocks: " + layout[0] + " in " + layout[1] + (layout[1] == 1 ? " run" : " runs") + ", mapped by "
+			+ (inode.isExtentMapped() ? "extents with " + layout[2] + " tree nodes" : "pointers with " + layout[2] + " indirect tables"));
+		out.println("Accessed: " + inode.getLastAccess());
+		out.println("Modified: " + inode.getLastModified());
+		out.println("Created: " + inode.getCreationTime());
+		entries++;
+	}
+
+	/**
+	 * Writes the content of a file to standard output as it's read
+	 * @param path The path of the file
+	 * @throws IOException If standard output can't be written
+	 */
+	public void cat(String path) throws IOException {
+		int inodePtr = resolve(path);
+		if(inodePtr < 0) {
+			return;
+		}
+		Inode inode = vol.getInode(inodePtr);
+		if(inode.isDirectory()) {
+			System.err.println(path + " is a directory");
+			failed = true;
+			return;
+		}
+		out.flush(); // Anything already printed goes first
+		copy(inode, stdout);
+		entries++;
+	}
+
+	/**
+	 * Prints the path of every file below a directory matching the filters
+	 * @param arguments The directory to start from, then -name with a glob for the file name
+	 * and -type with f for regular files or d for directories, each optional
+	 */
+	public void find(List<String> arguments) {
+		String path = "/";
+		Pattern name = null;
+		char type = 0;
+		for (int i = 0; i < arguments.size(); i++) {
+			String argument = arguments.get(i);
+			if(argument.equals("-name") && i + 1 < arguments.size()) {
+				name = Pattern.compile(NameIndex.globToRegex(arguments.get(++i)));
+			} else if(argument.equals("-type") && i + 1 < arguments.size()) {
+				type = arguments.get(++i).charAt(0);
+			} else {
+				path = argument;
+			}
+		}
+		if(resolve(path) < 0) {
+			return;
+		}
+		final Pattern matching = name;
+		final char wanted = type;
+		vol.walkTree(path, (found, inodePtr, directory) -> {
+			boolean typed = wanted == 0 || (wanted == 'd' ? directory : !directory && (wanted != 'f' || vol.getInode(inodePtr).isRegularFile()));
+			if(typed && (matching == null || matching.matcher(nameOf(found)).matches())) {
+				out.println(found.isEmpty() ? "/" : found);
+				entries++;
+			}
+			return true;
+		});
+	}
+
+	/**
+	 * Copies a file out of the volume, or a directory and everything below it, keeping modification times.
+	 * Symbolic links and device files are skipped.
+	 * @param path The path in the volume
+	 * @param destination The file or directory to create, which for a directory may already exist
+	 * @throws IOException If the destination can't be written
+	 */
+	public void extract(String path, final File destination) throws IOException {
+		int inodePtr = resolve(path);
+		if(inodePtr < 0) {
+			return;
+		}
+		Inode inode = vol.getInode(inodePtr);
+		if(!inode.isDirectory()) {
+			extractFile(inode, path, destination);
+			return;
+		}
+		makeDirectory(destination);
+		final String prefix = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+		final List<File> directories = new ArrayList<File>(); // Their times are set last, once nothing more is written to them
+		final List<Long> times = new ArrayList<Long>();
+		final IOException[] error = {null};
+		vol.walkTree(prefix, (found, childPtr, directory) -> {
+			if(error[0] != null) {
+				return false;
+			}
+			File target = new File(destination, found.substring(prefix.length() + 1));
+			Inode child = vol.getInode(childPtr);
+			try {
+				if(directory) {
+					makeDirectory(target);
+					directories.add(target);
+					times.add(child.getLastModified().getTime());
+				} else {
+					extractFile(child, found, target);
+				}
+			} catch (IOException e) {
+				error[0] = e;
+			}
+			return error[0] == null;
+		});
+		if(error[0] != null) {
+			throw error[0];
+		}
+		for (int i = directories.size() - 1; i >= 0; i--) {
+			directories.get(i).setLastModified(times.get(i));
+		}
+		destination.setLastModified(inode.getLastModified().getTime());
+	}
+
+	/**
+	 * Prints the directory tree below a path, two spaces deeper for each level and directories ending in "/".
+	 * Entries come in the order they're stored in their directory.
+	 * @param path The path of the directory to start at
+	 */
+	public void tree(String path) {
+		int inodePtr = resolve(path);
+		if(inodePtr < 0) {
+			return;
+		}
+		out.println(path.equals("/") || !path.endsWith("/") ? path : path.substring(0, path.length() - 1));
+		printTree(vol.getInode(inodePtr), "  ");
+	}
+
+	private void printTree(Inode directory, final String indent) {
+		if(!directory.isDirectory()) {
+			return;
+		}
+		new Directory(directory, vol).forEachEntry((inodePtr, type, name) -> {
+			if(name.equals(".") || name.equals("..")) {
+				return true;
+			}
+			Inode child = type == 0 || type == Directory.TYPE_DIRECTORY ? vol.getInode(inodePtr) : null;
+			boolean isDirectory = child != null && child.isDirectory();
+			out.println(indent + name + (isDirectory ? "/" : ""));
+			entries++;
+			if(isDirectory) { // Printed as it's found, so the subdirectory is read in the middle of this one
+				printTree(child, indent + "  ");
+			}
+			return true;
+		});
+	}
+
+	// Prints how long the command took, how fast file content went out and how much of the image was read
+	private void printStats(long elapsed) {
+		MetricsSnapshot metrics = vol.getMetrics().getSnapshot();
+		double seconds = elapsed / 1e9;
+		System.err.println(String.format(Locale.ROOT, "%d files, %d bytes in %.3f s, %.1f MB/s", entries, bytes, seconds,
+			seconds > 0 ? bytes / seconds / (1024 * 1024) : 0.0));
+		System.err.println(String.format(Locale.ROOT, "%d image reads of %d bytes, %d inode loads, %d path lookups",
+			metrics.getStorageReads().getCount(), metrics.getBytesRead(), metrics.getInodeLoads().getCount(),
+			metrics.getPathResolutions().getCount()));
+	}
+
+	private void extractFile(Inode inode, String path, File target) throws IOException {
+		if(!inode.isRegularFile()) {
+			System.err.println("Skipping " + path + ", it isn't a regular file");
+			return;
+		}
+		try (FileChannel channel = new FileOutputStream(target).getChannel()) {
+			copy(inode, channel);
+		}
+		target.setLastModified(inode.getLastModified().getTime());
+		entries++;
+	}
+
+	// Streams the content of a file to a channel, a run of blocks at a time
+	private void copy(Inode inode, final WritableByteChannel channel) throws IOException {
+		final IOException[] error = {null};
+		vol.readContent(inode, (content, offset, length) -> {
+			try {
+				ByteBuffer buffer = ByteBuffer.wrap(content, offset, length);
+				while(buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				bytes += length;
+				return true;
+			} catch (IOException e) { // Such as the reader of a pipe going away
+				error[0] = e;
+				return false;
+			}
+		});
+		if(error[0] != null) {
+			throw error[0];
+		}
+	}
+
+	private void makeDirectory(File directory) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create directory " + directory);
+		}
+	}
+
+	private void printListing(Inode inode, String name) {
+		out.println(inode.getFileMode() + " " + inode.getHardLinks() + " " + inode.getUserID() + " " + inode.getGroupID() + " "
+			+ inode.getFileSize() + " " + inode.getLastModified() + " " + name);
+		entries++;
+	}
+
+	// The inode pointer of a path, or -1 after saying there's no such file
+	private int resolve(String path) {
+		int inodePtr = vol.getInodePtrFromPath(path);
+		if(inodePtr < 0) {
+			System.err.println("No such file: " + path);
+			failed = true;
+		}
+		return inodePtr;
+	}
 
-		//Directory dir = new Directory(vol.getInode(2), vol);
-		//Helper.ls(dir.getFileInfo());
-		//Helper.printDescriptor(vol.getDescriptor(2));
-		//Helper.printInode(vol.getInode(3425));
-		//Directory dir = new Directory(vol, "/files");
-		//Helper.ls(dir.getFileInfo());
+	private static String nameOf(String path) {
+		String trimmed = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+		return trimmed.substring(trimmed.lastIndexOf('/') + 1);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,12 @@
+/**
+ * @author Oliver Griffiths
+ * Receives the entries of a directory through a DirectoryEntryView, for visitors that don't need every name as a String
+ */
+public interface EntryViewVisitor {
+	/**
+	 * Called for every used entry in the directory, in on-disk order
+	 * @param entry View of the entry, only valid until this call returns
+	 * @return Whether the remaining entries should be read
+	 */
+	boolean entry(DirectoryEntryView entry);
+}
@@ -0,0 +1,14 @@
+/**
+ * @author Oliver Griffiths
+ * Receives the raw entries of a directory as they are read from its blocks
+ */
+public interface EntryVisitor {
+	/**
+	 * Called for every used entry in the directory, in on-disk order
+	 * @param inodePtr Pointer to the inode of the entry
+	 * @param type The ext2 file type of the entry, 0 if the volume doesn't record it
+	 * @param name The name of the entry
+	 * @return Whether the remaining entries should be read
+	 */
+	boolean entry(int inodePtr, int type, String name);
+}
@@ -0,0 +1,92 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * @author Oliver Griffiths
+ * A read only channel over a file on an EXT2 volume. Each read looks up the blocks it covers together
+ * and reads physically contiguous blocks in one go, straight into the caller's buffer where it has an array.
+ */
+class Ext2ByteChannel implements SeekableByteChannel {
+	private final int BUFFER_SIZE = 64 * 1024; // Most bytes copied through at once for buffers without an array
+	private final Ext2File file;
+	private long position = 0;
+	private volatile boolean open = true;
+
+	/**
+	 * Creates a new Ext2ByteChannel
+	 * @param file The file to read
+	 */
+	Ext2ByteChannel(Ext2File file) {
+		this.file = file;
+	}
+
+	@Override
+	public synchronized int read(ByteBuffer dst) throws IOException {
+		checkOpen();
+		if(position >= file.size()) {
+			return -1;
+		}
+		int read;
+		if(dst.hasArray()) {
+			read = file.read(position, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+			dst.position(dst.position() + read);
+		} else {
+			byte[] bytes = new byte[Math.min(dst.remaining(), BUFFER_SIZE)];
+			read = file.read(position, bytes, 0, bytes.length);
+			dst.put(bytes, 0, read);
+		}
+		position += read;
+		return read;
+	}
+
+	@Override
+	public int write(ByteBuffer src) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public synchronized long position() throws IOException {
+		checkOpen();
+		return position;
+	}
+
+	@Override
+	public synchronized SeekableByteChannel position(long newPosition) throws IOException {
+		checkOpen();
+		if(newPosition < 0) {
+			throw new IllegalArgumentException("Negative position " + newPosition);
+		}
+		position = newPosition;
+		return this;
+	}
+
+	@Override
+	public long size() throws IOException {
+		checkOpen();
+		return file.size();
+	}
+
+	@Override
+	public SeekableByteChannel truncate(long size) {
+		throw new NonWritableChannelException();
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+	}
+
+	private void checkOpen() throws ClosedChannelException {
+		if(!open) {
+			throw new ClosedChannelException();
+		}
+	}
+}
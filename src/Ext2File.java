@@ -1,3 +1,5 @@
+import java.io.IOException;
+
 /**
  * @author Oliver Griffiths
  * A class representing an EXT2 file
@@ -7,6 +9,7 @@ public class Ext2File {
 	private long location;
 	private Volume volume;
 	private Inode inode;
+	private int inodePtr;
 	/**
 	 * Produces an array of bytes from the volume, given start byte and end byte.
 	 * @param vol The Volume the file resides in
@@ -14,7 +17,30 @@ public class Ext2File {
 	 */
 	public Ext2File(Volume vol, String path) {
 		volume = vol;
-		inode = vol.getInodeFromPath(path);
+		inodePtr = vol.getInodePtrFromPath(path);
+		inode = inodePtr > 0 ? vol.getInode(inodePtr) : vol.getInodeFromPath(path);
+	}
+
+	/**
+	 * Opens a file by its inode
+	 * @param vol The Volume the file resides in
+	 * @param ptr The inode pointer of the file
+	 */
+	public Ext2File(Volume vol, int ptr) {
+		volume = vol;
+		inodePtr = ptr;
+		inode = vol.getInode(ptr);
+	}
+
+	/**
+	 * Creates a new empty file on the volume
+	 * @param vol The Volume to create the file in
+	 * @param path The path of the new file
+	 * @return The new file
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	public static Ext2File create(Volume vol, String path) throws IOException {
+		return new Ext2File(vol, vol.createFile(path));
 	}
 
 	/**
@@ -46,6 +72,55 @@ public class Ext2File {
 		}
 	}
 
+	/**
+	 * Reads part of the file into an array, without moving the pointer
+	 * @param position The first byte of the file to read
+	 * @param bytes The array to read into
+	 * @param offset Where in the array to start putting bytes
+	 * @param length The most bytes to read
+	 * @return The amount of bytes read, less than length if the file ends first
+	 * @throws IOException If the volume can't be read
+	 */
+	public int read(long position, byte[] bytes, int offset, int length) throws IOException {
+		Object event = Tracer.INSTANCE.begin(Tracer.FILE_READ);
+		int read = volume.readFile(inode, position, bytes, offset, length);
+		if(event != null) {
+			Tracer.INSTANCE.fileRead(event, inodePtr, position, length, read);
+		}
+		return read;
+	}
+
+	/**
+	 * Adds bytes to the end of the file
+	 * @param bytes The bytes to add
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	public void append(byte[] bytes) throws IOException {
+		append(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Adds part of an array of bytes to the end of the file
+	 * @param bytes The array holding the bytes
+	 * @param offset The first byte to add
+	 * @param length The amount of bytes to add
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	public void append(byte[] bytes, int offset, int length) throws IOException {
+		inode = volume.append(inodePtr, bytes, offset, length);
+	}
+
+	/**
+	 * Sets the size of the file, cutting off the end or adding a hole. The pointer is moved back if it
+	 * would be past the end.
+	 * @param size The new size in bytes
+	 * @throws IOException If the volume can't be written
+	 */
+	public void truncate(long size) throws IOException {
+		inode = volume.truncate(inodePtr, size);
+		location = Math.min(location, size);
+	}
+
 	/**
 	 * Places the pointer at the specificed place in the file
 	 * @param place The byte to place the pointer on
@@ -0,0 +1,189 @@
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Oliver Griffiths
+ * The POSIX attributes of a file on an EXT2 volume, copied out of its inode so they can be kept in a cache.
+ * Owners are the numeric user and group IDs, as the volume doesn't hold names for them.
+ */
+class Ext2FileAttributes implements PosixFileAttributes {
+	private final int inodePtr;
+	private final int modeBits;
+	private final int uid;
+	private final int gid;
+	private final long size;
+	private final long accessSeconds;
+	private final long changeSeconds;
+	private final long modifiedSeconds;
+	private final int links;
+
+	/**
+	 * Creates a new Ext2FileAttributes from an inode seen through a view
+	 * @param ptr Pointer to the inode
+	 * @param inode The view of the inode
+	 */
+	Ext2FileAttributes(int ptr, InodeView inode) {
+		inodePtr = ptr;
+		modeBits = inode.getModeBits();
+		uid = inode.getUserID() & 0xFFFF;
+		gid = inode.getGroupID() & 0xFFFF;
+		size = inode.getFileSize();
+		accessSeconds = inode.getLastAccessSeconds();
+		changeSeconds = inode.getCreationSeconds();
+		modifiedSeconds = inode.getLastModifiedSeconds();
+		links = inode.getHardLinks() & 0xFFFF;
+	}
+
+	/**
+	 * Creates a new Ext2FileAttributes from an inode
+	 * @param ptr Pointer to the inode
+	 * @param inode The inode
+	 */
+	Ext2FileAttributes(int ptr, Inode inode) {
+		inodePtr = ptr;
+		modeBits = inode.getModeBits();
+		uid = inode.getUserID() & 0xFFFF;
+		gid = inode.getGroupID() & 0xFFFF;
+		size = inode.getFileSize();
+		accessSeconds = inode.getLastAccess().getTime() / 1000;
+		changeSeconds = inode.getCreationTime().getTime() / 1000;
+		modifiedSeconds = inode.getLastModified().getTime() / 1000;
+		links = inode.getHardLinks() & 0xFFFF;
+	}
+
+	/**
+	 * Returns the pointer to the file's inode
+	 * @return Inode pointer
+	 */
+	int getInodePtr() {
+		return inodePtr;
+	}
+
+	/**
+	 * Returns the amount of directory entries linking to the file
+	 * @return Hard link count
+	 */
+	int getHardLinks() {
+		return links;
+	}
+
+	/**
+	 * Returns the file's mode, its type and permission bits
+	 * @return Mode bits
+	 */
+	int getModeBits() {
+		return modeBits;
+	}
+
+	@Override
+	public FileTime lastModifiedTime() {
+		return FileTime.from(modifiedSeconds, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public FileTime lastAccessTime() {
+		return FileTime.from(accessSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * EXT2 doesn't record when a file was made, so this is the inode's change time, as ext2 tools report it
+	 */
+	@Override
+	public FileTime creationTime() {
+		return FileTime.from(changeSeconds, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public boolean isRegularFile() {
+		return (modeBits & 0xF000) == 0x8000;
+	}
+
+	@Override
+	public boolean isDirectory() {
+		return (modeBits & 0xF000) == 0x4000;
+	}
+
+	@Override
+	public boolean isSymbolicLink() {
+		return (modeBits & 0xF000) == 0xA000;
+	}
+
+	@Override
+	public boolean isOther() {
+		return !isRegularFile() && !isDirectory() && !isSymbolicLink();
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public Object fileKey() {
+		return inodePtr;
+	}
+
+	@Override
+	public UserPrincipal owner() {
+		return new User(uid);
+	}
+
+	@Override
+	public GroupPrincipal group() {
+		return new Group(gid);
+	}
+
+	@Override
+	public Set<PosixFilePermission> permissions() {
+		Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+		PosixFilePermission[] all = PosixFilePermission.values(); // OWNER_READ to OTHERS_EXECUTE, highest bit first
+		for (int i = 0; i < all.length; i++) {
+			if((modeBits & (1 << (all.length - 1 - i))) != 0) {
+				permissions.add(all[i]);
+			}
+		}
+		return permissions;
+	}
+
+	// A user known only by its ID
+	private static class User implements UserPrincipal {
+		private final int id;
+
+		private User(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public String getName() {
+			return Integer.toString(id);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other != null && other.getClass() == getClass() && ((User) other).id == id;
+		}
+
+		@Override
+		public int hashCode() {
+			return id;
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+
+	// A group known only by its ID
+	private static class Group extends User implements GroupPrincipal {
+		private Group(int id) {
+			super(id);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+import java.nio.file.FileStore;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileStoreAttributeView;
+import java.nio.file.attribute.PosixFileAttributeView;
+
+/**
+ * @author Oliver Griffiths
+ * The single file store of an Ext2FileSystem, its space worked out from the SuperBlock's block counts.
+ */
+class Ext2FileStore extends FileStore {
+	private final Volume vol;
+
+	/**
+	 * Creates a new Ext2FileStore
+	 * @param v The volume the store describes
+	 */
+	Ext2FileStore(Volume v) {
+		vol = v;
+	}
+
+	@Override
+	public String name() {
+		return vol.getVolumeName();
+	}
+
+	@Override
+	public String type() {
+		return "ext2";
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public long getTotalSpace() {
+		return (0xFFFFFFFFL & vol.getSuperBlock().getBlocks()) * vol.getBlockSize();
+	}
+
+	@Override
+	public long getUsableSpace() {
+		return 0; // Nothing can be written through the file system
+	}
+
+	@Override
+	public long getUnallocatedSpace() {
+		return (0xFFFFFFFFL & vol.getSuperBlock().getFreeBlocks()) * vol.getBlockSize();
+	}
+
+	@Override
+	public boolean supportsFileAttributeView(Class<? extends FileAttributeView> type) {
+		return type == BasicFileAttributeView.class || type == PosixFileAttributeView.class;
+	}
+
+	@Override
+	public boolean supportsFileAttributeView(String name) {
+		return name.equals("basic") || name.equals("posix");
+	}
+
+	@Override
+	public <V extends FileStoreAttributeView> V getFileStoreAttributeView(Class<V> type) {
+		return null;
+	}
+
+	@Override
+	public Object getAttribute(String attribute) {
+		switch(attribute) {
+			case "totalSpace":
+				return getTotalSpace();
+			case "usableSpace":
+				return getUsableSpace();
+			case "unallocatedSpace":
+				return getUnallocatedSpace();
+			default:
+				throw new UnsupportedOperationException("No file store attribute " + attribute);
+		}
+	}
+}
@@ -0,0 +1,412 @@
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedFileSystemException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.NotLinkException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * @author Oliver Griffiths
+ * An EXT2 volume opened through java.nio.file, so Files.walk, Files.newByteChannel, Files.readAttributes and
+ * other NIO tooling work on the files of an image. The file system is read only.
+ *
+ * The attributes of every file are cached by path. Listing a directory reads the inodes of all its entries
+ * together, one inode table block at a time, and caches them, so walking a tree and reading the attributes of
+ * everything in it reads each inode table block once rather than each inode on its own.
+ * Paths are looked up through the cached attributes of their parent directories. Symbolic links aren't followed.
+ */
+public class Ext2FileSystem extends FileSystem {
+	private final int CACHE_ENTRIES = 64 * 1024; // Most paths whose attributes are kept
+	private final int ROOT_INODE_PTR = 2;
+	private final Ext2FileSystemProvider provider;
+	private final Path image;
+	private final Volume vol;
+	private final Ext2Path root;
+	private final Map<String, Ext2FileAttributes> attributes;
+	private final InodeView view = new InodeView(); // Only used while holding the attribute cache's lock
+	private byte[] descriptorTable;
+	private volatile boolean open = true;
+
+	/**
+	 * Creates a new Ext2FileSystem
+	 * @param provider The provider that opened the file system
+	 * @param image The real path of the image
+	 * @param v The volume held in the image
+	 */
+	Ext2FileSystem(Ext2FileSystemProvider provider, Path image, Volume v) {
+		this.provider = provider;
+		this.image = image;
+		vol = v;
+		root = new Ext2Path(this, "/");
+		attributes = new LinkedHashMap<String, Ext2FileAttributes>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Ext2FileAttributes> eldest) {
+				return size() > CACHE_ENTRIES;
+			}
+		};
+	}
+
+	@Override
+	public FileSystemProvider provider() {
+		return provider;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if(open) {
+			open = false;
+			provider.closed(image);
+			vol.close();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public String getSeparator() {
+		return "/";
+	}
+
+	@Override
+	public Iterable<Path> getRootDirectories() {
+		return Collections.<Path>singletonList(root);
+	}
+
+	@Override
+	public Iterable<FileStore> getFileStores() {
+		return Collections.<FileStore>singletonList(new Ext2FileStore(vol));
+	}
+
+	@Override
+	public Set<String> supportedFileAttributeViews() {
+		return new HashSet<String>(Arrays.asList("basic", "posix"));
+	}
+
+	@Override
+	public Path getPath(String first, String... more) {
+		StringBuilder path = new StringBuilder(first);
+		for (String name : more) {
+			if(!name.isEmpty()) {
+				path.append('/').append(name);
+			}
+		}
+		return new Ext2Path(this, path.toString());
+	}
+
+	@Override
+	public PathMatcher getPathMatcher(String syntaxAndPattern) {
+		int colon = syntaxAndPattern.indexOf(':');
+		if(colon <= 0) {
+			throw new IllegalArgumentException("Expected syntax:pattern, got " + syntaxAndPattern);
+		}
+		String syntax = syntaxAndPattern.substring(0, colon);
+		String pattern = syntaxAndPattern.substring(colon + 1);
+		final Pattern regex;
+		if(syntax.equalsIgnoreCase("glob")) {
+			regex = Pattern.compile(globToRegex(pattern));
+		} else if(syntax.equalsIgnoreCase("regex")) {
+			regex = Pattern.compile(pattern);
+		} else {
+			throw new UnsupportedOperationException("Unknown pattern syntax " + syntax);
+		}
+		return path -> regex.matcher(path.toString()).matches();
+	}
+
+	@Override
+	public UserPrincipalLookupService getUserPrincipalLookupService() {
+		throw new UnsupportedOperationException("Volumes only hold numeric user and group IDs");
+	}
+
+	@Override
+	public WatchService newWatchService() {
+		throw new UnsupportedOperationException("Volumes can't be watched");
+	}
+
+	/**
+	 * Returns the volume behind the file system
+	 * @return The volume
+	 */
+	public Volume getVolume() {
+		return vol;
+	}
+
+	/**
+	 * Returns the URI of a path on the file system
+	 * @param path The absolute path
+	 * @return URI of the path
+	 */
+	URI toUri(String path) {
+		return provider.toUri(image, path);
+	}
+
+	/**
+	 * Returns the attributes of a file, from the cache if they're there, otherwise looked up through
+	 * the attributes of the file's parent directory
+	 * @param path The path of the file
+	 * @return The file's attributes
+	 * @throws IOException If the file doesn't exist or the file system is closed
+	 */
+	Ext2FileAttributes readAttributes(Ext2Path path) throws IOException {
+		if(!open) {
+			throw new ClosedFileSystemException();
+		}
+		Ext2Path absolute = (Ext2Path) path.toAbsolutePath().normalize();
+		String key = absolute.toString();
+		synchronized(attributes) {
+			Ext2FileAttributes cached = attributes.get(key);
+			if(cached != null) {
+				return cached;
+			}
+		}
+		Ext2Path parent = (Ext2Path) absolute.getParent();
+		int inodePtr = ROOT_INODE_PTR;
+		if(parent != null) {
+			Ext2FileAttributes directory = readAttributes(parent);
+			if(!directory.isDirectory()) {
+				throw new NoSuchFileException(path.toString());
+			}
+			inodePtr = find(directory.getInodePtr(), absolute.getFileName().toString());
+			if(inodePtr <= 0) {
+				throw new NoSuchFileException(path.toString());
+			}
+		}
+		Ext2FileAttributes loaded = new Ext2FileAttributes(inodePtr, vol.getInode(inodePtr));
+		synchronized(attributes) {
+			attributes.put(key, loaded);
+		}
+		return loaded;
+	}
+
+	/**
+	 * Lists a directory, reading and caching the attributes of all its entries on the way
+	 * @param dir The directory
+	 * @param filter Decides which entries are listed
+	 * @return The entries of the directory, not counting "." and ".."
+	 * @throws IOException If the directory doesn't exist or isn't a directory
+	 */
+	DirectoryStream<Path> newDirectoryStream(final Ext2Path dir, final DirectoryStream.Filter<? super Path> filter) throws IOException {
+		Ext2FileAttributes directory = readAttributes(dir);
+		if(!directory.isDirectory()) {
+			throw new NotDirectoryException(dir.toString());
+		}
+		final List<Path> entries = new ArrayList<Path>();
+		final List<Integer> inodePtrs = new ArrayList<Integer>();
+		new Directory(vol.getInode(directory.getInodePtr()), vol).forEachEntry(new EntryVisitor() {
+			public boolean entry(int inodePtr, int type, String name) {
+				if(!name.equals(".") && !name.equals("..")) {
+					entries.add(dir.resolve(name));
+					inodePtrs.add(inodePtr);
+				}
+				return true;
+			}
+		});
+		cacheAttributes(entries, inodePtrs);
+
+		return new DirectoryStream<Path>() {
+			private boolean iterated = false;
+			private boolean closed = false;
+
+			@Override
+			public Iterator<Path> iterator() {
+				if(iterated || closed) {
+					throw new IllegalStateException("A directory stream can only be iterated once");
+				}
+				iterated = true;
+				final Iterator<Path> all = entries.iterator();
+				return new Iterator<Path>() {
+					private Path next;
+
+					@Override
+					public boolean hasNext() {
+						try {
+							while(next == null && !closed && all.hasNext()) {
+								Path candidate = all.next();
+								if(filter == null || filter.accept(candidate)) {
+									next = candidate;
+								}
+							}
+						} catch (IOException e) {
+							throw new DirectoryIteratorException(e);
+						}
+						return next != null;
+					}
+
+					@Override
+					public Path next() {
+						if(!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						Path path = next;
+						next = null;
+						return path;
+					}
+				};
+			}
+
+			@Override
+			public void close() {
+				closed = true;
+			}
+		};
+	}
+
+	/**
+	 * Opens a file for reading
+	 * @param path The path of the file
+	 * @return The file
+	 * @throws IOException If the file doesn't exist
+	 */
+	Ext2File openFile(Ext2Path path) throws IOException {
+		return new Ext2File(vol, readAttributes(path).getInodePtr());
+	}
+
+	/**
+	 * Reads where a symbolic link points, from its block pointers for short targets or its data block otherwise
+	 * @param link The path of the link
+	 * @return The target of the link
+	 * @throws IOException If the path doesn't exist or isn't a symbolic link
+	 */
+	Path readSymbolicLink(Ext2Path link) throws IOException {
+		Ext2FileAttributes linkAttributes = readAttributes(link);
+		if(!linkAttributes.isSymbolicLink()) {
+			throw new NotLinkException(link.toString());
+		}
+		Inode inode = vol.getInode(linkAttributes.getInodePtr());
+		byte[] target = new byte[(int) inode.getFileSize()];
+		if(inode.hasBlocks()) {
+			vol.readFile(inode, 0, target, 0, target.length);
+		} else { // A fast link keeps its target where the block pointers would be
+			ByteBuffer pointers = ByteBuffer.allocate(60).order(ByteOrder.LITTLE_ENDIAN);
+			pointers.asIntBuffer().put(inode.getBlockPointers()).put(inode.getIndirectPointer())
+				.put(inode.getDoubleIndirectPointer()).put(inode.getTripleIndirectPointer());
+			pointers.get(target);
+		}
+		return new Ext2Path(this, new String(target, StandardCharsets.UTF_8));
+	}
+
+	// The inode of a name in a directory, or -1 if it's not there
+	private int find(int directoryPtr, final String name) {
+		final int[] found = {-1};
+		new Directory(vol.getInode(directoryPtr), vol).forEachEntry(new EntryViewVisitor() {
+			public boolean entry(DirectoryEntryView entry) {
+				if(entry.nameEquals(name)) {
+					found[0] = entry.getInodePtr();
+					return false;
+				}
+				return true;
+			}
+		});
+		return found[0];
+	}
+
+	// Reads the inodes of a directory's entries in inode order, each inode table block once, and caches their attributes
+	private void cacheAttributes(List<Path> paths, final List<Integer> inodePtrs) {
+		Integer[] order = new Integer[paths.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(inodePtrs.get(a), inodePtrs.get(b)));
+
+		SuperBlock superBlock = vol.getSuperBlock();
+		long blockSize = vol.getBlockSize();
+		int inodeSize = superBlock.getInodeSize();
+		int groupInodes = superBlock.getGroupInodes();
+		long currentBlock = -1;
+		byte[] block = null;
+		synchronized(attributes) {
+			if(descriptorTable == null) {
+				descriptorTable = vol.readDescriptorTable();
+			}
+			GroupDescriptorView descriptor = new GroupDescriptorView();
+			for (int i : order) {
+				int inodePtr = inodePtrs.get(i);
+				int group = (inodePtr - 1) / groupInodes;
+				long offset = (long) ((inodePtr - 1) % groupInodes) * inodeSize;
+				long tableBlock = (0xFFFFFFFFL & descriptor.wrap(descriptorTable, group).getInodeTablePtr()) + (offset / blockSize);
+				if(tableBlock != currentBlock) {
+					block = vol.readBlock(tableBlock);
+					currentBlock = tableBlock;
+				}
+				view.wrap(block, (int) (offset % blockSize));
+				attributes.put(((Ext2Path) paths.get(i).toAbsolutePath().normalize()).toString(), new Ext2FileAttributes(inodePtr, view));
+			}
+		}
+	}
+
+	// A glob over whole paths: * and ? stay within a name, ** crosses names, [...] and {a,b} as usual
+	private static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		boolean inSet = false;
+		boolean inGroup = false;
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if(inSet) {
+				if(c == '\\' || c == '[' || c == '&') { // Plain characters in a glob set, but not in a regex one
+					regex.append('\\');
+				}
+				regex.append(c);
+				inSet = c != ']';
+			} else if(c == '\\' && i + 1 < glob.length()) {
+				regex.append(Pattern.quote(String.valueOf(glob.charAt(++i))));
+			} else if(c == '*') {
+				if(i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+					regex.append(".*");
+					i++;
+				} else {
+					regex.append("[^/]*");
+				}
+			} else if(c == '?') {
+				regex.append("[^/]");
+			} else if(c == '[') {
+				regex.append('[');
+				if(i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+					regex.append('^');
+					i++;
+				}
+				inSet = true;
+			} else if(c == '{' && !inGroup) {
+				regex.append("(?:");
+				inGroup = true;
+			} else if(c == '}' && inGroup) {
+				regex.append(')');
+				inGroup = false;
+			} else if(c == ',' && inGroup) {
+				regex.append('|');
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.toString();
+	}
+}
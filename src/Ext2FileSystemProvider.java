@@ -0,0 +1,335 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @author Oliver Griffiths
+ * Opens EXT2 images, raw or compressed, as read only java.nio.file file systems. Registered as a service,
+ * so FileSystems.newFileSystem(image, null) picks it for any file holding an EXT2 volume.
+ * Paths can also be given as URIs of the form ext2:file:///path/to/image!/path/on/volume.
+ */
+public class Ext2FileSystemProvider extends FileSystemProvider {
+	private final int SUPERBLOCK_MAGIC = 0xEF53;
+	private final Map<Path, Ext2FileSystem> systems = new ConcurrentHashMap<Path, Ext2FileSystem>();
+
+	@Override
+	public String getScheme() {
+		return "ext2";
+	}
+
+	@Override
+	public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+		return newFileSystem(imageOf(uri), env);
+	}
+
+	@Override
+	public FileSystem newFileSystem(Path path, Map<String, ?> env) throws IOException {
+		if(!isImage(path)) {
+			throw new UnsupportedOperationException(path + " doesn't hold an EXT2 volume");
+		}
+		Path image = path.toRealPath();
+		synchronized(systems) {
+			if(systems.containsKey(image)) {
+				throw new FileSystemAlreadyExistsException(image.toString());
+			}
+			Ext2FileSystem fs = new Ext2FileSystem(this, image, new Volume(image.toString()));
+			systems.put(image, fs);
+			return fs;
+		}
+	}
+
+	@Override
+	public FileSystem getFileSystem(URI uri) {
+		Ext2FileSystem fs = null;
+		try {
+			fs = systems.get(imageOf(uri).toRealPath());
+		} catch (IOException e) {
+			// An image that can't be found can't have been opened
+		}
+		if(fs == null) {
+			throw new FileSystemNotFoundException(uri.toString());
+		}
+		return fs;
+	}
+
+	@Override
+	public Path getPath(URI uri) {
+		String part = uri.getSchemeSpecificPart();
+		int bang = part.indexOf("!/");
+		return getFileSystem(uri).getPath(bang < 0 ? "/" : part.substring(bang + 1));
+	}
+
+	@Override
+	public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+		if(options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND)) {
+			throw new ReadOnlyFileSystemException();
+		}
+		Ext2Path file = check(path);
+		Ext2FileSystem fs = (Ext2FileSystem) file.getFileSystem();
+		if(fs.readAttributes(file).isDirectory()) {
+			throw new FileSystemException(path.toString(), null, "Is a directory");
+		}
+		return new Ext2ByteChannel(fs.openFile(file));
+	}
+
+	@Override
+	public DirectoryStream<Path> newDirectoryStream(Path dir, DirectoryStream.Filter<? super Path> filter) throws IOException {
+		Ext2Path directory = check(dir);
+		return ((Ext2FileSystem) directory.getFileSystem()).newDirectoryStream(directory, filter);
+	}
+
+	@Override
+	public void createDirectory(Path dir, FileAttribute<?>... attrs) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void delete(Path path) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void copy(Path source, Path target, CopyOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public void move(Path source, Path target, CopyOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public boolean isSameFile(Path path, Path path2) throws IOException {
+		if(path.equals(path2)) {
+			return true;
+		}
+		if(!(path2 instanceof Ext2Path) || path2.getFileSystem() != path.getFileSystem()) {
+			return false;
+		}
+		return attributes(path).getInodePtr() == attributes(path2).getInodePtr();
+	}
+
+	@Override
+	public boolean isHidden(Path path) {
+		Path name = check(path).getFileName();
+		return name != null && name.toString().startsWith(".");
+	}
+
+	@Override
+	public FileStore getFileStore(Path path) {
+		return new Ext2FileStore(((Ext2FileSystem) check(path).getFileSystem()).getVolume());
+	}
+
+	@Override
+	public void checkAccess(Path path, AccessMode... modes) throws IOException {
+		attributes(path); // Throws if the file doesn't exist
+		for (AccessMode mode : modes) {
+			if(mode == AccessMode.WRITE) {
+				throw new AccessDeniedException(path.toString(), null, "Read only file system");
+			}
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+		if(type != BasicFileAttributeView.class && type != PosixFileAttributeView.class) {
+			return null;
+		}
+		return (V) new AttributeView(check(path), type == PosixFileAttributeView.class ? "posix" : "basic");
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException {
+		if(type != BasicFileAttributes.class && type != PosixFileAttributes.class) {
+			throw new UnsupportedOperationException("No attributes of type " + type.getName());
+		}
+		return (A) attributes(path);
+	}
+
+	@Override
+	public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+		String view = "basic";
+		int colon = attributes.indexOf(':');
+		if(colon >= 0) {
+			view = attributes.substring(0, colon);
+			attributes = attributes.substring(colon + 1);
+		}
+		if(!view.equals("basic") && !view.equals("posix")) {
+			throw new UnsupportedOperationException("No attribute view " + view);
+		}
+		PosixFileAttributes read = attributes(path);
+		Map<String, Object> all = new HashMap<String, Object>();
+		all.put("lastModifiedTime", read.lastModifiedTime());
+		all.put("lastAccessTime", read.lastAccessTime());
+		all.put("creationTime", read.creationTime());
+		all.put("size", read.size());
+		all.put("isRegularFile", read.isRegularFile());
+		all.put("isDirectory", read.isDirectory());
+		all.put("isSymbolicLink", read.isSymbolicLink());
+		all.put("isOther", read.isOther());
+		all.put("fileKey", read.fileKey());
+		if(view.equals("posix")) {
+			all.put("owner", read.owner());
+			all.put("group", read.group());
+			all.put("permissions", read.permissions());
+		}
+		if(attributes.equals("*")) {
+			return all;
+		}
+		Map<String, Object> chosen = new HashMap<String, Object>();
+		for (String name : attributes.split(",")) {
+			if(!all.containsKey(name)) {
+				throw new IllegalArgumentException("No " + view + " attribute " + name);
+			}
+			chosen.put(name, all.get(name));
+		}
+		return chosen;
+	}
+
+	@Override
+	public void setAttribute(Path path, String attribute, Object value, LinkOption... options) {
+		throw new ReadOnlyFileSystemException();
+	}
+
+	@Override
+	public Path readSymbolicLink(Path link) throws IOException {
+		Ext2Path path = check(link);
+		return ((Ext2FileSystem) path.getFileSystem()).readSymbolicLink(path);
+	}
+
+	/**
+	 * Called by a file system once it's been closed, so its image can be opened again
+	 * @param image The real path of the image
+	 */
+	void closed(Path image) {
+		systems.remove(image);
+	}
+
+	/**
+	 * Builds the URI of a path on an image
+	 * @param image The real path of the image
+	 * @param path The absolute path on the volume
+	 * @return URI of the path
+	 */
+	URI toUri(Path image, String path) {
+		return URI.create(getScheme() + ":" + image.toUri() + "!" + path);
+	}
+
+	// Whether a file starts like a compressed image or has the EXT2 magic number in its SuperBlock
+	private boolean isImage(Path path) {
+		if(!Files.isRegularFile(path)) {
+			return false;
+		}
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+			if(in.readInt() == CompressedStorage.MAGIC) {
+				return true;
+			}
+			in.readFully(new byte[1024 + 56 - 4]); // Up to the magic number in the SuperBlock
+			return (in.readUnsignedByte() | (in.readUnsignedByte() << 8)) == SUPERBLOCK_MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private Path imageOf(URI uri) {
+		if(!getScheme().equalsIgnoreCase(uri.getScheme())) {
+			throw new IllegalArgumentException("Not an " + getScheme() + " URI: " + uri);
+		}
+		String part = uri.getSchemeSpecificPart();
+		int bang = part.indexOf("!/");
+		return Paths.get(URI.create(bang < 0 ? part : part.substring(0, bang)));
+	}
+
+	private Ext2FileAttributes attributes(Path path) throws IOException {
+		Ext2Path file = check(path);
+		return ((Ext2FileSystem) file.getFileSystem()).readAttributes(file);
+	}
+
+	private static Ext2Path check(Path path) {
+		if(!(path instanceof Ext2Path)) {
+			throw new ProviderMismatchException(path + " isn't on an EXT2 volume");
+		}
+		return (Ext2Path) path;
+	}
+
+	// Attribute views just read the cached attributes, as nothing can be changed
+	private class AttributeView implements PosixFileAttributeView {
+		private final Ext2Path path;
+		private final String name;
+
+		private AttributeView(Ext2Path path, String name) {
+			this.path = path;
+			this.name = name;
+		}
+
+		@Override
+		public String name() {
+			return name;
+		}
+
+		@Override
+		public PosixFileAttributes readAttributes() throws IOException {
+			return attributes(path);
+		}
+
+		@Override
+		public UserPrincipal getOwner() throws IOException {
+			return attributes(path).owner();
+		}
+
+		@Override
+		public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) {
+			throw new ReadOnlyFileSystemException();
+		}
+
+		@Override
+		public void setOwner(UserPrincipal owner) {
+			throw new ReadOnlyFileSystemException();
+		}
+
+		@Override
+		public void setPermissions(Set<PosixFilePermission> perms) {
+			throw new ReadOnlyFileSystemException();
+		}
+
+		@Override
+		public void setGroup(GroupPrincipal group) {
+			throw new ReadOnlyFileSystemException();
+		}
+	}
+}
@@ -0,0 +1,303 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * @author Oliver Griffiths
+ * A path on an EXT2 volume opened as an Ext2FileSystem. Paths are kept as strings with single slashes between
+ * names and no slash on the end, so two paths naming the same file the same way are equal.
+ */
+class Ext2Path implements Path {
+	private final Ext2FileSystem fs;
+	private final String path;
+	private String[] names; // Split out when first needed
+
+	/**
+	 * Creates a new Ext2Path
+	 * @param fileSystem The file system the path belongs to
+	 * @param path The path, with or without a leading slash
+	 */
+	Ext2Path(Ext2FileSystem fileSystem, String path) {
+		fs = fileSystem;
+		this.path = tidy(path);
+	}
+
+	@Override
+	public FileSystem getFileSystem() {
+		return fs;
+	}
+
+	@Override
+	public boolean isAbsolute() {
+		return path.startsWith("/");
+	}
+
+	@Override
+	public Path getRoot() {
+		return isAbsolute() ? new Ext2Path(fs, "/") : null;
+	}
+
+	@Override
+	public Path getFileName() {
+		String[] parts = names();
+		if(parts.length == 0) {
+			return path.isEmpty() ? this : null; // The empty path is its own file name, the root has none
+		}
+		return new Ext2Path(fs, parts[parts.length - 1]);
+	}
+
+	@Override
+	public Path getParent() {
+		int slash = path.lastIndexOf('/');
+		if(slash < 0 || path.equals("/")) {
+			return null;
+		}
+		return new Ext2Path(fs, slash == 0 ? "/" : path.substring(0, slash));
+	}
+
+	@Override
+	public int getNameCount() {
+		return path.isEmpty() ? 1 : names().length;
+	}
+
+	@Override
+	public Path getName(int index) {
+		if(path.isEmpty() && index == 0) {
+			return this;
+		}
+		String[] parts = names();
+		if(index < 0 || index >= parts.length) {
+			throw new IllegalArgumentException("No name " + index + " in " + path);
+		}
+		return new Ext2Path(fs, parts[index]);
+	}
+
+	@Override
+	public Path subpath(int beginIndex, int endIndex) {
+		String[] parts = names();
+		if(beginIndex < 0 || endIndex > parts.length || beginIndex >= endIndex) {
+			throw new IllegalArgumentException("No names " + beginIndex + " to " + endIndex + " in " + path);
+		}
+		return new Ext2Path(fs, String.join("/", Arrays.copyOfRange(parts, beginIndex, endIndex)));
+	}
+
+	@Override
+	public boolean startsWith(Path other) {
+		Ext2Path prefix = check(other);
+		if(prefix.isAbsolute() != isAbsolute()) {
+			return false;
+		}
+		String[] parts = names();
+		String[] start = prefix.names();
+		if(start.length > parts.length) {
+			return false;
+		}
+		for (int i = 0; i < start.length; i++) {
+			if(!start[i].equals(parts[i])) {
+				return false;
+			}
+		}
+		return start.length > 0 || prefix.isAbsolute() || path.isEmpty();
+	}
+
+	@Override
+	public boolean startsWith(String other) {
+		return startsWith(new Ext2Path(fs, other));
+	}
+
+	@Override
+	public boolean endsWith(Path other) {
+		Ext2Path suffix = check(other);
+		if(suffix.isAbsolute()) {
+			return suffix.equals(this);
+		}
+		String[] parts = names();
+		String[] end = suffix.names();
+		if(end.length > parts.length || end.length == 0) {
+			return suffix.path.equals(path);
+		}
+		for (int i = 1; i <= end.length; i++) {
+			if(!end[end.length - i].equals(parts[parts.length - i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean endsWith(String other) {
+		return endsWith(new Ext2Path(fs, other));
+	}
+
+	@Override
+	public Path normalize() {
+		List<String> kept = new ArrayList<String>();
+		for (String name : names()) {
+			if(name.equals(".")) {
+				continue;
+			}
+			if(name.equals("..") && !kept.isEmpty() && !kept.get(kept.size() - 1).equals("..")) {
+				kept.remove(kept.size() - 1);
+			} else if(!(name.equals("..") && isAbsolute())) { // Nothing is above the root
+				kept.add(name);
+			}
+		}
+		return new Ext2Path(fs, (isAbsolute() ? "/" : "") + String.join("/", kept));
+	}
+
+	@Override
+	public Path resolve(Path other) {
+		Ext2Path child = check(other);
+		if(child.isAbsolute()) {
+			return child;
+		}
+		if(child.path.isEmpty()) {
+			return this;
+		}
+		if(path.isEmpty()) {
+			return child;
+		}
+		return new Ext2Path(fs, path.equals("/") ? "/" + child.path : path + "/" + child.path);
+	}
+
+	@Override
+	public Path resolve(String other) {
+		return resolve(new Ext2Path(fs, other));
+	}
+
+	@Override
+	public Path resolveSibling(Path other) {
+		Path parent = getParent();
+		return parent == null ? check(other) : parent.resolve(other);
+	}
+
+	@Override
+	public Path resolveSibling(String other) {
+		return resolveSibling(new Ext2Path(fs, other));
+	}
+
+	@Override
+	public Path relativize(Path other) {
+		Ext2Path target = check(other);
+		if(target.isAbsolute() != isAbsolute()) {
+			throw new IllegalArgumentException("Can't relativize " + other + " against " + path);
+		}
+		String[] from = names();
+		String[] to = target.names();
+		int common = 0;
+		while(common < from.length && common < to.length && from[common].equals(to[common])) {
+			common++;
+		}
+		List<String> relative = new ArrayList<String>();
+		for (int i = common; i < from.length; i++) {
+			relative.add("..");
+		}
+		relative.addAll(Arrays.asList(to).subList(common, to.length));
+		return new Ext2Path(fs, String.join("/", relative));
+	}
+
+	@Override
+	public URI toUri() {
+		return fs.toUri(toAbsolutePath().toString());
+	}
+
+	@Override
+	public Path toAbsolutePath() {
+		return isAbsolute() ? this : new Ext2Path(fs, "/" + path); // Relative paths are taken from the root
+	}
+
+	@Override
+	public Path toRealPath(LinkOption... options) throws IOException {
+		Path real = toAbsolutePath().normalize();
+		if(fs.getVolume().getInodePtrFromPath(real.toString()) < 0) {
+			throw new NoSuchFileException(toString());
+		}
+		return real;
+	}
+
+	@Override
+	public File toFile() {
+		throw new UnsupportedOperationException("Paths on a volume aren't files of the default file system");
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) {
+		throw new UnsupportedOperationException("Volumes can't be watched");
+	}
+
+	@Override
+	public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) {
+		throw new UnsupportedOperationException("Volumes can't be watched");
+	}
+
+	@Override
+	public Iterator<Path> iterator() {
+		List<Path> parts = new ArrayList<Path>();
+		for (int i = 0; i < getNameCount(); i++) {
+			parts.add(getName(i));
+		}
+		return parts.iterator();
+	}
+
+	@Override
+	public int compareTo(Path other) {
+		return path.compareTo(check(other).path);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Ext2Path && ((Ext2Path) other).fs == fs && ((Ext2Path) other).path.equals(path);
+	}
+
+	@Override
+	public int hashCode() {
+		return path.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+
+	private String[] names() {
+		if(names == null) {
+			String relative = isAbsolute() ? path.substring(1) : path;
+			names = relative.isEmpty() ? new String[0] : relative.split("/");
+		}
+		return names;
+	}
+
+	private Ext2Path check(Path other) {
+		if(!(other instanceof Ext2Path) || ((Ext2Path) other).fs != fs) {
+			throw new ProviderMismatchException(other + " isn't on the same volume as " + path);
+		}
+		return (Ext2Path) other;
+	}
+
+	// Collapses repeated slashes and drops a slash on the end
+	private static String tidy(String path) {
+		StringBuilder tidied = new StringBuilder(path.length());
+		for (int i = 0; i < path.length(); i++) {
+			char c = path.charAt(i);
+			if(c != '/' || tidied.length() == 0 || tidied.charAt(tidied.length() - 1) != '/') {
+				tidied.append(c);
+			}
+		}
+		if(tidied.length() > 1 && tidied.charAt(tidied.length() - 1) == '/') {
+			tidied.setLength(tidied.length() - 1);
+		}
+		return tidied.toString();
+	}
+}
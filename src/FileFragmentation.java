@@ -0,0 +1,92 @@
+/**
+ * @author Oliver Griffiths
+ * Describes how a file's blocks are laid out on the volume, as measured by Fragmentation.
+ */
+public class FileFragmentation {
+	private int inodePtr;
+	private long size;
+	private long blocks;
+	private long extents;
+	private long seekDistance;
+	private String path;
+
+	/**
+	 * Creates a new FileFragmentation
+	 * @param ptr Pointer to the inode of the file
+	 * @param fileSize The size of the file in bytes
+	 * @param blockCount The amount of blocks read for the file, pointer tables included
+	 * @param extentCount The amount of physically contiguous runs the blocks form
+	 * @param seek The total distance in blocks jumped between runs
+	 */
+	public FileFragmentation(int ptr, long fileSize, long blockCount, long extentCount, long seek) {
+		inodePtr = ptr;
+		size = fileSize;
+		blocks = blockCount;
+		extents = extentCount;
+		seekDistance = seek;
+	}
+
+	/**
+	 * Returns the pointer to the Inode of the file
+	 * @return Inode pointer
+	 */
+	public int getInodePtr() {
+		return inodePtr;
+	}
+
+	/**
+	 * Returns the size of the file in bytes
+	 * @return Filesize
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the amount of blocks read for the file, indirect pointer tables included
+	 * @return Block count
+	 */
+	public long getBlocks() {
+		return blocks;
+	}
+
+	/**
+	 * Returns the amount of physically contiguous runs the file's blocks form
+	 * @return Extent count
+	 */
+	public long getExtents() {
+		return extents;
+	}
+
+	/**
+	 * Returns the average length of the file's extents in blocks
+	 * @return Average extent length
+	 */
+	public double getAverageExtentLength() {
+		return extents == 0 ? 0 : (double) blocks / extents;
+	}
+
+	/**
+	 * Returns the total distance in blocks a sequential read of the file has to jump between extents
+	 * @return Seek distance
+	 */
+	public long getSeekDistance() {
+		return seekDistance;
+	}
+
+	/**
+	 * Returns the path of the file, if it has been looked up
+	 * @return The path, or null if unknown
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Sets the path of the file
+	 * @param p The path leading to the file
+	 */
+	public void setPath(String p) {
+		path = p;
+	}
+}
@@ -0,0 +1,555 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * @author Oliver Griffiths
+ * A small HTTP/1.1 server handing out the files of a volume, with URL paths mapped straight to paths on the volume.
+ * Files are served whole or as a single byte range, directories as a JSON listing of their entries,
+ * and If-Modified-Since is answered from the inode's modification time.
+ *
+ * Every connection is handled by one thread on a selector, so many idle or slow clients cost only their buffers.
+ * A file body is sent a run of contiguous blocks at a time, found from the pointer tables covering the range
+ * being sent. On a raw image each run is transferred from the image to the socket without passing through the heap.
+ */
+public class FileServer {
+	private final Volume vol;
+	private final InetSocketAddress address;
+	private final int maxConnections;
+	private final long idleMillis;
+	private final long blockSize;
+	private final int HEADER_LIMIT = 8 * 1024; // Longest request head accepted
+	private final int BUFFER_SIZE = 16 * 1024; // Body bytes copied at once when they can't be transferred
+	private final int MAP_BLOCKS = 256; // Block pointers looked up at once while sending a file
+	private final ByteBuffer ZEROS = ByteBuffer.allocateDirect(64 * 1024).asReadOnlyBuffer(); // Sent for holes
+	private final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+	private ServerSocketChannel server;
+	private Selector selector;
+	private Thread thread;
+	private volatile boolean running = false;
+	private int connections = 0;
+
+	// The state of one client connection, only ever touched by the selector thread
+	private class Connection {
+		private final SocketChannel channel;
+		private final ByteBuffer request = ByteBuffer.allocate(HEADER_LIMIT);
+		private ByteBuffer head; // The response's status line and headers, and the body if it was built in memory
+		private ByteBuffer buffer; // Body bytes read from the volume waiting to be sent
+		private Inode file; // The file a body is being sent from, or null
+		private long position;
+		private long end;
+		private int[] map; // Physical blocks of the file from mapStart on
+		private long mapStart;
+		private boolean close;
+		private long lastActive = System.currentTimeMillis();
+
+		private Connection(SocketChannel socket) {
+			channel = socket;
+		}
+	}
+
+	/**
+	 * Creates a new FileServer listening on the loopback address
+	 * @param v The volume to serve
+	 * @param port The port to listen on, or 0 for any free port
+	 */
+	public FileServer(Volume v, int port) {
+		this(v, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 10000, 30000);
+	}
+
+	/**
+	 * Creates a new FileServer
+	 * @param v The volume to serve
+	 * @param bindAddress The address and port to listen on
+	 * @param connectionLimit The most connections to have open at once. Further clients wait to be accepted.
+	 * @param idle How long in milliseconds a connection may go quiet before it's closed
+	 */
+	public FileServer(Volume v, InetSocketAddress bindAddress, int connectionLimit, long idle) {
+		vol = v;
+		address = bindAddress;
+		maxConnections = connectionLimit;
+		idleMillis = idle;
+		blockSize = v.getBlockSize();
+	}
+
+	/**
+	 * Starts listening and serving on a thread of its own
+	 * @throws IOException If the address can't be listened on
+	 */
+	public synchronized void start() throws IOException {
+		if(running) {
+			return;
+		}
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		server.bind(address, 1024);
+		server.configureBlocking(false);
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		thread = new Thread(this::serve, "FileServer " + server.getLocalAddress());
+		thread.start();
+	}
+
+	/**
+	 * Returns the port being listened on
+	 * @return Port number
+	 * @throws IOException If the server isn't listening
+	 */
+	public int getPort() throws IOException {
+		return ((InetSocketAddress) server.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Stops serving, closing every connection
+	 * @throws IOException If the listening socket can't be closed
+	 */
+	public synchronized void stop() throws IOException {
+		if(!running) {
+			return;
+		}
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (SelectionKey key : selector.keys()) {
+			key.channel().close();
+		}
+		selector.close();
+	}
+
+	private void serve() {
+		long lastSweep = System.currentTimeMillis();
+		while(running) {
+			try {
+				selector.select(1000);
+			} catch (IOException e) {
+				System.out.println("IO Exception: " + e.getMessage());
+				return;
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while(keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if(!key.isValid()) {
+					continue;
+				}
+				if(key.isAcceptable()) {
+					accept();
+					continue;
+				}
+				Connection connection = (Connection) key.attachment();
+				try {
+					if(key.isReadable()) {
+						read(key, connection);
+					} else if(key.isWritable()) {
+						write(key, connection);
+					}
+				} catch (IOException e) {
+					close(key);
+				} catch (RuntimeException e) { // A corrupt inode or block found partway through a response, which can't be answered with an error any more
+					close(key);
+				}
+			}
+			long now = System.currentTimeMillis();
+			if(now - lastSweep >= 1000) { // Drop connections that have gone quiet
+				lastSweep = now;
+				for (SelectionKey key : selector.keys()) {
+					if(key.attachment() != null && now - ((Connection) key.attachment()).lastActive > idleMillis) {
+						close(key);
+					}
+				}
+			}
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel socket;
+			while(connections < maxConnections && (socket = server.accept()) != null) {
+				socket.configureBlocking(false);
+				socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				socket.register(selector, SelectionKey.OP_READ, new Connection(socket));
+				connections++;
+			}
+			if(connections >= maxConnections) { // Leave further clients in the backlog until a connection closes
+				server.keyFor(selector).interestOps(0);
+			}
+		} catch (IOException e) {
+			System.out.println("IO Exception: " + e.getMessage());
+		}
+	}
+
+	private void close(SelectionKey key) {
+		if(!key.isValid()) {
+			return; // Already closed
+		}
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// Nothing more can be done with the connection
+		}
+		if(connections-- >= maxConnections && server.isOpen()) {
+			server.keyFor(selector).interestOps(SelectionKey.OP_ACCEPT);
+		}
+	}
+
+	private void read(SelectionKey key, Connection c) throws IOException {
+		if(c.channel.read(c.request) < 0) {
+			close(key);
+			return;
+		}
+		c.lastActive = System.currentTimeMillis();
+		handleRequests(key, c);
+	}
+
+	// Answers the next complete request in the buffer, if there is one, and switches to writing the response
+	private void handleRequests(SelectionKey key, Connection c) throws IOException {
+		int headEnd = headEnd(c.request);
+		if(headEnd < 0) {
+			if(!c.request.hasRemaining()) {
+				c.close = true;
+				error(c, 431, "Request Header Fields Too Large");
+				key.interestOps(SelectionKey.OP_WRITE);
+			} else {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+			return;
+		}
+		String head = new String(c.request.array(), 0, headEnd, StandardCharsets.ISO_8859_1);
+		c.request.flip();
+		c.request.position(headEnd + 4);
+		c.request.compact(); // Keep anything pipelined after this request
+		respond(c, head);
+		key.interestOps(SelectionKey.OP_WRITE);
+		write(key, c);
+	}
+
+	private void write(SelectionKey key, Connection c) throws IOException {
+		while(true) {
+			if(c.head != null && c.head.hasRemaining()) {
+				c.channel.write(c.head);
+				if(c.head.hasRemaining()) {
+					return;
+				}
+			}
+			if(c.buffer != null && c.buffer.hasRemaining()) {
+				c.channel.write(c.buffer);
+				if(c.buffer.hasRemaining()) {
+					return;
+				}
+			}
+			if(c.file != null && c.position < c.end) {
+				if(sendBody(c) == 0) {
+					return; // The socket is full, wait until it drains
+				}
+				c.lastActive = System.currentTimeMillis();
+				continue;
+			}
+			break;
+		}
+		// The response is done
+		c.head = null;
+		c.buffer = null;
+		c.file = null;
+		c.map = null;
+		if(c.close) {
+			close(key);
+			return;
+		}
+		handleRequests(key, c);
+	}
+
+	// Sends, or loads ready to send, part of the run of blocks the body's position is in. Returns the bytes moved on.
+	private long sendBody(Connection c) throws IOException {
+		long block = c.position / blockSize;
+		if(c.map == null || block < c.mapStart || block >= c.mapStart + c.map.length) {
+			c.mapStart = block;
+			c.map = vol.mapBlocks(c.file, block, MAP_BLOCKS);
+		}
+		int index = (int) (block - c.mapStart);
+		int physical = c.map[index];
+		int run = 1;
+		while(index + run < c.map.length && (physical == 0 ? c.map[index + run] == 0 : c.map[index + run] == physical + run)) {
+			run++;
+		}
+		long within = c.position % blockSize;
+		long length = Math.min((run * blockSize) - within, c.end - c.position);
+		long moved;
+		if(physical == 0) {
+			ByteBuffer zeros = ZEROS.duplicate();
+			zeros.limit((int) Math.min(zeros.capacity(), length));
+			moved = c.channel.write(zeros);
+		} else {
+			long location = ((0xFFFFFFFFL & physical) * blockSize) + within;
+			Storage storage = vol.getStorage();
+			if(storage instanceof FileStorage) {
+				FileChannel image = ((FileStorage) storage).getChannel();
+				moved = image.transferTo(location, length, c.channel);
+			} else { // The bytes have to be unpacked first, so go through a buffer
+				if(c.buffer == null) {
+					c.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				}
+				c.buffer.clear();
+				int count = (int) Math.min(BUFFER_SIZE, length);
+				storage.read(location, c.buffer.array(), 0, count);
+				c.buffer.limit(count);
+				moved = count;
+			}
+		}
+		c.position += moved;
+		return moved;
+	}
+
+	private void respond(Connection c, String head) {
+		String[] lines = head.split("\r\n");
+		String[] request = lines[0].split(" ");
+		Map<String, String> headers = new HashMap<String, String>();
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if(colon > 0) {
+				headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+			}
+		}
+		if(request.length != 3 || !request[2].startsWith("HTTP/1.")) {
+			c.close = true;
+			error(c, 400, "Bad Request");
+			return;
+		}
+		String connection = headers.getOrDefault("connection", "").toLowerCase();
+		c.close = request[2].equals("HTTP/1.0") ? !connection.equals("keep-alive") : connection.equals("close");
+
+		boolean headOnly = request[0].equals("HEAD");
+		if(!headOnly && !request[0].equals("GET")) {
+			error(c, 405, "Method Not Allowed");
+			return;
+		}
+		String path = decodePath(request[1]);
+		if(path == null) {
+			error(c, 400, "Bad Request");
+			return;
+		}
+		try {
+			int inodePtr = vol.getInodePtrFromPath(path);
+			if(inodePtr < 0) {
+				error(c, 404, "Not Found");
+				return;
+			}
+			Inode inode = vol.getInode(inodePtr);
+			if(inode.isDirectory()) {
+				listing(c, path, inode, headOnly);
+			} else if(inode.isRegularFile()) {
+				file(c, inode, headers, headOnly);
+			} else {
+				error(c, 403, "Forbidden");
+			}
+		} catch (RuntimeException e) {
+			c.close = true;
+			error(c, 500, "Internal Server Error");
+		}
+	}
+
+	private void file(Connection c, Inode inode, Map<String, String> headers, boolean headOnly) {
+		long size = inode.getFileSize();
+		long modified = inode.getLastModified().getTime() / 1000;
+		String since = headers.get("if-modified-since");
+		if(since != null) {
+			try {
+				if(modified <= ZonedDateTime.parse(since, HTTP_DATE).toEpochSecond()) {
+					c.head = head(304, "Not Modified", c.close, "Last-Modified: " + httpDate(modified));
+					return;
+				}
+			} catch (DateTimeParseException e) {
+				// An unreadable date is ignored, as if it wasn't sent
+			}
+		}
+
+		long start = 0;
+		long end = size; // Exclusive
+		int status = 200;
+		String range = headers.get("range");
+		if(range != null && range.startsWith("bytes=") && range.indexOf(',') < 0) { // Several ranges get the whole file instead
+			long[] bounds = parseRange(range.substring(6).trim(), size);
+			if(bounds == null) {
+				c.head = head(416, "Range Not Satisfiable", c.close, "Content-Range: bytes */" + size, "Content-Length: 0");
+				return;
+			}
+			start = bounds[0];
+			end = bounds[1];
+			status = 206;
+		}
+		c.head = head(status, status == 200 ? "OK" : "Partial Content", c.close,
+			"Content-Type: application/octet-stream",
+			"Content-Length: " + (end - start),
+			"Last-Modified: " + httpDate(modified),
+			"Accept-Ranges: bytes",
+			status == 206 ? "Content-Range: bytes " + start + "-" + (end - 1) + "/" + size : null);
+		if(!headOnly && end > start) {
+			c.file = inode;
+			c.position = start;
+			c.end = end;
+		}
+	}
+
+	// A single "first-last", "first-" or "-suffix" range as {start, end exclusive}, or null if it doesn't overlap the file
+	private static long[] parseRange(String spec, long size) {
+		int dash = spec.indexOf('-');
+		if(dash < 0) {
+			return null;
+		}
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+			if(first.isEmpty()) {
+				long suffix = Long.parseLong(last);
+				return suffix <= 0 || size == 0 ? null : new long[] {Math.max(0, size - suffix), size};
+			}
+			long start = Long.parseLong(first);
+			long end = last.isEmpty() ? size : Math.min(size, Long.parseLong(last) + 1);
+			return start >= size || end <= start ? null : new long[] {start, end};
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private void listing(Connection c, String path, Inode inode, boolean headOnly) {
+		final StringBuilder json = new StringBuilder();
+		json.append("{\"path\":");
+		quote(json, path);
+		json.append(",\"entries\":[");
+		new Directory(inode, vol).forEachEntry(new EntryVisitor() {
+			private boolean first = true;
+
+			public boolean entry(int inodePtr, int type, String name) {
+				if(name.equals(".") || name.equals("..")) {
+					return true;
+				}
+				Inode child = vol.getInode(inodePtr);
+				json.append(first ? "{\"name\":" : ",{\"name\":");
+				quote(json, name);
+				json.append(",\"inode\":").append(inodePtr);
+				json.append(",\"type\":\"").append(child.isDirectory() ? "directory" : child.isRegularFile() ? "file" : child.isSymbolicLink() ? "symlink" : "other");
+				json.append("\",\"size\":").append(child.getFileSize());
+				json.append(",\"modified\":").append(child.getLastModified().getTime() / 1000).append('}');
+				first = false;
+				return true;
+			}
+		});
+		json.append("]}");
+		byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+		ByteBuffer head = head(200, "OK", c.close, "Content-Type: application/json; charset=utf-8", "Content-Length: " + body.length);
+		c.head = headOnly ? head : join(head, body);
+	}
+
+	private void error(Connection c, int status, String reason) {
+		byte[] body = (status + " " + reason + "\n").getBytes(StandardCharsets.ISO_8859_1);
+		c.head = join(head(status, reason, c.close, "Content-Type: text/plain", "Content-Length: " + body.length,
+			status == 405 ? "Allow: GET, HEAD" : null), body);
+	}
+
+	private static ByteBuffer head(int status, String reason, boolean close, String... headers) {
+		StringBuilder head = new StringBuilder();
+		head.append("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+		for (String header : headers) {
+			if(header != null) {
+				head.append(header).append("\r\n");
+			}
+		}
+		if(close) {
+			head.append("Connection: close\r\n");
+		}
+		head.append("\r\n");
+		return ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	private static ByteBuffer join(ByteBuffer head, byte[] body) {
+		ByteBuffer joined = ByteBuffer.allocate(head.remaining() + body.length);
+		joined.put(head).put(body).flip();
+		return joined;
+	}
+
+	private String httpDate(long seconds) {
+		return HTTP_DATE.format(Instant.ofEpochSecond(seconds));
+	}
+
+	// Where the blank line ending the request head starts, or -1 if it hasn't all arrived
+	private static int headEnd(ByteBuffer request) {
+		byte[] bytes = request.array();
+		for (int i = 0; i + 3 < request.position(); i++) {
+			if(bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// The volume path of a request target, query dropped and %XX escapes decoded as UTF-8, or null if it's malformed
+	private static String decodePath(String target) {
+		int query = target.indexOf('?');
+		if(query >= 0) {
+			target = target.substring(0, query);
+		}
+		if(!target.startsWith("/")) {
+			return null;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (int i = 0; i < target.length(); i++) {
+			char ch = target.charAt(i);
+			if(ch == '%') {
+				if(i + 2 >= target.length()) {
+					return null;
+				}
+				int high = Character.digit(target.charAt(i + 1), 16);
+				int low = Character.digit(target.charAt(i + 2), 16);
+				if(high < 0 || low < 0) {
+					return null;
+				}
+				bytes.write((high * 16) + low);
+				i += 2;
+			} else {
+				bytes.write(ch);
+			}
+		}
+		String path = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		while(path.length() > 1 && path.endsWith("/")) {
+			path = path.substring(0, path.length() - 1);
+		}
+		return path;
+	}
+
+	private static void quote(StringBuilder json, String text) {
+		json.append('"');
+		for (int i = 0; i < text.length(); i++) {
+			char ch = text.charAt(i);
+			if(ch == '"' || ch == '\\') {
+				json.append('\\').append(ch);
+			} else if(ch < 0x20) {
+				json.append(String.format("\\u%04x", (int) ch));
+			} else {
+				json.append(ch);
+			}
+		}
+		json.append('"');
+	}
+}
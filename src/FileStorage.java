@@ -0,0 +1,80 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * @author Oliver Griffiths
+ * Storage for a raw image, where every byte of the volume sits at the same place in the file.
+ * One channel is kept open and read at explicit positions, so threads can read at the same time.
+ */
+public class FileStorage implements Storage {
+	private final String filename;
+	private volatile FileChannel channel;
+
+	/**
+	 * Creates storage for a raw image file. The file isn't opened until the first read.
+	 * @param filename The path of the image
+	 */
+	public FileStorage(String filename) {
+		this.filename = filename;
+	}
+
+	@Override
+	public void read(long position, byte[] bytes, int offset, int length) throws IOException {
+		FileChannel in = channel();
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+		while(buffer.hasRemaining()) {
+			int read = in.read(buffer, position + (buffer.position() - offset));
+			if(read < 0) {
+				throw new EOFException("Unexpected end of file at byte " + (position + (buffer.position() - offset)));
+			}
+		}
+	}
+
+	@Override
+	public long size() throws IOException {
+		return channel().size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	/**
+	 * Returns the path of the image file
+	 * @return File name
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Returns the channel open on the image, opening it if need be, for transferring bytes straight out of the file.
+	 * The channel must only be read at explicit positions, as other threads share it.
+	 * @return The image's channel
+	 * @throws IOException If the image can't be opened
+	 */
+	public FileChannel getChannel() throws IOException {
+		return channel();
+	}
+
+	private FileChannel channel() throws IOException {
+		FileChannel in = channel;
+		if(in == null) {
+			synchronized(this) {
+				if(channel == null) {
+					channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+				}
+				in = channel;
+			}
+		}
+		return in;
+	}
+}
@@ -0,0 +1,177 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * @author Oliver Griffiths
+ * Measures how fragmented the files of an EXT2 volume are, by following their block pointers
+ * in the order a sequential read would and counting the physically contiguous runs.
+ * Inode tables are scanned in parallel, one block group per task.
+ */
+public class Fragmentation {
+	private final Volume vol;
+	private final int groupInodes;
+	private final int inodeCount;
+	private final int inodeSize;
+	private final int firstInode;
+	private final boolean uninitGroups; // Whether groups can be flagged as never initialised
+
+	private final int ROOT_INODE_PTR = 2;
+
+	/**
+	 * Creates a new Fragmentation analysis for a volume
+	 * @param v The volume to be analysed
+	 */
+	public Fragmentation(Volume v) {
+		vol = v;
+		SuperBlock superBlock = v.getSuperBlock();
+		groupInodes = superBlock.getGroupInodes();
+		inodeCount = superBlock.getInodes();
+		inodeSize = superBlock.getInodeSize();
+		firstInode = superBlock.getFirstInode();
+		uninitGroups = (superBlock.getRoCompatFeatures() & (SuperBlock.RO_COMPAT_GDT_CSUM | SuperBlock.RO_COMPAT_METADATA_CSUM)) != 0;
+	}
+
+	/**
+	 * Measures every file and directory on the volume
+	 * @return The measurements, most fragmented first
+	 */
+	public List<FileFragmentation> analyse() {
+		final List<FileFragmentation> files = Collections.synchronizedList(new ArrayList<FileFragmentation>());
+		final byte[] descriptorTable = uninitGroups ? vol.readDescriptorTable() : null;
+		IntStream.range(0, vol.getGroupCount()).parallel().forEach(group -> analyseGroup(group, descriptorTable, files));
+
+		List<FileFragmentation> sorted = new ArrayList<FileFragmentation>(files);
+		Collections.sort(sorted, new Comparator<FileFragmentation>() {
+			public int compare(FileFragmentation a, FileFragmentation b) {
+				if(a.getExtents() != b.getExtents()) {
+					return Long.compare(b.getExtents(), a.getExtents());
+				}
+				if(a.getSeekDistance() != b.getSeekDistance()) {
+					return Long.compare(b.getSeekDistance(), a.getSeekDistance());
+				}
+				return Integer.compare(a.getInodePtr(), b.getInodePtr());
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Ranks the most fragmented files on the volume and looks up their paths
+	 * @param count The amount of files to rank
+	 * @return The most fragmented files, worst first
+	 */
+	public List<FileFragmentation> worst(int count) {
+		List<FileFragmentation> all = analyse();
+		List<FileFragmentation> worst = new ArrayList<FileFragmentation>(all.subList(0, Math.min(count, all.size())));
+		final Map<Integer, FileFragmentation> wanted = new HashMap<Integer, FileFragmentation>();
+		for (FileFragmentation file : worst) {
+			wanted.put(file.getInodePtr(), file);
+		}
+		if(wanted.containsKey(ROOT_INODE_PTR)) {
+			wanted.remove(ROOT_INODE_PTR).setPath("/");
+		}
+		if(!wanted.isEmpty()) {
+			vol.walkTree("/", new TreeVisitor() {
+				public boolean visit(String path, int inodePtr, boolean directory) {
+					FileFragmentation file = wanted.remove(inodePtr);
+					if(file != null) {
+						file.setPath(path);
+					}
+					return !wanted.isEmpty();
+				}
+			});
+		}
+		return worst;
+	}
+
+	/**
+	 * Returns the share of the given files that are split into more than one extent
+	 * @param files The measured files
+	 * @return Fragmented share, from 0 to 1
+	 */
+	public static double fragmentedShare(List<FileFragmentation> files) {
+		if(files.isEmpty()) {
+			return 0;
+		}
+		long fragmented = 0;
+		for (FileFragmentation file : files) {
+			if(file.getExtents() > 1) {
+				fragmented++;
+			}
+		}
+		return (double) fragmented / files.size();
+	}
+
+	// Reads the group's inode table in one go and measures every live inode in it.
+	// Inodes of a group flagged INODE_UNINIT, or past its used part of the table, were never written, so are skipped.
+	private void analyseGroup(int group, byte[] descriptorTable, List<FileFragmentation> files) {
+		int usedInodes = groupInodes;
+		if(uninitGroups) {
+			GroupDescriptorView desc = new GroupDescriptorView().wrap(descriptorTable, group);
+			if((desc.getFlags() & GroupDescriptorView.INODE_UNINIT) != 0) {
+				return;
+			}
+			usedInodes = groupInodes - desc.getUnusedInodes();
+		}
+		byte[] table = vol.readInodeTable(group);
+		InodeView inode = new InodeView();
+		for (int i = 0; i < usedInodes; i++) {
+			int id = (group * groupInodes) + i + 1;
+			if(id > inodeCount) {
+				break;
+			}
+			if(id < firstInode && id != ROOT_INODE_PTR) { // Reserved inodes aren't files
+				continue;
+			}
+			inode.wrap(table, i * inodeSize);
+			if(inode.getHardLinks() == 0 || !inode.hasBlocks()) {
+				continue;
+			}
+			files.add(measure(id, inode.getFileSize(), visitor -> vol.walkBlocks(inode, visitor)));
+		}
+	}
+
+	/**
+	 * Measures a single file. Pointer tables count as part of the file, since a sequential read
+	 * has to fetch them in between the data blocks they point to.
+	 * @param id Pointer to the inode of the file
+	 * @param inode The inode of the file
+	 * @return The measurements of the file
+	 */
+	public FileFragmentation measure(int id, Inode inode) {
+		return measure(id, inode.getFileSize(), visitor -> vol.walkBlocks(inode, visitor));
+	}
+
+	private FileFragmentation measure(int id, long size, Consumer<BlockVisitor> walk) {
+		final long[] stats = {0, 0, 0, -1}; // Blocks, extents, seek distance, previous block
+		BlockVisitor visitor = new BlockVisitor() {
+			public void dataBlock(long logical, int physical) {
+				next(0xFFFFFFFFL & physical);
+			}
+
+			public boolean indirectBlock(int physical, int level) {
+				next(0xFFFFFFFFL & physical);
+				return true;
+			}
+
+			private void next(long block) {
+				stats[0]++;
+				if(stats[3] < 0 || block != stats[3] + 1) { // Not following on from the previous block, so a new extent starts
+					stats[1]++;
+					if(stats[3] >= 0) {
+						stats[2] += Math.abs(block - (stats[3] + 1));
+					}
+				}
+				stats[3] = block;
+			}
+		};
+		walk.accept(visitor);
+		return new FileFragmentation(id, size, stats[0], stats[1], stats[2]);
+	}
+}
@@ -0,0 +1,128 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author Oliver Griffiths
+ * A reusable view of an EXT2 Group Descriptor inside the descriptor table.
+ * Fields are decoded from the table each time they're asked for, so going through every group
+ * with wrap() doesn't create any objects.
+ */
+public class GroupDescriptorView {
+	private ByteBuffer buffer;
+	private int base;
+
+	private final int BLOCK_DESCRIPTOR_SIZE = 32;
+
+	/**
+	 * Group flag: the inode bitmap and inode table were never written, and every inode is free
+	 */
+	public static final int INODE_UNINIT = 0x0001;
+
+	/**
+	 * Group flag: the block bitmap was never written, and only the group's own metadata is in use
+	 */
+	public static final int BLOCK_UNINIT = 0x0002;
+
+	/**
+	 * Points the view at the descriptor of a block group
+	 * @param table The descriptor table, starting with group 0
+	 * @param group The block group
+	 * @return This view
+	 */
+	public GroupDescriptorView wrap(byte[] table, int group) {
+		if(buffer == null || buffer.array() != table) {
+			buffer = ByteBuffer.wrap(table).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		base = group * BLOCK_DESCRIPTOR_SIZE;
+		return this;
+	}
+
+	/**
+	 * Returns the pointer to the block group's Block bitmap table
+	 * @return Block Bitmap Table Pointer
+	 */
+	public int getBlockBitmapPtr() {
+		return buffer.getInt(base);
+	}
+
+	/**
+	 * Returns the pointer to the block group's Inode bitmap table
+	 * @return Inode Bitmap Table Pointer
+	 */
+	public int getInodeBitmapPtr() {
+		return buffer.getInt(base + 4);
+	}
+
+	/**
+	 * Returns the pointer to the block group's Inode Table
+	 * @return Inode Table Pointer
+	 */
+	public int getInodeTablePtr() {
+		return buffer.getInt(base + 8);
+	}
+
+	/**
+	 * Returns the amount of free blocks in the group
+	 * @return Free Blocks
+	 */
+	public short getFreeBlocks() {
+		return buffer.getShort(base + 12);
+	}
+
+	/**
+	 * Returns the amount of free Inodes in the group
+	 * @return Free Inodes
+	 */
+	public short getFreeInodes() {
+		return buffer.getShort(base + 14);
+	}
+
+	/**
+	 * Returns the amount of used directories in the group
+	 * @return Used Directories
+	 */
+	public short getUsedDirs() {
+		return buffer.getShort(base + 16);
+	}
+
+	/**
+	 * Sets the amount of free blocks in the group
+	 * @param count Free Blocks
+	 */
+	public void setFreeBlocks(int count) {
+		buffer.putShort(base + 12, (short) count);
+	}
+
+	/**
+	 * Sets the amount of free Inodes in the group
+	 * @param count Free Inodes
+	 */
+	public void setFreeInodes(int count) {
+		buffer.putShort(base + 14, (short) count);
+	}
+
+	/**
+	 * Sets the amount of used directories in the group
+	 * @param count Used Directories
+	 */
+	public void setUsedDirs(int count) {
+		buffer.putShort(base + 16, (short) count);
+	}
+
+	/**
+	 * Returns the flags of the group, only set on volumes with descriptor checksums
+	 * @return BLOCK_UNINIT and INODE_UNINIT among others
+	 */
+	public int getFlags() {
+		return buffer.getShort(base + 18) & 0xFFFF;
+	}
+
+	/**
+	 * Returns the amount of inodes at the end of the group's inode table that have never been used,
+	 * only kept on volumes with descriptor checksums
+	 * @return Unused Inodes
+	 */
+	public int getUnusedInodes() {
+		return buffer.getShort(base + 28) & 0xFFFF;
+	}
+}
@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Oliver Griffiths
+ * Works out which blocks of a group hold metadata from the SuperBlock and descriptors alone. A group flagged
+ * BLOCK_UNINIT never had its block bitmap written, and all it has allocated is this metadata: any SuperBlock and
+ * descriptor table copy, with the blocks reserved for the table to grow into, and whichever groups' bitmaps and
+ * inode tables were placed within it, which with flexible block groups need not be its own.
+ */
+class GroupLayout {
+	private final long firstDataBlock;
+	private final long blockCount;
+	private final int groupBlocks;
+	private final long baseBlocks; // The SuperBlock and descriptor table, with the reserved blocks after it
+	private final boolean sparseSuper;
+	private final List<List<long[]>> metadata = new ArrayList<List<long[]>>(); // Bitmaps and inode tables, listed under the group holding them
+
+	/**
+	 * Creates a new GroupLayout, going through every group's descriptor once
+	 * @param vol The volume
+	 * @param descriptorTable The volume's descriptor table, as read by Volume.readDescriptorTable()
+	 */
+	GroupLayout(Volume vol, byte[] descriptorTable) {
+		SuperBlock superBlock = vol.getSuperBlock();
+		long blockSize = vol.getBlockSize();
+		int groups = vol.getGroupCount();
+		firstDataBlock = 0xFFFFFFFFL & superBlock.getFirstDataBlock();
+		blockCount = 0xFFFFFFFFL & superBlock.getBlocks();
+		groupBlocks = superBlock.getGroupBlocks();
+		baseBlocks = 1 + (((long) groups * superBlock.getDescriptorSize() + blockSize - 1) / blockSize) + superBlock.getReservedGdtBlocks();
+		sparseSuper = (superBlock.getRoCompatFeatures() & SuperBlock.RO_COMPAT_SPARSE_SUPER) != 0;
+
+		long tableBlocks = ((long) superBlock.getGroupInodes() * superBlock.getInodeSize() + blockSize - 1) / blockSize;
+		for (int i = 0; i < groups; i++) {
+			metadata.add(new ArrayList<long[]>());
+		}
+		GroupDescriptorView desc = new GroupDescriptorView();
+		for (int group = 0; group < groups; group++) {
+			desc.wrap(descriptorTable, group);
+			long[][] stretches = {{0xFFFFFFFFL & desc.getBlockBitmapPtr(), 1}, {0xFFFFFFFFL & desc.getInodeBitmapPtr(), 1},
+				{0xFFFFFFFFL & desc.getInodeTablePtr(), tableBlocks}};
+			for (long[] stretch : stretches) {
+				long holder = (stretch[0] - firstDataBlock) / groupBlocks;
+				if(stretch[0] >= firstDataBlock && holder < groups) {
+					metadata.get((int) holder).add(stretch);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the runs of metadata blocks within a group
+	 * @param group The group
+	 * @return The runs in block order, as {start block, block count} pairs
+	 */
+	List<long[]> metadataRuns(int group) {
+		long start = firstDataBlock + ((long) group * groupBlocks);
+		long end = Math.min(start + groupBlocks, blockCount);
+		List<long[]> stretches = new ArrayList<long[]>(metadata.get(group));
+		if(hasSuperBlockCopy(group)) {
+			stretches.add(new long[] {start, baseBlocks});
+		}
+		stretches.sort((a, b) -> Long.compare(a[0], b[0]));
+		List<long[]> runs = new ArrayList<long[]>();
+		long[] run = null;
+		for (long[] stretch : stretches) {
+			long from = Math.max(stretch[0], start);
+			long to = Math.min(stretch[0] + stretch[1], end);
+			if(to <= from) {
+				continue;
+			}
+			if(run != null && from <= run[0] + run[1]) { // Touching or overlapping the run before
+				run[1] = Math.max(run[1], to - run[0]);
+			} else {
+				run = new long[] {from, to - from};
+				runs.add(run);
+			}
+		}
+		return runs;
+	}
+
+	/**
+	 * Builds the block bitmap a group would have with only its metadata allocated
+	 * @param group The group
+	 * @return A bitmap with a bit for every block of the group
+	 */
+	byte[] metadataBitmap(int group) {
+		long start = firstDataBlock + ((long) group * groupBlocks);
+		byte[] bitmap = new byte[(groupBlocks + 7) / 8];
+		for (long[] run : metadataRuns(group)) {
+			for (long block = run[0]; block < run[0] + run[1]; block++) {
+				int bit = (int) (block - start);
+				bitmap[bit >>> 3] |= 1 << (bit & 7);
+			}
+		}
+		return bitmap;
+	}
+
+	// Groups 0 and 1 and powers of 3, 5 and 7 keep a copy of the SuperBlock when sparse superblocks are on, otherwise all do
+	private boolean hasSuperBlockCopy(int group) {
+		if(group <= 1 || !sparseSuper) {
+			return true;
+		}
+		return isPower(group, 3) || isPower(group, 5) || isPower(group, 7);
+	}
+
+	private static boolean isPower(int number, int base) {
+		while(number % base == 0) {
+			number = number / base;
+		}
+		return number == 1;
+	}
+}
@@ -0,0 +1,193 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * @author Oliver Griffiths
+ * Computes content digests of the files on an EXT2 volume and finds files with identical content.
+ * Files are streamed run by run rather than read into memory, holes are hashed as zeros without being read,
+ * and files are hashed in parallel.
+ */
+public class Hasher {
+	private final Volume vol;
+	private final String algorithm;
+
+	/**
+	 * The name of the non-cryptographic algorithm: the 64 bit xxHash, which is much faster than any MessageDigest
+	 * but can be made to collide, so suits finding accidental copies rather than checking content wasn't tampered with
+	 */
+	public static final String XXH64 = "XXH64";
+
+	/**
+	 * Creates a new Hasher using SHA-256
+	 * @param v The volume holding the files
+	 */
+	public Hasher(Volume v) {
+		this(v, "SHA-256");
+	}
+
+	/**
+	 * Creates a new Hasher
+	 * @param v The volume holding the files
+	 * @param digestAlgorithm XXH64, or the name of any MessageDigest algorithm, such as "SHA-256" or "MD5"
+	 */
+	public Hasher(Volume v, String digestAlgorithm) {
+		vol = v;
+		algorithm = digestAlgorithm;
+	}
+
+	/**
+	 * Computes the digest of a file's content
+	 * @param inode The inode of the file
+	 * @return The digest as a lowercase hex string
+	 */
+	public String hash(Inode inode) {
+		final MessageDigest digest;
+		try {
+			digest = XXH64.equals(algorithm) ? new XXHash64() : MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+		}
+		vol.readContent(inode, new ContentVisitor() {
+			public boolean content(byte[] bytes, int offset, int length) {
+				digest.update(bytes, offset, length);
+				return true;
+			}
+		});
+		return toHex(digest.digest());
+	}
+
+	/**
+	 * Computes the digest of every regular file below a directory, in parallel
+	 * @param path The directory to start at, "/" for the whole volume
+	 * @return The digest of every file, by path
+	 */
+	public Map<String, String> hashAll(String path) {
+		final Map<String, String> digests = new ConcurrentHashMap<String, String>();
+		collectFiles(path).parallelStream().forEach(file -> {
+			String digest = hash(file.inode);
+			for (String name : file.paths) {
+				digests.put(name, digest);
+			}
+		});
+		return new TreeMap<String, String>(digests);
+	}
+
+	/**
+	 * Finds groups of regular files below a directory that have identical content.
+	 * Files are compared by size first, then by their first block, and only files still matching are hashed in full.
+	 * Hard links to the same inode count as one file, listed under all of their paths.
+	 * With XXH64 files are only as surely identical as a 64 bit hash can tell.
+	 * @param path The directory to start at, "/" for the whole volume
+	 * @return Every group of two or more identical files, as lists of paths
+	 */
+	public List<List<String>> findDuplicates(String path) {
+		final long blockSize = vol.getBlockSize();
+		List<List<Candidate>> groups = split(Collections.singletonList(collectFiles(path)), file -> file.inode.getFileSize());
+		groups = split(groups, file -> ByteBuffer.wrap(firstBlock(file.inode))); // ByteBuffers compare by content
+
+		List<List<Candidate>> small = new ArrayList<List<Candidate>>();
+		List<List<Candidate>> large = new ArrayList<List<Candidate>>();
+		for (List<Candidate> group : groups) {
+			(group.get(0).inode.getFileSize() <= blockSize ? small : large).add(group); // The first block already was the whole file
+		}
+		small.addAll(split(large, file -> hash(file.inode)));
+
+		List<List<String>> duplicates = new ArrayList<List<String>>();
+		for (List<Candidate> group : small) {
+			List<String> paths = new ArrayList<String>();
+			for (Candidate file : group) {
+				paths.addAll(file.paths);
+			}
+			Collections.sort(paths);
+			duplicates.add(paths);
+		}
+		Collections.sort(duplicates, (a, b) -> a.get(0).compareTo(b.get(0)));
+		return duplicates;
+	}
+
+	/**
+	 * Formats bytes as a lowercase hex string
+	 * @param bytes The bytes to format
+	 * @return Two hex digits per byte
+	 */
+	public static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	// Splits each group by a key worked out in parallel, keeping only the parts with two or more files
+	private List<List<Candidate>> split(List<List<Candidate>> groups, Function<Candidate, Object> key) {
+		List<Candidate> all = new ArrayList<Candidate>();
+		for (List<Candidate> group : groups) {
+			all.addAll(group);
+		}
+		Map<Candidate, Object> keys = all.parallelStream().collect(Collectors.toConcurrentMap(Function.identity(), key));
+
+		List<List<Candidate>> parts = new ArrayList<List<Candidate>>();
+		for (List<Candidate> group : groups) {
+			Map<Object, List<Candidate>> byKey = new LinkedHashMap<Object, List<Candidate>>();
+			for (Candidate file : group) {
+				byKey.computeIfAbsent(keys.get(file), k -> new ArrayList<Candidate>()).add(file);
+			}
+			for (List<Candidate> part : byKey.values()) {
+				if(part.size() > 1) {
+					parts.add(part);
+				}
+			}
+		}
+		return parts;
+	}
+
+	// The first block of the file, or all of it if it's smaller. Holes come back as zeros.
+	private byte[] firstBlock(Inode inode) {
+		int length = (int) Math.min(inode.getFileSize(), vol.getBlockSize());
+		byte[] bytes = new byte[length];
+		int pointer = length > 0 ? vol.mapBlocks(inode, 0, 1)[0] : 0; // Looked up rather than read from the inode, which extent-mapped files leave zeroed
+		if(pointer != 0) {
+			System.arraycopy(vol.readBlock(0xFFFFFFFFL & pointer), 0, bytes, 0, length);
+		}
+		return bytes;
+	}
+
+	// Finds the regular files below a directory and reads their inodes, one Candidate per inode
+	private List<Candidate> collectFiles(String path) {
+		final Map<Integer, List<String>> paths = new HashMap<Integer, List<String>>();
+		vol.walkTree(path, new TreeVisitor() {
+			public boolean visit(String name, int inodePtr, boolean directory) {
+				if(!directory) {
+					paths.computeIfAbsent(inodePtr, k -> new ArrayList<String>()).add(name);
+				}
+				return true;
+			}
+		});
+		return paths.entrySet().parallelStream()
+			.map(entry -> new Candidate(vol.getInode(entry.getKey()), entry.getValue()))
+			.filter(file -> file.inode.isRegularFile())
+			.collect(Collectors.toList());
+	}
+
+	// A regular file being compared, with every path leading to it
+	private class Candidate {
+		private final Inode inode;
+		private final List<String> paths;
+
+		Candidate(Inode i, List<String> p) {
+			inode = i;
+			paths = p;
+		}
+	}
+}
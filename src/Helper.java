@@ -1,4 +1,5 @@
 import java.util.Formatter;
+import java.util.List;
 
 /**
  * @author Oliver Griffiths
@@ -111,4 +112,16 @@ public class Helper {
 			System.out.println(listing);
 		}
 	}
+
+	/**
+	 * Prints a fragmentation ranking, one file per line with its extents, average extent length and seek distance
+	 * @param files The measured files, as returned by Fragmentation
+	 */
+	public static void printFragmentation(List<FileFragmentation> files) {
+		for (FileFragmentation file : files) {
+			String name = file.getPath() != null ? file.getPath() : "<inode " + file.getInodePtr() + ">";
+			String listing = String.format("%8d extents %10.1f avg blocks %12d seek %14d bytes  ", file.getExtents(), file.getAverageExtentLength(), file.getSeekDistance(), file.getSize());
+			System.out.println(listing + name);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,349 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+/**
+ * @author Oliver Griffiths
+ * Builds synthetic EXT2 images for benchmarks and experiments, without needing mke2fs. The same seed and
+ * settings always give the same tree, file contents and layout; only the timestamps differ between runs.
+ *
+ * The image is formatted as a revision 1 volume with 128 byte inodes, file types in directory entries and
+ * a SuperBlock backup in every group, then filled through the volume's own write support:
+ * directories of a set size holding files of random sizes, every so often a sparse one, and under /bench
+ * one file reaching into each of the direct, indirect, double and treble indirect ranges.
+ */
+public class ImageGenerator {
+	private final int INODE_SIZE = 128;
+	private final int FIRST_INODE = 11;
+	private final int ROOT_INODE_PTR = 2;
+	private final int LOST_FOUND_PTR = 11;
+	private final long TIME = 1500000000L; // Stamped on everything the formatter writes, so formatting is repeatable
+
+	private final long seed;
+	private int blockSize = 1024;
+	private long blocks = 0;
+	private int inodes = 0;
+	private int directories = 4;
+	private int filesPerDirectory = 64;
+	private int maxFileSize = 64 * 1024;
+	private int sparseEvery = 8;
+	private int trebleBlocks = 256;
+
+	/**
+	 * Creates a new ImageGenerator
+	 * @param seed Decides the names, sizes and contents of the files
+	 */
+	public ImageGenerator(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * Sets the block size of the image
+	 * @param size 1024, 2048 or 4096
+	 */
+	public void setBlockSize(int size) {
+		if(size != 1024 && size != 2048 && size != 4096) {
+			throw new IllegalArgumentException("Block size must be 1024, 2048 or 4096");
+		}
+		blockSize = size;
+	}
+
+	/**
+	 * Sets the size of the image in blocks. By default it's worked out from the files to be written, with room to spare.
+	 * @param count Blocks, or 0 to work it out
+	 */
+	public void setBlocks(long count) {
+		blocks = count;
+	}
+
+	/**
+	 * Sets the amount of inodes on the image. By default there's a quarter more than the files need.
+	 * @param count Inodes, or 0 to work it out
+	 */
+	public void setInodes(int count) {
+		inodes = count;
+	}
+
+	/**
+	 * Sets how many directories of files are made, as /dir0, /dir1 and so on
+	 * @param count Directory count
+	 */
+	public void setDirectories(int count) {
+		directories = count;
+	}
+
+	/**
+	 * Sets how many files each directory holds, which decides how many blocks the directories span
+	 * @param count Files per directory
+	 */
+	public void setFilesPerDirectory(int count) {
+		filesPerDirectory = count;
+	}
+
+	/**
+	 * Sets the largest size of the files in the directories. Sizes are spread evenly from 0 up to it.
+	 * @param bytes Largest file size
+	 */
+	public void setMaxFileSize(int bytes) {
+		maxFileSize = bytes;
+	}
+
+	/**
+	 * Sets how often a file in the directories is sparse, a hole followed by data
+	 * @param every Every this many files is sparse, or 0 for none
+	 */
+	public void setSparseEvery(int every) {
+		sparseEvery = every;
+	}
+
+	/**
+	 * Sets how many blocks of data /bench/treble holds past the start of the treble indirect range
+	 * @param count Block count
+	 */
+	public void setTrebleBlocks(int count) {
+		trebleBlocks = count;
+	}
+
+	/**
+	 * Returns the size of each file under /bench for a block size, /bench/treble counting its leading hole
+	 * @param blockSize The block size of the image
+	 * @return Sizes of direct, indirect, double and treble in bytes, in that order
+	 */
+	public long[] getBenchSizes(int blockSize) {
+		long pointers = blockSize / 4;
+		long direct = 12;
+		long indirect = direct + pointers;
+		long doubleIndirect = indirect + Math.min(pointers * pointers, 4 * pointers);
+		long treble = direct + pointers + (pointers * pointers) + trebleBlocks;
+		return new long[] {direct * blockSize, indirect * blockSize, doubleIndirect * blockSize, treble * blockSize};
+	}
+
+	/**
+	 * Returns where the data of /bench/treble starts, after its hole
+	 * @param blockSize The block size of the image
+	 * @return Byte offset of the first data block in the treble indirect range
+	 */
+	public static long getTrebleStart(int blockSize) {
+		long pointers = blockSize / 4;
+		return (12 + pointers + (pointers * pointers)) * blockSize;
+	}
+
+	/**
+	 * Formats a new image and fills it with the tree
+	 * @param path The path of the image to write, replaced if it exists
+	 * @throws IOException If the image can't be written
+	 */
+	public void generate(String path) throws IOException {
+		long[] bench = getBenchSizes(blockSize);
+		int files = directories * filesPerDirectory;
+		long dataBlocks = (((long) files * maxFileSize / 2) / blockSize) + files;
+		dataBlocks += (bench[0] + bench[1] + bench[2]) / blockSize + trebleBlocks + 16;
+		long blockCount = blocks > 0 ? blocks : Math.max(4096, (dataBlocks * 5) / 4 + (dataBlocks / (blockSize / 4)) + 64);
+		int inodeCount = inodes > 0 ? inodes : Math.max(128, ((files + directories + 16) * 5) / 4);
+		format(path, blockCount, inodeCount);
+		fill(path);
+	}
+
+	/**
+	 * Formats an empty volume holding only the root directory and lost+found
+	 * @param path The path of the image to write, replaced if it exists
+	 * @param blockCount The size of the volume in blocks
+	 * @param inodeCount The least amount of inodes the volume should have
+	 * @throws IOException If the image can't be written
+	 */
+	public void format(String path, long blockCount, int inodeCount) throws IOException {
+		long firstDataBlock = blockSize == 1024 ? 1 : 0;
+		int groupBlocks = blockSize * 8;
+		int descriptorBlocks;
+		int groups;
+		int groupInodes;
+		int tableBlocks;
+		while(true) { // Settle the layout, dropping a last group too small to hold its own metadata
+			groups = (int) ((blockCount - firstDataBlock + groupBlocks - 1) / groupBlocks);
+			descriptorBlocks = ((groups * 32) + blockSize - 1) / blockSize;
+			int perBlock = blockSize / INODE_SIZE;
+			int step = Math.max(8, perBlock);
+			groupInodes = (((inodeCount + groups - 1) / groups) + step - 1) / step * step;
+			groupInodes = Math.min(groupInodes, groupBlocks);
+			tableBlocks = groupInodes / perBlock;
+			long lastBlocks = blockCount - firstDataBlock - ((long) (groups - 1) * groupBlocks);
+			if(groups == 1 || lastBlocks >= 3 + descriptorBlocks + tableBlocks + 16) {
+				break;
+			}
+			blockCount = firstDataBlock + ((long) (groups - 1) * groupBlocks);
+		}
+		int overhead = 1 + descriptorBlocks + 2 + tableBlocks; // SuperBlock copy, descriptors, two bitmaps, inode table
+
+		byte[] descriptors = new byte[descriptorBlocks * blockSize];
+		GroupDescriptorView descriptor = new GroupDescriptorView();
+		long freeBlocks = 0;
+		long freeInodes = 0;
+		long rootBlock = firstDataBlock + overhead;
+		try (RandomAccessFile out = new RandomAccessFile(path, "rw")) {
+			out.setLength(0);
+			out.setLength(blockCount * blockSize);
+			for (int group = 0; group < groups; group++) {
+				long start = firstDataBlock + ((long) group * groupBlocks);
+				int groupSize = (int) Math.min(groupBlocks, blockCount - start);
+				long blockBitmap = start + 1 + descriptorBlocks;
+				int used = overhead + (group == 0 ? 2 : 0); // The root directory and lost+found take a block each in group 0
+
+				byte[] bitmap = new byte[blockSize];
+				for (int i = 0; i < used; i++) {
+					bitmap[i / 8] |= 1 << (i % 8);
+				}
+				for (int i = groupSize; i < blockSize * 8; i++) { // Blocks past the end of the volume are never free
+					bitmap[i / 8] |= 1 << (i % 8);
+				}
+				writeBlock(out, blockBitmap, bitmap);
+
+				bitmap = new byte[blockSize];
+				int usedInodes = group == 0 ? FIRST_INODE : 0; // The reserved inodes, and lost+found
+				for (int i = 0; i < usedInodes; i++) {
+					bitmap[i / 8] |= 1 << (i % 8);
+				}
+				for (int i = groupInodes; i < blockSize * 8; i++) {
+					bitmap[i / 8] |= 1 << (i % 8);
+				}
+				writeBlock(out, blockBitmap + 1, bitmap);
+				out.seek((blockBitmap + 2) * blockSize);
+				out.write(new byte[tableBlocks * blockSize]); // Inode tables start out zeroed rather than as holes
+
+				descriptor.wrap(descriptors, group);
+				Converter.intToBytes((int) blockBitmap, descriptors, group * 32);
+				Converter.intToBytes((int) (blockBitmap + 1), descriptors, (group * 32) + 4);
+				Converter.intToBytes((int) (blockBitmap + 2), descriptors, (group * 32) + 8);
+				descriptor.setFreeBlocks(groupSize - used);
+				descriptor.setFreeInodes(groupInodes - usedInodes);
+				descriptor.setUsedDirs(group == 0 ? 2 : 0);
+				freeBlocks += groupSize - used;
+				freeInodes += groupInodes - usedInodes;
+			}
+
+			byte[] superBlock = new byte[1024];
+			Converter.intToBytes(groupInodes * groups, superBlock, 0);
+			Converter.intToBytes((int) blockCount, superBlock, 4);
+			Converter.intToBytes((int) freeBlocks, superBlock, 12);
+			Converter.intToBytes((int) freeInodes, superBlock, 16);
+			Converter.intToBytes((int) firstDataBlock, superBlock, 20);
+			int log = Integer.numberOfTrailingZeros(blockSize / 1024);
+			Converter.intToBytes(log, superBlock, 24);
+			Converter.intToBytes(log, superBlock, 28);
+			Converter.intToBytes(groupBlocks, superBlock, 32);
+			Converter.intToBytes(groupBlocks, superBlock, 36);
+			Converter.intToBytes(groupInodes, superBlock, 40);
+			Converter.intToBytes((int) TIME, superBlock, 48);
+			Converter.shortToBytes(0xFFFF, superBlock, 54); // No mount count limit
+			Converter.shortToBytes(0xEF53, superBlock, 56);
+			Converter.shortToBytes(1, superBlock, 58); // Cleanly unmounted
+			Converter.shortToBytes(1, superBlock, 60); // Carry on after errors
+			Converter.intToBytes((int) TIME, superBlock, 64);
+			Converter.intToBytes(1, superBlock, 76); // Revision 1
+			Converter.intToBytes(FIRST_INODE, superBlock, 84);
+			Converter.shortToBytes(INODE_SIZE, superBlock, 88);
+			Converter.intToBytes(SuperBlock.INCOMPAT_FILETYPE, superBlock, 96);
+			Random random = new Random(seed);
+			for (int i = 104; i < 120; i++) {
+				superBlock[i] = (byte) random.nextInt(256);
+			}
+			byte[] name = "synthetic".getBytes("US-ASCII");
+			System.arraycopy(name, 0, superBlock, 120, name.length);
+
+			for (int group = 0; group < groups; group++) {
+				long start = firstDataBlock + ((long) group * groupBlocks);
+				Converter.shortToBytes(group, superBlock, 90);
+				out.seek(group == 0 ? 1024 : start * blockSize);
+				out.write(superBlock);
+				out.seek((start + 1) * blockSize);
+				out.write(descriptors);
+			}
+
+			// The root directory and lost+found, both a single block
+			long tableStart = (firstDataBlock + 3 + descriptorBlocks) * blockSize;
+			byte[] block = new byte[blockSize];
+			int at = entry(block, 0, ROOT_INODE_PTR, ".", 12);
+			at = entry(block, at, ROOT_INODE_PTR, "..", 12);
+			entry(block, at, LOST_FOUND_PTR, "lost+found", blockSize - at);
+			writeBlock(out, rootBlock, block);
+			block = new byte[blockSize];
+			at = entry(block, 0, LOST_FOUND_PTR, ".", 12);
+			entry(block, at, ROOT_INODE_PTR, "..", blockSize - at);
+			writeBlock(out, rootBlock + 1, block);
+			writeDirectoryInode(out, tableStart + ((ROOT_INODE_PTR - 1) * INODE_SIZE), 040755, 3, rootBlock);
+			writeDirectoryInode(out, tableStart + ((LOST_FOUND_PTR - 1) * INODE_SIZE), 040700, 2, rootBlock + 1);
+		}
+	}
+
+	// Writes the tree of directories and files, then the files under /bench
+	private void fill(String path) throws IOException {
+		Volume vol = new Volume(path);
+		Random random = new Random(seed);
+		byte[] data = new byte[Math.max(maxFileSize, blockSize)];
+		for (int d = 0; d < directories; d++) {
+			String directory = "/dir" + d;
+			vol.createDirectory(directory);
+			for (int f = 0; f < filesPerDirectory; f++) {
+				Ext2File file = Ext2File.create(vol, directory + "/file" + f);
+				int size = maxFileSize > 0 ? random.nextInt(maxFileSize + 1) : 0;
+				random.nextBytes(data);
+				if(sparseEvery > 0 && f % sparseEvery == sparseEvery - 1) {
+					int hole = (size / 2 / blockSize) * blockSize; // A whole number of blocks, so the hole is never allocated
+					file.truncate(hole);
+					file.append(data, 0, size - hole);
+				} else {
+					file.append(data, 0, size);
+				}
+			}
+		}
+
+		vol.createDirectory("/bench");
+		long[] sizes = getBenchSizes(blockSize);
+		String[] names = {"direct", "indirect", "double"};
+		byte[] chunk = new byte[64 * 1024];
+		for (int i = 0; i < names.length; i++) {
+			Ext2File file = Ext2File.create(vol, "/bench/" + names[i]);
+			for (long written = 0; written < sizes[i]; written += chunk.length) {
+				random.nextBytes(chunk);
+				file.append(chunk, 0, (int) Math.min(chunk.length, sizes[i] - written));
+			}
+		}
+		Ext2File treble = Ext2File.create(vol, "/bench/treble");
+		treble.truncate(getTrebleStart(blockSize));
+		long trebleData = (long) trebleBlocks * blockSize;
+		for (long written = 0; written < trebleData; written += chunk.length) {
+			random.nextBytes(chunk);
+			treble.append(chunk, 0, (int) Math.min(chunk.length, trebleData - written));
+		}
+		vol.close();
+	}
+
+	private void writeDirectoryInode(RandomAccessFile out, long location, int mode, int links, long block) throws IOException {
+		byte[] inode = new byte[INODE_SIZE];
+		InodeView view = new InodeView().wrap(inode, 0);
+		view.setModeBits(mode);
+		view.setFileSize(blockSize);
+		view.setTimes(TIME);
+		view.setHardLinks(links);
+		view.setSectors(blockSize / 512);
+		view.setBlockPointer(0, (int) block);
+		out.seek(location);
+		out.write(inode);
+	}
+
+	// Adds a directory entry of the directory type, returning where the next one goes
+	private static int entry(byte[] block, int at, int inodePtr, String name, int recordLength) {
+		Converter.intToBytes(inodePtr, block, at);
+		Converter.shortToBytes(recordLength, block, at + 4);
+		block[at + 6] = (byte) name.length();
+		block[at + 7] = Directory.TYPE_DIRECTORY;
+		for (int i = 0; i < name.length(); i++) {
+			block[at + 8 + i] = (byte) name.charAt(i);
+		}
+		return at + recordLength;
+	}
+
+	private void writeBlock(RandomAccessFile out, long block, byte[] bytes) throws IOException {
+		out.seek(block * blockSize);
+		out.write(bytes);
+	}
+}
@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.Date;
 /**
  * @author Oliver Griffiths
@@ -5,19 +6,29 @@ import java.util.Date;
  */
 public class Inode {
 	//Inode data
-	private String fileMode = "";
+	private String fileMode; // Built the first time it's asked for
 	private short userID;
 	private long fileSize;
-	private Date lastAccess;
-	private Date creationTime;
-	private Date lastModified;
-	private Date deletedTime; 
+	private int lastAccess;
+	private int creationTime;
+	private int lastModified;
+	private int deletedTime; 
 	private short groupID;
 	private short hardLinks;
+	private short modeBytes;
+	private int sectors;
 	private int[] blockPointers = new int[12];
 	private int indirectPointer;
 	private int doubleIndirectPointer;
 	private int tripleIndirectPointer;
+	private int[] blockRuns; // Known block map, as (logical, physical, count) triples
+	private int flags;
+	private byte[] extentRoot; // The i_block bytes, when they hold the root of an extent tree rather than pointers
+
+	/**
+	 * Inode flag: the block map is an ext4 extent tree rooted in the block pointers
+	 */
+	public static final int EXTENTS_FLAG = 0x80000;
 
 	private static final int IFSCK = 0xC000;      // Socket
 	private static final int IFLNK = 0xA000;      // Symbolic Link
@@ -51,120 +62,103 @@ public class Inode {
 		userID = Converter.bytesToShort(bytes, 2, 4);
 
 		//Combine the two halves to get the full 64bit file size
-		byte[] sizeArray = {bytes[4], bytes[5], bytes[6], bytes[7],  bytes[108], bytes[109], bytes[110], bytes[111]};
-		fileSize = Converter.bytesToLong(sizeArray);
+		fileSize = (0xFFFFFFFFL & Converter.bytesToInt(bytes, 4, 8)) | ((long) Converter.bytesToInt(bytes, 108, 112) << 32);
 
-		//Times stored in Date instances
-		lastAccess = new Date((0xFFFFFFFF & (long)Converter.bytesToInt(bytes, 8, 12))*1000);
-		creationTime = new Date((0xFFFFFFFF & (long)Converter.bytesToInt(bytes, 12, 16))*1000);
-		lastModified = new Date((0xFFFFFFFF & (long)Converter.bytesToInt(bytes, 16, 20))*1000);
-		deletedTime = new Date((0xFFFFFFFF & (long)Converter.bytesToInt(bytes, 20, 24))*1000);
+		//Times are kept as seconds and only turned into Dates when asked for
+		lastAccess = Converter.bytesToInt(bytes, 8, 12);
+		creationTime = Converter.bytesToInt(bytes, 12, 16);
+		lastModified = Converter.bytesToInt(bytes, 16, 20);
+		deletedTime = Converter.bytesToInt(bytes, 20, 24);
 
 		groupID = Converter.bytesToShort(bytes, 24, 26);
 
 		hardLinks = Converter.bytesToShort(bytes, 26, 28);
 
-		for(int i = 0; i < 12; i++) {
-			blockPointers[i] = Converter.bytesToInt(bytes, 40 + (i * 4), 44 + (i * 4));
-		}
-
-		indirectPointer = Converter.bytesToInt(bytes, 88, 92);
-		doubleIndirectPointer = Converter.bytesToInt(bytes, 92, 96);
-		tripleIndirectPointer = Converter.bytesToInt(bytes, 96, 100);
-		
-		//Creating the -rwxrwxrwx string by checking the flags
-		short modeBytes =  Converter.bytesToShort(bytes, 0, 2);
-
-		//Determine type of file
-		if(hasFlag(modeBytes, IFSCK)) {
-			fileMode = fileMode + "s";
-		} else if(hasFlag(modeBytes, IFLNK)) {
-			fileMode = fileMode + "l";
-		} else if(hasFlag(modeBytes, IFREG)) {
-			fileMode = fileMode + "-";
-		} else if(hasFlag(modeBytes, IFBLK)) {
-			fileMode = fileMode + "d";
-		} else if(hasFlag(modeBytes, IFDIR)) {
-			fileMode = fileMode + "d";
-		} else if(hasFlag(modeBytes, IFCHR)) {
-			fileMode = fileMode + "c";
-		} else if(hasFlag(modeBytes, IFIFO)) {
-			fileMode = fileMode + "p";
-		}
+		sectors = Converter.bytesToInt(bytes, 28, 32);
 
+		flags = Converter.bytesToInt(bytes, 32, 36);
 
-		//Owner permissions
-		if(hasFlag(modeBytes, IRUSR)) {
-			fileMode = fileMode + "r";
+		if((flags & EXTENTS_FLAG) != 0) { // The pointers are an extent tree, so they're left zeroed
+			extentRoot = Arrays.copyOfRange(bytes, 40, 100);
 		} else {
-			fileMode = fileMode + "-";
-		}
+			for(int i = 0; i < 12; i++) {
+				blockPointers[i] = Converter.bytesToInt(bytes, 40 + (i * 4), 44 + (i * 4));
+			}
 
-		if(hasFlag(modeBytes, IWUSR)) {
-			fileMode = fileMode + "w";
-		} else {
-			fileMode = fileMode + "-";
+			indirectPointer = Converter.bytesToInt(bytes, 88, 92);
+			doubleIndirectPointer = Converter.bytesToInt(bytes, 92, 96);
+			tripleIndirectPointer = Converter.bytesToInt(bytes, 96, 100);
 		}
 
-		if(hasFlag(modeBytes, ISUID) && fileMode.charAt(0) == '-') {
-			fileMode = fileMode + "s";
-		} else if(hasFlag(modeBytes, IXUSR)) {
-			fileMode = fileMode + "x";
-		} else {
-			fileMode = fileMode + "-";
-		}
+		modeBytes =  Converter.bytesToShort(bytes, 0, 2);
+	}
 
+	/**
+	 * Creates the -rwxrwxrwx string for a filemode by checking the flags
+	 * @param modeBits The type and permission bits of the filemode
+	 * @return Formatted filemode
+	 */
+	static String formatMode(int modeBits) {
+		StringBuilder fileMode = new StringBuilder(11);
 
-		//Group Permissions
-		if(hasFlag(modeBytes, IRGRP)) {
-			fileMode = fileMode + "r";
-		} else {
-			fileMode = fileMode + "-";
+		//Determine type of file
+		if(hasFlag(modeBits, IFSCK)) {
+			fileMode.append('s');
+		} else if(hasFlag(modeBits, IFLNK)) {
+			fileMode.append('l');
+		} else if(hasFlag(modeBits, IFREG)) {
+			fileMode.append('-');
+		} else if(hasFlag(modeBits, IFBLK)) {
+			fileMode.append('d');
+		} else if(hasFlag(modeBits, IFDIR)) {
+			fileMode.append('d');
+		} else if(hasFlag(modeBits, IFCHR)) {
+			fileMode.append('c');
+		} else if(hasFlag(modeBits, IFIFO)) {
+			fileMode.append('p');
 		}
 
-		if(hasFlag(modeBytes, IWGRP)) {
-			fileMode = fileMode + "w";
+		//Owner permissions
+		fileMode.append(hasFlag(modeBits, IRUSR) ? 'r' : '-');
+		fileMode.append(hasFlag(modeBits, IWUSR) ? 'w' : '-');
+		if(hasFlag(modeBits, ISUID) && fileMode.charAt(0) == '-') {
+			fileMode.append('s');
 		} else {
-			fileMode = fileMode + "-";
+			fileMode.append(hasFlag(modeBits, IXUSR) ? 'x' : '-');
 		}
 
-		if(hasFlag(modeBytes, ISGID) && (fileMode.charAt(0) == '-' || fileMode.charAt(0) == 'd')) {
-			fileMode = fileMode + "s";
-		} else if(hasFlag(modeBytes, IXGRP)) {
-			fileMode = fileMode + "x";
+		//Group Permissions
+		fileMode.append(hasFlag(modeBits, IRGRP) ? 'r' : '-');
+		fileMode.append(hasFlag(modeBits, IWGRP) ? 'w' : '-');
+		if(hasFlag(modeBits, ISGID) && (fileMode.charAt(0) == '-' || fileMode.charAt(0) == 'd')) {
+			fileMode.append('s');
 		} else {
-			fileMode = fileMode + "-";
+			fileMode.append(hasFlag(modeBits, IXGRP) ? 'x' : '-');
 		}
 
-
 		//Other permissions
-		if(hasFlag(modeBytes, IROTH)) {
-			fileMode = fileMode + "r";
-		} else {
-			fileMode = fileMode + "-";
-		}
-
-		if(hasFlag(modeBytes, IWOTH)) {
-			fileMode = fileMode + "w";
-		} else {
-			fileMode = fileMode + "-";
-		}
-
-		if(hasFlag(modeBytes, IXOTH)) {
-			fileMode = fileMode + "x";
-		} else {
-			fileMode = fileMode + "-";
-		}
-
+		fileMode.append(hasFlag(modeBits, IROTH) ? 'r' : '-');
+		fileMode.append(hasFlag(modeBits, IWOTH) ? 'w' : '-');
+		fileMode.append(hasFlag(modeBits, IXOTH) ? 'x' : '-');
 
 		//Sticky Bit
-		if(hasFlag(modeBytes, ISVTX) && fileMode.charAt(0) == 'd') {
-			fileMode = fileMode + "t";
+		if(hasFlag(modeBits, ISVTX) && fileMode.charAt(0) == 'd') {
+			fileMode.append('t');
 		}
+		return fileMode.toString();
+	}
+
+	/**
+	 * Turns an inode timestamp into a Date
+	 * @param seconds Unsigned seconds since the epoch
+	 * @return The time as a Date
+	 */
+	static Date toDate(int seconds) {
+		return new Date((0xFFFFFFFFL & seconds) * 1000);
 	}
 
 	// Used to compare the pre-defined filemode flags
-	private boolean hasFlag(int number, int flag) { 
+	private static boolean hasFlag(int number, int flag) { 
 		if((number & flag) == flag) { //It shortens the flag check statements
 			return true;
 		}
@@ -176,9 +170,61 @@ public class Inode {
 	 * @return -rwrxrwxrwx Formatted filemode
 	 */
 	public String getFileMode() {
+		if(fileMode == null) {
+			fileMode = formatMode(getModeBits());
+		}
 		return fileMode;
 	}
 
+	/**
+	 * Returns the raw type and permission bits of the filemode
+	 * @return Filemode bits
+	 */
+	public int getModeBits() {
+		return modeBytes & 0xFFFF;
+	}
+
+	/**
+	 * Returns whether the Inode belongs to a directory
+	 * @return True for directories
+	 */
+	public boolean isDirectory() {
+		return (getModeBits() & 0xF000) == IFDIR;
+	}
+
+	/**
+	 * Returns whether the Inode belongs to a regular file
+	 * @return True for regular files
+	 */
+	public boolean isRegularFile() {
+		return (getModeBits() & 0xF000) == IFREG;
+	}
+
+	/**
+	 * Returns whether the Inode belongs to a symbolic link
+	 * @return True for symbolic links
+	 */
+	public boolean isSymbolicLink() {
+		return (getModeBits() & 0xF000) == IFLNK;
+	}
+
+	/**
+	 * Returns whether the Inode's block pointers lead to blocks on the volume.
+	 * Device files keep device numbers there and fast symbolic links keep the link target.
+	 * @return True if the block pointers can be followed
+	 */
+	public boolean hasBlocks() {
+		return isDirectory() || isRegularFile() || (isSymbolicLink() && sectors != 0);
+	}
+
+	/**
+	 * Returns the amount of 512 byte sectors reserved for the file, including indirect blocks
+	 * @return Sector count
+	 */
+	public long getSectors() {
+		return 0xFFFFFFFFL & sectors;
+	}
+
 	/**
 	 * Returns the User ID
 	 * @return User ID
@@ -200,7 +246,7 @@ public class Inode {
 	 * @return Last Access time
 	 */
 	public Date getLastAccess() {
-		return lastAccess;
+		return toDate(lastAccess);
 	}
 
 	/**
@@ -208,7 +254,7 @@ public class Inode {
 	 * @return Creation Time
 	 */
 	public Date getCreationTime() {
-		return creationTime;
+		return toDate(creationTime);
 	}
 
 	/**
@@ -216,7 +262,7 @@ public class Inode {
 	 * @return Last Modified Time
 	 */
 	public Date getLastModified() {
-		return lastModified;
+		return toDate(lastModified);
 	}
 
 	/**
@@ -224,7 +270,7 @@ public class Inode {
 	 * @return Deletion Time
 	 */
 	public Date getDeletedTime() {
-		return deletedTime;
+		return toDate(deletedTime);
 	}
 
 	/**
@@ -275,4 +321,44 @@ public class Inode {
 		return tripleIndirectPointer;
 	}
 
+	/**
+	 * Returns the inode flags, such as whether a directory has a hashed index
+	 * @return Inode flags
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * Returns whether the blocks of the file are mapped by an ext4 extent tree instead of block pointers
+	 * @return True if the file uses extents
+	 */
+	public boolean isExtentMapped() {
+		return extentRoot != null;
+	}
+
+	/**
+	 * Returns the 60 bytes of the inode that hold the root node of its extent tree
+	 * @return The extent tree root, or null if the file uses block pointers
+	 */
+	public byte[] getExtentRoot() {
+		return extentRoot;
+	}
+
+	/**
+	 * Returns the block map of the file, if it is already known, such as from a sidecar index.
+	 * Every run is three ints: the first logical block, the first physical block and the block count.
+	 * @return The runs of the file, or null if the block pointers have to be walked
+	 */
+	public int[] getBlockRuns() {
+		return blockRuns;
+	}
+
+	/**
+	 * Sets the already known block map of the file, so its block pointers don't have to be walked
+	 * @param runs The runs of the file, as (logical, physical, count) triples
+	 */
+	public void setBlockRuns(int[] runs) {
+		blockRuns = runs;
+	}
 }
@@ -0,0 +1,347 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Date;
+
+/**
+ * @author Oliver Griffiths
+ * A reusable view of an EXT2 Inode inside a larger buffer, such as a whole inode table.
+ * Fields are decoded straight from the buffer each time they're asked for, so moving the view along a table
+ * with wrap() reads every inode without creating any objects. The view only stays valid while the buffer
+ * is left alone, and toInode() makes a standalone copy to keep. The setters write straight into the buffer,
+ * for changing an inode before it's written back to the volume.
+ */
+public class InodeView {
+	private ByteBuffer buffer;
+	private int base;
+	private final int[] blockPointers = new int[12];
+
+	private static final int IFLNK = 0xA000;      // Symbolic Link
+	private static final int IFREG = 0x8000;      // Regular File
+	private static final int IFDIR = 0x4000;      // Directory
+
+	/**
+	 * Points the view at an inode
+	 * @param bytes The bytes holding the inode, such as an inode table
+	 * @param offset Where the inode starts in the bytes
+	 * @return This view
+	 */
+	public InodeView wrap(byte[] bytes, int offset) {
+		if(buffer == null || !buffer.hasArray() || buffer.array() != bytes) {
+			buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		base = offset;
+		return this;
+	}
+
+	/**
+	 * Points the view at an inode
+	 * @param bytes The buffer holding the inode, in any byte order
+	 * @param offset Where the inode starts in the buffer
+	 * @return This view
+	 */
+	public InodeView wrap(ByteBuffer bytes, int offset) {
+		buffer = bytes.order() == ByteOrder.LITTLE_ENDIAN ? bytes : bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		base = offset;
+		return this;
+	}
+
+	/**
+	 * Returns the raw type and permission bits of the filemode
+	 * @return Filemode bits
+	 */
+	public int getModeBits() {
+		return buffer.getShort(base) & 0xFFFF;
+	}
+
+	/**
+	 * Returns a string formatted version of the filemode flags, built on each call
+	 * @return -rwrxrwxrwx Formatted filemode
+	 */
+	public String getFileMode() {
+		return Inode.formatMode(getModeBits());
+	}
+
+	/**
+	 * Returns whether the Inode belongs to a directory
+	 * @return True for directories
+	 */
+	public boolean isDirectory() {
+		return (getModeBits() & 0xF000) == IFDIR;
+	}
+
+	/**
+	 * Returns whether the Inode belongs to a regular file
+	 * @return True for regular files
+	 */
+	public boolean isRegularFile() {
+		return (getModeBits() & 0xF000) == IFREG;
+	}
+
+	/**
+	 * Returns whether the Inode belongs to a symbolic link
+	 * @return True for symbolic links
+	 */
+	public boolean isSymbolicLink() {
+		return (getModeBits() & 0xF000) == IFLNK;
+	}
+
+	/**
+	 * Returns whether the Inode's block pointers lead to blocks on the volume
+	 * @return True if the block pointers can be followed
+	 */
+	public boolean hasBlocks() {
+		return isDirectory() || isRegularFile() || (isSymbolicLink() && getSectors() != 0);
+	}
+
+	/**
+	 * Returns the User ID
+	 * @return User ID
+	 */
+	public short getUserID() {
+		return buffer.getShort(base + 2);
+	}
+
+	/**
+	 * Returns the size of the Inode's file
+	 * @return File Size
+	 */
+	public long getFileSize() {
+		return (0xFFFFFFFFL & buffer.getInt(base + 4)) | ((long) buffer.getInt(base + 108) << 32);
+	}
+
+	/**
+	 * Returns the last access time in seconds since the epoch
+	 * @return Last Access time
+	 */
+	public long getLastAccessSeconds() {
+		return 0xFFFFFFFFL & buffer.getInt(base + 8);
+	}
+
+	/**
+	 * Returns the creation time in seconds since the epoch
+	 * @return Creation Time
+	 */
+	public long getCreationSeconds() {
+		return 0xFFFFFFFFL & buffer.getInt(base + 12);
+	}
+
+	/**
+	 * Returns the last modification time in seconds since the epoch
+	 * @return Last Modified Time
+	 */
+	public long getLastModifiedSeconds() {
+		return 0xFFFFFFFFL & buffer.getInt(base + 16);
+	}
+
+	/**
+	 * Returns the deletion time in seconds since the epoch
+	 * @return Deletion Time
+	 */
+	public long getDeletedSeconds() {
+		return 0xFFFFFFFFL & buffer.getInt(base + 20);
+	}
+
+	/**
+	 * Returns the time the file was last modified, as a new Date
+	 * @return Last Modified Time
+	 */
+	public Date getLastModified() {
+		return new Date(getLastModifiedSeconds() * 1000);
+	}
+
+	/**
+	 * Returns the Group ID
+	 * @return Group ID
+	 */
+	public short getGroupID() {
+		return buffer.getShort(base + 24);
+	}
+
+	/**
+	 * Returns the amount of hard links to this file
+	 * @return Hard Link Count
+	 */
+	public short getHardLinks() {
+		return buffer.getShort(base + 26);
+	}
+
+	/**
+	 * Returns the amount of 512 byte sectors reserved for the file, including indirect blocks
+	 * @return Sector count
+	 */
+	public long getSectors() {
+		return 0xFFFFFFFFL & buffer.getInt(base + 28);
+	}
+
+	/**
+	 * Returns one of the first 12 direct block pointers
+	 * @param index Which pointer, from 0 to 11
+	 * @return Direct Block Pointer
+	 */
+	public int getBlockPointer(int index) {
+		return buffer.getInt(base + 40 + (index * 4));
+	}
+
+	/**
+	 * Returns the first 12 direct block pointers, in an array the view reuses for every inode
+	 * @return Direct Block Pointers
+	 */
+	public int[] getBlockPointers() {
+		for (int i = 0; i < 12; i++) {
+			blockPointers[i] = getBlockPointer(i);
+		}
+		return blockPointers;
+	}
+
+	/**
+	 * Returns a block pointer to an indirect block
+	 * @return Indirect block pointer
+	 */
+	public int getIndirectPointer() {
+		return buffer.getInt(base + 88);
+	}
+
+	/**
+	 * Returns a block pointer to a double indirect block
+	 * @return Double indirect block pointer
+	 */
+	public int getDoubleIndirectPointer() {
+		return buffer.getInt(base + 92);
+	}
+
+	/**
+	 * Returns a block pointer to a triple indirect block
+	 * @return Triple indirect block pointer
+	 */
+	public int getTripleIndirectPointer() {
+		return buffer.getInt(base + 96);
+	}
+
+	/**
+	 * Returns the inode flags, such as whether a directory has a hashed index
+	 * @return Inode flags
+	 */
+	public int getFlags() {
+		return buffer.getInt(base + 32);
+	}
+
+	/**
+	 * Returns whether the blocks of the file are mapped by an ext4 extent tree instead of block pointers
+	 * @return True if the file uses extents
+	 */
+	public boolean isExtentMapped() {
+		return (getFlags() & Inode.EXTENTS_FLAG) != 0;
+	}
+
+	/**
+	 * Copies out the 60 bytes of the inode that hold the root node of its extent tree
+	 * @return The extent tree root
+	 */
+	public byte[] getExtentRoot() {
+		byte[] root = new byte[60];
+		for (int i = 0; i < 60; i++) {
+			root[i] = buffer.get(base + 40 + i);
+		}
+		return root;
+	}
+
+	/**
+	 * Sets the type and permission bits of the filemode
+	 * @param bits Filemode bits
+	 */
+	public void setModeBits(int bits) {
+		buffer.putShort(base, (short) bits);
+	}
+
+	/**
+	 * Sets the size of the Inode's file
+	 * @param size File Size
+	 */
+	public void setFileSize(long size) {
+		buffer.putInt(base + 4, (int) size);
+		buffer.putInt(base + 108, (int) (size >>> 32));
+	}
+
+	/**
+	 * Sets the access, change and modification times
+	 * @param seconds The time in seconds since the epoch
+	 */
+	public void setTimes(long seconds) {
+		buffer.putInt(base + 8, (int) seconds);
+		buffer.putInt(base + 12, (int) seconds);
+		buffer.putInt(base + 16, (int) seconds);
+	}
+
+	/**
+	 * Sets the change and modification times, leaving the access time alone
+	 * @param seconds The time in seconds since the epoch
+	 */
+	public void setLastModifiedSeconds(long seconds) {
+		buffer.putInt(base + 12, (int) seconds);
+		buffer.putInt(base + 16, (int) seconds);
+	}
+
+	/**
+	 * Sets the amount of hard links to this file
+	 * @param links Hard Link Count
+	 */
+	public void setHardLinks(int links) {
+		buffer.putShort(base + 26, (short) links);
+	}
+
+	/**
+	 * Sets the amount of 512 byte sectors reserved for the file, including indirect blocks
+	 * @param sectors Sector count
+	 */
+	public void setSectors(long sectors) {
+		buffer.putInt(base + 28, (int) sectors);
+	}
+
+	/**
+	 * Sets the inode flags
+	 * @param flags Inode flags
+	 */
+	public void setFlags(int flags) {
+		buffer.putInt(base + 32, flags);
+	}
+
+	/**
+	 * Sets one of the first 12 direct block pointers
+	 * @param index Which pointer, from 0 to 11
+	 * @param pointer Direct Block Pointer
+	 */
+	public void setBlockPointer(int index, int pointer) {
+		buffer.putInt(base + 40 + (index * 4), pointer);
+	}
+
+	/**
+	 * Returns the pointer to an indirect table
+	 * @param level 1 for the indirect, 2 for the double indirect and 3 for the triple indirect table
+	 * @return Table block pointer
+	 */
+	public int getTablePointer(int level) {
+		return buffer.getInt(base + 84 + (level * 4));
+	}
+
+	/**
+	 * Sets the pointer to an indirect table
+	 * @param level 1 for the indirect, 2 for the double indirect and 3 for the triple indirect table
+	 * @param pointer Table block pointer
+	 */
+	public void setTablePointer(int level, int pointer) {
+		buffer.putInt(base + 84 + (level * 4), pointer);
+	}
+
+	/**
+	 * Copies the viewed inode into a standalone Inode
+	 * @param size The size of inodes on the volume
+	 * @return The Inode
+	 */
+	public Inode toInode(int size) {
+		byte[] bytes = new byte[size];
+		for (int i = 0; i < size; i++) {
+			bytes[i] = buffer.get(base + i);
+		}
+		return new Inode(bytes);
+	}
+}
@@ -0,0 +1,95 @@
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Oliver Griffiths
+ * Counts how long operations take in buckets four to each power of two of nanoseconds, so a percentile read
+ * back is never more than a quarter out. Recording is two striped additions, cheap enough to leave on
+ * under contention; buckets only take up room for their stripes once threads collide on them.
+ */
+class LatencyHistogram {
+	private static final int BUCKETS = 160; // Up to about 2^40 nanoseconds, anything longer is counted in the last bucket
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Counts an operation
+	 * @param nanos How long it took in nanoseconds
+	 */
+	void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0; // nanoTime can step backwards across cores
+		}
+		buckets[bucket(nanos)].increment();
+		total.add(nanos);
+		max.accumulate(nanos);
+	}
+
+	/**
+	 * Forgets every operation counted so far. Operations counted while resetting may or may not be kept.
+	 */
+	void reset() {
+		for (LongAdder bucket : buckets) {
+			bucket.reset();
+		}
+		total.reset();
+		max.reset();
+	}
+
+	/**
+	 * Sums up the operations counted so far
+	 * @return The count, total, maximum and percentiles
+	 */
+	LatencySummary summary() {
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			count += counts[i];
+		}
+		long longest = max.get();
+		return new LatencySummary(count, total.sum(), longest, percentile(counts, count, longest, 0.5),
+			percentile(counts, count, longest, 0.9), percentile(counts, count, longest, 0.99), percentile(counts, count, longest, 0.999));
+	}
+
+	// The top of the bucket the given fraction of operations fall at or below, but no more than the longest seen
+	private static long percentile(long[] counts, long count, long longest, double fraction) {
+		if(count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(upperBound(i), longest);
+			}
+		}
+		return longest;
+	}
+
+	// Under 4ns each nanosecond has a bucket, after that each power of two is split into four
+	private static int bucket(long nanos) {
+		if(nanos < 4) {
+			return (int) nanos;
+		}
+		int top = 63 - Long.numberOfLeadingZeros(nanos);
+		int quarter = (int) (nanos >>> (top - 2)) & 3;
+		return Math.min(BUCKETS - 1, ((top - 1) * 4) + quarter);
+	}
+
+	private static long upperBound(int bucket) {
+		if(bucket < 4) {
+			return bucket;
+		}
+		int top = (bucket / 4) + 1;
+		return ((5L + (bucket % 4)) << (top - 2)) - 1;
+	}
+}
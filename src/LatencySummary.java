@@ -0,0 +1,104 @@
+/**
+ * @author Oliver Griffiths
+ * How long one kind of operation on a volume has taken, summed up from a LatencyHistogram.
+ * Percentiles are the top of the histogram bucket they fall in, so at most a quarter high.
+ */
+public class LatencySummary {
+	private final long count;
+	private final long totalNanos;
+	private final long maxNanos;
+	private final long p50Nanos;
+	private final long p90Nanos;
+	private final long p99Nanos;
+	private final long p999Nanos;
+
+	/**
+	 * Creates a new LatencySummary
+	 * @param count The amount of operations
+	 * @param totalNanos The time they took altogether in nanoseconds
+	 * @param maxNanos The longest one took
+	 * @param p50Nanos The median
+	 * @param p90Nanos The 90th percentile
+	 * @param p99Nanos The 99th percentile
+	 * @param p999Nanos The 99.9th percentile
+	 */
+	public LatencySummary(long count, long totalNanos, long maxNanos, long p50Nanos, long p90Nanos, long p99Nanos, long p999Nanos) {
+		this.count = count;
+		this.totalNanos = totalNanos;
+		this.maxNanos = maxNanos;
+		this.p50Nanos = p50Nanos;
+		this.p90Nanos = p90Nanos;
+		this.p99Nanos = p99Nanos;
+		this.p999Nanos = p999Nanos;
+	}
+
+	/**
+	 * Returns the amount of operations
+	 * @return Operation count
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the time the operations took altogether, which shows what the volume has spent its time on
+	 * @return Total time in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return totalNanos;
+	}
+
+	/**
+	 * Returns the mean time of an operation
+	 * @return Mean time in nanoseconds, or 0 if there were none
+	 */
+	public long getMeanNanos() {
+		return count == 0 ? 0 : totalNanos / count;
+	}
+
+	/**
+	 * Returns the longest an operation took
+	 * @return Longest time in nanoseconds
+	 */
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	/**
+	 * Returns the median time of an operation
+	 * @return Median time in nanoseconds
+	 */
+	public long getP50Nanos() {
+		return p50Nanos;
+	}
+
+	/**
+	 * Returns the time 90% of operations took at most
+	 * @return 90th percentile in nanoseconds
+	 */
+	public long getP90Nanos() {
+		return p90Nanos;
+	}
+
+	/**
+	 * Returns the time 99% of operations took at most
+	 * @return 99th percentile in nanoseconds
+	 */
+	public long getP99Nanos() {
+		return p99Nanos;
+	}
+
+	/**
+	 * Returns the time 99.9% of operations took at most
+	 * @return 99.9th percentile in nanoseconds
+	 */
+	public long getP999Nanos() {
+		return p999Nanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d ops, %.1fms total, mean %.1fus, p50 %.1fus, p99 %.1fus, max %.1fus", count, totalNanos / 1e6,
+			getMeanNanos() / 1e3, p50Nanos / 1e3, p99Nanos / 1e3, maxNanos / 1e3);
+	}
+}
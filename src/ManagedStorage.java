@@ -0,0 +1,205 @@
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Oliver Griffiths
+ * Storage for a volume looked after by a VolumeManager. The image is only opened when it's first read,
+ * can be closed again whenever no read is using it, and is read through pages kept in the manager's shared cache.
+ * Reads too long to be worth caching, such as streaming a whole file, go straight to the image.
+ */
+class ManagedStorage implements Storage {
+	private final VolumeManager manager;
+	private final String filename;
+	private final SharedCache cache;
+	private final SharedCache.Partition partition;
+	private final int pageSize;
+	private final int bypassLength; // Reads at least this long skip the cache, so one big read can't flush it
+	private Storage storage;
+	private int active = 0; // Reads in progress on the open handle
+	private long size = -1;
+	private volatile long lastUsed; // From System.nanoTime, so images read within the same millisecond still have an order
+	private long opens = 0;
+	private boolean disposed = false;
+
+	private final LongAdder reads = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private volatile VolumeMetrics metrics; // Of the volume reading through the storage, once it's handed over
+
+	/**
+	 * Creates a new ManagedStorage. Nothing is opened until the first read.
+	 * @param manager The manager looking after the volume
+	 * @param filename The path of the image
+	 * @param cache The cache shared by the manager's volumes
+	 * @param pageSize The size of the pages cached
+	 */
+	ManagedStorage(VolumeManager manager, String filename, SharedCache cache, int pageSize) {
+		this.manager = manager;
+		this.filename = filename;
+		this.cache = cache;
+		this.pageSize = pageSize;
+		bypassLength = pageSize * 16;
+		partition = cache.newPartition();
+		lastUsed = System.nanoTime();
+	}
+
+	@Override
+	public void read(long position, byte[] bytes, int offset, int length) throws IOException {
+		reads.increment();
+		bytesRead.add(length);
+		Storage in = acquire();
+		try {
+			if(length >= bypassLength || position < 0 || position + length > size) { // Past the end of the image is left for the image to report
+				in.read(position, bytes, offset, length);
+				return;
+			}
+			while(length > 0) {
+				long page = position / pageSize;
+				int from = (int) (position % pageSize);
+				byte[] data = cache.get(partition, page);
+				VolumeMetrics counted = metrics;
+				if(data == null) {
+					misses.increment();
+					if(counted != null) {
+						counted.cacheMiss(VolumeMetrics.CACHE_PAGES);
+					}
+					data = new byte[(int) Math.min(pageSize, size - (page * pageSize))];
+					in.read(page * pageSize, data, 0, data.length);
+					cache.put(partition, page, data);
+				} else {
+					hits.increment();
+					if(counted != null) {
+						counted.cacheHit(VolumeMetrics.CACHE_PAGES);
+					}
+				}
+				int count = Math.min(length, data.length - from);
+				System.arraycopy(data, from, bytes, offset, count);
+				position += count;
+				offset += count;
+				length -= count;
+			}
+		} finally {
+			release();
+		}
+	}
+
+	@Override
+	public long size() throws IOException {
+		acquire();
+		release();
+		return size;
+	}
+
+	@Override
+	public void setMetrics(VolumeMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Closes the image if no read is using it. The cached pages stay, as the image can't have changed.
+	 */
+	@Override
+	public void close() throws IOException {
+		closeIfIdle(System.nanoTime());
+	}
+
+	/**
+	 * Closes the image if no read is using it and it hasn't been used since a given time
+	 * @param before The System.nanoTime the image must have been last used before
+	 * @return Whether the image was closed
+	 * @throws IOException If the image can't be closed
+	 */
+	synchronized boolean closeIfIdle(long before) throws IOException {
+		if(storage == null || active > 0 || lastUsed - before >= 0) {
+			return false;
+		}
+		Storage open = storage;
+		storage = null;
+		manager.closed();
+		open.close();
+		return true;
+	}
+
+	/**
+	 * Drops the image's pages from the shared cache and closes it, for good
+	 * @throws IOException If the image can't be closed
+	 */
+	void dispose() throws IOException {
+		cache.removePartition(partition);
+		synchronized(this) {
+			disposed = true;
+			if(storage != null) {
+				storage.close();
+				storage = null;
+				manager.closed();
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the image is open
+	 * @return True if the image has an open handle
+	 */
+	synchronized boolean isOpen() {
+		return storage != null;
+	}
+
+	/**
+	 * Returns when the image was last read
+	 * @return System.nanoTime of the last read
+	 */
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * Takes a snapshot of how the volume has used its image and the cache
+	 * @return Usage of the volume
+	 */
+	VolumeUsage getUsage() {
+		long opened;
+		boolean open;
+		synchronized(this) {
+			opened = opens;
+			open = storage != null;
+		}
+		return new VolumeUsage(filename, reads.sum(), bytesRead.sum(), hits.sum(), misses.sum(),
+				partition.getBytes(), partition.getShare(), opened, open,
+				System.currentTimeMillis() - ((System.nanoTime() - lastUsed) / 1000000));
+	}
+
+	// Opens the image if need be and marks a read as in progress, so it isn't closed underneath the read
+	private Storage acquire() throws IOException {
+		boolean opened = false;
+		Storage in;
+		synchronized(this) {
+			if(disposed) {
+				throw new IOException(filename + " is no longer looked after by its manager");
+			}
+			if(storage == null) {
+				Storage fresh = Storage.open(filename, 1); // Chunks of compressed images are cached as pages, so only keep the one being read
+				try {
+					size = fresh.size();
+				} catch (IOException e) {
+					fresh.close();
+					throw e;
+				}
+				storage = fresh;
+				opens++;
+				opened = true;
+			}
+			active++;
+			lastUsed = System.nanoTime();
+			in = storage;
+		}
+		if(opened) {
+			manager.opened(this); // Outside the lock, as the manager may close other volumes' images
+		}
+		return in;
+	}
+
+	private synchronized void release() {
+		active--;
+	}
+}
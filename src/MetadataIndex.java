@@ -0,0 +1,339 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * @author Oliver Griffiths
+ * A sidecar file holding the directory tree, inode records and block maps of an EXT2 volume,
+ * so a volume that hasn't changed can be reopened without walking its directories again.
+ *
+ * The index is tied to the SuperBlock it was built from (write and mount time, block and inode counts
+ * and free counts) and is memory-mapped when opened, so lookups read straight from the page cache.
+ * All values are little endian. The file holds a 64 byte header, then an inode record for every live
+ * inode sorted by inode, then the block runs, then the directory entries, then the entry names.
+ * Each directory's entries are sorted by name so a path can be resolved by binary search.
+ * Being mapped in one piece, an index is limited to 2GB.
+ */
+public class MetadataIndex {
+	private static final int MAGIC = 0x58493245; // "E2IX"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 64;
+	private static final int RECORD_HEADER = 20; // Inode, first run, run count, first entry, entry count
+	private static final int RUN_SIZE = 12;
+	private static final int ENTRY_SIZE = 12; // Name offset, name length, inode
+
+	private final int ROOT_INODE_PTR = 2;
+
+	private final ByteBuffer buffer;
+	private final int inodeSize;
+	private final int recordCount;
+	private final long runsStart;
+	private final long entriesStart;
+	private final long namesStart;
+
+	private MetadataIndex(ByteBuffer mapped) {
+		buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+		inodeSize = buffer.getInt(32);
+		recordCount = buffer.getInt(36);
+		int entryCount = buffer.getInt(40);
+		int runCount = buffer.getInt(44);
+		runsStart = HEADER_SIZE + ((long) recordCount * (RECORD_HEADER + inodeSize));
+		entriesStart = runsStart + ((long) runCount * RUN_SIZE);
+		namesStart = entriesStart + ((long) entryCount * ENTRY_SIZE);
+	}
+
+	/**
+	 * Opens the sidecar index of a volume, if it exists and still matches the volume
+	 * @param vol The volume the index was built for
+	 * @param path The path of the index file
+	 * @return The mapped index, or null if it is missing, damaged or out of date
+	 */
+	public static MetadataIndex open(Volume vol, String path) {
+		try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+			if(file.length() < HEADER_SIZE) {
+				return null;
+			}
+			MappedByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			mapped.order(ByteOrder.LITTLE_ENDIAN);
+			if(mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION || !matches(mapped, vol)) {
+				return null;
+			}
+			return new MetadataIndex(mapped); // The mapping stays valid once the file is closed
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Builds the index of a volume and saves it, reading every group's inode table and directories in parallel
+	 * @param vol The volume to index
+	 * @param path The path of the index file to write
+	 * @return The newly built index, mapped from the written file
+	 * @throws IOException If the index file can't be written
+	 */
+	public static MetadataIndex build(final Volume vol, String path) throws IOException {
+		final SuperBlock superBlock = vol.getSuperBlock();
+		final int size = superBlock.getInodeSize();
+		final List<Record> records = Collections.synchronizedList(new ArrayList<Record>());
+		IntStream.range(0, vol.getGroupCount()).parallel().forEach(group -> {
+			byte[] table = vol.readInodeTable(group);
+			InodeView view = new InodeView();
+			for (int i = 0; i < superBlock.getGroupInodes(); i++) {
+				int id = (group * superBlock.getGroupInodes()) + i + 1;
+				if(id > superBlock.getInodes()) {
+					break;
+				}
+				view.wrap(table, i * size);
+				if(view.getHardLinks() == 0 || view.getModeBits() == 0 || (id < superBlock.getFirstInode() && id != 2)) {
+					continue;
+				}
+				byte[] raw = Arrays.copyOfRange(table, i * size, (i + 1) * size);
+				records.add(new Record(vol, id, raw, new Inode(raw)));
+			}
+		});
+		Collections.sort(records, (a, b) -> Integer.compare(a.id, b.id));
+
+		int runCount = 0;
+		int entryCount = 0;
+		long nameBytes = 0;
+		for (Record record : records) {
+			runCount += record.runs.length / 3;
+			entryCount += record.names.size();
+			for (byte[] name : record.names) {
+				nameBytes += name.length;
+			}
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+			file.setLength(0);
+			long total = HEADER_SIZE + ((long) records.size() * (RECORD_HEADER + size)) + ((long) runCount * RUN_SIZE) + ((long) entryCount * ENTRY_SIZE) + nameBytes;
+			MappedByteBuffer out = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, total);
+			out.order(ByteOrder.LITTLE_ENDIAN);
+
+			out.putInt(MAGIC).putInt(VERSION);
+			out.putInt(seconds(superBlock.getWriteTime().getTime())).putInt(seconds(superBlock.getMountTime().getTime()));
+			out.putInt(superBlock.getInodes()).putInt(superBlock.getBlocks());
+			out.putInt(superBlock.getFreeBlocks()).putInt(superBlock.getFreeInodes());
+			out.putInt(size).putInt(records.size()).putInt(entryCount).putInt(runCount);
+			out.position(HEADER_SIZE);
+
+			int run = 0;
+			int entry = 0;
+			for (Record record : records) {
+				out.putInt(record.id).putInt(run).putInt(record.runs.length / 3).putInt(entry).putInt(record.names.size());
+				out.put(record.raw);
+				run += record.runs.length / 3;
+				entry += record.names.size();
+			}
+			for (Record record : records) {
+				for (int value : record.runs) {
+					out.putInt(value);
+				}
+			}
+			long name = 0;
+			for (Record record : records) {
+				for (int i = 0; i < record.names.size(); i++) {
+					out.putInt((int) name).putInt(record.names.get(i).length).putInt(record.children.get(i));
+					name += record.names.get(i).length;
+				}
+			}
+			for (Record record : records) {
+				for (byte[] bytes : record.names) {
+					out.put(bytes);
+				}
+			}
+			out.force();
+		}
+		return open(vol, path);
+	}
+
+	/**
+	 * Resolves a path to the inode it leads to
+	 * @param path The path leading to the file
+	 * @return Pointer to the inode of the file, or -1 if there is no such file
+	 */
+	public int lookup(String path) {
+		int id = ROOT_INODE_PTR;
+		for (String name : path.split("/")) {
+			if(name.isEmpty()) {
+				continue; // Leading, trailing or doubled slashes
+			}
+			int record = findRecord(id);
+			if(record < 0) {
+				return -1;
+			}
+			id = findChild(record, name);
+			if(id < 0) {
+				return -1;
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Returns an inode from the index, complete with its block map
+	 * @param id The pointer/ID for the Inode
+	 * @return The Inode, or null if the index holds no live inode by that ID
+	 */
+	public Inode getInode(int id) {
+		int record = findRecord(id);
+		if(record < 0) {
+			return null;
+		}
+		long base = recordAt(record);
+		byte[] raw = new byte[inodeSize];
+		for (int i = 0; i < inodeSize; i++) {
+			raw[i] = buffer.get((int) (base + RECORD_HEADER + i));
+		}
+		Inode inode = new Inode(raw);
+		int firstRun = buffer.getInt((int) base + 4);
+		int[] runs = new int[buffer.getInt((int) base + 8) * 3];
+		for (int i = 0; i < runs.length; i++) {
+			runs[i] = buffer.getInt((int) (runsStart + ((long) firstRun * RUN_SIZE) + (i * 4L)));
+		}
+		inode.setBlockRuns(runs);
+		return inode;
+	}
+
+	/**
+	 * Returns the amount of inodes held in the index
+	 * @return Inode record count
+	 */
+	public int getInodeCount() {
+		return recordCount;
+	}
+
+	private long recordAt(int record) {
+		return HEADER_SIZE + ((long) record * (RECORD_HEADER + inodeSize));
+	}
+
+	// Binary search of the records, which are sorted by inode
+	private int findRecord(int id) {
+		int low = 0;
+		int high = recordCount - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			int found = buffer.getInt((int) recordAt(middle));
+			if(found < id) {
+				low = middle + 1;
+			} else if(found > id) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	// Binary search of a directory's entries, which are sorted by name
+	private int findChild(int record, String name) {
+		long base = recordAt(record);
+		int low = buffer.getInt((int) base + 12);
+		int high = low + buffer.getInt((int) base + 16) - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			long entry = entriesStart + ((long) middle * ENTRY_SIZE);
+			int compared = compareName(namesStart + buffer.getInt((int) entry), buffer.getInt((int) entry + 4), name);
+			if(compared < 0) {
+				low = middle + 1;
+			} else if(compared > 0) {
+				high = middle - 1;
+			} else {
+				return buffer.getInt((int) entry + 8);
+			}
+		}
+		return -1;
+	}
+
+	// Compares a stored name against a path component, a byte per character like Directory reads them
+	private int compareName(long offset, int length, String name) {
+		int common = Math.min(length, name.length());
+		for (int i = 0; i < common; i++) {
+			int difference = (buffer.get((int) (offset + i)) & 0xFF) - name.charAt(i);
+			if(difference != 0) {
+				return difference;
+			}
+		}
+		return length - name.length();
+	}
+
+	private static boolean matches(ByteBuffer header, Volume vol) {
+		SuperBlock superBlock = vol.getSuperBlock();
+		return header.getInt(8) == seconds(superBlock.getWriteTime().getTime())
+			&& header.getInt(12) == seconds(superBlock.getMountTime().getTime())
+			&& header.getInt(16) == superBlock.getInodes() && header.getInt(20) == superBlock.getBlocks()
+			&& header.getInt(24) == superBlock.getFreeBlocks() && header.getInt(28) == superBlock.getFreeInodes()
+			&& header.getInt(32) == superBlock.getInodeSize();
+	}
+
+	private static int seconds(long millis) {
+		return (int) (millis / 1000);
+	}
+
+	// Everything the index keeps about one live inode, gathered while building
+	private static class Record {
+		private final int id;
+		private final byte[] raw;
+		private final int[] runs;
+		private final List<byte[]> names = new ArrayList<byte[]>();
+		private final List<Integer> children = new ArrayList<Integer>();
+
+		Record(final Volume vol, int inodePtr, byte[] bytes, Inode inode) {
+			id = inodePtr;
+			raw = bytes;
+			final List<Integer> map = new ArrayList<Integer>();
+			vol.walkBlocks(inode, (logical, physical) -> {
+				int last = map.size() - 3;
+				if(last >= 0 && map.get(last) + map.get(last + 2) == logical && map.get(last + 1) + map.get(last + 2) == physical) {
+					map.set(last + 2, map.get(last + 2) + 1); // Carries on from the run
+				} else {
+					map.add((int) logical);
+					map.add(physical);
+					map.add(1);
+				}
+			});
+			runs = new int[map.size()];
+			for (int i = 0; i < runs.length; i++) {
+				runs[i] = map.get(i);
+			}
+
+			if(inode.isDirectory()) {
+				final List<Object[]> entries = new ArrayList<Object[]>();
+				new Directory(inode, vol).forEachEntry((child, type, name) -> {
+					if(!name.equals(".") && !name.equals("..")) {
+						byte[] encoded = new byte[name.length()];
+						for (int i = 0; i < encoded.length; i++) {
+							encoded[i] = (byte) name.charAt(i);
+						}
+						entries.add(new Object[] {encoded, child});
+					}
+					return true;
+				});
+				Collections.sort(entries, (a, b) -> compareBytes((byte[]) a[0], (byte[]) b[0]));
+				for (Object[] entry : entries) {
+					names.add((byte[]) entry[0]);
+					children.add((Integer) entry[1]);
+				}
+			}
+		}
+
+		private static int compareBytes(byte[] a, byte[] b) {
+			int common = Math.min(a.length, b.length);
+			for (int i = 0; i < common; i++) {
+				int difference = (a[i] & 0xFF) - (b[i] & 0xFF);
+				if(difference != 0) {
+					return difference;
+				}
+			}
+			return a.length - b.length;
+		}
+	}
+}
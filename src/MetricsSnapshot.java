@@ -0,0 +1,161 @@
+import java.util.Date;
+
+/**
+ * @author Oliver Griffiths
+ * The metrics of a volume at one moment. Operations that start others, like an inode load reading its
+ * descriptor, count their own time including the others', so totals can overlap.
+ */
+public class MetricsSnapshot {
+	private final Date taken;
+	private final LatencySummary storageReads;
+	private final long bytesRead;
+	private final LatencySummary inodeLoads;
+	private final LatencySummary descriptorLoads;
+	private final LatencySummary directoryParses;
+	private final long directoryEntries;
+	private final LatencySummary pathResolutions;
+	private final LatencySummary blockMaps;
+	private final long[] indirectReads;
+	private final long[] cacheHits;
+	private final long[] cacheMisses;
+
+	/**
+	 * Creates a new MetricsSnapshot
+	 * @param taken When the metrics were read
+	 * @param summaries The latency of each operation, indexed by the operation constants of VolumeMetrics
+	 * @param bytesRead Bytes read from the volume's storage
+	 * @param directoryEntries Directory entries parsed
+	 * @param indirectReads Pointer tables read at levels 1, 2 and 3
+	 * @param cacheHits Hits in each cache, indexed by the cache constants of VolumeMetrics
+	 * @param cacheMisses Misses in each cache
+	 */
+	public MetricsSnapshot(Date taken, LatencySummary[] summaries, long bytesRead, long directoryEntries, long[] indirectReads,
+			long[] cacheHits, long[] cacheMisses) {
+		this.taken = taken;
+		storageReads = summaries[VolumeMetrics.STORAGE_READ];
+		inodeLoads = summaries[VolumeMetrics.INODE_LOAD];
+		descriptorLoads = summaries[VolumeMetrics.DESCRIPTOR_LOAD];
+		directoryParses = summaries[VolumeMetrics.DIRECTORY_PARSE];
+		pathResolutions = summaries[VolumeMetrics.PATH_RESOLUTION];
+		blockMaps = summaries[VolumeMetrics.BLOCK_MAP];
+		this.bytesRead = bytesRead;
+		this.directoryEntries = directoryEntries;
+		this.indirectReads = indirectReads.clone();
+		this.cacheHits = cacheHits.clone();
+		this.cacheMisses = cacheMisses.clone();
+	}
+
+	/**
+	 * Returns when the metrics were read
+	 * @return Time of the snapshot
+	 */
+	public Date getTaken() {
+		return taken;
+	}
+
+	/**
+	 * Returns how long reads from the volume's storage took. Reads served by a cache in the storage count too.
+	 * @return Storage read latency
+	 */
+	public LatencySummary getStorageReads() {
+		return storageReads;
+	}
+
+	/**
+	 * Returns the bytes read from the volume's storage
+	 * @return Bytes read
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Returns how long loading inodes took
+	 * @return Inode load latency
+	 */
+	public LatencySummary getInodeLoads() {
+		return inodeLoads;
+	}
+
+	/**
+	 * Returns how long loading group descriptors, one at a time or the whole table, took
+	 * @return Descriptor load latency
+	 */
+	public LatencySummary getDescriptorLoads() {
+		return descriptorLoads;
+	}
+
+	/**
+	 * Returns how long reading through directories took
+	 * @return Directory parse latency
+	 */
+	public LatencySummary getDirectoryParses() {
+		return directoryParses;
+	}
+
+	/**
+	 * Returns the directory entries parsed
+	 * @return Entry count
+	 */
+	public long getDirectoryEntries() {
+		return directoryEntries;
+	}
+
+	/**
+	 * Returns how long turning paths into inodes took
+	 * @return Path resolution latency
+	 */
+	public LatencySummary getPathResolutions() {
+		return pathResolutions;
+	}
+
+	/**
+	 * Returns how long looking up where stretches of files are on the volume took, indirect tables included
+	 * @return Block mapping latency
+	 */
+	public LatencySummary getBlockMaps() {
+		return blockMaps;
+	}
+
+	/**
+	 * Returns the pointer tables read at each level, the tables a treble indirect pointer leads to being level 3
+	 * @return Table reads at levels 1, 2 and 3
+	 */
+	public long[] getIndirectReads() {
+		return indirectReads.clone();
+	}
+
+	/**
+	 * Returns the hits in each cache, indexed by CACHE_INDEX, CACHE_PAGES and CACHE_CHUNKS of VolumeMetrics
+	 * @return Hit counts
+	 */
+	public long[] getCacheHits() {
+		return cacheHits.clone();
+	}
+
+	/**
+	 * Returns the misses in each cache, indexed like getCacheHits()
+	 * @return Miss counts
+	 */
+	public long[] getCacheMisses() {
+		return cacheMisses.clone();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append("Storage reads:    ").append(storageReads).append(", ").append(bytesRead).append(" bytes\n");
+		text.append("Inode loads:      ").append(inodeLoads).append('\n');
+		text.append("Descriptor loads: ").append(descriptorLoads).append('\n');
+		text.append("Directory parses: ").append(directoryParses).append(", ").append(directoryEntries).append(" entries\n");
+		text.append("Path resolutions: ").append(pathResolutions).append('\n');
+		text.append("Block maps:       ").append(blockMaps).append('\n');
+		text.append("Indirect reads:   ").append(indirectReads[0]).append(" / ").append(indirectReads[1]).append(" / ")
+			.append(indirectReads[2]).append('\n');
+		String[] names = {"Index", "Pages", "Chunks"};
+		for (int i = 0; i < names.length; i++) {
+			text.append(String.format("%-18s%d hits, %d misses%n", names[i] + " cache:", cacheHits[i], cacheMisses[i]));
+		}
+		return text.toString();
+	}
+}
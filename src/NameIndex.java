@@ -0,0 +1,524 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * @author Oliver Griffiths
+ * An in-memory index of every name on an EXT2 volume, for finding files by prefix, suffix, substring or glob
+ * without walking the tree. It is built in one parallel pass over the directories, a block group per task.
+ *
+ * Every directory entry is kept as its name, the inode of its directory and its own inode. Names are packed
+ * into one byte array, a character per byte like Directory reads them, and the entries are held in two sorted
+ * orders, by name and by reversed name, for prefix and suffix searches. Substring searches use a trigram index.
+ */
+public class NameIndex {
+	private final byte[] names;
+	private final int[] nameStarts; // Entry i's name runs from nameStarts[i] to nameStarts[i + 1]
+	private final int[] parents;
+	private final int[] inodes;
+	private final int[] byName;
+	private final int[] byReversedName;
+	private final int[] trigrams; // Sorted distinct trigrams
+	private final int[] postingStarts; // Trigram i's entries run from postingStarts[i] to postingStarts[i + 1]
+	private final int[] postings;
+	private final int[] directoryEntries; // The entry naming each directory, by inode, -1 if none
+
+	private final int ROOT_INODE_PTR = 2;
+
+	private NameIndex(byte[] n, int[] starts, int[] p, int[] i, int inodeCount) {
+		names = n;
+		nameStarts = starts;
+		parents = p;
+		inodes = i;
+		int count = parents.length;
+
+		byName = sorted(count, (a, b) -> compare(a, b, false));
+		byReversedName = sorted(count, (a, b) -> compare(a, b, true));
+
+		long[] keys = new long[countTrigrams()];
+		int k = 0;
+		for (int entry = 0; entry < count; entry++) {
+			for (int at = nameStarts[entry]; at + 3 <= nameStarts[entry + 1]; at++) {
+				keys[k++] = ((long) trigram(names, at) << 32) | entry;
+			}
+		}
+		Arrays.parallelSort(keys);
+		int distinct = 0;
+		int kept = 0;
+		for (int j = 0; j < keys.length; j++) {
+			if(j > 0 && keys[j] == keys[j - 1]) {
+				continue; // Same trigram more than once in a name
+			}
+			if(j == 0 || (keys[j] >>> 32) != (keys[j - 1] >>> 32)) {
+				distinct++;
+			}
+			keys[kept++] = keys[j];
+		}
+		trigrams = new int[distinct];
+		postingStarts = new int[distinct + 1];
+		postings = new int[kept];
+		int t = -1;
+		for (int j = 0; j < kept; j++) {
+			int gram = (int) (keys[j] >>> 32);
+			if(t < 0 || trigrams[t] != gram) {
+				trigrams[++t] = gram;
+				postingStarts[t] = j;
+			}
+			postings[j] = (int) keys[j];
+		}
+		postingStarts[distinct] = kept;
+
+		directoryEntries = new int[inodeCount + 1];
+		Arrays.fill(directoryEntries, -1);
+	}
+
+	/**
+	 * Builds the index of every name on a volume
+	 * @param vol The volume to index
+	 * @return The index
+	 */
+	public static NameIndex build(final Volume vol) {
+		final SuperBlock superBlock = vol.getSuperBlock();
+		final int size = superBlock.getInodeSize();
+		final int groupInodes = superBlock.getGroupInodes();
+		final ConcurrentBitSet directories = new ConcurrentBitSet(superBlock.getInodes() + 1L);
+		final List<GroupEntries> groups = new ArrayList<GroupEntries>();
+		for (int i = 0; i < vol.getGroupCount(); i++) {
+			groups.add(new GroupEntries());
+		}
+
+		IntStream.range(0, vol.getGroupCount()).parallel().forEach(group -> {
+			final GroupEntries found = groups.get(group);
+			byte[] table = vol.readInodeTable(group);
+			final InodeView inode = new InodeView();
+			for (int i = 0; i < groupInodes; i++) {
+				final int id = (group * groupInodes) + i + 1;
+				if(id > superBlock.getInodes()) {
+					break;
+				}
+				inode.wrap(table, i * size);
+				if(inode.getHardLinks() == 0 || !inode.isDirectory()) {
+					continue;
+				}
+				directories.set(id);
+				vol.walkBlocks(inode, (logical, physical) -> Directory.parseEntries(vol.readBlock(0xFFFFFFFFL & physical), (child, type, name) -> {
+					if(!name.equals(".") && !name.equals("..")) {
+						found.add(id, child, name);
+					}
+					return true;
+				}));
+			}
+		});
+
+		int count = 0;
+		int bytes = 0;
+		for (GroupEntries found : groups) {
+			count += found.parents.size();
+			bytes += found.names.size();
+		}
+		byte[] names = new byte[bytes];
+		int[] starts = new int[count + 1];
+		int[] parents = new int[count];
+		int[] inodes = new int[count];
+		int entry = 0;
+		int at = 0;
+		for (GroupEntries found : groups) {
+			byte[] groupNames = found.names.toByteArray();
+			System.arraycopy(groupNames, 0, names, at, groupNames.length);
+			for (int i = 0; i < found.parents.size(); i++) {
+				starts[entry] = at + found.starts.get(i);
+				parents[entry] = found.parents.get(i);
+				inodes[entry] = found.inodes.get(i);
+				entry++;
+			}
+			at += groupNames.length;
+		}
+		starts[count] = at;
+
+		NameIndex index = new NameIndex(names, starts, parents, inodes, superBlock.getInodes());
+		for (int i = 0; i < count; i++) {
+			if(inodes[i] > 0 && inodes[i] <= superBlock.getInodes() && directories.get(inodes[i])) {
+				index.directoryEntries[inodes[i]] = i;
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Returns the amount of entries in the index
+	 * @return Entry count
+	 */
+	public int size() {
+		return parents.length;
+	}
+
+	/**
+	 * Finds the entries whose name starts with a string
+	 * @param prefix The start of the name
+	 * @return The matching entries
+	 */
+	public int[] findPrefix(String prefix) {
+		return range(byName, prefix, false);
+	}
+
+	/**
+	 * Finds the entries whose name ends with a string
+	 * @param suffix The end of the name
+	 * @return The matching entries
+	 */
+	public int[] findSuffix(String suffix) {
+		return range(byReversedName, suffix, true);
+	}
+
+	/**
+	 * Finds the entries whose name contains a string
+	 * @param text The text to look for in the name
+	 * @return The matching entries, in entry order
+	 */
+	public int[] findSubstring(String text) {
+		int[] candidates = candidates(text);
+		return filter(candidates, entry -> getName(entry).contains(text));
+	}
+
+	/**
+	 * Finds the entries whose name matches a glob, where * matches anything, ? matches one character
+	 * and [...] matches one character of a set
+	 * @param glob The pattern for the whole name
+	 * @return The matching entries
+	 */
+	public int[] findGlob(String glob) {
+		final Pattern pattern = Pattern.compile(globToRegex(glob));
+		int firstWild = firstWildcard(glob);
+		int lastWild = lastWildcard(glob);
+		int[] candidates;
+		if(firstWild < 0) {
+			candidates = range(byName, glob, false);
+			candidates = filter(candidates, entry -> getName(entry).equals(glob));
+			return candidates;
+		} else if(firstWild > 0) {
+			candidates = range(byName, glob.substring(0, firstWild), false);
+		} else if(lastWild < glob.length() - 1) {
+			candidates = range(byReversedName, glob.substring(lastWild + 1), true);
+		} else {
+			candidates = candidates(longestLiteral(glob));
+		}
+		return filter(candidates, entry -> pattern.matcher(getName(entry)).matches());
+	}
+
+	/**
+	 * Returns the name of an entry
+	 * @param entry The entry
+	 * @return The file name
+	 */
+	public String getName(int entry) {
+		return new String(names, nameStarts[entry], nameStarts[entry + 1] - nameStarts[entry], StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns the inode of the directory holding an entry
+	 * @param entry The entry
+	 * @return Parent directory inode pointer
+	 */
+	public int getParent(int entry) {
+		return parents[entry];
+	}
+
+	/**
+	 * Returns the inode an entry points to
+	 * @param entry The entry
+	 * @return Inode pointer
+	 */
+	public int getInode(int entry) {
+		return inodes[entry];
+	}
+
+	/**
+	 * Works out the full path of an entry by following its directories up to the root
+	 * @param entry The entry
+	 * @return The path, or null if the entry isn't reachable from the root
+	 */
+	public String getPath(int entry) {
+		StringBuilder path = new StringBuilder();
+		int current = entry;
+		for (int depth = 0; depth < directoryEntries.length; depth++) { // A bound in case of directory loops
+			path.insert(0, getName(current)).insert(0, '/');
+			int parent = parents[current];
+			if(parent == ROOT_INODE_PTR) {
+				return path.toString();
+			}
+			if(parent < 0 || parent >= directoryEntries.length || directoryEntries[parent] < 0) {
+				return null;
+			}
+			current = directoryEntries[parent];
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the paths of some entries, as found by the find methods
+	 * @param entries The entries
+	 * @return Their paths, sorted
+	 */
+	public List<String> getPaths(int[] entries) {
+		List<String> paths = new ArrayList<String>();
+		for (int entry : entries) {
+			String path = getPath(entry);
+			if(path != null) {
+				paths.add(path);
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	// Entries that may contain the text: the shortest posting list of its trigrams, narrowed by the others
+	private int[] candidates(String text) {
+		if(text.length() < 3) {
+			return IntStream.range(0, size()).toArray();
+		}
+		byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+		int[] result = null;
+		for (int at = 0; at + 3 <= bytes.length; at++) {
+			int t = Arrays.binarySearch(trigrams, trigram(bytes, at));
+			if(t < 0) {
+				return new int[0];
+			}
+			int[] posting = Arrays.copyOfRange(postings, postingStarts[t], postingStarts[t + 1]);
+			result = result == null ? posting : intersect(result, posting);
+		}
+		return result;
+	}
+
+	// The entries of a sorted order whose name, or reversed name, starts with the key
+	private int[] range(int[] order, String key, boolean reversed) {
+		byte[] bytes = key.getBytes(StandardCharsets.ISO_8859_1);
+		int low = 0;
+		int high = order.length;
+		while(low < high) { // First entry not below the key
+			int middle = (low + high) >>> 1;
+			if(compareKey(order[middle], bytes, reversed, false) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		int end = low;
+		while(end < order.length && compareKey(order[end], bytes, reversed, true) == 0) {
+			end++;
+		}
+		return Arrays.copyOfRange(order, low, end);
+	}
+
+	// Compares an entry's name against a key, optionally only as far as the key goes
+	private int compareKey(int entry, byte[] key, boolean reversed, boolean prefixOnly) {
+		int start = nameStarts[entry];
+		int length = nameStarts[entry + 1] - start;
+		int common = Math.min(length, key.length);
+		for (int i = 0; i < common; i++) {
+			int b = reversed ? names[start + length - 1 - i] & 0xFF : names[start + i] & 0xFF;
+			int k = reversed ? key[key.length - 1 - i] & 0xFF : key[i] & 0xFF;
+			if(b != k) {
+				return b - k;
+			}
+		}
+		return prefixOnly && length >= key.length ? 0 : length - key.length;
+	}
+
+	private int compare(int a, int b, boolean reversed) {
+		int startA = nameStarts[a];
+		int startB = nameStarts[b];
+		int lengthA = nameStarts[a + 1] - startA;
+		int lengthB = nameStarts[b + 1] - startB;
+		int common = Math.min(lengthA, lengthB);
+		for (int i = 0; i < common; i++) {
+			int x = reversed ? names[startA + lengthA - 1 - i] & 0xFF : names[startA + i] & 0xFF;
+			int y = reversed ? names[startB + lengthB - 1 - i] & 0xFF : names[startB + i] & 0xFF;
+			if(x != y) {
+				return x - y;
+			}
+		}
+		return lengthA - lengthB;
+	}
+
+	private int countTrigrams() {
+		int count = 0;
+		for (int entry = 0; entry < parents.length; entry++) {
+			count += Math.max(0, nameStarts[entry + 1] - nameStarts[entry] - 2);
+		}
+		return count;
+	}
+
+	private static int trigram(byte[] bytes, int at) {
+		return ((bytes[at] & 0xFF) << 16) | ((bytes[at + 1] & 0xFF) << 8) | (bytes[at + 2] & 0xFF);
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int i = 0;
+		int j = 0;
+		int k = 0;
+		while(i < a.length && j < b.length) {
+			if(a[i] < b[j]) {
+				i++;
+			} else if(a[i] > b[j]) {
+				j++;
+			} else {
+				result[k++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, k);
+	}
+
+	private static int[] filter(int[] entries, IntPredicate keep) {
+		return Arrays.stream(entries).filter(keep).toArray();
+	}
+
+	// Sorts the entries with a merge sort on plain ints, so millions of entries don't need boxing
+	private static int[] sorted(int count, IntComparator comparator) {
+		int[] order = IntStream.range(0, count).toArray();
+		int[] scratch = new int[count];
+		for (int width = 1; width < count; width *= 2) {
+			for (int low = 0; low < count - width; low += 2 * width) {
+				int middle = low + width;
+				int high = Math.min(low + (2 * width), count);
+				int i = low;
+				int j = middle;
+				int k = low;
+				while(i < middle && j < high) {
+					scratch[k++] = comparator.compare(order[i], order[j]) <= 0 ? order[i++] : order[j++];
+				}
+				while(i < middle) {
+					scratch[k++] = order[i++];
+				}
+				while(j < high) {
+					scratch[k++] = order[j++];
+				}
+				System.arraycopy(scratch, low, order, low, high - low);
+			}
+		}
+		return order;
+	}
+
+	private static int firstWildcard(String glob) {
+		List<int[]> wildcards = wildcards(glob);
+		return wildcards.isEmpty() ? -1 : wildcards.get(0)[0];
+	}
+
+	// The last character of the last wildcard, the closing ] for a set
+	private static int lastWildcard(String glob) {
+		List<int[]> wildcards = wildcards(glob);
+		return wildcards.isEmpty() ? -1 : wildcards.get(wildcards.size() - 1)[1] - 1;
+	}
+
+	// The longest run of the glob without wildcards, the best bet for the trigram index
+	private static String longestLiteral(String glob) {
+		String longest = "";
+		int from = 0;
+		List<int[]> wildcards = wildcards(glob);
+		wildcards.add(new int[] {glob.length(), glob.length()});
+		for (int[] wildcard : wildcards) {
+			if(wildcard[0] - from > longest.length()) {
+				longest = glob.substring(from, wildcard[0]);
+			}
+			from = wildcard[1];
+		}
+		return longest;
+	}
+
+	// The start and end of each *, ? and set in the glob, read the same way as globToRegex does, so a ] straight
+	// after the opening [ stays in the set and a [ with no closing ] is literal
+	private static List<int[]> wildcards(String glob) {
+		List<int[]> wildcards = new ArrayList<int[]>();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			int close = c == '[' ? setEnd(glob, i) : -1;
+			if(c == '*' || c == '?') {
+				wildcards.add(new int[] {i, i + 1});
+			} else if(close > 0) {
+				wildcards.add(new int[] {i, close + 1});
+				i = close;
+			}
+		}
+		return wildcards;
+	}
+
+	/**
+	 * Translates a glob into a regular expression, where * matches anything, ? matches one character, [...] matches
+	 * one character of a set and [!...] or [^...] one character outside it. A ] straight after the opening [ is part
+	 * of the set, and a [ with no closing ] is an ordinary character.
+	 * @param glob The glob
+	 * @return A regular expression for Pattern matching the same names
+	 */
+	public static String globToRegex(String glob) {
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			int close = c == '[' ? setEnd(glob, i) : -1;
+			if(c == '*') {
+				regex.append(".*");
+			} else if(c == '?') {
+				regex.append('.');
+			} else if(close > 0) {
+				regex.append('[');
+				int j = i + 1;
+				if(glob.charAt(j) == '!' || glob.charAt(j) == '^') {
+					regex.append('^');
+					j++;
+				}
+				for (; j < close; j++) {
+					char member = glob.charAt(j);
+					if("\\[]&^".indexOf(member) >= 0) { // Characters Pattern gives a meaning to inside a class, other than ranges
+						regex.append('\\');
+					}
+					regex.append(member);
+				}
+				regex.append(']');
+				i = close;
+			} else {
+				regex.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return regex.toString();
+	}
+
+	// Where the set opened at start closes, or -1 if it never does
+	private static int setEnd(String glob, int start) {
+		int i = start + 1;
+		if(i < glob.length() && (glob.charAt(i) == '!' || glob.charAt(i) == '^')) {
+			i++;
+		}
+		if(i < glob.length() && glob.charAt(i) == ']') { // Part of the set, not its end
+			i++;
+		}
+		return glob.indexOf(']', i);
+	}
+
+	private interface IntComparator {
+		int compare(int a, int b);
+	}
+
+	// The entries found in one block group's directories
+	private static class GroupEntries {
+		private final ByteArrayOutputStream names = new ByteArrayOutputStream();
+		private final List<Integer> starts = new ArrayList<Integer>();
+		private final List<Integer> parents = new ArrayList<Integer>();
+		private final List<Integer> inodes = new ArrayList<Integer>();
+
+		void add(int parent, int inode, String name) {
+			starts.add(names.size());
+			parents.add(parent);
+			inodes.add(inode);
+			for (int i = 0; i < name.length(); i++) {
+				names.write(name.charAt(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,261 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * @author Oliver Griffiths
+ * Finds deleted files whose inodes still hold their block pointers, and recovers their content.
+ * Inode tables are read a whole group at a time and groups are scanned in parallel.
+ */
+public class Recovery {
+	private final Volume vol;
+	private final long firstDataBlock;
+	private final long blockCount;
+	private final int groupBlocks;
+	private final int groupInodes;
+	private final int inodeCount;
+	private final int inodeSize;
+	private final int groups;
+	private final boolean uninitGroups; // Whether groups can be flagged as never initialised
+
+	private byte[] descriptorTable;
+	private byte[][] blockBitmaps;
+
+	/**
+	 * Creates a new Recovery for a volume
+	 * @param v The volume to search for deleted files
+	 */
+	public Recovery(Volume v) {
+		vol = v;
+		SuperBlock superBlock = v.getSuperBlock();
+		firstDataBlock = 0xFFFFFFFFL & superBlock.getFirstDataBlock();
+		blockCount = 0xFFFFFFFFL & superBlock.getBlocks();
+		groupBlocks = superBlock.getGroupBlocks();
+		groupInodes = superBlock.getGroupInodes();
+		inodeCount = superBlock.getInodes();
+		inodeSize = superBlock.getInodeSize();
+		groups = v.getGroupCount();
+		uninitGroups = (superBlock.getRoCompatFeatures() & (SuperBlock.RO_COMPAT_GDT_CSUM | SuperBlock.RO_COMPAT_METADATA_CSUM)) != 0;
+	}
+
+	/**
+	 * Sweeps the inode tables for deleted files that still have block pointers.
+	 * @return The deleted files found, most recoverable first
+	 */
+	public List<DeletedFile> scan() {
+		loadBitmaps();
+		final List<DeletedFile> found = Collections.synchronizedList(new ArrayList<DeletedFile>());
+		IntStream.range(0, groups).parallel().forEach(group -> scanGroup(group, found));
+
+		List<DeletedFile> sorted = new ArrayList<DeletedFile>(found);
+		Collections.sort(sorted, new Comparator<DeletedFile>() {
+			public int compare(DeletedFile a, DeletedFile b) {
+				int byConfidence = Double.compare(b.getConfidence(), a.getConfidence());
+				return byConfidence != 0 ? byConfidence : Integer.compare(a.getInodePtr(), b.getInodePtr());
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Streams the content of a deleted file. Holes and blocks that have since been reused are written as zeros.
+	 * @param file The deleted file, as found by scan()
+	 * @param out The stream to write the content to
+	 * @throws IOException If writing to the stream fails
+	 */
+	public void recover(DeletedFile file, OutputStream out) throws IOException {
+		loadBitmaps();
+		final long size = file.getSize();
+		final long blockSize = vol.getBlockSize();
+		final byte[] zeros = new byte[(int) blockSize];
+		final long[] written = {0};
+		final IOException[] failed = {null};
+
+		vol.walkBlocks(file.getInode(), new BlockVisitor() {
+			public void dataBlock(long logical, int physical) {
+				if(failed[0] != null) {
+					return;
+				}
+				try {
+					while(written[0] < logical * blockSize) { // Fill holes and lost blocks up to this block
+						written[0] += write(out, zeros, size - written[0]);
+					}
+					long block = 0xFFFFFFFFL & physical;
+					written[0] += write(out, isFree(block) ? vol.readBlock(block) : zeros, size - written[0]);
+				} catch (IOException e) {
+					failed[0] = e;
+				}
+			}
+
+			public boolean indirectBlock(int physical, int level) {
+				return failed[0] == null && isFree(0xFFFFFFFFL & physical);
+			}
+		});
+		if(failed[0] != null) {
+			throw failed[0];
+		}
+		while(written[0] < size) { // Trailing hole
+			written[0] += write(out, zeros, size - written[0]);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Recovers every deleted file at or above a confidence score into a directory, in parallel.
+	 * Files are named after their inode.
+	 * @param directory The directory to write the recovered files to
+	 * @param minConfidence The lowest confidence score worth recovering, from 0 to 1
+	 * @return The files that were recovered
+	 */
+	public List<DeletedFile> recoverAll(final String directory, double minConfidence) {
+		List<DeletedFile> recovered = new ArrayList<DeletedFile>();
+		for (DeletedFile file : scan()) {
+			if(file.getConfidence() >= minConfidence) {
+				recovered.add(file);
+			}
+		}
+		recovered.parallelStream().forEach(file -> {
+			try (OutputStream out = new BufferedOutputStream(new FileOutputStream(directory + "/inode-" + file.getInodePtr()))) {
+				recover(file, out);
+			} catch (IOException e) {
+				System.out.println("IO Exception: " + e.getMessage());
+			}
+		});
+		return recovered;
+	}
+
+	// The bitmaps tell which blocks have been handed out again since the files were deleted.
+	// A group whose bitmap was never initialised has nothing allocated but its metadata.
+	private synchronized void loadBitmaps() {
+		if(blockBitmaps != null) {
+			return;
+		}
+		final byte[] table = vol.readDescriptorTable();
+		final GroupLayout layout = uninitGroups ? new GroupLayout(vol, table) : null;
+		byte[][] bitmaps = new byte[groups][];
+		IntStream.range(0, groups).parallel().forEach(group -> {
+			GroupDescriptorView desc = new GroupDescriptorView().wrap(table, group);
+			if(uninitGroups && (desc.getFlags() & GroupDescriptorView.BLOCK_UNINIT) != 0) {
+				bitmaps[group] = layout.metadataBitmap(group);
+			} else {
+				bitmaps[group] = vol.readBlock(0xFFFFFFFFL & desc.getBlockBitmapPtr());
+			}
+		});
+		descriptorTable = table;
+		blockBitmaps = bitmaps;
+	}
+
+	// Reads the group's inode table in one go and picks out the deleted inodes with pointers left.
+	// Inodes of a group flagged INODE_UNINIT, or past its used part of the table, were never written, so are skipped.
+	private void scanGroup(int group, List<DeletedFile> found) {
+		GroupDescriptorView desc = new GroupDescriptorView().wrap(descriptorTable, group);
+		int flags = uninitGroups ? desc.getFlags() : 0;
+		if((flags & GroupDescriptorView.INODE_UNINIT) != 0) {
+			return;
+		}
+		int usedInodes = groupInodes - (uninitGroups ? desc.getUnusedInodes() : 0);
+		byte[] inodeBitmap = vol.readBlock(0xFFFFFFFFL & desc.getInodeBitmapPtr());
+		byte[] table = vol.readInodeTable(group);
+
+		InodeView view = new InodeView();
+		for (int i = 0; i < usedInodes; i++) {
+			int id = (group * groupInodes) + i + 1;
+			if(id > inodeCount) {
+				break;
+			}
+			if(isSet(inodeBitmap, i)) { // Allocated again, or never deleted
+				continue;
+			}
+			view.wrap(table, i * inodeSize);
+			if(view.getDeletedSeconds() == 0 || view.getHardLinks() != 0 || view.getFileSize() == 0) {
+				continue;
+			}
+			Inode inode = view.toInode(inodeSize); // Only the likely candidates are copied out of the table
+			if(!hasPointers(inode)) {
+				continue;
+			}
+			DeletedFile file = assess(id, inode);
+			if(file != null) {
+				found.add(file);
+			}
+		}
+	}
+
+	// Counts how many of the file's blocks are still unallocated. Returns null if the pointers are clearly garbage.
+	private DeletedFile assess(int id, Inode inode) {
+		final long[] free = {0};
+		final long[] pointers = {0};
+		final long[] tables = {0};
+		final boolean[] garbage = {false};
+		vol.walkBlocks(inode, new BlockVisitor() {
+			public void dataBlock(long logical, int physical) {
+				long block = 0xFFFFFFFFL & physical;
+				pointers[0]++;
+				if(!inRange(block)) {
+					garbage[0] = true;
+				} else if(isFree(block)) {
+					free[0]++;
+				}
+			}
+
+			public boolean indirectBlock(int physical, int level) {
+				long block = 0xFFFFFFFFL & physical;
+				tables[0]++;
+				if(!inRange(block)) {
+					garbage[0] = true;
+				}
+				return !garbage[0] && isFree(block); // A reused table no longer holds this file's pointers
+			}
+		});
+		if(garbage[0]) {
+			return null;
+		}
+		long expected = (inode.getFileSize() + vol.getBlockSize() - 1) / vol.getBlockSize();
+		long allocated = (inode.getSectors() * 512) / vol.getBlockSize();
+		if(allocated > 0) { // The sector count leaves holes out, less the pointer tables it's the data blocks the file had
+			expected = Math.max(pointers[0], allocated - tables[0]);
+		}
+		return new DeletedFile(id, inode, expected, free[0]);
+	}
+
+	private boolean hasPointers(Inode inode) {
+		if(!inode.hasBlocks()) {
+			return false;
+		}
+		for (int pointer : inode.getBlockPointers()) {
+			if(pointer != 0) {
+				return true;
+			}
+		}
+		return inode.getIndirectPointer() != 0 || inode.getDoubleIndirectPointer() != 0 || inode.getTripleIndirectPointer() != 0;
+	}
+
+	private boolean inRange(long block) {
+		return block >= firstDataBlock && block < blockCount;
+	}
+
+	private boolean isFree(long block) {
+		if(!inRange(block)) {
+			return false;
+		}
+		long index = block - firstDataBlock;
+		return !isSet(blockBitmaps[(int) (index / groupBlocks)], (int) (index % groupBlocks));
+	}
+
+	private static boolean isSet(byte[] bitmap, int bit) {
+		return (bitmap[bit >>> 3] & (1 << (bit & 7))) != 0;
+	}
+
+	// Writes up to one block, never past the end of the file
+	private static long write(OutputStream out, byte[] block, long remaining) throws IOException {
+		int length = (int) Math.min(block.length, remaining);
+		out.write(block, 0, length);
+		return length;
+	}
+}
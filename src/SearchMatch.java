@@ -0,0 +1,56 @@
+/**
+ * @author Oliver Griffiths
+ * A match found in the content of a file by a Searcher
+ */
+public class SearchMatch {
+	private String path;
+	private long offset;
+	private String text;
+	private String context;
+
+	/**
+	 * Creates a new SearchMatch
+	 * @param p The path of the file the match is in
+	 * @param start The byte in the file the match starts on
+	 * @param matched The matched text
+	 * @param snippet The matched text with some of the content around it
+	 */
+	public SearchMatch(String p, long start, String matched, String snippet) {
+		path = p;
+		offset = start;
+		text = matched;
+		context = snippet;
+	}
+
+	/**
+	 * Returns the path of the file the match is in
+	 * @return File path
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * Returns the byte in the file the match starts on
+	 * @return Match offset
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns the matched text
+	 * @return Matched text
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Returns the matched text with some of the content around it, unprintable characters shown as dots
+	 * @return Context snippet
+	 */
+	public String getContext() {
+		return context;
+	}
+}
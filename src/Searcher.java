@@ -0,0 +1,172 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @author Oliver Griffiths
+ * Searches the content of the files on an EXT2 volume for a literal string or a regular expression,
+ * without extracting anything. Files are streamed run by run and searched in parallel, and the end of
+ * each run is carried over to the next so matches crossing block boundaries are found.
+ * Content is seen one character per byte, so non-ASCII text has to be matched by its encoded bytes.
+ */
+public class Searcher {
+	private final Volume vol;
+	private final Pattern pattern;
+	private final int overlap; // Bytes carried from one run to the next
+	private final int CONTEXT = 32; // Bytes of context either side of a match
+
+	/**
+	 * Creates a new Searcher for a literal string
+	 * @param v The volume to search
+	 * @param text The string to look for, matched by its UTF-8 bytes
+	 */
+	public Searcher(Volume v, String text) {
+		vol = v;
+		String bytes = new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+		pattern = Pattern.compile(bytes, Pattern.LITERAL);
+		overlap = Math.max(bytes.length() - 1, CONTEXT);
+	}
+
+	/**
+	 * Creates a new Searcher for a regular expression
+	 * @param v The volume to search
+	 * @param regex The expression to look for
+	 * @param maxMatchLength The longest match that has to be found across a block boundary
+	 */
+	public Searcher(Volume v, Pattern regex, int maxMatchLength) {
+		vol = v;
+		pattern = regex;
+		overlap = Math.max(maxMatchLength, CONTEXT);
+	}
+
+	/**
+	 * Searches every regular file below a directory, in parallel
+	 * @param path The directory to start at, "/" for the whole volume
+	 * @return Every match, ordered by path and offset
+	 */
+	public List<SearchMatch> search(String path) {
+		final List<String> paths = new ArrayList<String>();
+		final List<Integer> inodes = new ArrayList<Integer>();
+		vol.walkTree(path, new TreeVisitor() {
+			public boolean visit(String name, int inodePtr, boolean directory) {
+				if(!directory) {
+					paths.add(name);
+					inodes.add(inodePtr);
+				}
+				return true;
+			}
+		});
+
+		List<List<SearchMatch>> found = IntStream.range(0, paths.size()).parallel().mapToObj(i -> {
+			Inode inode = vol.getInode(inodes.get(i));
+			return inode.isRegularFile() ? searchFile(paths.get(i), inode) : Collections.<SearchMatch>emptyList();
+		}).collect(Collectors.toList());
+
+		List<SearchMatch> matches = new ArrayList<SearchMatch>();
+		for (List<SearchMatch> file : found) {
+			matches.addAll(file);
+		}
+		Collections.sort(matches, (a, b) -> {
+			int byPath = a.getPath().compareTo(b.getPath());
+			return byPath != 0 ? byPath : Long.compare(a.getOffset(), b.getOffset());
+		});
+		return matches;
+	}
+
+	/**
+	 * Searches a single file
+	 * @param path The path to report matches under
+	 * @param inode The inode of the file
+	 * @return Every match in the file, in order
+	 */
+	public List<SearchMatch> searchFile(String path, Inode inode) {
+		FileScan scan = new FileScan(path);
+		vol.readContent(inode, scan);
+		return scan.matches;
+	}
+
+	// Runs the matcher over each run of a file, with the tail of the previous run in front of it
+	private class FileScan implements ContentVisitor {
+		private final String path;
+		private final List<SearchMatch> matches = new ArrayList<SearchMatch>();
+		private byte[] window = new byte[0];
+		private int carried = 0; // Bytes at the front of the window kept from the previous run
+		private long windowStart = 0; // Offset in the file of the first byte of the window
+		private long nextAllowed = 0; // Matches may not overlap ones already reported
+
+		FileScan(String p) {
+			path = p;
+		}
+
+		public boolean content(byte[] bytes, int offset, int length) {
+			int total = carried + length;
+			if(window.length < total) {
+				byte[] grown = new byte[total];
+				System.arraycopy(window, 0, grown, 0, carried);
+				window = grown;
+			}
+			System.arraycopy(bytes, offset, window, carried, length);
+
+			Matcher matcher = pattern.matcher(new ByteChars(window, 0, total));
+			while(matcher.find()) {
+				long start = windowStart + matcher.start();
+				if(matcher.end() <= carried || start < nextAllowed) { // Already seen in the previous window
+					continue;
+				}
+				int from = Math.max(0, matcher.start() - CONTEXT);
+				int to = Math.min(total, matcher.end() + CONTEXT);
+				matches.add(new SearchMatch(path, start, matcher.group(), printable(window, from, to)));
+				nextAllowed = windowStart + Math.max(matcher.end(), matcher.start() + 1);
+			}
+
+			int keep = Math.min(overlap, total);
+			System.arraycopy(window, total - keep, window, 0, keep);
+			windowStart += total - keep;
+			carried = keep;
+			return true;
+		}
+	}
+
+	private static String printable(byte[] bytes, int from, int to) {
+		char[] chars = new char[to - from];
+		for (int i = from; i < to; i++) {
+			int c = bytes[i] & 0xFF;
+			chars[i - from] = (c > 31 && c < 127) ? (char) c : '.';
+		}
+		return new String(chars);
+	}
+
+	// Lets the matcher read bytes as characters without decoding them into a copy
+	private static class ByteChars implements CharSequence {
+		private final byte[] bytes;
+		private final int start;
+		private final int length;
+
+		ByteChars(byte[] b, int s, int l) {
+			bytes = b;
+			start = s;
+			length = l;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public char charAt(int index) {
+			return (char) (bytes[start + index] & 0xFF);
+		}
+
+		public CharSequence subSequence(int from, int to) {
+			return new ByteChars(bytes, start + from, to - from);
+		}
+
+		public String toString() {
+			return new String(bytes, start, length, StandardCharsets.ISO_8859_1);
+		}
+	}
+}
@@ -0,0 +1,180 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * @author Oliver Griffiths
+ * A page cache shared by many volumes under one memory budget. Each volume gets its own partition of pages,
+ * kept in least recently used order, and when the budget runs out the page evicted is the oldest page of
+ * whichever partition holds the most more than its fair share.
+ *
+ * A partition's fair share is the budget split in proportion to how often each volume has used the cache lately.
+ * Every volume's use count is halved each time the cache as a whole has been used enough to turn it over,
+ * so a volume that goes quiet gives its pages up to the busy ones over time.
+ */
+class SharedCache {
+	private final long budget;
+	private final long decayAccesses; // Cache uses between each halving of every partition's use count
+	private final List<Partition> partitions = new ArrayList<Partition>();
+	private long used = 0;
+	private long accesses = 0;
+	private long epoch = 0;
+
+	/**
+	 * One volume's pages, along with what's needed to weigh its share
+	 */
+	class Partition {
+		private final LinkedHashMap<Long, byte[]> pages = new LinkedHashMap<Long, byte[]>(16, 0.75f, true);
+		private long bytes = 0;
+		private long uses = 0;
+		private long usesEpoch = 0;
+		private boolean removed = false;
+
+		/**
+		 * Returns the amount of bytes this partition has cached
+		 * @return Cached bytes
+		 */
+		long getBytes() {
+			synchronized(SharedCache.this) {
+				return bytes;
+			}
+		}
+
+		/**
+		 * Returns the part of the budget this partition would be left with if every partition were cut back to its share
+		 * @return Fair share in bytes
+		 */
+		long getShare() {
+			synchronized(SharedCache.this) {
+				double total = 0;
+				for (Partition p : partitions) {
+					total += p.weight();
+				}
+				return (long) (budget * (weight() / total));
+			}
+		}
+
+		// Recent uses, one added so a quiet partition still has a share to grow from
+		private double weight() {
+			if(usesEpoch != epoch) {
+				uses >>>= Math.min(63, epoch - usesEpoch);
+				usesEpoch = epoch;
+			}
+			return uses + 1;
+		}
+	}
+
+	/**
+	 * Creates a new SharedCache
+	 * @param budget The most bytes of pages to hold across every partition
+	 * @param pageSize The size of the pages that will be cached, used to judge how quickly the cache turns over
+	 */
+	SharedCache(long budget, int pageSize) {
+		this.budget = budget;
+		decayAccesses = Math.max(1024, budget / pageSize);
+	}
+
+	/**
+	 * Adds a partition for a volume
+	 * @return The new partition
+	 */
+	synchronized Partition newPartition() {
+		Partition partition = new Partition();
+		partitions.add(partition);
+		return partition;
+	}
+
+	/**
+	 * Drops a partition and all its pages
+	 * @param partition The partition to remove
+	 */
+	synchronized void removePartition(Partition partition) {
+		clear(partition);
+		partitions.remove(partition);
+		partition.removed = true;
+	}
+
+	/**
+	 * Drops all of a partition's pages, leaving the partition in place
+	 * @param partition The partition to empty
+	 */
+	synchronized void clear(Partition partition) {
+		used -= partition.bytes;
+		partition.bytes = 0;
+		partition.pages.clear();
+	}
+
+	/**
+	 * Looks up a page, counting the lookup towards the partition's share whether it hits or not
+	 * @param partition The partition the page belongs to
+	 * @param page The page number
+	 * @return The page's bytes, or null if it isn't cached
+	 */
+	synchronized byte[] get(Partition partition, long page) {
+		partition.weight(); // Bring the count up to date before adding to it
+		partition.uses++;
+		if(++accesses % decayAccesses == 0) {
+			epoch++;
+		}
+		return partition.pages.get(page);
+	}
+
+	/**
+	 * Caches a page, evicting pages from the partitions furthest over their share until it fits
+	 * @param partition The partition the page belongs to
+	 * @param page The page number
+	 * @param bytes The page's bytes, which mustn't be changed afterwards
+	 */
+	synchronized void put(Partition partition, long page, byte[] bytes) {
+		if(bytes.length > budget || partition.removed) {
+			return;
+		}
+		byte[] old = partition.pages.remove(page);
+		if(old != null) {
+			partition.bytes -= old.length;
+			used -= old.length;
+		}
+		while(used + bytes.length > budget) {
+			evict(victim());
+		}
+		partition.pages.put(page, bytes);
+		partition.bytes += bytes.length;
+		used += bytes.length;
+	}
+
+	/**
+	 * Returns the amount of bytes cached across every partition
+	 * @return Cached bytes
+	 */
+	synchronized long getUsed() {
+		return used;
+	}
+
+	// The partition holding the most bytes over its fair share
+	private Partition victim() {
+		double total = 0;
+		for (Partition p : partitions) {
+			total += p.weight();
+		}
+		Partition victim = null;
+		double worst = Double.NEGATIVE_INFINITY;
+		for (Partition p : partitions) {
+			if(p.bytes == 0) {
+				continue;
+			}
+			double over = p.bytes - (budget * (p.weight() / total));
+			if(over > worst) {
+				worst = over;
+				victim = p;
+			}
+		}
+		return victim;
+	}
+
+	private void evict(Partition partition) {
+		Long eldest = partition.pages.keySet().iterator().next();
+		byte[] bytes = partition.pages.remove(eldest);
+		partition.bytes -= bytes.length;
+		used -= bytes.length;
+	}
+}
@@ -0,0 +1,66 @@
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * @author Oliver Griffiths
+ * Where the bytes of a volume are kept. A Volume reads everything through its storage,
+ * so an image can be a plain file or a container the bytes have to be unpacked from.
+ */
+public interface Storage {
+	/**
+	 * Reads a range of bytes from the image
+	 * @param position The first byte of the image to read
+	 * @param bytes The array to read into
+	 * @param offset Where in the array to start putting bytes
+	 * @param length The amount of bytes to read
+	 * @throws IOException If the range can't be read in full
+	 */
+	void read(long position, byte[] bytes, int offset, int length) throws IOException;
+
+	/**
+	 * Returns the size of the image, unpacked
+	 * @return Size in bytes
+	 * @throws IOException If the size can't be found
+	 */
+	long size() throws IOException;
+
+	/**
+	 * Lets go of any open handles. Later reads open them again.
+	 * @throws IOException If a handle can't be closed
+	 */
+	void close() throws IOException;
+
+	/**
+	 * Hands over the metrics of the volume reading from the storage, for storages with a cache to count hits and misses in
+	 * @param metrics The volume's metrics
+	 */
+	default void setMetrics(VolumeMetrics metrics) {
+	}
+
+	/**
+	 * Opens the storage for an image file, picking the container format from the start of the file
+	 * @param filename The path of the image
+	 * @return Storage reading from the image
+	 */
+	static Storage open(String filename) {
+		return open(filename, CompressedStorage.DEFAULT_CACHE_CHUNKS);
+	}
+
+	/**
+	 * Opens the storage for an image file, picking the container format from the start of the file
+	 * @param filename The path of the image
+	 * @param cacheChunks The most chunks to keep inflated if the image is compressed
+	 * @return Storage reading from the image
+	 */
+	static Storage open(String filename, int cacheChunks) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(filename))) {
+			if(in.readInt() == CompressedStorage.MAGIC) {
+				return new CompressedStorage(filename, cacheChunks);
+			}
+		} catch (IOException e) {
+			// Too short or unreadable, so it can only be a raw image; reads will report the problem
+		}
+		return new FileStorage(filename);
+	}
+}
@@ -1,3 +1,5 @@
+import java.util.Date;
+
 /**
  * @author Oliver Griffiths
  * Class to represent an EXT2 SuperBlock
@@ -6,12 +8,64 @@ public class SuperBlock {
 	private short magicNumber;
 	private int inodes;
 	private int blocks;
+	private int freeBlocks;
+	private int freeInodes;
+	private int firstDataBlock;
 	private int blockSize;
 	private int groupBlocks;
 	private int groupInodes;
 	private int inodeSize;
+	private Date mountTime;
+	private Date writeTime;
+	private int revision;
+	private int firstInode;
+	private int compatFeatures;
+	private int incompatFeatures;
+	private int roCompatFeatures;
+	private short reservedGdtBlocks;
+	private short descriptorSize;
 	private String volumeLabel;
 
+	/**
+	 * Read-only compatible feature flag: superblock backups only in groups 0, 1 and powers of 3, 5 and 7
+	 */
+	public static final int RO_COMPAT_SPARSE_SUPER = 0x0001;
+
+	/**
+	 * Read-only compatible feature flag: some files are larger than 2GB
+	 */
+	public static final int RO_COMPAT_LARGE_FILE = 0x0002;
+
+	/**
+	 * Read-only compatible feature flag: group descriptors carry checksums, and with them the uninit flags and unused inode counts
+	 */
+	public static final int RO_COMPAT_GDT_CSUM = 0x0010;
+
+	/**
+	 * Read-only compatible feature flag: metadata carries checksums, which also brings in what RO_COMPAT_GDT_CSUM does
+	 */
+	public static final int RO_COMPAT_METADATA_CSUM = 0x0400;
+
+	/**
+	 * Incompatible feature flag: directory entries record the type of file they point to
+	 */
+	public static final int INCOMPAT_FILETYPE = 0x0002;
+
+	/**
+	 * Incompatible feature flag: some files map their blocks with extent trees
+	 */
+	public static final int INCOMPAT_EXTENTS = 0x0040;
+
+	/**
+	 * Incompatible feature flag: block numbers can be 64 bit, and group descriptors may be larger than 32 bytes
+	 */
+	public static final int INCOMPAT_64BIT = 0x0080;
+
+	/**
+	 * Incompatible feature flag: a group's bitmaps and inode table may be kept in another group
+	 */
+	public static final int INCOMPAT_FLEX_BG = 0x0200;
+
 	/**
 	 * Creates a new SuperBlock given the bytes that make up it
 	 * @param bytes Block of 1024 bytes containing the information for the SuperBlock
@@ -19,11 +73,23 @@ public class SuperBlock {
 	public SuperBlock(byte[] bytes) {
 		inodes = Converter.bytesToInt(bytes, 0, 4); 
 		blocks = Converter.bytesToInt(bytes, 4, 8);
+		freeBlocks = Converter.bytesToInt(bytes, 12, 16);
+		freeInodes = Converter.bytesToInt(bytes, 16, 20);
+		firstDataBlock = Converter.bytesToInt(bytes, 20, 24);
 		blockSize = Converter.bytesToInt(bytes, 24, 28);
 		groupBlocks = Converter.bytesToInt(bytes, 32, 36);
 		groupInodes = Converter.bytesToInt(bytes, 40, 44);
 		magicNumber = Converter.bytesToShort(bytes, 56, 58); 
 		inodeSize = Converter.bytesToShort(bytes, 88, 92); 
+		mountTime = new Date((0xFFFFFFFFL & (long)Converter.bytesToInt(bytes, 44, 48))*1000);
+		writeTime = new Date((0xFFFFFFFFL & (long)Converter.bytesToInt(bytes, 48, 52))*1000);
+		revision = Converter.bytesToInt(bytes, 76, 80);
+		firstInode = revision == 0 ? 11 : Converter.bytesToInt(bytes, 84, 88); // Revision 0 has fixed reserved inodes
+		compatFeatures = Converter.bytesToInt(bytes, 92, 96);
+		incompatFeatures = Converter.bytesToInt(bytes, 96, 100);
+		roCompatFeatures = Converter.bytesToInt(bytes, 100, 104);
+		reservedGdtBlocks = Converter.bytesToShort(bytes, 206, 208);
+		descriptorSize = Converter.bytesToShort(bytes, 254, 256);
 
 		volumeLabel = "";
 		for (int i = 0; i < 16; i++) {
@@ -62,6 +128,30 @@ public class SuperBlock {
 		return blocks;
 	}
 
+	/**
+	 * Returns the total number of unallocated blocks in the volume
+	 * @return Free block count
+	 */
+	public int getFreeBlocks() {
+		return freeBlocks;
+	}
+
+	/**
+	 * Returns the total number of unallocated inodes in the volume
+	 * @return Free inode count
+	 */
+	public int getFreeInodes() {
+		return freeInodes;
+	}
+
+	/**
+	 * Returns the block containing the SuperBlock, where block group 0 starts
+	 * @return First data block
+	 */
+	public int getFirstDataBlock() {
+		return firstDataBlock;
+	}
+
 	/**
 	 * Returns the size of the blocks in the volume.
 	 * @return Size n. Where Block size is 1024 * 2^n
@@ -94,6 +184,79 @@ public class SuperBlock {
 		return inodeSize;
 	}
 
+	/**
+	 * Returns the time the volume was last mounted
+	 * @return Mount Time
+	 */
+	public Date getMountTime() {
+		return mountTime;
+	}
+
+	/**
+	 * Returns the time the volume was last written to
+	 * @return Write Time
+	 */
+	public Date getWriteTime() {
+		return writeTime;
+	}
+
+	/**
+	 * Returns the revision level of the volume
+	 * @return Revision level
+	 */
+	public int getRevision() {
+		return revision;
+	}
+
+	/**
+	 * Returns the first inode not reserved by the filesystem
+	 * @return First non-reserved inode
+	 */
+	public int getFirstInode() {
+		return firstInode;
+	}
+
+	/**
+	 * Returns the compatible feature flags
+	 * @return Compatible features
+	 */
+	public int getCompatFeatures() {
+		return compatFeatures;
+	}
+
+	/**
+	 * Returns the incompatible feature flags
+	 * @return Incompatible features
+	 */
+	public int getIncompatFeatures() {
+		return incompatFeatures;
+	}
+
+	/**
+	 * Returns the read-only compatible feature flags
+	 * @return Read-only compatible features
+	 */
+	public int getRoCompatFeatures() {
+		return roCompatFeatures;
+	}
+
+	/**
+	 * Returns the amount of blocks reserved after each descriptor table for growing the volume
+	 * @return Reserved descriptor table blocks
+	 */
+	public int getReservedGdtBlocks() {
+		return reservedGdtBlocks & 0xFFFF;
+	}
+
+	/**
+	 * Returns the size of each group descriptor in the descriptor tables
+	 * @return Group descriptor size in bytes
+	 */
+	public int getDescriptorSize() {
+		int size = descriptorSize & 0xFFFF;
+		return (incompatFeatures & INCOMPAT_64BIT) != 0 && size > 32 ? size : 32;
+	}
+
 	/**
 	 * Returns the label for the volume
 	 * @return Volume Label
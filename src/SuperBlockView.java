@@ -0,0 +1,162 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * @author Oliver Griffiths
+ * A view of an EXT2 SuperBlock that decodes its fields from the raw bytes each time they're asked for,
+ * rather than all up front like SuperBlock does.
+ */
+public class SuperBlockView {
+	private ByteBuffer buffer;
+	private int base;
+
+	/**
+	 * Points the view at a SuperBlock
+	 * @param bytes The bytes holding the SuperBlock
+	 * @param offset Where the SuperBlock starts in the bytes, 1024 for a whole volume's first blocks
+	 * @return This view
+	 */
+	public SuperBlockView wrap(byte[] bytes, int offset) {
+		if(buffer == null || buffer.array() != bytes) {
+			buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		base = offset;
+		return this;
+	}
+
+	/**
+	 * Returns the magic number of the SuperBlock
+	 * @return Magic number
+	 */
+	public short getMagicNumber() {
+		return buffer.getShort(base + 56);
+	}
+
+	/**
+	 * Returns the total number of inodes in the volume
+	 * @return Inode count
+	 */
+	public int getInodes() {
+		return buffer.getInt(base);
+	}
+
+	/**
+	 * Returns the total number of blocks in the volume
+	 * @return Block count
+	 */
+	public int getBlocks() {
+		return buffer.getInt(base + 4);
+	}
+
+	/**
+	 * Returns the total number of unallocated blocks in the volume
+	 * @return Free block count
+	 */
+	public int getFreeBlocks() {
+		return buffer.getInt(base + 12);
+	}
+
+	/**
+	 * Returns the total number of unallocated inodes in the volume
+	 * @return Free inode count
+	 */
+	public int getFreeInodes() {
+		return buffer.getInt(base + 16);
+	}
+
+	/**
+	 * Returns the block containing the SuperBlock, where block group 0 starts
+	 * @return First data block
+	 */
+	public int getFirstDataBlock() {
+		return buffer.getInt(base + 20);
+	}
+
+	/**
+	 * Returns the size of the blocks in the volume.
+	 * @return Size n. Where Block size is 1024 * 2^n
+	 */
+	public int getBlockSize() {
+		return buffer.getInt(base + 24);
+	}
+
+	/**
+	 * Returns the amount of blocks in each block group
+	 * @return Block group blocks
+	 */
+	public int getGroupBlocks() {
+		return buffer.getInt(base + 32);
+	}
+
+	/**
+	 * Returns the amount of inodes in each block group
+	 * @return Block group inodes
+	 */
+	public int getGroupInodes() {
+		return buffer.getInt(base + 40);
+	}
+
+	/**
+	 * Returns the time the volume was last written to, in seconds since the epoch
+	 * @return Write Time
+	 */
+	public long getWriteSeconds() {
+		return 0xFFFFFFFFL & buffer.getInt(base + 48);
+	}
+
+	/**
+	 * Returns the revision level of the volume
+	 * @return Revision level
+	 */
+	public int getRevision() {
+		return buffer.getInt(base + 76);
+	}
+
+	/**
+	 * Returns the size of inodes in bytes, 128 on revision 0 volumes
+	 * @return Inode size
+	 */
+	public int getInodeSize() {
+		return getRevision() == 0 ? 128 : buffer.getShort(base + 88) & 0xFFFF;
+	}
+
+	/**
+	 * Returns the read-only compatible feature flags
+	 * @return Read-only compatible features
+	 */
+	public int getRoCompatFeatures() {
+		return buffer.getInt(base + 100);
+	}
+
+	/**
+	 * Sets the total number of unallocated blocks in the volume
+	 * @param count Free block count
+	 */
+	public void setFreeBlocks(int count) {
+		buffer.putInt(base + 12, count);
+	}
+
+	/**
+	 * Sets the total number of unallocated inodes in the volume
+	 * @param count Free inode count
+	 */
+	public void setFreeInodes(int count) {
+		buffer.putInt(base + 16, count);
+	}
+
+	/**
+	 * Sets the time the volume was last written to
+	 * @param seconds Write Time in seconds since the epoch
+	 */
+	public void setWriteSeconds(long seconds) {
+		buffer.putInt(base + 48, (int) seconds);
+	}
+
+	/**
+	 * Sets the read-only compatible feature flags
+	 * @param features Read-only compatible features
+	 */
+	public void setRoCompatFeatures(int features) {
+		buffer.putInt(base + 100, features);
+	}
+}
@@ -0,0 +1,468 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * @author Oliver Griffiths
+ * Replays a trace written by BlockTrace against cache policies of several sizes and prints the hit rate of each,
+ * so a cache can be given as much memory as it's worth. Policies are LRU, FIFO, CLOCK, 2Q and OPT, the offline
+ * optimum that always evicts the block needed furthest in the future, which no real cache can beat.
+ *
+ * Usage: java TraceReplay trace [-p lru,fifo,clock,2q,opt] [-s blocks,blocks,...] [-t type,type,...] [-csv]
+ * Sizes are in blocks and default to every power of two up to the amount of distinct blocks in the trace.
+ * Types, by name or number, keep only those accesses, to size a cache that holds only some kinds of block.
+ */
+public class TraceReplay {
+	private static final String[] POLICIES = {"lru", "fifo", "clock", "2q", "opt"};
+
+	private int blockSize;
+	private int[] accesses = new int[1024]; // Dense ids of the blocks read, in order
+	private int length = 0;
+	private int distinct = 0;
+	private final long[] typeAccesses = new long[BlockTrace.TYPE_NAMES.length];
+	private final long[] typeBlocks = new long[BlockTrace.TYPE_NAMES.length];
+
+	/**
+	 * Reads a trace, keeping the accesses of the chosen types
+	 * @param path The path of the trace file
+	 * @param types Whether each type of block is kept, indexed by the type constants of BlockTrace
+	 * @throws IOException If the trace can't be read
+	 */
+	public TraceReplay(String path, final boolean[] types) throws IOException {
+		final Map<Long, Integer> ids = new HashMap<Long, Integer>();
+		blockSize = BlockTrace.read(path, (block, type) -> {
+			if(!types[type]) {
+				return;
+			}
+			typeAccesses[type]++;
+			Integer id = ids.get(block);
+			if(id == null) { // Blocks are counted under the type they were first read as
+				id = distinct++;
+				ids.put(block, id);
+				typeBlocks[type]++;
+			}
+			if(length == accesses.length) {
+				accesses = Arrays.copyOf(accesses, length * 2);
+			}
+			accesses[length++] = id;
+		});
+	}
+
+	public static void main(String[] args) {
+		if(args.length == 0) {
+			System.out.println("Usage: java TraceReplay trace [-p lru,fifo,clock,2q,opt] [-s blocks,...] [-t type,...] [-csv]");
+			return;
+		}
+		String path = null;
+		String[] policies = POLICIES;
+		long[] sizes = null;
+		boolean[] types = new boolean[BlockTrace.TYPE_NAMES.length];
+		Arrays.fill(types, true);
+		boolean csv = false;
+		for (int i = 0; i < args.length; i++) {
+			if(args[i].equals("-p")) {
+				policies = args[++i].toLowerCase(Locale.ROOT).split(",");
+				for (String policy : policies) {
+					if(!Arrays.asList(POLICIES).contains(policy)) {
+						System.out.println("Unknown policy " + policy + ", choose from " + String.join(",", POLICIES));
+						return;
+					}
+				}
+			} else if(args[i].equals("-s")) {
+				sizes = Arrays.stream(args[++i].split(",")).mapToLong(Long::parseLong).toArray();
+			} else if(args[i].equals("-t")) {
+				Arrays.fill(types, false);
+				for (String type : args[++i].split(",")) {
+					int chosen = typeNumber(type);
+					if(chosen < 0) {
+						System.out.println("Unknown block type " + type + ", choose from " + String.join(",", BlockTrace.TYPE_NAMES));
+						return;
+					}
+					types[chosen] = true;
+				}
+			} else if(args[i].equals("-csv")) {
+				csv = true;
+			} else {
+				path = args[i];
+			}
+		}
+		try {
+			TraceReplay replay = new TraceReplay(path, types);
+			if(sizes == null) {
+				List<Long> powers = new ArrayList<Long>();
+				for (long size = 1; size < replay.distinct * 2L; size *= 2) {
+					powers.add(size);
+				}
+				sizes = powers.stream().mapToLong(Long::longValue).toArray();
+			}
+			double[][] rates = replay.hitRates(policies, sizes);
+			if(csv) {
+				System.out.println("blocks,bytes," + String.join(",", policies));
+				for (int s = 0; s < sizes.length; s++) {
+					StringBuilder line = new StringBuilder(sizes[s] + "," + (sizes[s] * replay.blockSize));
+					for (int p = 0; p < policies.length; p++) {
+						line.append(String.format(Locale.ROOT, ",%.4f", rates[p][s]));
+					}
+					System.out.println(line);
+				}
+			} else {
+				replay.printSummary();
+				replay.printRates(policies, sizes, rates);
+			}
+		} catch (IOException e) {
+			System.out.println("IO Exception: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Replays the trace against every policy at every size
+	 * @param policies Names of the policies
+	 * @param sizes Cache sizes in blocks
+	 * @return Hit rates from 0 to 1, indexed by policy then size
+	 */
+	public double[][] hitRates(String[] policies, long[] sizes) {
+		final int[] next = needsOptimum(policies) ? nextUses() : null;
+		double[][] rates = new double[policies.length][sizes.length];
+		IntStream.range(0, policies.length * sizes.length).parallel().forEach(job -> {
+			int p = job / sizes.length;
+			int s = job % sizes.length;
+			int capacity = (int) Math.max(1, Math.min(sizes[s], Math.max(1, distinct)));
+			CachePolicy policy = create(policies[p], capacity, next);
+			long hits = 0;
+			for (int i = 0; i < length; i++) {
+				if(policy.access(accesses[i], i)) {
+					hits++;
+				}
+			}
+			rates[p][s] = length == 0 ? 0 : (double) hits / length;
+		});
+		return rates;
+	}
+
+	private void printSummary() {
+		System.out.println(String.format(Locale.ROOT, "%d accesses to %d distinct blocks of %d bytes (%.1f MB)", length, distinct,
+			blockSize, (distinct * (double) blockSize) / (1024 * 1024)));
+		for (int type = 0; type < typeAccesses.length; type++) {
+			if(typeAccesses[type] > 0) {
+				System.out.println(String.format(Locale.ROOT, "  %-12s %12d accesses %10d blocks", BlockTrace.TYPE_NAMES[type],
+					typeAccesses[type], typeBlocks[type]));
+			}
+		}
+		if(length > 0) { // Anything not read again can't be hit however big the cache
+			System.out.println(String.format(Locale.ROOT, "Best possible hit rate: %.2f%%", 100.0 * (length - distinct) / length));
+		}
+		System.out.println();
+	}
+
+	private void printRates(String[] policies, long[] sizes, double[][] rates) {
+		StringBuilder header = new StringBuilder(String.format("%10s %10s", "Blocks", "Memory"));
+		for (String policy : policies) {
+			header.append(String.format("%9s", policy.toUpperCase(Locale.ROOT)));
+		}
+		System.out.println(header);
+		for (int s = 0; s < sizes.length; s++) {
+			StringBuilder line = new StringBuilder(String.format("%10d %10s", sizes[s], bytes(sizes[s] * blockSize)));
+			for (int p = 0; p < policies.length; p++) {
+				line.append(String.format(Locale.ROOT, "%8.2f%%", rates[p][s] * 100));
+			}
+			System.out.println(line);
+		}
+	}
+
+	// For every access, where the same block is next read, or the end of the trace if it never is
+	private int[] nextUses() {
+		int[] next = new int[length];
+		int[] last = new int[distinct];
+		Arrays.fill(last, length);
+		for (int i = length - 1; i >= 0; i--) {
+			next[i] = last[accesses[i]];
+			last[accesses[i]] = i;
+		}
+		return next;
+	}
+
+	private CachePolicy create(String name, int capacity, int[] next) {
+		switch(name) {
+			case "lru":
+				return new Lru(capacity, distinct);
+			case "fifo":
+				return new Fifo(capacity, distinct);
+			case "clock":
+				return new Clock(capacity, distinct);
+			case "2q":
+				return new TwoQueue(capacity, distinct);
+			default:
+				return new Optimum(capacity, distinct, next);
+		}
+	}
+
+	private static boolean needsOptimum(String[] policies) {
+		return Arrays.asList(policies).contains("opt");
+	}
+
+	private static int typeNumber(String type) {
+		for (int i = 0; i < BlockTrace.TYPE_NAMES.length; i++) {
+			if(BlockTrace.TYPE_NAMES[i].replace(" ", "").equalsIgnoreCase(type.replace(" ", "").replace("_", ""))) {
+				return i;
+			}
+		}
+		try {
+			int number = Integer.parseInt(type);
+			return number >= 0 && number < BlockTrace.TYPE_NAMES.length ? number : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String bytes(long bytes) {
+		if(bytes >= 1024L * 1024 * 1024) {
+			return String.format(Locale.ROOT, "%.1fG", bytes / (1024.0 * 1024 * 1024));
+		}
+		if(bytes >= 1024L * 1024) {
+			return String.format(Locale.ROOT, "%.1fM", bytes / (1024.0 * 1024));
+		}
+		return String.format(Locale.ROOT, "%.1fK", bytes / 1024.0);
+	}
+
+	// A simulated cache of block ids
+	private interface CachePolicy {
+		/**
+		 * Reads a block through the cache
+		 * @param id The dense id of the block
+		 * @param position Where the access is in the trace
+		 * @return Whether the block was already cached
+		 */
+		boolean access(int id, int position);
+	}
+
+	// Doubly linked lists of ids sharing their links, an id being in at most one list at a time
+	private static class Lists {
+		private final int[] previous;
+		private final int[] next;
+		private final byte[] owner; // Which list each id is in, 0 for none
+		private final int[] heads;
+		private final int[] tails;
+		private final int[] sizes;
+
+		Lists(int ids, int lists) {
+			previous = new int[ids];
+			next = new int[ids];
+			owner = new byte[ids];
+			heads = new int[lists + 1];
+			tails = new int[lists + 1];
+			sizes = new int[lists + 1];
+			Arrays.fill(heads, -1);
+			Arrays.fill(tails, -1);
+		}
+
+		int owner(int id) {
+			return owner[id];
+		}
+
+		int size(int list) {
+			return sizes[list];
+		}
+
+		void addFirst(int list, int id) {
+			owner[id] = (byte) list;
+			previous[id] = -1;
+			next[id] = heads[list];
+			if(heads[list] >= 0) {
+				previous[heads[list]] = id;
+			} else {
+				tails[list] = id;
+			}
+			heads[list] = id;
+			sizes[list]++;
+		}
+
+		void remove(int id) {
+			int list = owner[id];
+			if(previous[id] >= 0) {
+				next[previous[id]] = next[id];
+			} else {
+				heads[list] = next[id];
+			}
+			if(next[id] >= 0) {
+				previous[next[id]] = previous[id];
+			} else {
+				tails[list] = previous[id];
+			}
+			owner[id] = 0;
+			sizes[list]--;
+		}
+
+		int removeLast(int list) {
+			int id = tails[list];
+			remove(id);
+			return id;
+		}
+	}
+
+	// Evicts the block read longest ago
+	private static class Lru implements CachePolicy {
+		private final Lists lists;
+		private final int capacity;
+
+		Lru(int capacity, int ids) {
+			this.capacity = capacity;
+			lists = new Lists(ids, 1);
+		}
+
+		public boolean access(int id, int position) {
+			boolean hit = lists.owner(id) == 1;
+			if(hit) {
+				lists.remove(id);
+			} else if(lists.size(1) == capacity) {
+				lists.removeLast(1);
+			}
+			lists.addFirst(1, id);
+			return hit;
+		}
+	}
+
+	// Evicts the block cached longest ago, however recently it was read
+	private static class Fifo implements CachePolicy {
+		private final Lists lists;
+		private final int capacity;
+
+		Fifo(int capacity, int ids) {
+			this.capacity = capacity;
+			lists = new Lists(ids, 1);
+		}
+
+		public boolean access(int id, int position) {
+			if(lists.owner(id) == 1) {
+				return true;
+			}
+			if(lists.size(1) == capacity) {
+				lists.removeLast(1);
+			}
+			lists.addFirst(1, id);
+			return false;
+		}
+	}
+
+	// Sweeps a hand round the cached blocks, giving each block read since the last sweep another turn
+	private static class Clock implements CachePolicy {
+		private final int[] slots;
+		private final boolean[] cached;
+		private final boolean[] referenced;
+		private int used = 0;
+		private int hand = 0;
+
+		Clock(int capacity, int ids) {
+			slots = new int[capacity];
+			cached = new boolean[ids];
+			referenced = new boolean[ids];
+		}
+
+		public boolean access(int id, int position) {
+			if(cached[id]) {
+				referenced[id] = true;
+				return true;
+			}
+			if(used < slots.length) {
+				slots[used++] = id;
+			} else {
+				while(referenced[slots[hand]]) {
+					referenced[slots[hand]] = false;
+					hand = (hand + 1) % slots.length;
+				}
+				cached[slots[hand]] = false;
+				slots[hand] = id;
+				hand = (hand + 1) % slots.length;
+			}
+			cached[id] = true;
+			referenced[id] = false;
+			return false;
+		}
+	}
+
+	// Johnson and Shasha's 2Q: blocks read once go through a short FIFO, and only blocks read again after
+	// leaving it, while still remembered in the ghost list, are promoted to the main LRU
+	private static class TwoQueue implements CachePolicy {
+		private static final int IN = 1;
+		private static final int OUT = 2; // Ghosts, remembered but not cached
+		private static final int MAIN = 3;
+		private final Lists lists;
+		private final int capacity;
+		private final int inLimit;
+		private final int outLimit;
+
+		TwoQueue(int capacity, int ids) {
+			this.capacity = capacity;
+			inLimit = Math.max(1, capacity / 4);
+			outLimit = Math.max(1, capacity / 2);
+			lists = new Lists(ids, 3);
+		}
+
+		public boolean access(int id, int position) {
+			int list = lists.owner(id);
+			if(list == MAIN) {
+				lists.remove(id);
+				lists.addFirst(MAIN, id);
+				return true;
+			}
+			if(list == IN) {
+				return true;
+			}
+			if(list == OUT) { // Taken out first, so making room can't push it out of the ghosts
+				lists.remove(id);
+			}
+			if(lists.size(IN) + lists.size(MAIN) >= capacity) {
+				if(lists.size(IN) > inLimit || lists.size(MAIN) == 0) {
+					int evicted = lists.removeLast(IN);
+					if(lists.size(OUT) == outLimit) {
+						lists.removeLast(OUT);
+					}
+					lists.addFirst(OUT, evicted);
+				} else {
+					lists.removeLast(MAIN);
+				}
+			}
+			if(list == OUT) {
+				lists.addFirst(MAIN, id);
+			} else {
+				lists.addFirst(IN, id);
+			}
+			return false;
+		}
+	}
+
+	// Belady's optimum, evicting the block whose next read is furthest away
+	private static class Optimum implements CachePolicy {
+		private final TreeSet<Long> cached = new TreeSet<Long>(); // Next read then id, so the last is the one to evict
+		private final long[] keys;
+		private final int[] next;
+		private final int capacity;
+		private final int ids;
+
+		Optimum(int capacity, int ids, int[] next) {
+			this.capacity = capacity;
+			this.ids = ids;
+			this.next = next;
+			keys = new long[ids];
+			Arrays.fill(keys, -1);
+		}
+
+		public boolean access(int id, int position) {
+			boolean hit = keys[id] >= 0;
+			if(hit) {
+				cached.remove(keys[id]);
+			} else if(cached.size() == capacity) {
+				long evicted = cached.pollLast();
+				keys[(int) (evicted % ids)] = -1;
+			}
+			keys[id] = ((long) next[position] * ids) + id;
+			cached.add(keys[id]);
+			return hit;
+		}
+	}
+}
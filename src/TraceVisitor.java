@@ -0,0 +1,12 @@
+/**
+ * @author Oliver Griffiths
+ * Receives the block accesses of a trace written by BlockTrace, in the order they were made
+ */
+public interface TraceVisitor {
+	/**
+	 * Called for every block read
+	 * @param block Pointer to the block
+	 * @param type What the block holds, one of the type constants of BlockTrace
+	 */
+	void access(long block, int type);
+}
@@ -0,0 +1,85 @@
+/**
+ * @author Oliver Griffiths
+ * Emits Java Flight Recorder events for the reads under a volume, so slow requests can be lined up with the I/O
+ * beneath them in JDK Mission Control. The events need jdk.jfr, which only JDK 11 and later have, so they live in
+ * src/jfr and are only compiled there; without them, or on an older runtime, the tracer does nothing.
+ *
+ * Each traced operation asks begin() for an event before starting and hands it back once done. begin() returns null
+ * unless a recording is running with the event turned on, which none are by default, so tracing costs a flag check.
+ */
+interface Tracer {
+	int BLOCK_READ = 0;
+	int INODE_LOAD = 1;
+	int INDIRECT_READ = 2;
+	int DIRECTORY_SCAN = 3;
+	int FILE_READ = 4;
+
+	Tracer INSTANCE = load();
+
+	/**
+	 * Starts timing an operation
+	 * @param event One of the event constants
+	 * @return The event to finish, or null if it isn't being recorded
+	 */
+	default Object begin(int event) {
+		return null;
+	}
+
+	/**
+	 * Finishes a read from a volume's storage
+	 * @param event The event begin() returned
+	 * @param offset The first byte read
+	 * @param length The amount of bytes read
+	 */
+	default void blockRead(Object event, long offset, int length) {
+	}
+
+	/**
+	 * Finishes loading an inode
+	 * @param event The event begin() returned
+	 * @param inodePtr The inode loaded
+	 * @param indexed Whether it came from the sidecar index
+	 */
+	default void inodeLoad(Object event, int inodePtr, boolean indexed) {
+	}
+
+	/**
+	 * Finishes reading a pointer table
+	 * @param event The event begin() returned
+	 * @param level 1 for a table of data blocks, up to 3 for the table a treble indirect pointer leads to
+	 * @param block The block holding the table
+	 */
+	default void indirectRead(Object event, int level, long block) {
+	}
+
+	/**
+	 * Finishes reading through a directory
+	 * @param event The event begin() returned
+	 * @param size The size of the directory in bytes
+	 * @param entries The entries found
+	 */
+	default void directoryScan(Object event, long size, int entries) {
+	}
+
+	/**
+	 * Finishes a read from an Ext2File
+	 * @param event The event begin() returned
+	 * @param inodePtr The inode of the file
+	 * @param position The first byte of the file asked for
+	 * @param requested The amount of bytes asked for
+	 * @param read The amount of bytes read
+	 */
+	default void fileRead(Object event, int inodePtr, long position, int requested, int read) {
+	}
+
+	// The flight recorder tracer if it was compiled in and the runtime has a flight recorder, otherwise one doing nothing
+	static Tracer load() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (Tracer) Class.forName("JfrTracer").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return new Tracer() {
+			};
+		}
+	}
+}
@@ -0,0 +1,14 @@
+/**
+ * @author Oliver Griffiths
+ * Receives the files of a directory tree as a Volume walks it
+ */
+public interface TreeVisitor {
+	/**
+	 * Called for every file below the starting directory, parents before their children
+	 * @param path The full path of the file
+	 * @param inodePtr Pointer to the inode of the file
+	 * @param directory Whether the file is a directory
+	 * @return Whether to walk into the file, if it is a directory
+	 */
+	boolean visit(String path, int inodePtr, boolean directory);
+}
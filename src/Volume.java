@@ -1,12 +1,23 @@
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 /**
  * @author Oliver Griffiths
  * A class representing an EXT2 volume.
  */
 public class Volume {
 	private String volumeName;
+	private final Storage storage;
 	private SuperBlock superBlock;
+	private MetadataIndex index;
+	private VolumeWriter writer; // Created by the first change to the volume
+	private RandomAccessFile output;
+	private final VolumeMetrics metrics = new VolumeMetrics();
+	private volatile BlockTrace trace; // Records every block read while set
 
 	//Declare constants
 	private final long BOOT_OFFSET = 1024L;
@@ -14,19 +25,32 @@ public class Volume {
 	private final long INDIRECT_POINTERS; // Ointer numbers used to calculate limits
 	private final long DOUBLE_INDIRECT_POINTERS;
 	private final long TREBLE_INDIRECT_POINTERS;
-	private final long BLOCK_DESCRIPTOR_SIZE = 32L;
-	private final long DIRECT_LIMIT;
-	private final long INDIRECT_LIMIT;
-	private final long DOUBLE_INDIRECT_LIMIT;
-	private final long TREBLE_INDIRECT_LIMIT;
+	private final long BLOCK_DESCRIPTOR_SIZE; // 32 bytes, or larger on 64 bit ext4 volumes
 	private final long INODE_SIZE;
 	private final int ROOT_INODE_PTR = 2;
+	private final long FIRST_DATA_BLOCK;
+	private final int GROUP_COUNT;
+	private final int RUN_BLOCKS; // Most blocks read at once when streaming a file
+	private static final byte[] ZEROS = new byte[1024 * 1024]; // Stands in for holes, shared as it's never written to
+	private static final int EXTENT_MAGIC = 0xF30A; // Starts the header of every extent tree node
+	private static final int EXTENT_UNWRITTEN = 32768; // Extent lengths above this are allocated but unwritten, so read as zeros
 	/**
-	 * Creates a new volume from a given file
+	 * Creates a new volume from a given file, either a raw image or a compressed one
 	 * @param filename The relative or absolute path of the file to be represented as a volume
 	 */
 	public Volume(String filename) { 
+		this(filename, Storage.open(filename));
+	}
+
+	/**
+	 * Creates a new volume read from a given storage
+	 * @param filename The path of the file the storage reads, used to name the volume and its sidecar files
+	 * @param storage Where the volume's bytes are read from
+	 */
+	public Volume(String filename, Storage storage) {
 		volumeName = filename;
+		this.storage = storage;
+		storage.setMetrics(metrics);
 		superBlock = new SuperBlock(getBytes(1024, 2048));
 
 		BLOCK_SIZE = 1024 * (long)Math.pow(2, superBlock.getBlockSize());
@@ -37,12 +61,14 @@ public class Volume {
 		DOUBLE_INDIRECT_POINTERS = INDIRECT_POINTERS * INDIRECT_POINTERS;
 		TREBLE_INDIRECT_POINTERS = DOUBLE_INDIRECT_POINTERS * INDIRECT_POINTERS;
 
-		DIRECT_LIMIT = BLOCK_SIZE * 12;
-		INDIRECT_LIMIT = BLOCK_SIZE * INDIRECT_POINTERS;
-		DOUBLE_INDIRECT_LIMIT = INDIRECT_LIMIT * INDIRECT_POINTERS;
-		TREBLE_INDIRECT_LIMIT = DOUBLE_INDIRECT_LIMIT * INDIRECT_POINTERS;
-
 		INODE_SIZE = 0xFFFFFFFF & (long)superBlock.getInodeSize();
+		BLOCK_DESCRIPTOR_SIZE = superBlock.getDescriptorSize();
+
+		FIRST_DATA_BLOCK = 0xFFFFFFFFL & superBlock.getFirstDataBlock();
+		long dataBlocks = (0xFFFFFFFFL & superBlock.getBlocks()) - FIRST_DATA_BLOCK;
+		GROUP_COUNT = (int) ((dataBlocks + superBlock.getGroupBlocks() - 1) / superBlock.getGroupBlocks());
+
+		RUN_BLOCKS = (int) Math.max(1, (1024 * 1024) / BLOCK_SIZE);
 	}
 
 	/**
@@ -52,28 +78,143 @@ public class Volume {
 	 * @return The array of read bytes from the volume
 	 */
 	public byte[] getBytes(long start, long end) {
+		return getBytes(start, end, -1);
+	}
+
+	// Reads bytes known to hold one type of block, or -1 to leave a trace to tell by where they are
+	private byte[] getBytes(long start, long end, int type) {
 		byte[] bytes;
 		try {
-			bytes = getTrueBytes(start, end);
+			bytes = getTrueBytes(start, end, type);
 		} catch (IOException e) {
 			System.out.println("IO Exception: " + e.getMessage());
 			bytes = new byte[1];
-			bytes[1] = 0; 
+			bytes[0] = 0; 
 		}
 		return bytes;
 	}
 
-	private byte[] getTrueBytes(long start, long end) throws IOException {
+	private byte[] getTrueBytes(long start, long end, int type) throws IOException {
 		final int length = (int) (end - start); // We can error check this later
 		byte[] bytes = new byte[length];
-		RandomAccessFile file = new RandomAccessFile(volumeName, "r");
-		file.seek(start);
-		for(int i = 0; i < length; i++) {
-			bytes[i] = file.readByte(); //Read the bytes in one by one
+		Object event = Tracer.INSTANCE.begin(Tracer.BLOCK_READ);
+		long started = System.nanoTime();
+		storage.read(start, bytes, 0, length); // Read the whole range in one go
+		metrics.recordRead(length, started);
+		if(event != null) {
+			Tracer.INSTANCE.blockRead(event, start, length);
+		}
+		BlockTrace tracing = trace;
+		if(tracing != null) {
+			tracing.record(start, end, type);
 		}
 		return bytes;
 	}
 
+	/**
+	 * Writes bytes to the volume at a given location
+	 * @param start The byte to start writing at
+	 * @param bytes The array holding the bytes
+	 * @param offset The first byte to write from the array
+	 * @param length The amount of bytes to write
+	 * @throws IOException If the volume can't be written
+	 */
+	public synchronized void writeBytes(long start, byte[] bytes, int offset, int length) throws IOException {
+		if(!(storage instanceof FileStorage)) {
+			throw new UnsupportedOperationException("Only volumes read straight from a raw image can be written to");
+		}
+		if(output == null) {
+			output = new RandomAccessFile(volumeName, "rw");
+		}
+		output.seek(start);
+		output.write(bytes, offset, length);
+	}
+
+	/**
+	 * Writes a whole block to the volume
+	 * @param block The block number
+	 * @param bytes The bytes of the block
+	 * @throws IOException If the volume can't be written
+	 */
+	public void writeBlock(long block, byte[] bytes) throws IOException {
+		writeBytes(block * BLOCK_SIZE, bytes, 0, (int) BLOCK_SIZE);
+	}
+
+	/**
+	 * Returns where the volume's bytes are read from
+	 * @return The volume's storage
+	 */
+	public Storage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * Starts recording every block the volume reads to a trace file, replacing any trace already being recorded
+	 * @param path The path of the trace file
+	 * @throws IOException If the trace file can't be written
+	 */
+	public synchronized void startTrace(String path) throws IOException {
+		stopTrace();
+		trace = new BlockTrace(this, path);
+	}
+
+	/**
+	 * Stops recording blocks and closes the trace file, if a trace is being recorded
+	 * @return The amount of block accesses recorded, or 0 if there was no trace
+	 * @throws IOException If the trace file can't be written
+	 */
+	public synchronized long stopTrace() throws IOException {
+		BlockTrace stopped = trace;
+		if(stopped == null) {
+			return 0;
+		}
+		trace = null;
+		stopped.close();
+		return stopped.getAccesses();
+	}
+
+	/**
+	 * Returns the counters and latencies of what the volume has done since it was opened
+	 * @return The volume's metrics
+	 */
+	public VolumeMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the path of the file holding the volume
+	 * @return The volume's file name
+	 */
+	public String getVolumeName() {
+		return volumeName;
+	}
+
+	/**
+	 * Serves path lookups, inodes and block maps from the sidecar index next to the volume's file,
+	 * building and saving the index first if it is missing or no longer matches the volume
+	 */
+	public void useIndex() {
+		useIndex(volumeName + ".idx");
+	}
+
+	/**
+	 * Serves path lookups, inodes and block maps from a sidecar index file,
+	 * building and saving the index first if it is missing or no longer matches the volume
+	 * @param indexPath The path of the sidecar index file
+	 */
+	public void useIndex(String indexPath) {
+		index = null; // Build from the volume itself, not from an index that may be out of date
+		MetadataIndex opened = MetadataIndex.open(this, indexPath);
+		if(opened == null) {
+			try {
+				opened = MetadataIndex.build(this, indexPath);
+			} catch (IOException e) {
+				System.out.println("IO Exception: " + e.getMessage());
+			}
+		}
+		index = opened;
+	}
+
 	/**
 	 * Returns the SuperBlock currently in use on the volume
 	 * @return The volume's SuperBlock instance
@@ -82,6 +223,53 @@ public class Volume {
 		return superBlock;
 	}
 
+	/**
+	 * Returns the size of the volume's blocks in bytes
+	 * @return Block size in bytes
+	 */
+	public long getBlockSize() {
+		return BLOCK_SIZE;
+	}
+
+	/**
+	 * Returns the amount of block groups on the volume
+	 * @return Block group count
+	 */
+	public int getGroupCount() {
+		return GROUP_COUNT;
+	}
+
+	/**
+	 * Reads a run of whole blocks from the volume in one sequential read
+	 * @param block Pointer to the first block
+	 * @param count The amount of blocks to read
+	 * @return The bytes of the blocks
+	 */
+	public byte[] readBlocks(long block, int count) {
+		long location = block * BLOCK_SIZE;
+		return getBytes(location, location + (count * BLOCK_SIZE));
+	}
+
+	/**
+	 * Reads a single whole block from the volume
+	 * @param block Pointer to the block
+	 * @return The bytes of the block
+	 */
+	public byte[] readBlock(long block) {
+		return readBlocks(block, 1);
+	}
+
+	/**
+	 * Reads a single whole block known to hold one type of block, so a trace records it as such
+	 * @param block Pointer to the block
+	 * @param type One of the type constants of BlockTrace
+	 * @return The bytes of the block
+	 */
+	byte[] readBlock(long block, int type) {
+		long location = block * BLOCK_SIZE;
+		return getBytes(location, location + BLOCK_SIZE, type);
+	}
+
 	/**
 	 * Returns the byte location of a block on the volume
 	 * @param block A pointer to a block
@@ -97,9 +285,30 @@ public class Volume {
 	 * @return The GroupDescriptor of the given Block Group
 	 */
 	public GroupDescriptor getDescriptor(int blockGroup) {
-		long location = BOOT_OFFSET + BLOCK_SIZE + (32 * blockGroup); // Retrieve the requested Descriptor from the Descriptor Table
-		GroupDescriptor groupDescriptor = new GroupDescriptor(getBytes(location, location+BLOCK_DESCRIPTOR_SIZE));
-		return groupDescriptor; 
+		long started = System.nanoTime();
+		long location = ((FIRST_DATA_BLOCK + 1) * BLOCK_SIZE) + (BLOCK_DESCRIPTOR_SIZE * blockGroup); // The Descriptor Table starts in the block after the SuperBlock
+		GroupDescriptor groupDescriptor = new GroupDescriptor(getBytes(location, location+32));
+		metrics.record(VolumeMetrics.DESCRIPTOR_LOAD, started);
+		return groupDescriptor;
+	}
+
+	/**
+	 * Reads the descriptors of every block group in one go, to look at through a GroupDescriptorView.
+	 * Descriptors larger than 32 bytes are cut down to their first 32, so every table is laid out the same.
+	 * @return The bytes of the descriptor table
+	 */
+	public byte[] readDescriptorTable() {
+		long started = System.nanoTime();
+		long location = (FIRST_DATA_BLOCK + 1) * BLOCK_SIZE;
+		byte[] table = getBytes(location, location + (GROUP_COUNT * BLOCK_DESCRIPTOR_SIZE));
+		if(BLOCK_DESCRIPTOR_SIZE != 32) {
+			for (int group = 1; group < GROUP_COUNT; group++) {
+				System.arraycopy(table, (int) (group * BLOCK_DESCRIPTOR_SIZE), table, group * 32, 32);
+			}
+			table = Arrays.copyOf(table, GROUP_COUNT * 32);
+		}
+		metrics.record(VolumeMetrics.DESCRIPTOR_LOAD, started);
+		return table;
 	}
 
 	/**
@@ -108,153 +317,664 @@ public class Volume {
 	 * @return The Inode matching the id
 	 */
 	public Inode getInode(int id) {
-		int blockGroup = id / superBlock.getGroupInodes();
-		id = id % superBlock.getGroupInodes();
-		long location = getBlockLocation(getDescriptor(blockGroup).getInodeTablePtr()) + ((id - 1) * INODE_SIZE);
+		Object event = Tracer.INSTANCE.begin(Tracer.INODE_LOAD);
+		long started = System.nanoTime();
+		if(index != null) {
+			Inode indexed = index.getInode(id);
+			if(indexed != null) {
+				metrics.cacheHit(VolumeMetrics.CACHE_INDEX);
+				metrics.record(VolumeMetrics.INODE_LOAD, started);
+				if(event != null) {
+					Tracer.INSTANCE.inodeLoad(event, id, true);
+				}
+				return indexed;
+			}
+			metrics.cacheMiss(VolumeMetrics.CACHE_INDEX);
+		}
+		int blockGroup = (id - 1) / superBlock.getGroupInodes(); // Inodes are numbered from 1
+		int within = (id - 1) % superBlock.getGroupInodes();
+		long location = getBlockLocation(getDescriptor(blockGroup).getInodeTablePtr()) + (within * INODE_SIZE);
 		Inode inode = new Inode(getBytes(location, location+INODE_SIZE));
+		metrics.record(VolumeMetrics.INODE_LOAD, started);
+		if(event != null) {
+			Tracer.INSTANCE.inodeLoad(event, id, false);
+		}
 		return inode;
 	}
 
+	/**
+	 * Reads the whole Inode Table of a block group in one sequential read
+	 * @param blockGroup The Block Group of the table
+	 * @return The bytes of the table, an Inode every getSuperBlock().getInodeSize() bytes
+	 */
+	public byte[] readInodeTable(int blockGroup) {
+		long location = getBlockLocation(getDescriptor(blockGroup).getInodeTablePtr());
+		return getBytes(location, location + (superBlock.getGroupInodes() * INODE_SIZE));
+	}
+
 	/**
 	 * Returns the Inode of a file, given the path to it
 	 * @param path The path leading to the desired file
 	 * @return The inode of the file defined by the path
 	 */
 	public Inode getInodeFromPath(String path) {
-		Inode inode = getInode(ROOT_INODE_PTR); //Root is returned if path is invalid
-		if(path.equals("")) {
-			return inode;
-		}
-		if(path.charAt(0) == '/') {
-			path = path.substring(1); // If there is "/" at the beginning, it adds an extra element to the array, so remove it
-		}
-		String[] names = path.split("/"); // Get array of file names
-		Directory directory = new Directory(getInode(ROOT_INODE_PTR), this);
-		for (int i = 0; i < names.length; i++) {
-			FileInfo[] files = directory.getFileInfo(); // Get the information for all the files from the directory
-			for (int j = 0; j < files.length; j++) { // Check all files in the directory
-				if(files[j].getName().equals(names[i])) { // Check if we found a filename match
-					if(i < names.length - 1) { // If we're not at the destination file
-						directory = new Directory(getInode(files[j].getInodePtr()), this); // Switch directory
-					} else{ // Otherwise we get the Inode for that file.
-						inode = getInode(files[j].getInodePtr());
-						return inode;
+		long started = System.nanoTime();
+		Inode inode = findInode(path);
+		metrics.record(VolumeMetrics.PATH_RESOLUTION, started);
+		return inode;
+	}
+
+	private Inode findInode(String path) {
+		int id = findInodePtr(path);
+		if(id < 0) {
+			System.out.println("Could not find file, returning root!"); //Root is returned if path is invalid
+			return getInode(ROOT_INODE_PTR);
+		}
+		return getInode(id);
+	}
+
+	/**
+	 * Returns the inode pointer of a file, given the path to it
+	 * @param path The path leading to the file
+	 * @return The inode pointer, or -1 if there is no such file
+	 */
+	public int getInodePtrFromPath(String path) {
+		long started = System.nanoTime();
+		int inodePtr = findInodePtr(path);
+		metrics.record(VolumeMetrics.PATH_RESOLUTION, started);
+		return inodePtr;
+	}
+
+	private int findInodePtr(String path) {
+		if(index != null) {
+			int id = index.lookup(path);
+			if(id > 0) {
+				metrics.cacheHit(VolumeMetrics.CACHE_INDEX);
+			} else {
+				metrics.cacheMiss(VolumeMetrics.CACHE_INDEX);
+			}
+			return id;
+		}
+		final int[] current = {ROOT_INODE_PTR};
+		for (final String name : path.split("/")) {
+			if(name.isEmpty()) {
+				continue;
+			}
+			Inode inode = getInode(current[0]);
+			if(!inode.isDirectory()) {
+				return -1;
+			}
+			current[0] = -1;
+			new Directory(inode, this).forEachEntry(new EntryViewVisitor() {
+				public boolean entry(DirectoryEntryView entry) {
+					if(entry.nameEquals(name)) {
+						current[0] = entry.getInodePtr();
+						return false;
 					}
-					break;
+					return true;
 				}
+			});
+			if(current[0] < 0) {
+				return -1;
 			}
 		}
-		System.out.println("Could not find file, returning root!");
-		return inode;
+		return current[0];
 	}
 
 	/**
-	 * Returns an array of bytes, given the desired start and end point in a file, and the file's Inode
+	 * Creates an empty regular file. Like every change to the volume, the block and inode bitmaps and free counts
+	 * it changes are only written out by flush().
+	 * @param path The path of the new file, whose directory must already exist
+	 * @return The inode pointer of the new file
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	public synchronized int createFile(String path) throws IOException {
+		return writer().createFile(parentOf(path), nameOf(path));
+	}
+
+	/**
+	 * Creates an empty directory
+	 * @param path The path of the new directory, whose parent must already exist
+	 * @return The inode pointer of the new directory
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	public synchronized int createDirectory(String path) throws IOException {
+		return writer().createDirectory(parentOf(path), nameOf(path));
+	}
+
+	/**
+	 * Adds a hard link to an existing file
+	 * @param existing The path of the file
+	 * @param path The path of the new link
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	public synchronized void link(String existing, String path) throws IOException {
+		int target = getInodePtrFromPath(existing);
+		if(target < 0) {
+			throw new IllegalArgumentException("No such file: " + existing);
+		}
+		writer().link(target, parentOf(path), nameOf(path));
+	}
+
+	/**
+	 * Adds bytes to the end of a regular file, in contiguous runs of blocks near the ones it already has
+	 * @param inodePtr The inode pointer of the file
+	 * @param bytes The array holding the bytes
+	 * @param offset The first byte to add from the array
+	 * @param length The amount of bytes to add
+	 * @return The updated inode of the file
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	public synchronized Inode append(int inodePtr, byte[] bytes, int offset, int length) throws IOException {
+		writer().append(inodePtr, bytes, offset, length);
+		return getInode(inodePtr);
+	}
+
+	/**
+	 * Sets the size of a regular file, freeing the blocks past the end when it shrinks
+	 * @param inodePtr The inode pointer of the file
+	 * @param size The new size in bytes
+	 * @return The updated inode of the file
+	 * @throws IOException If the volume can't be written
+	 */
+	public synchronized Inode truncate(int inodePtr, long size) throws IOException {
+		writer().truncate(inodePtr, size);
+		return getInode(inodePtr);
+	}
+
+	/**
+	 * Writes out the bitmaps, group descriptors and SuperBlock counts changed since the last flush,
+	 * leaving the volume consistent, and closes the file the changes were written through
+	 * @throws IOException If the volume can't be written
+	 */
+	public synchronized void flush() throws IOException {
+		if(writer != null) {
+			writer.flush();
+			superBlock = new SuperBlock(getBytes(1024, 2048));
+		}
+		if(output != null) {
+			output.close();
+			output = null;
+		}
+	}
+
+	/**
+	 * Flushes any changes and lets go of the handles open on the volume's file. Later reads open it again.
+	 * @throws IOException If the changes can't be written or a handle can't be closed
+	 */
+	public synchronized void close() throws IOException {
+		stopTrace();
+		flush();
+		storage.close();
+	}
+
+	private VolumeWriter writer() {
+		if(writer == null) {
+			if(!(storage instanceof FileStorage)) {
+				throw new UnsupportedOperationException("Only volumes read straight from a raw image can be written to");
+			}
+			int unsupported = superBlock.getIncompatFeatures() & ~SuperBlock.INCOMPAT_FILETYPE;
+			if(unsupported != 0) {
+				throw new UnsupportedOperationException("Can't write to a volume with incompatible features 0x" + Integer.toHexString(unsupported));
+			}
+			// Checksums and uninitialised groups would need keeping up to date with every bitmap and inode written
+			int readOnly = superBlock.getRoCompatFeatures() & ~(SuperBlock.RO_COMPAT_SPARSE_SUPER | SuperBlock.RO_COMPAT_LARGE_FILE);
+			if(readOnly != 0) {
+				throw new UnsupportedOperationException("Can't write to a volume with read-only compatible features 0x" + Integer.toHexString(readOnly));
+			}
+			index = null; // The sidecar index won't match once anything changes
+			writer = new VolumeWriter(this);
+		}
+		return writer;
+	}
+
+	private int parentOf(String path) {
+		String trimmed = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+		String parent = trimmed.substring(0, Math.max(0, trimmed.lastIndexOf('/')));
+		int id = getInodePtrFromPath(parent);
+		if(id < 0) {
+			throw new IllegalArgumentException("No such directory: " + parent);
+		}
+		return id;
+	}
+
+	private String nameOf(String path) {
+		String trimmed = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+		return trimmed.substring(trimmed.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Walks the directory tree below a path depth first, without loading the inode of every file
+	 * @param path The path of the directory to start at, "" or "/" for the root
+	 * @param visitor Receives every file below the directory
+	 */
+	public void walkTree(String path, TreeVisitor visitor) {
+		String prefix = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+		walkDirectory(prefix, getInodeFromPath(prefix), visitor);
+	}
+
+	private void walkDirectory(final String prefix, Inode inode, final TreeVisitor visitor) {
+		final List<String> names = new ArrayList<String>();
+		final List<Integer> children = new ArrayList<Integer>();
+		new Directory(inode, this).forEachEntry(new EntryVisitor() {
+			public boolean entry(int inodePtr, int type, String name) {
+				if(name.equals(".") || name.equals("..")) {
+					return true;
+				}
+				boolean directory = type == Directory.TYPE_DIRECTORY;
+				if(type == 0) { // The entry doesn't say, so the inode has to be read
+					directory = getInode(inodePtr).isDirectory();
+				}
+				if(visitor.visit(prefix + "/" + name, inodePtr, directory) && directory) {
+					names.add(name);
+					children.add(inodePtr);
+				}
+				return true;
+			}
+		});
+		for (int i = 0; i < names.size(); i++) { // Descend once the directory has been read, so blocks aren't interleaved
+			walkDirectory(prefix + "/" + names.get(i), getInode(children.get(i)), visitor);
+		}
+	}
+
+	/**
+	 * Walks the block pointers or extent tree of a file, handing every allocated data block and indirect table,
+	 * or tree node, to the visitor. Unwritten extents count as holes, their blocks going to unwrittenBlock().
+	 * Holes are skipped and nothing past the end of the file is visited. If the inode already carries
+	 * its block map, from the sidecar index, the data blocks come from that and no tables are visited.
+	 * @param inode The inode of the file
+	 * @param visitor Receives the blocks of the file
+	 */
+	public void walkBlocks(Inode inode, BlockVisitor visitor) {
+		if(!inode.hasBlocks()) {
+			return;
+		}
+		int[] runs = inode.getBlockRuns();
+		if(runs != null) {
+			for (int i = 0; i < runs.length; i += 3) {
+				for (long j = 0; j < (0xFFFFFFFFL & runs[i + 2]); j++) {
+					visitor.dataBlock((0xFFFFFFFFL & runs[i]) + j, (int) (runs[i + 1] + j));
+				}
+			}
+			return;
+		}
+		if(inode.isExtentMapped()) {
+			walkExtents(extentNode(inode.getExtentRoot()), (inode.getFileSize() + BLOCK_SIZE - 1) / BLOCK_SIZE, visitor);
+			return;
+		}
+		walkPointers(inode.getFileSize(), inode.getBlockPointers(), inode.getIndirectPointer(),
+			inode.getDoubleIndirectPointer(), inode.getTripleIndirectPointer(), visitor);
+	}
+
+	/**
+	 * Goes through the blocks of an inode seen through a view, like walkBlocks(Inode, BlockVisitor),
+	 * without copying the inode out of its table
+	 * @param inode The view of the inode
+	 * @param visitor Called for every data block and indirect block
+	 */
+	public void walkBlocks(InodeView inode, BlockVisitor visitor) {
+		if(inode.hasBlocks() && inode.isExtentMapped()) {
+			walkExtents(extentNode(inode.getExtentRoot()), (inode.getFileSize() + BLOCK_SIZE - 1) / BLOCK_SIZE, visitor);
+		} else if(inode.hasBlocks()) {
+			walkPointers(inode.getFileSize(), inode.getBlockPointers(), inode.getIndirectPointer(),
+				inode.getDoubleIndirectPointer(), inode.getTripleIndirectPointer(), visitor);
+		}
+	}
+
+	private void walkPointers(long size, int[] pointers, int indirect, int doubleIndirect, int tripleIndirect, BlockVisitor visitor) {
+		long blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE; // Logical blocks covered by the file
+		for (int i = 0; i < 12 && i < blocks; i++) {
+			if(pointers[i] != 0) { // Skip holes
+				visitor.dataBlock(i, pointers[i]);
+			}
+		}
+		long logical = 12;
+		logical = walkIndirect(indirect, 1, logical, blocks, visitor);
+		logical = walkIndirect(doubleIndirect, 2, logical, blocks, visitor);
+		walkIndirect(tripleIndirect, 3, logical, blocks, visitor);
+	}
+
+	// Walks one indirect table of the given level, returns the logical block following everything it covers
+	private long walkIndirect(int pointer, int level, long logical, long blocks, BlockVisitor visitor) {
+		long span = INDIRECT_POINTERS;
+		for (int i = 1; i < level; i++) {
+			span = span * INDIRECT_POINTERS;
+		}
+		long next = logical + span;
+		if(logical >= blocks || pointer == 0 || !visitor.indirectBlock(pointer, level)) {
+			return next;
+		}
+		ByteBuffer table = ByteBuffer.wrap(readTable(pointer, level)).order(ByteOrder.LITTLE_ENDIAN); // Read the whole table at once
+		for (int i = 0; i < INDIRECT_POINTERS && logical < blocks; i++) {
+			int entry = table.getInt(i * 4);
+			if(level == 1) {
+				if(entry != 0) {
+					visitor.dataBlock(logical, entry);
+				}
+				logical++;
+			} else {
+				logical = walkIndirect(entry, level - 1, logical, blocks, visitor);
+			}
+		}
+		return next;
+	}
+
+	// Walks an extent tree node depth first, handing over the blocks of every written extent and the nodes below
+	private void walkExtents(ByteBuffer node, long blocks, BlockVisitor visitor) {
+		if(node.getShort(0) != (short) EXTENT_MAGIC) {
+			return;
+		}
+		int entries = node.getShort(2) & 0xFFFF;
+		int depth = node.getShort(6) & 0xFFFF;
+		for (int i = 0; i < entries; i++) {
+			int entry = 12 + (i * 12);
+			long logical = 0xFFFFFFFFL & node.getInt(entry);
+			if(logical >= blocks) {
+				return;
+			}
+			if(depth > 0) {
+				int child = node.getInt(entry + 4); // Only the low 32 bits, as block pointers are ints throughout
+				if(child != 0 && visitor.indirectBlock(child, depth)) {
+					walkExtents(extentNode(readTable(child, depth)), blocks, visitor);
+				}
+			} else {
+				int length = node.getShort(entry + 4) & 0xFFFF;
+				int start = node.getInt(entry + 8);
+				if(length > EXTENT_UNWRITTEN) { // Unwritten extents are holes
+					for (long j = 0; j < length - EXTENT_UNWRITTEN && logical + j < blocks; j++) {
+						visitor.unwrittenBlock(logical + j, (int) (start + j));
+					}
+					continue;
+				}
+				for (long j = 0; j < length && logical + j < blocks; j++) {
+					visitor.dataBlock(logical + j, (int) (start + j));
+				}
+			}
+		}
+	}
+
+	// Looks up a stretch of blocks in an extent tree, descending to each leaf once and filling in its extents whole
+	private void mapExtents(ByteBuffer root, long first, long end, int[] physical) {
+		long logical = first;
+		while(logical < end) {
+			ByteBuffer node = root;
+			long following = Long.MAX_VALUE; // The first block of the next subtree over from the leaf
+			while(node.getShort(0) == (short) EXTENT_MAGIC && node.getShort(6) != 0) {
+				int depth = node.getShort(6) & 0xFFFF;
+				int i = Math.max(findExtent(node, logical), 0);
+				if(i + 1 < (node.getShort(2) & 0xFFFF)) {
+					following = Math.min(following, 0xFFFFFFFFL & node.getInt(12 + ((i + 1) * 12)));
+				}
+				int child = node.getInt(12 + (i * 12) + 4);
+				if(child == 0) {
+					return;
+				}
+				node = extentNode(readTable(child, depth));
+			}
+			if(node.getShort(0) != (short) EXTENT_MAGIC) {
+				return;
+			}
+			int entries = node.getShort(2) & 0xFFFF;
+			for (int i = Math.max(findExtent(node, logical), 0); i < entries && logical < end; i++) {
+				int entry = 12 + (i * 12);
+				long start = 0xFFFFFFFFL & node.getInt(entry);
+				int length = node.getShort(entry + 4) & 0xFFFF;
+				long stop = Math.min(start + (length > EXTENT_UNWRITTEN ? length - EXTENT_UNWRITTEN : length), end);
+				logical = Math.max(logical, Math.min(start, end)); // Skip any hole before the extent
+				if(length > EXTENT_UNWRITTEN) {
+					logical = Math.max(logical, stop); // Left as zeros
+				}
+				int pointer = node.getInt(entry + 8);
+				for (; logical < stop; logical++) {
+					physical[(int) (logical - first)] = (int) (pointer + (logical - start));
+				}
+			}
+			logical = Math.max(logical, Math.min(following, end)); // Anything between the last extent and the next subtree is a hole
+		}
+	}
+
+	// Binary searches a node for the last entry starting at or before the block, -1 if the block comes before them all
+	private int findExtent(ByteBuffer node, long logical) {
+		int low = 0;
+		int high = (node.getShort(2) & 0xFFFF) - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			if((0xFFFFFFFFL & node.getInt(12 + (middle * 12))) <= logical) {
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return high;
+	}
+
+	private ByteBuffer extentNode(byte[] bytes) {
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	// Reads a pointer table, counting it at its level
+	private byte[] readTable(int pointer, int level) {
+		Object event = Tracer.INSTANCE.begin(Tracer.INDIRECT_READ);
+		byte[] table = readBlock(0xFFFFFFFFL & pointer, BlockTrace.TYPE_INDIRECT);
+		metrics.indirectRead(level);
+		if(event != null) {
+			Tracer.INSTANCE.indirectRead(event, level, 0xFFFFFFFFL & pointer);
+		}
+		return table;
+	}
+
+	/**
+	 * Looks up where a stretch of a file's blocks are on the volume, reading only the pointer tables covering the stretch
+	 * rather than walking the whole file. Each table is read once however many of the blocks it holds. For files
+	 * mapped by extents the tree is searched down to the leaf holding the first block, and each extent fills in
+	 * all of its blocks at once.
+	 * @param inode The inode of the file
+	 * @param first The first logical block to look up
+	 * @param count The amount of blocks to look up
+	 * @return The physical block of each logical block from first on, or 0 for holes and blocks past the end of the file
+	 */
+	public int[] mapBlocks(Inode inode, long first, int count) {
+		long started = System.nanoTime();
+		int[] physical = mapRange(inode, first, count);
+		metrics.record(VolumeMetrics.BLOCK_MAP, started);
+		return physical;
+	}
+
+	private int[] mapRange(Inode inode, long first, int count) {
+		int[] physical = new int[count];
+		long blocks = (inode.getFileSize() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		if(!inode.hasBlocks() || first >= blocks) {
+			return physical;
+		}
+		int[] runs = inode.getBlockRuns();
+		if(runs != null) {
+			for (int i = 0; i < runs.length; i += 3) {
+				long logical = 0xFFFFFFFFL & runs[i];
+				long length = 0xFFFFFFFFL & runs[i + 2];
+				for (long j = Math.max(logical, first); j < Math.min(logical + length, first + count); j++) {
+					physical[(int) (j - first)] = (int) (runs[i + 1] + (j - logical));
+				}
+			}
+			return physical;
+		}
+		if(inode.isExtentMapped()) {
+			mapExtents(extentNode(inode.getExtentRoot()), first, Math.min(first + count, blocks), physical);
+			return physical;
+		}
+		int[] pointers = inode.getBlockPointers();
+		int[] tablePtrs = new int[3]; // The last table read at each depth, so neighbouring blocks share it
+		ByteBuffer[] tables = new ByteBuffer[3];
+		for (int i = 0; i < count && first + i < blocks; i++) {
+			long logical = first + i;
+			if(logical < 12) {
+				physical[i] = pointers[(int) logical];
+				continue;
+			}
+			long rest = logical - 12;
+			int level = 1;
+			int pointer = inode.getIndirectPointer();
+			if(rest >= INDIRECT_POINTERS) {
+				rest -= INDIRECT_POINTERS;
+				level = 2;
+				pointer = inode.getDoubleIndirectPointer();
+				if(rest >= DOUBLE_INDIRECT_POINTERS) {
+					rest -= DOUBLE_INDIRECT_POINTERS;
+					level = 3;
+					pointer = inode.getTripleIndirectPointer();
+				}
+			}
+			for (int depth = 0; depth < level && pointer != 0; depth++) {
+				long span = 1;
+				for (int j = depth + 1; j < level; j++) {
+					span *= INDIRECT_POINTERS;
+				}
+				if(tablePtrs[depth] != pointer) {
+					tables[depth] = ByteBuffer.wrap(readTable(pointer, level - depth)).order(ByteOrder.LITTLE_ENDIAN);
+					tablePtrs[depth] = pointer;
+				}
+				pointer = tables[depth].getInt((int) ((rest / span) % INDIRECT_POINTERS) * 4);
+			}
+			physical[i] = pointer;
+		}
+		return physical;
+	}
+
+	/**
+	 * Reads part of a file into an array. The blocks covering the range are looked up together and
+	 * physically contiguous blocks are read in one go, holes coming back as zeros.
+	 * @param inode The inode of the file
+	 * @param position The first byte of the file to read
+	 * @param bytes The array to read into
+	 * @param offset Where in the array to start putting bytes
+	 * @param length The most bytes to read
+	 * @return The amount of bytes read, less than length if the file ends first
+	 * @throws IOException If the volume can't be read
+	 */
+	public int readFile(Inode inode, long position, byte[] bytes, int offset, int length) throws IOException {
+		length = (int) Math.max(0, Math.min(length, inode.getFileSize() - position));
+		if(length == 0) {
+			return 0;
+		}
+		int type = inode.isDirectory() ? BlockTrace.TYPE_DIRECTORY : BlockTrace.TYPE_DATA;
+		long first = position / BLOCK_SIZE;
+		int[] physical = mapBlocks(inode, first, (int) (((position + length - 1) / BLOCK_SIZE) - first + 1));
+		int done = 0;
+		for (int i = 0; i < physical.length; ) {
+			int run = 1; // Blocks that can be read together, or holes that can be filled together
+			while(i + run < physical.length && (physical[i] == 0 ? physical[i + run] == 0 : physical[i + run] == physical[i] + run)) {
+				run++;
+			}
+			long within = (position + done) % BLOCK_SIZE;
+			int count = (int) Math.min((run * BLOCK_SIZE) - within, length - done);
+			if(physical[i] == 0) {
+				Arrays.fill(bytes, offset + done, offset + done + count, (byte) 0);
+			} else {
+				long location = ((0xFFFFFFFFL & physical[i]) * BLOCK_SIZE) + within;
+				Object event = Tracer.INSTANCE.begin(Tracer.BLOCK_READ);
+				long started = System.nanoTime();
+				storage.read(location, bytes, offset + done, count);
+				metrics.recordRead(count, started);
+				if(event != null) {
+					Tracer.INSTANCE.blockRead(event, location, count);
+				}
+				BlockTrace tracing = trace;
+				if(tracing != null) {
+					tracing.record(location, location + count, type);
+				}
+			}
+			done += count;
+			i += run;
+		}
+		return done;
+	}
+
+	/**
+	 * Streams the content of a file to the visitor. Physically contiguous blocks are read together, up to a
+	 * megabyte at a time, and holes are handed over as zeros without touching the volume.
+	 * @param inode The inode of the file
+	 * @param visitor Receives the content of the file in order
+	 */
+	public void readContent(Inode inode, ContentVisitor visitor) {
+		ContentReader reader = new ContentReader(inode.getFileSize(), visitor, inode.isDirectory() ? BlockTrace.TYPE_DIRECTORY : BlockTrace.TYPE_DATA);
+		walkBlocks(inode, reader);
+		reader.finish();
+	}
+
+	// Gathers the blocks of a file into physical runs and hands them, and the holes between them, to a ContentVisitor
+	private class ContentReader implements BlockVisitor {
+		private final long size;
+		private final ContentVisitor visitor;
+		private final int type; // What the blocks hold, for a trace
+		private long delivered = 0; // Bytes of the file handed over so far
+		private long runStart = -1; // First block of the run being gathered
+		private long runLogical = 0;
+		private int runLength = 0;
+		private boolean stopped = false;
+
+		ContentReader(long fileSize, ContentVisitor contentVisitor, int blockType) {
+			size = fileSize;
+			visitor = contentVisitor;
+			type = blockType;
+		}
+
+		public void dataBlock(long logical, int physical) {
+			long block = 0xFFFFFFFFL & physical;
+			if(runLength > 0 && block == runStart + runLength && logical == runLogical + runLength && runLength < RUN_BLOCKS) {
+				runLength++; // Carries on from the run
+				return;
+			}
+			flush();
+			runStart = block;
+			runLogical = logical;
+			runLength = 1;
+		}
+
+		public boolean indirectBlock(int physical, int level) {
+			return !stopped;
+		}
+
+		void finish() {
+			flush();
+			zeros(size);
+		}
+
+		private void flush() {
+			if(runLength == 0 || stopped) {
+				return;
+			}
+			zeros(runLogical * BLOCK_SIZE); // Any hole before the run
+			long location = runStart * BLOCK_SIZE;
+			byte[] bytes = getBytes(location, location + (runLength * BLOCK_SIZE), type);
+			int length = (int) Math.min(bytes.length, size - delivered);
+			stopped = !visitor.content(bytes, 0, length);
+			delivered += length;
+			runLength = 0;
+		}
+
+		private void zeros(long until) {
+			while(!stopped && delivered < until) {
+				int length = (int) Math.min(ZEROS.length, until - delivered);
+				stopped = !visitor.content(ZEROS, 0, length);
+				delivered += length;
+			}
+		}
+	}
+
+	/**
+	 * Returns an array of bytes, given the desired start and end point in a file, and the file's Inode.
+	 * The range is read through readFile, so contiguous blocks come in one read rather than a byte at a time.
 	 * @param inode The inode of the file
 	 * @param start The start byte in the file for reading
 	 * @param end The stopping byte in the file when reading
-	 * @return The Inode matching the id
+	 * @return The bytes of the file, zeros past its end
 	 */
 	public byte[] readFromFile(Inode inode, long start, long end) {
-		int length = (int) (end - start);
-		byte[] bytes = new byte[length];
-		for (int i = 0; i < length; i++) { //Assemble array of bytes
-			bytes[i] = getByteFromFile(start + i, inode); //Retrieve single byte
+		byte[] bytes = new byte[(int) (end - start)];
+		try {
+			readFile(inode, start, bytes, 0, bytes.length);
+		} catch (IOException e) {
+			System.out.println("IO Exception: " + e.getMessage());
 		}
 		return bytes;
 	}
-
-	private byte getByteFromFile(long location, Inode inode) { //Decide which function to call to get the byte
-		if(location < DIRECT_LIMIT) { //Call relevant function for the current byte requested in the file
-			return getDirectByte(location, inode);
-		} else if(location < (INDIRECT_LIMIT + DIRECT_LIMIT)) {
-			return getIndirectByte(location, inode);
-		} else if(location < (DOUBLE_INDIRECT_LIMIT + INDIRECT_LIMIT + DIRECT_LIMIT)) {
-			return getDoubleIndirectByte(location, inode);
-		} else if(location < (TREBLE_INDIRECT_LIMIT + DOUBLE_INDIRECT_LIMIT + INDIRECT_LIMIT + DIRECT_LIMIT)) {
-			return getTrebleIndirectByte(location, inode);
-		} else{
-			byte failed = 0;
-			System.out.println("Failed! Byte requested is larger than maximum allowed EXT2 file.");
-			return failed;
-		}
- 	}
-
- 	//Get a byte from one of the direct pointers
- 	private byte getDirectByte(long location, Inode inode) {
- 		int block = (int)(location/BLOCK_SIZE);
- 		int pointer = inode.getBlockPointers()[block];
-
- 		if(pointer == 0) {//Deal with holes/sparse files
- 			return 0;
- 		}
-
- 		long newLocation = getBlockLocation(inode.getBlockPointers()[block]) + (location % BLOCK_SIZE); // Calculate the place of the byte
- 		return getBytes(newLocation, newLocation+1)[0]; //Read and return it
- 	}
-
- 	/* Essential function. Takes a pointer to an indirect table and a desired block pointer in it, 
-	   then returns that pointer.
-	  */
- 	private int getBlockFromIndirect(int pointer, long block) { 
- 		long pointerBlock = getBlockLocation(pointer);
- 		long pointLocation = pointerBlock + (block * 4); // Find the pointer inside
- 		int blockLocation = Converter.bytesToInt(getBytes(pointLocation, pointLocation + 4)); // Convert bytes to int
- 		return blockLocation;
- 	}
-
- 	// Get a byte from the indirect table
- 	private byte getIndirectByte(long location, Inode inode) {
- 		location = location - DIRECT_LIMIT; // Offset from Direct
- 		int directBlockPtr = getBlockFromIndirect(inode.getIndirectPointer(), location / BLOCK_SIZE);
-
- 		if(directBlockPtr == 0) { //Deal with holes/sparse files
- 			return 0;
- 		}
-
- 		long newBlock = getBlockLocation(directBlockPtr); // Calculate pointer location number, then block location
- 		long byteLocation = newBlock + (location % BLOCK_SIZE); 
- 		return getBytes(byteLocation, byteLocation+1)[0];
- 	}
-
- 	// Get a byte using the double indirect table
- 	private byte getDoubleIndirectByte(long location, Inode inode) {
- 		location = location - (DIRECT_LIMIT + INDIRECT_LIMIT); // Offset from Indirect
-
- 		int indirectBlockPtr = getBlockFromIndirect(inode.getDoubleIndirectPointer(), location / INDIRECT_LIMIT);
- 		long scaledLocation = location % INDIRECT_LIMIT; // Calculate to get the indirect table
-
- 		int directBlockPtr = getBlockFromIndirect(indirectBlockPtr, scaledLocation / BLOCK_SIZE); // Get the direct block
-
- 		if(directBlockPtr == 0) {//Deal with holes/sparse files
- 			return 0;
- 		}
-
- 		Long newBlock = getBlockLocation(directBlockPtr);
-
- 		long byteLocation = newBlock + (location % BLOCK_SIZE);
- 		return getBytes(byteLocation, byteLocation+1)[0];
- 	}
-
- 	// Get a byte using the treble indirect table
-  	private byte getTrebleIndirectByte(long location, Inode inode) {
-  		location = location - (DIRECT_LIMIT + INDIRECT_LIMIT + DOUBLE_INDIRECT_LIMIT); // Offset from Double Indirect
-
-  		int doubleIndPtr = getBlockFromIndirect(inode.getTripleIndirectPointer(), location / DOUBLE_INDIRECT_LIMIT); //Calculate for Double Indirect table
-  		long firstScale = location % DOUBLE_INDIRECT_LIMIT;
-
- 		int indirectBlockPtr = getBlockFromIndirect(doubleIndPtr, firstScale / INDIRECT_LIMIT);
- 		long secondScale = firstScale % INDIRECT_LIMIT; // Calculate for indirect table
-
- 		int directBlockPtr = getBlockFromIndirect(indirectBlockPtr, secondScale / BLOCK_SIZE); // Get direct block
-
- 		if(directBlockPtr == 0) {//Deal with holes/sparse files
- 			return 0;
- 		}
-
- 		Long newBlock = getBlockLocation(directBlockPtr);
-
- 		long byteLocation = newBlock + (location % BLOCK_SIZE);
- 		return getBytes(byteLocation, byteLocation+1)[0];
- 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,358 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * @author Oliver Griffiths
+ * Finds the paths that were added, removed or modified between two snapshots of the same EXT2 volume.
+ *
+ * The inode tables of both volumes are compared first, a block group per task, looking at size, mtime,
+ * ownership, mode and block pointers or extent tree root. Only directories that changed there have their entries
+ * compared, and file content is only compared, block by block, where the block pointers differ or the extent tree
+ * goes deeper than its root. Paths are worked out from the ".." entries of the changed directories, and files
+ * listed in those directories are checked without further reading.
+ *
+ * A file's inode doesn't say which directory holds it though, so a file whose content changed in place, with no
+ * directory around it changing, can only be found by walking the newer volume's tree from the root. That walk reads
+ * every directory up to where the last such link turns up, which can be the whole tree, and is only done when
+ * there are files the changed directories didn't account for. Added and removed directories are walked as well,
+ * to list everything under them.
+ */
+public class VolumeDiff {
+	private final Volume before;
+	private final Volume after;
+	private final int groupInodes;
+	private final int inodeCount;
+	private final int inodeSize;
+
+	private final int ROOT_INODE_PTR = 2;
+
+	private Map<Integer, Inode[]> changed; // Changed inodes, as {before, after}
+	private Map<Integer, String> beforePaths;
+	private Map<Integer, String> afterPaths;
+	private Set<Integer> moved; // Inodes already reported through a directory's entries
+	private Map<String, Integer> candidates; // Paths whose inode changed in place, to be checked for modification
+	private Set<String> added;
+	private Set<String> removed;
+	private Set<String> modified;
+
+	/**
+	 * Creates a new VolumeDiff between two snapshots of a volume
+	 * @param a The older snapshot
+	 * @param b The newer snapshot
+	 */
+	public VolumeDiff(Volume a, Volume b) {
+		SuperBlock sa = a.getSuperBlock();
+		SuperBlock sb = b.getSuperBlock();
+		if(sa.getInodes() != sb.getInodes() || sa.getGroupInodes() != sb.getGroupInodes() || sa.getInodeSize() != sb.getInodeSize()) {
+			throw new IllegalArgumentException("Volumes have different inode layouts, so aren't snapshots of one volume");
+		}
+		before = a;
+		after = b;
+		groupInodes = sa.getGroupInodes();
+		inodeCount = sa.getInodes();
+		inodeSize = sa.getInodeSize();
+	}
+
+	/**
+	 * Compares the two volumes. The results are then available from getAdded(), getRemoved() and getModified().
+	 */
+	public void compare() {
+		changed = new ConcurrentHashMap<Integer, Inode[]>();
+		beforePaths = new HashMap<Integer, String>();
+		afterPaths = new HashMap<Integer, String>();
+		moved = new HashSet<Integer>();
+		candidates = new LinkedHashMap<String, Integer>();
+		added = new HashSet<String>();
+		removed = new HashSet<String>();
+		modified = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		beforePaths.put(ROOT_INODE_PTR, "");
+		afterPaths.put(ROOT_INODE_PTR, "");
+
+		IntStream.range(0, before.getGroupCount()).parallel().forEach(this::compareGroup);
+
+		List<Integer> ids = new ArrayList<Integer>(changed.keySet());
+		Collections.sort(ids);
+		for (int id : ids) {
+			Inode[] pair = changed.get(id);
+			if(isLive(pair[0]) && isLive(pair[1]) && pair[0].isDirectory() && pair[1].isDirectory()) {
+				compareDirectory(id);
+			}
+		}
+		locateInPlaceChanges();
+		candidates.entrySet().parallelStream().forEach(entry -> {
+			Inode[] pair = changed.get(entry.getValue());
+			if(isModified(pair[0], pair[1])) {
+				modified.add(entry.getKey());
+			}
+		});
+	}
+
+	/**
+	 * Returns the paths that only exist in the newer volume
+	 * @return Added paths, sorted
+	 */
+	public List<String> getAdded() {
+		return sorted(added);
+	}
+
+	/**
+	 * Returns the paths that only exist in the older volume
+	 * @return Removed paths, sorted
+	 */
+	public List<String> getRemoved() {
+		return sorted(removed);
+	}
+
+	/**
+	 * Returns the paths of files in both volumes whose content or attributes differ
+	 * @return Modified paths, sorted
+	 */
+	public List<String> getModified() {
+		return sorted(modified);
+	}
+
+	// Reads the group's inode table from both volumes and keeps the inodes that differ
+	private void compareGroup(int group) {
+		byte[] tableA = before.readInodeTable(group);
+		byte[] tableB = after.readInodeTable(group);
+		for (int i = 0; i < groupInodes; i++) {
+			int id = (group * groupInodes) + i + 1;
+			if(id > inodeCount) {
+				break;
+			}
+			int from = i * inodeSize;
+			if(sameBytes(tableA, tableB, from, inodeSize)) {
+				continue; // Identical, down to the access time
+			}
+			Inode a = new Inode(Arrays.copyOfRange(tableA, from, from + inodeSize));
+			Inode b = new Inode(Arrays.copyOfRange(tableB, from, from + inodeSize));
+			if(isLive(a) != isLive(b) || !sameAttributes(a, b) || !samePointers(a, b)) {
+				changed.put(id, new Inode[] {a, b});
+			}
+		}
+	}
+
+	// Compares the same range of two arrays without copying it out
+	private static boolean sameBytes(byte[] a, byte[] b, int from, int length) {
+		for (int i = from; i < from + length; i++) {
+			if(a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Compares the entries of a directory that changed, reporting what came and went
+	private void compareDirectory(int id) {
+		String path = pathOf(after, afterPaths, id);
+		Map<String, int[]> entriesA = entries(before, changed.get(id)[0]);
+		Map<String, int[]> entriesB = entries(after, changed.get(id)[1]);
+
+		for (Map.Entry<String, int[]> entry : entriesB.entrySet()) {
+			int[] old = entriesA.get(entry.getKey());
+			int[] now = entry.getValue();
+			String child = path + "/" + entry.getKey();
+			if(old != null && old[0] == now[0]) {
+				if(changed.containsKey(now[0]) && !isDirectory(now)) {
+					candidates.put(child, now[0]); // Same file, changed in place
+				}
+			} else if(old != null && !isDirectory(old) && !isDirectory(now)) {
+				modified.add(child); // Replaced by a different file
+				moved.add(old[0]);
+				moved.add(now[0]);
+			} else {
+				if(old != null) {
+					removeTree(child, old);
+				}
+				addTree(child, now);
+			}
+		}
+		for (Map.Entry<String, int[]> entry : entriesA.entrySet()) {
+			if(!entriesB.containsKey(entry.getKey())) {
+				removeTree(path + "/" + entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private void addTree(String path, int[] entry) {
+		added.add(path);
+		moved.add(entry[0]);
+		if(isDirectory(entry)) {
+			walkTree(after, entry[0], path, new TreeVisitor() {
+				public boolean visit(String name, int inodePtr, boolean directory) {
+					added.add(name);
+					moved.add(inodePtr);
+					return true;
+				}
+			});
+		}
+	}
+
+	private void removeTree(String path, int[] entry) {
+		removed.add(path);
+		moved.add(entry[0]);
+		if(isDirectory(entry)) {
+			walkTree(before, entry[0], path, new TreeVisitor() {
+				public boolean visit(String name, int inodePtr, boolean directory) {
+					removed.add(name);
+					moved.add(inodePtr);
+					return true;
+				}
+			});
+		}
+	}
+
+	// Files changed in place under a directory that didn't change have to be found by walking the tree, until every link is accounted for
+	private void locateInPlaceChanges() {
+		final Map<Integer, Integer> remaining = new HashMap<Integer, Integer>();
+		for (Map.Entry<Integer, Inode[]> entry : changed.entrySet()) {
+			Inode a = entry.getValue()[0];
+			Inode b = entry.getValue()[1];
+			if(isLive(a) && isLive(b) && !b.isDirectory() && !moved.contains(entry.getKey())) {
+				remaining.put(entry.getKey(), b.getHardLinks() & 0xFFFF);
+			}
+		}
+		for (int id : candidates.values()) {
+			if(remaining.containsKey(id)) {
+				remaining.put(id, remaining.get(id) - 1);
+			}
+		}
+		remaining.values().removeIf(links -> links <= 0);
+		if(remaining.isEmpty()) {
+			return;
+		}
+		final Set<String> known = new HashSet<String>(candidates.keySet());
+		after.walkTree("/", new TreeVisitor() {
+			public boolean visit(String name, int inodePtr, boolean directory) {
+				Integer links = remaining.get(inodePtr);
+				if(links != null && !known.contains(name)) {
+					candidates.put(name, inodePtr);
+					if(links <= 1) {
+						remaining.remove(inodePtr);
+					} else {
+						remaining.put(inodePtr, links - 1);
+					}
+				}
+				return !remaining.isEmpty(); // Stop descending once everything has been found
+			}
+		});
+	}
+
+	// A file is modified if its attributes changed, or its content did where the block pointers differ
+	private boolean isModified(Inode a, Inode b) {
+		if(!sameAttributes(a, b)) {
+			return true;
+		}
+		int[] blocksA = blockMap(before, a);
+		int[] blocksB = blockMap(after, b);
+		for (int i = 0; i < blocksA.length; i++) {
+			if(blocksA[i] == blocksB[i]) {
+				continue; // Same pointer, same content
+			}
+			byte[] dataA = blocksA[i] == 0 ? new byte[(int) before.getBlockSize()] : before.readBlock(0xFFFFFFFFL & blocksA[i]);
+			byte[] dataB = blocksB[i] == 0 ? new byte[(int) after.getBlockSize()] : after.readBlock(0xFFFFFFFFL & blocksB[i]);
+			if(!Arrays.equals(dataA, dataB)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// The physical block behind every logical block of a file, 0 for holes
+	private int[] blockMap(Volume vol, Inode inode) {
+		final int[] map = new int[(int) ((inode.getFileSize() + vol.getBlockSize() - 1) / vol.getBlockSize())];
+		vol.walkBlocks(inode, (logical, physical) -> map[(int) logical] = physical);
+		return map;
+	}
+
+	// Works out the path of a directory by following ".." entries up to the root
+	private String pathOf(Volume vol, Map<Integer, String> paths, final int id) {
+		String path = paths.get(id);
+		if(path != null) {
+			return path;
+		}
+		final int[] parent = {ROOT_INODE_PTR};
+		new Directory(vol.getInode(id), vol).forEachEntry((DirectoryEntryView entry) -> {
+			if(entry.nameEquals("..")) {
+				parent[0] = entry.getInodePtr();
+				return false;
+			}
+			return true;
+		});
+		final String[] name = {"?" + id};
+		new Directory(vol.getInode(parent[0]), vol).forEachEntry((DirectoryEntryView entry) -> {
+			if(entry.getInodePtr() == id && !entry.nameEquals(".") && !entry.nameEquals("..")) {
+				name[0] = entry.getName();
+				return false;
+			}
+			return true;
+		});
+		path = pathOf(vol, paths, parent[0]) + "/" + name[0];
+		paths.put(id, path);
+		return path;
+	}
+
+	// The entries of a directory by name, as {inode, file type}
+	private Map<String, int[]> entries(final Volume vol, Inode inode) {
+		final Map<String, int[]> entries = new HashMap<String, int[]>();
+		new Directory(inode, vol).forEachEntry((inodePtr, type, name) -> {
+			if(!name.equals(".") && !name.equals("..")) {
+				if(type == 0) { // The entry doesn't say, so the inode has to be read
+					type = vol.getInode(inodePtr).isDirectory() ? Directory.TYPE_DIRECTORY : -1;
+				}
+				entries.put(name, new int[] {inodePtr, type});
+			}
+			return true;
+		});
+		return entries;
+	}
+
+	// Walks the tree below a directory, given by inode since it may not exist at that path in the other volume
+	private void walkTree(final Volume vol, int id, final String path, final TreeVisitor visitor) {
+		Map<String, int[]> children = entries(vol, vol.getInode(id));
+		for (Map.Entry<String, int[]> child : children.entrySet()) {
+			String name = path + "/" + child.getKey();
+			if(visitor.visit(name, child.getValue()[0], isDirectory(child.getValue())) && isDirectory(child.getValue())) {
+				walkTree(vol, child.getValue()[0], name, visitor);
+			}
+		}
+	}
+
+	private static boolean isDirectory(int[] entry) {
+		return entry[1] == Directory.TYPE_DIRECTORY;
+	}
+
+	private static boolean isLive(Inode inode) {
+		return inode.getHardLinks() != 0 && inode.getModeBits() != 0;
+	}
+
+	private static boolean sameAttributes(Inode a, Inode b) {
+		return a.getModeBits() == b.getModeBits() && a.getUserID() == b.getUserID() && a.getGroupID() == b.getGroupID()
+			&& a.getFileSize() == b.getFileSize() && a.getLastModified().equals(b.getLastModified());
+	}
+
+	// Extent trees below the root can change without the root changing, so those files are always checked block by block
+	private static boolean samePointers(Inode a, Inode b) {
+		if(a.isExtentMapped() || b.isExtentMapped()) {
+			return a.isExtentMapped() && b.isExtentMapped() && Arrays.equals(a.getExtentRoot(), b.getExtentRoot())
+				&& a.getExtentRoot()[6] == 0 && a.getExtentRoot()[7] == 0; // A depth of 0, so the root holds every extent
+		}
+		return Arrays.equals(a.getBlockPointers(), b.getBlockPointers()) && a.getIndirectPointer() == b.getIndirectPointer()
+			&& a.getDoubleIndirectPointer() == b.getDoubleIndirectPointer() && a.getTripleIndirectPointer() == b.getTripleIndirectPointer();
+	}
+
+	private static List<String> sorted(Set<String> paths) {
+		List<String> list = new ArrayList<String>(paths);
+		Collections.sort(list);
+		return list;
+	}
+}
@@ -0,0 +1,218 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Oliver Griffiths
+ * Looks after many volumes at once without each holding its own file handle and cache.
+ * A volume isn't opened until it's first asked for, its image is closed again once it's been idle for a while
+ * or too many images are open, and every volume reads through pages kept in one cache with a single memory budget.
+ * The budget is shared out by how much each volume has been used lately, so busy volumes keep more pages than quiet ones.
+ *
+ * Volumes from a manager are read only, as their bytes come through the shared cache.
+ */
+public class VolumeManager {
+	private final int PAGE_SIZE = 16 * 1024;
+	private final int maxOpen;
+	private final long idleMillis;
+	private final SharedCache cache;
+	private final Map<String, Managed> volumes = new ConcurrentHashMap<String, Managed>();
+	private final AtomicInteger openHandles = new AtomicInteger();
+	private final ScheduledExecutorService reaper;
+
+	// A volume and the storage it reads through
+	private static class Managed {
+		private final ManagedStorage storage;
+		private Volume volume;
+
+		private Managed(ManagedStorage storage) {
+			this.storage = storage;
+		}
+	}
+
+	/**
+	 * Creates a new VolumeManager keeping at most 64 images open and closing images idle for a minute
+	 * @param cacheBytes The most bytes to cache across every volume
+	 */
+	public VolumeManager(long cacheBytes) {
+		this(cacheBytes, 64, 60000);
+	}
+
+	/**
+	 * Creates a new VolumeManager
+	 * @param cacheBytes The most bytes to cache across every volume
+	 * @param maxOpenHandles The most images to keep open at once
+	 * @param idleMillis How long in milliseconds an image may go unread before it's closed, or 0 to only close images when asked to
+	 */
+	public VolumeManager(long cacheBytes, int maxOpenHandles, long idleMillis) {
+		if(maxOpenHandles < 1) {
+			throw new IllegalArgumentException("At least one image must be allowed open");
+		}
+		cache = new SharedCache(cacheBytes, PAGE_SIZE);
+		maxOpen = maxOpenHandles;
+		this.idleMillis = idleMillis;
+		if(idleMillis > 0) {
+			reaper = Executors.newSingleThreadScheduledExecutor(task -> {
+				Thread thread = new Thread(task, "VolumeManager idle closer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(100, idleMillis / 2);
+			reaper.scheduleWithFixedDelay(this::closeIdle, period, period, TimeUnit.MILLISECONDS);
+		} else {
+			reaper = null;
+		}
+	}
+
+	/**
+	 * Returns the volume for an image, opening it if it's the first time it's been asked for
+	 * @param filename The path of the image, raw or compressed
+	 * @return The volume
+	 */
+	public Volume get(String filename) {
+		Managed managed = volumes.computeIfAbsent(filename, name -> new Managed(new ManagedStorage(this, name, cache, PAGE_SIZE)));
+		synchronized(managed) {
+			if(managed.volume == null) {
+				managed.volume = new Volume(filename, managed.storage); // Reads the SuperBlock, so this is where the image is first opened
+			}
+			return managed.volume;
+		}
+	}
+
+	/**
+	 * Stops looking after a volume, closing its image and dropping its pages from the cache
+	 * @param filename The path of the image
+	 * @throws IOException If the image can't be closed
+	 */
+	public void remove(String filename) throws IOException {
+		Managed managed = volumes.remove(filename);
+		if(managed != null) {
+			managed.storage.dispose();
+		}
+	}
+
+	/**
+	 * Closes every image that hasn't been read for the idle time given to the manager.
+	 * Their volumes stay usable and open their images again when next read.
+	 * @return The amount of images closed
+	 */
+	public int closeIdle() {
+		return closeUnusedSince(System.nanoTime() - (idleMillis * 1000000));
+	}
+
+	/**
+	 * Returns a snapshot of how a volume has used its image and the cache
+	 * @param filename The path of the image
+	 * @return Usage of the volume, or null if the manager isn't looking after it
+	 */
+	public VolumeUsage getUsage(String filename) {
+		Managed managed = volumes.get(filename);
+		return managed == null ? null : managed.storage.getUsage();
+	}
+
+	/**
+	 * Returns a snapshot of every volume's usage, most read first
+	 * @return Usage of every volume
+	 */
+	public List<VolumeUsage> getUsage() {
+		List<VolumeUsage> usage = new ArrayList<VolumeUsage>();
+		for (Managed managed : volumes.values()) {
+			usage.add(managed.storage.getUsage());
+		}
+		Collections.sort(usage, (a, b) -> Long.compare(b.getBytesRead(), a.getBytesRead()));
+		return usage;
+	}
+
+	/**
+	 * Returns the amount of bytes cached across every volume
+	 * @return Cached bytes
+	 */
+	public long getCachedBytes() {
+		return cache.getUsed();
+	}
+
+	/**
+	 * Returns the amount of images open right now
+	 * @return Open handle count
+	 */
+	public int getOpenHandles() {
+		return openHandles.get();
+	}
+
+	/**
+	 * Closes every image and drops every volume, stopping the idle closer
+	 * @throws IOException If an image can't be closed
+	 */
+	public void close() throws IOException {
+		if(reaper != null) {
+			reaper.shutdownNow();
+		}
+		IOException failure = null;
+		for (String filename : new ArrayList<String>(volumes.keySet())) {
+			try {
+				remove(filename);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if(failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Called by a volume's storage once it has opened its image, so the oldest idle images
+	 * can be closed to stay within the limit
+	 * @param opened The storage that opened its image
+	 */
+	void opened(ManagedStorage opened) {
+		if(openHandles.incrementAndGet() <= maxOpen) {
+			return;
+		}
+		List<ManagedStorage> idle = new ArrayList<ManagedStorage>();
+		for (Managed managed : volumes.values()) {
+			if(managed.storage != opened && managed.storage.isOpen()) {
+				idle.add(managed.storage);
+			}
+		}
+		Collections.sort(idle, (a, b) -> Long.compare(a.getLastUsed() - b.getLastUsed(), 0));
+		for (ManagedStorage storage : idle) {
+			if(openHandles.get() <= maxOpen) {
+				break;
+			}
+			try {
+				storage.closeIfIdle(System.nanoTime()); // Skipped if a read is using it
+			} catch (IOException e) {
+				System.out.println("IO Exception: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Called by a volume's storage once it has closed its image
+	 */
+	void closed() {
+		openHandles.decrementAndGet();
+	}
+
+	private int closeUnusedSince(long before) {
+		int closed = 0;
+		for (Managed managed : volumes.values()) {
+			try {
+				if(managed.storage.closeIfIdle(before)) {
+					closed++;
+				}
+			} catch (IOException e) {
+				System.out.println("IO Exception: " + e.getMessage());
+			}
+		}
+		return closed;
+	}
+}
@@ -0,0 +1,203 @@
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * @author Oliver Griffiths
+ * Counts what a volume does: reads from its storage, inode and descriptor loads, directory parses, path
+ * resolutions, block mapping and the pointer tables it reads at each level, and hits and misses in the caches
+ * under it. Counters are striped and latencies go into LatencyHistograms, so it's cheap enough to leave on.
+ * Read it with getSnapshot(), or register it with JMX to watch it from outside.
+ */
+public class VolumeMetrics implements VolumeMetricsMXBean {
+	public static final int STORAGE_READ = 0;
+	public static final int INODE_LOAD = 1;
+	public static final int DESCRIPTOR_LOAD = 2;
+	public static final int DIRECTORY_PARSE = 3;
+	public static final int PATH_RESOLUTION = 4;
+	public static final int BLOCK_MAP = 5;
+	private static final int OPERATIONS = 6;
+
+	public static final int CACHE_INDEX = 0; // The sidecar MetadataIndex
+	public static final int CACHE_PAGES = 1; // Pages a VolumeManager keeps
+	public static final int CACHE_CHUNKS = 2; // Chunks a compressed image keeps inflated
+	private static final int CACHES = 3;
+
+	private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS];
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder directoryEntries = new LongAdder();
+	private final LongAdder[] indirectReads = new LongAdder[3];
+	private final LongAdder[] cacheHits = new LongAdder[CACHES];
+	private final LongAdder[] cacheMisses = new LongAdder[CACHES];
+	private ObjectName registered;
+
+	/**
+	 * Creates a new VolumeMetrics with everything at zero
+	 */
+	public VolumeMetrics() {
+		for (int i = 0; i < OPERATIONS; i++) {
+			latencies[i] = new LatencyHistogram();
+		}
+		for (int i = 0; i < 3; i++) {
+			indirectReads[i] = new LongAdder();
+		}
+		for (int i = 0; i < CACHES; i++) {
+			cacheHits[i] = new LongAdder();
+			cacheMisses[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Counts an operation that has just finished
+	 * @param operation One of the operation constants
+	 * @param startNanos System.nanoTime() from when it started
+	 */
+	void record(int operation, long startNanos) {
+		latencies[operation].record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Counts a read from the storage that has just finished
+	 * @param length The bytes read
+	 * @param startNanos System.nanoTime() from when it started
+	 */
+	void recordRead(int length, long startNanos) {
+		latencies[STORAGE_READ].record(System.nanoTime() - startNanos);
+		bytesRead.add(length);
+	}
+
+	/**
+	 * Counts the entries found by a directory parse
+	 * @param count Entry count
+	 */
+	void directoryEntries(int count) {
+		directoryEntries.add(count);
+	}
+
+	/**
+	 * Counts a pointer table read
+	 * @param level 1 for a table of data blocks, up to 3 for the table a treble indirect pointer leads to.
+	 * Extent tree nodes count by their height above the data, the deepest trees counted with level 3.
+	 */
+	void indirectRead(int level) {
+		indirectReads[Math.min(level, 3) - 1].increment();
+	}
+
+	/**
+	 * Counts something found in a cache
+	 * @param cache One of the cache constants
+	 */
+	void cacheHit(int cache) {
+		cacheHits[cache].increment();
+	}
+
+	/**
+	 * Counts something that had to be fetched because a cache didn't have it
+	 * @param cache One of the cache constants
+	 */
+	void cacheMiss(int cache) {
+		cacheMisses[cache].increment();
+	}
+
+	@Override
+	public MetricsSnapshot getSnapshot() {
+		LatencySummary[] summaries = new LatencySummary[OPERATIONS];
+		for (int i = 0; i < OPERATIONS; i++) {
+			summaries[i] = latencies[i].summary();
+		}
+		return new MetricsSnapshot(new Date(), summaries, bytesRead.sum(), directoryEntries.sum(), sums(indirectReads),
+			sums(cacheHits), sums(cacheMisses));
+	}
+
+	@Override
+	public long getStorageReads() {
+		return latencies[STORAGE_READ].summary().getCount();
+	}
+
+	@Override
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	@Override
+	public long getInodeLoads() {
+		return latencies[INODE_LOAD].summary().getCount();
+	}
+
+	@Override
+	public long getDirectoryParses() {
+		return latencies[DIRECTORY_PARSE].summary().getCount();
+	}
+
+	@Override
+	public long getPathResolutions() {
+		return latencies[PATH_RESOLUTION].summary().getCount();
+	}
+
+	@Override
+	public long getIndirectReads() {
+		long total = 0;
+		for (long reads : sums(indirectReads)) {
+			total += reads;
+		}
+		return total;
+	}
+
+	/**
+	 * Sets every metric back to zero. Operations finishing while it runs may or may not be kept.
+	 */
+	@Override
+	public void reset() {
+		for (LatencyHistogram latency : latencies) {
+			latency.reset();
+		}
+		bytesRead.reset();
+		directoryEntries.reset();
+		for (int i = 0; i < 3; i++) {
+			indirectReads[i].reset();
+		}
+		for (int i = 0; i < CACHES; i++) {
+			cacheHits[i].reset();
+			cacheMisses[i].reset();
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server, as ext2fs:type=Volume,name="..."
+	 * @param name The name to register under, usually the volume's file name
+	 * @return The name the metrics were registered as
+	 * @throws JMException If the name is taken or the metrics can't be registered
+	 */
+	public synchronized ObjectName register(String name) throws JMException {
+		unregister();
+		ObjectName objectName = new ObjectName("ext2fs:type=Volume,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		registered = objectName;
+		return objectName;
+	}
+
+	/**
+	 * Takes the metrics off the platform MBean server, if they were registered
+	 * @throws JMException If they can't be unregistered
+	 */
+	public synchronized void unregister() throws JMException {
+		if(registered != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(registered)) {
+				server.unregisterMBean(registered);
+			}
+			registered = null;
+		}
+	}
+
+	private static long[] sums(LongAdder[] adders) {
+		long[] sums = new long[adders.length];
+		for (int i = 0; i < adders.length; i++) {
+			sums[i] = adders[i].sum();
+		}
+		return sums;
+	}
+}
@@ -0,0 +1,53 @@
+/**
+ * @author Oliver Griffiths
+ * The management interface of a volume's metrics, as seen through JMX. The snapshot turns up as composite data;
+ * the plain counts are there so monitoring tools can graph them without unpacking it.
+ */
+public interface VolumeMetricsMXBean {
+	/**
+	 * Returns the metrics as they are now
+	 * @return Snapshot of the metrics
+	 */
+	MetricsSnapshot getSnapshot();
+
+	/**
+	 * Returns the amount of reads from the volume's storage
+	 * @return Storage read count
+	 */
+	long getStorageReads();
+
+	/**
+	 * Returns the bytes read from the volume's storage
+	 * @return Bytes read
+	 */
+	long getBytesRead();
+
+	/**
+	 * Returns the amount of inodes loaded
+	 * @return Inode load count
+	 */
+	long getInodeLoads();
+
+	/**
+	 * Returns the amount of directories read through
+	 * @return Directory parse count
+	 */
+	long getDirectoryParses();
+
+	/**
+	 * Returns the amount of paths resolved
+	 * @return Path resolution count
+	 */
+	long getPathResolutions();
+
+	/**
+	 * Returns the amount of pointer tables read, at every level
+	 * @return Indirect table read count
+	 */
+	long getIndirectReads();
+
+	/**
+	 * Sets every metric back to zero
+	 */
+	void reset();
+}
@@ -0,0 +1,139 @@
+/**
+ * @author Oliver Griffiths
+ * A snapshot of how one volume looked after by a VolumeManager has used its image and the shared cache.
+ */
+public class VolumeUsage {
+	private String filename;
+	private long reads;
+	private long bytesRead;
+	private long hits;
+	private long misses;
+	private long cachedBytes;
+	private long share;
+	private long opens;
+	private boolean open;
+	private long lastUsed;
+
+	/**
+	 * Creates a new VolumeUsage
+	 * @param name The path of the volume's image
+	 * @param readCount The amount of reads made on the volume
+	 * @param byteCount The amount of bytes read from the volume
+	 * @param hitCount The amount of page lookups answered from the cache
+	 * @param missCount The amount of page lookups that had to read the image
+	 * @param cached The amount of bytes the volume has in the cache
+	 * @param fairShare The part of the cache budget the volume's recent use entitles it to
+	 * @param openCount The amount of times the image has been opened
+	 * @param isOpen Whether the image is open now
+	 * @param used The time in milliseconds the volume was last read
+	 */
+	public VolumeUsage(String name, long readCount, long byteCount, long hitCount, long missCount,
+			long cached, long fairShare, long openCount, boolean isOpen, long used) {
+		filename = name;
+		reads = readCount;
+		bytesRead = byteCount;
+		hits = hitCount;
+		misses = missCount;
+		cachedBytes = cached;
+		share = fairShare;
+		opens = openCount;
+		open = isOpen;
+		lastUsed = used;
+	}
+
+	/**
+	 * Returns the path of the volume's image
+	 * @return File name
+	 */
+	public String getFilename() {
+		return filename;
+	}
+
+	/**
+	 * Returns the amount of reads made on the volume
+	 * @return Read count
+	 */
+	public long getReads() {
+		return reads;
+	}
+
+	/**
+	 * Returns the amount of bytes read from the volume, whether from the cache or the image
+	 * @return Bytes read
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Returns the amount of page lookups answered from the cache
+	 * @return Hit count
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the amount of page lookups that had to read the image
+	 * @return Miss count
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the part of page lookups answered from the cache
+	 * @return Hit rate between 0 and 1, or 0 if nothing has been looked up
+	 */
+	public double getHitRate() {
+		long lookups = hits + misses;
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	/**
+	 * Returns the amount of bytes the volume has in the shared cache
+	 * @return Cached bytes
+	 */
+	public long getCachedBytes() {
+		return cachedBytes;
+	}
+
+	/**
+	 * Returns the part of the cache budget the volume's recent use entitles it to.
+	 * Volumes holding more than this are the first to lose pages.
+	 * @return Fair share in bytes
+	 */
+	public long getShare() {
+		return share;
+	}
+
+	/**
+	 * Returns the amount of times the image has been opened, counting reopening after being closed while idle
+	 * @return Open count
+	 */
+	public long getOpens() {
+		return opens;
+	}
+
+	/**
+	 * Returns whether the image has an open handle
+	 * @return True if open
+	 */
+	public boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * Returns when the volume was last read
+	 * @return Time in milliseconds
+	 */
+	public long getLastUsed() {
+		return lastUsed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d reads, %d bytes, %.1f%% hits, %d cached of %d share, %s, opened %d times",
+				filename, reads, bytesRead, getHitRate() * 100, cachedBytes, share, open ? "open" : "closed", opens);
+	}
+}
@@ -0,0 +1,586 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Oliver Griffiths
+ * Makes the changes behind Volume's write methods: creating inodes, growing and shrinking block maps
+ * and adding directory entries. Inodes, directory blocks and file data are written as they change, while
+ * blocks and inodes are handed out by an Allocator, whose bitmaps and counts only reach the volume on flush().
+ *
+ * Data is written a contiguous run at a time, and each indirect table is allocated just ahead of the blocks
+ * it points to, the way ext2 itself lays files out, so a file can be read back in one sequential sweep.
+ *
+ * Only plain ext2 volumes are written to: Volume refuses any incompatible feature but file types in directory entries,
+ * and any read-only compatible feature but sparse SuperBlocks and large files. Group descriptor and metadata checksums,
+ * and the uninitialised group flags that come with them, aren't maintained, so those volumes would be left unreadable.
+ */
+class VolumeWriter {
+	private final Volume vol;
+	private final Allocator allocator;
+	private final int blockSize;
+	private final int inodeSize;
+	private final int groupInodes;
+	private final long pointers; // Pointers in each indirect table
+	private final boolean fileTypes;
+	private final Map<Integer, DirectoryCache> directories = new HashMap<Integer, DirectoryCache>();
+	private boolean largeFile = false;
+	private int lastInodePtr = -1;
+	private byte[] lastInode;
+
+	private final int MODE_FILE = 0x81A4; // Regular file, rw-r--r--
+	private final int MODE_DIRECTORY = 0x41ED; // Directory, rwxr-xr-x
+	private final int INDEX_FLAG = 0x1000; // The directory has a hash tree, which new entries would leave out of date
+	private final int EXTRA_INODE_SIZE = 32; // What mke2fs gives inodes larger than 128 bytes
+
+	/**
+	 * Creates a new VolumeWriter
+	 * @param v The volume to write to
+	 */
+	VolumeWriter(Volume v) {
+		vol = v;
+		allocator = new Allocator(v);
+		SuperBlock superBlock = v.getSuperBlock();
+		blockSize = (int) v.getBlockSize();
+		inodeSize = superBlock.getInodeSize();
+		groupInodes = superBlock.getGroupInodes();
+		pointers = blockSize / 4;
+		fileTypes = (superBlock.getIncompatFeatures() & SuperBlock.INCOMPAT_FILETYPE) != 0;
+	}
+
+	/**
+	 * Creates an empty regular file
+	 * @param parent The inode of the directory to create it in
+	 * @param name The name of the file
+	 * @return The inode of the new file
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	int createFile(int parent, String name) throws IOException {
+		DirectoryCache dir = directory(parent);
+		checkName(dir, name);
+		int id = allocator.allocateInode(allocator.groupOfInode(parent), false);
+		writeInode(id, newInode(MODE_FILE, 1));
+		addEntry(parent, dir, name, id, Directory.TYPE_REGULAR_FILE, 0);
+		return id;
+	}
+
+	/**
+	 * Creates an empty directory, holding just its "." and ".." entries
+	 * @param parent The inode of the directory to create it in
+	 * @param name The name of the directory
+	 * @return The inode of the new directory
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	int createDirectory(int parent, String name) throws IOException {
+		DirectoryCache dir = directory(parent);
+		checkName(dir, name);
+		int id = allocator.allocateInode(allocator.groupOfInode(parent), true);
+		long block = allocator.allocate(allocator.newFileGoal(allocator.groupOfInode(id)), 1)[0];
+
+		byte[] entries = new byte[blockSize];
+		int type = fileTypes ? Directory.TYPE_DIRECTORY : 0;
+		putEntry(entries, 0, 12, id, new byte[] {'.'}, type);
+		putEntry(entries, 12, blockSize - 12, parent, new byte[] {'.', '.'}, type);
+		vol.writeBlock(block, entries);
+
+		byte[] raw = newInode(MODE_DIRECTORY, 2);
+		InodeView inode = new InodeView().wrap(raw, 0);
+		inode.setBlockPointer(0, (int) block);
+		inode.setFileSize(blockSize);
+		inode.setSectors(blockSize / 512);
+		writeInode(id, raw);
+		addEntry(parent, dir, name, id, Directory.TYPE_DIRECTORY, 1); // The new ".." links back to the parent
+		return id;
+	}
+
+	/**
+	 * Adds another name for an existing file
+	 * @param target The inode of the file
+	 * @param parent The inode of the directory to add the name to
+	 * @param name The new name
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	void link(int target, int parent, String name) throws IOException {
+		DirectoryCache dir = directory(parent);
+		checkName(dir, name);
+		byte[] raw = readInode(target);
+		InodeView inode = new InodeView().wrap(raw, 0);
+		if(inode.getModeBits() == 0 || inode.isDirectory()) {
+			throw new IllegalArgumentException("Can only link to files, not inode " + target);
+		}
+		inode.setHardLinks((inode.getHardLinks() & 0xFFFF) + 1);
+		writeInode(target, raw);
+		addEntry(parent, dir, name, target, entryType(inode.getModeBits()), 0);
+	}
+
+	/**
+	 * Adds bytes to the end of a regular file
+	 * @param id The inode of the file
+	 * @param bytes The bytes to add
+	 * @param offset The first byte to add from the array
+	 * @param length The amount of bytes to add
+	 * @throws IOException If the volume can't be written or is full
+	 */
+	void append(int id, byte[] bytes, int offset, int length) throws IOException {
+		byte[] raw = readInode(id);
+		InodeView inode = regularFile(id, raw);
+		BlockMap map = new BlockMap(inode);
+		long size = inode.getFileSize();
+		int done = 0;
+
+		int within = (int) (size % blockSize);
+		if(within != 0 && length > 0) { // Fill up the last block before starting new ones
+			done = Math.min(length, blockSize - within);
+			long physical = map.get(size / blockSize);
+			if(physical != 0) {
+				vol.writeBytes((physical * blockSize) + within, bytes, offset, done);
+			} else { // The file ends in a hole
+				byte[] block = new byte[blockSize];
+				System.arraycopy(bytes, offset, block, within, done);
+				long[] run = map.allocateRun(size / blockSize, goal(map, id, size / blockSize), 1);
+				vol.writeBlock(run[0], block);
+			}
+		}
+
+		long logical = (size + done) / blockSize;
+		long goal = goal(map, id, logical);
+		while(done < length) {
+			int blocks = (int) Math.min((length - done + blockSize - 1) / blockSize, map.runLimit(logical));
+			long[] run = map.allocateRun(logical, goal, blocks);
+			int written = (int) Math.min(run[1] * blockSize, length - done);
+			vol.writeBytes(run[0] * blockSize, bytes, offset + done, written);
+			int tail = (int) (run[1] * blockSize) - written;
+			if(tail > 0) { // Don't leave old data after the end of the file
+				vol.writeBytes((run[0] * blockSize) + written, new byte[tail], 0, tail);
+			}
+			done += written;
+			logical += run[1];
+			goal = run[0] + run[1];
+		}
+
+		map.writeTables();
+		inode.setFileSize(size + length);
+		inode.setLastModifiedSeconds(now());
+		largeFile |= size + length > Integer.MAX_VALUE;
+		writeInode(id, raw);
+	}
+
+	/**
+	 * Cuts a regular file down to a size, freeing the blocks past it, or makes it longer with a hole
+	 * @param id The inode of the file
+	 * @param size The new size of the file
+	 * @throws IOException If the volume can't be written
+	 */
+	void truncate(int id, long size) throws IOException {
+		byte[] raw = readInode(id);
+		InodeView inode = regularFile(id, raw);
+		BlockMap map = new BlockMap(inode);
+		long oldSize = inode.getFileSize();
+		long freed = 0;
+		if(size < oldSize) {
+			long keep = (size + blockSize - 1) / blockSize;
+			for (int i = (int) Math.min(keep, 12); i < 12; i++) {
+				if(inode.getBlockPointer(i) != 0) {
+					freed += freeTree(0xFFFFFFFFL & inode.getBlockPointer(i), 0);
+					inode.setBlockPointer(i, 0);
+				}
+			}
+			long first = 12;
+			long covers = 1;
+			for (int level = 1; level <= 3; level++) {
+				covers *= pointers;
+				long table = 0xFFFFFFFFL & inode.getTablePointer(level);
+				if(table != 0 && first + covers > keep) {
+					if(first >= keep) {
+						freed += freeTree(table, level);
+						inode.setTablePointer(level, 0);
+					} else {
+						freed += trimTable(table, level, first, keep);
+					}
+				}
+				first += covers;
+			}
+			zeroTail(map, size);
+		} else if(size > oldSize) {
+			zeroTail(map, oldSize); // The rest of the old last block becomes part of the file
+		}
+		inode.setFileSize(size);
+		inode.setSectors(inode.getSectors() - (freed * (blockSize / 512)));
+		inode.setLastModifiedSeconds(now());
+		largeFile |= size > Integer.MAX_VALUE;
+		writeInode(id, raw);
+	}
+
+	/**
+	 * Writes the bitmaps, descriptor table and SuperBlock counts held back by the allocator
+	 * @throws IOException If the volume can't be written
+	 */
+	void flush() throws IOException {
+		allocator.flush(largeFile);
+		largeFile = false;
+	}
+
+	private InodeView regularFile(int id, byte[] raw) {
+		InodeView inode = new InodeView().wrap(raw, 0);
+		if(!inode.isRegularFile()) {
+			throw new IllegalArgumentException("Inode " + id + " isn't a regular file");
+		}
+		return inode;
+	}
+
+	// Where a file's next blocks should go: straight after its block before, or where its group's last allocation ended
+	private long goal(BlockMap map, int id, long logical) throws IOException {
+		long previous = logical > 0 ? map.get(logical - 1) : 0;
+		return previous != 0 ? previous + 1 : allocator.newFileGoal(allocator.groupOfInode(id));
+	}
+
+	// Frees a block, along with everything below it if it's a table, returning the amount of blocks freed
+	private long freeTree(long block, int level) {
+		long freed = 1;
+		if(level > 0) {
+			byte[] table = vol.readBlock(block);
+			for (int i = 0; i < pointers; i++) {
+				int entry = Converter.bytesToInt(table, i * 4, (i * 4) + 4);
+				if(entry != 0) {
+					freed += freeTree(0xFFFFFFFFL & entry, level - 1);
+				}
+			}
+		}
+		allocator.free(block);
+		return freed;
+	}
+
+	// Frees the part of a table covering blocks from keep on, for a table that also covers blocks before keep
+	private long trimTable(long block, int level, long first, long keep) throws IOException {
+		byte[] table = vol.readBlock(block);
+		long span = 1; // Blocks covered by each entry
+		for (int i = 1; i < level; i++) {
+			span *= pointers;
+		}
+		long freed = 0;
+		boolean changed = false;
+		for (int i = 0; i < pointers; i++) {
+			long start = first + (i * span);
+			int entry = Converter.bytesToInt(table, i * 4, (i * 4) + 4);
+			if(entry == 0 || start + span <= keep) {
+				continue;
+			}
+			if(start >= keep) {
+				freed += freeTree(0xFFFFFFFFL & entry, level - 1);
+				Converter.intToBytes(0, table, i * 4);
+				changed = true;
+			} else {
+				freed += trimTable(0xFFFFFFFFL & entry, level - 1, start, keep);
+			}
+		}
+		if(changed) {
+			vol.writeBlock(block, table);
+		}
+		return freed;
+	}
+
+	// Zeroes the end of the block holding a byte of a file, from that byte on
+	private void zeroTail(BlockMap map, long at) throws IOException {
+		int within = (int) (at % blockSize);
+		if(within != 0) {
+			long physical = map.get(at / blockSize);
+			if(physical != 0) {
+				vol.writeBytes((physical * blockSize) + within, new byte[blockSize - within], 0, blockSize - within);
+			}
+		}
+	}
+
+	// Adds an entry to a directory, in the first block with room for it, adding a block if none has
+	private void addEntry(int parent, DirectoryCache dir, String name, int child, int type, int linkChange) throws IOException {
+		byte[] nameBytes = name.getBytes(StandardCharsets.ISO_8859_1);
+		int entryType = fileTypes ? type : 0;
+		boolean placed = false;
+		for (; dir.hint < dir.blocks.size(); dir.hint++) { // Blocks before the hint are already known to be full
+			long block = dir.blocks.get(dir.hint);
+			byte[] entries = dir.block != null ? dir.block : vol.readBlock(block);
+			if(insertEntry(entries, child, nameBytes, entryType)) {
+				vol.writeBlock(block, entries);
+				dir.block = entries;
+				placed = true;
+				break;
+			}
+			dir.block = null;
+		}
+
+		byte[] raw = dir.inode;
+		InodeView inode = new InodeView().wrap(raw, 0);
+		boolean changed = !placed || linkChange != 0 || (inode.getFlags() & INDEX_FLAG) != 0 || inode.getLastModifiedSeconds() != now();
+		if(!placed) {
+			BlockMap map = new BlockMap(inode);
+			long logical = (inode.getFileSize() + blockSize - 1) / blockSize;
+			long goal = dir.blocks.isEmpty() ? allocator.newFileGoal(allocator.groupOfInode(parent)) : dir.blocks.get(dir.blocks.size() - 1) + 1;
+			long[] run = map.allocateRun(logical, goal, 1);
+			byte[] entries = new byte[blockSize];
+			putEntry(entries, 0, blockSize, child, nameBytes, entryType);
+			vol.writeBlock(run[0], entries);
+			map.writeTables();
+			inode.setFileSize((logical + 1) * blockSize);
+			dir.blocks.add(run[0]);
+			dir.block = entries;
+		}
+		dir.names.add(name);
+
+		if(changed) { // Adding many files in the same second leaves the directory's inode alone after the first
+			inode.setFlags(inode.getFlags() & ~INDEX_FLAG); // Without the flag the directory is read as a plain list
+			inode.setHardLinks((inode.getHardLinks() & 0xFFFF) + linkChange);
+			inode.setLastModifiedSeconds(now());
+			writeInode(parent, raw);
+		}
+	}
+
+	// Fits an entry into the spare space at the end of an existing entry, or into an unused one
+	private boolean insertEntry(byte[] entries, int child, byte[] name, int type) {
+		int needed = entryLength(name.length);
+		int at = 0;
+		while(at + 8 <= entries.length) {
+			int inodePtr = Converter.bytesToInt(entries, at, at + 4);
+			int length = Converter.bytesToShort(entries, at + 4, at + 6) & 0xFFFF;
+			if(length < 8 || at + length > entries.length) { // Corrupt, leave the block alone
+				return false;
+			}
+			int used = inodePtr == 0 ? 0 : entryLength(entries[at + 6] & 0xFF);
+			if(length - used >= needed) {
+				if(used > 0) {
+					Converter.shortToBytes(used, entries, at + 4);
+				}
+				putEntry(entries, at + used, length - used, child, name, type);
+				return true;
+			}
+			at += length;
+		}
+		return false;
+	}
+
+	private static void putEntry(byte[] entries, int at, int length, int child, byte[] name, int type) {
+		Converter.intToBytes(child, entries, at);
+		Converter.shortToBytes(length, entries, at + 4);
+		entries[at + 6] = (byte) name.length;
+		entries[at + 7] = (byte) type;
+		System.arraycopy(name, 0, entries, at + 8, name.length);
+	}
+
+	// Entries are padded to a multiple of 4 bytes
+	private static int entryLength(int nameLength) {
+		return (8 + nameLength + 3) & ~3;
+	}
+
+	// The directory entry file type matching an inode's filemode
+	private static int entryType(int modeBits) {
+		switch(modeBits & 0xF000) {
+			case 0x8000: return Directory.TYPE_REGULAR_FILE;
+			case 0x4000: return Directory.TYPE_DIRECTORY;
+			case 0x2000: return 3; // Character device
+			case 0x6000: return 4; // Block device
+			case 0x1000: return 5; // FIFO
+			case 0xC000: return 6; // Socket
+			case 0xA000: return 7; // Symbolic link
+			default: return 0;
+		}
+	}
+
+	private void checkName(DirectoryCache dir, String name) {
+		if(name.isEmpty() || name.length() > 255 || name.indexOf('/') >= 0 || name.equals(".") || name.equals("..")) {
+			throw new IllegalArgumentException("Invalid file name: '" + name + "'");
+		}
+		if(dir.names.contains(name)) {
+			throw new IllegalArgumentException("File already exists: " + name);
+		}
+	}
+
+	// The names and blocks of a directory, read once so adding many files doesn't read it over and over
+	private DirectoryCache directory(int id) {
+		DirectoryCache cached = directories.get(id);
+		if(cached != null) {
+			return cached;
+		}
+		byte[] raw = readInode(id);
+		InodeView inode = new InodeView().wrap(raw, 0);
+		if(!inode.isDirectory()) {
+			throw new IllegalArgumentException("Inode " + id + " isn't a directory");
+		}
+		final DirectoryCache dir = new DirectoryCache(raw);
+		vol.walkBlocks(inode, (logical, physical) -> {
+			dir.blocks.add(0xFFFFFFFFL & physical);
+			Directory.parseEntries(vol.readBlock(0xFFFFFFFFL & physical), (child, type, name) -> dir.names.add(name));
+		});
+		directories.put(id, dir);
+		return dir;
+	}
+
+	private byte[] newInode(int mode, int links) {
+		byte[] raw = new byte[inodeSize];
+		InodeView inode = new InodeView().wrap(raw, 0);
+		inode.setModeBits(mode);
+		inode.setHardLinks(links);
+		inode.setTimes(now());
+		if(inodeSize > 128) {
+			Converter.shortToBytes(Math.min(EXTRA_INODE_SIZE, inodeSize - 128), raw, 128);
+		}
+		return raw;
+	}
+
+	private long inodeLocation(int id) {
+		int group = (id - 1) / groupInodes;
+		return (allocator.getInodeTable(group) * blockSize) + ((long) ((id - 1) % groupInodes) * inodeSize);
+	}
+
+	private byte[] readInode(int id) {
+		if(id == lastInodePtr) { // Usually a file that was just created, about to be written to
+			return lastInode.clone();
+		}
+		long location = inodeLocation(id);
+		return vol.getBytes(location, location + inodeSize);
+	}
+
+	private void writeInode(int id, byte[] raw) throws IOException {
+		vol.writeBytes(inodeLocation(id), raw, 0, raw.length);
+		lastInodePtr = id;
+		lastInode = raw.clone();
+	}
+
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	// Only this class changes directories while it writes, so what it has read of them stays true
+	private class DirectoryCache {
+		private final byte[] inode;
+		private final Set<String> names = new HashSet<String>();
+		private final List<Long> blocks = new ArrayList<Long>();
+		private int hint = 0;
+		private byte[] block; // The contents of the block at the hint, once read
+
+		DirectoryCache(byte[] raw) {
+			inode = raw;
+		}
+	}
+
+	// Looks up and extends the block map of one inode, keeping the indirect tables it touches in memory
+	private class BlockMap {
+		private final InodeView inode;
+		private final Map<Long, byte[]> tables = new HashMap<Long, byte[]>();
+		private final Set<Long> changed = new LinkedHashSet<Long>();
+		private long added = 0; // Blocks allocated, tables included
+
+		BlockMap(InodeView i) {
+			inode = i;
+		}
+
+		// The physical block of a logical block, 0 for a hole
+		long get(long logical) throws IOException {
+			if(logical < 12) {
+				return 0xFFFFFFFFL & inode.getBlockPointer((int) logical);
+			}
+			int[] path = path(logical);
+			long block = 0xFFFFFFFFL & inode.getTablePointer(path[0]);
+			for (int i = 1; i <= path[0] && block != 0; i++) {
+				block = 0xFFFFFFFFL & Converter.bytesToInt(table(block), path[i] * 4, (path[i] * 4) + 4);
+			}
+			return block;
+		}
+
+		// How many blocks from a logical block on are mapped by the same table, so they can go in one run
+		long runLimit(long logical) {
+			return logical < 12 ? 12 - logical : pointers - ((logical - 12) % pointers);
+		}
+
+		// Allocates the tables a logical block needs, then a run of data blocks for it and the blocks after it
+		long[] allocateRun(long logical, long goal, int max) throws IOException {
+			if(logical >= 12) {
+				int[] path = path(logical);
+				long block = 0xFFFFFFFFL & inode.getTablePointer(path[0]);
+				if(block == 0) {
+					block = newTable(goal);
+					inode.setTablePointer(path[0], (int) block);
+					goal = block + 1;
+				}
+				for (int i = 1; i < path[0]; i++) {
+					byte[] table = table(block);
+					long child = 0xFFFFFFFFL & Converter.bytesToInt(table, path[i] * 4, (path[i] * 4) + 4);
+					if(child == 0) {
+						child = newTable(goal);
+						Converter.intToBytes((int) child, table, path[i] * 4);
+						changed.add(block);
+						goal = child + 1;
+					}
+					block = child;
+				}
+			}
+			long[] run = allocator.allocate(goal, max);
+			added += run[1];
+			for (int i = 0; i < run[1]; i++) {
+				set(logical + i, run[0] + i);
+			}
+			return run;
+		}
+
+		// Writes the changed tables and counts the new blocks in the inode's sectors
+		void writeTables() throws IOException {
+			for (long block : changed) {
+				vol.writeBlock(block, tables.get(block));
+			}
+			changed.clear();
+			inode.setSectors(inode.getSectors() + (added * (blockSize / 512)));
+			added = 0;
+		}
+
+		private void set(long logical, long physical) throws IOException {
+			if(logical < 12) {
+				inode.setBlockPointer((int) logical, (int) physical);
+				return;
+			}
+			int[] path = path(logical);
+			long block = 0xFFFFFFFFL & inode.getTablePointer(path[0]);
+			for (int i = 1; i < path[0]; i++) {
+				block = 0xFFFFFFFFL & Converter.bytesToInt(table(block), path[i] * 4, (path[i] * 4) + 4);
+			}
+			Converter.intToBytes((int) physical, table(block), path[path[0]] * 4);
+			changed.add(block);
+		}
+
+		private long newTable(long goal) throws IOException {
+			long block = allocator.allocate(goal, 1)[0];
+			tables.put(block, new byte[blockSize]);
+			changed.add(block);
+			added++;
+			return block;
+		}
+
+		private byte[] table(long block) {
+			byte[] table = tables.get(block);
+			if(table == null) {
+				table = vol.readBlock(block);
+				tables.put(block, table);
+			}
+			return table;
+		}
+
+		// The level of indirection of a logical block, followed by its index in each table on the way down
+		private int[] path(long logical) throws IOException {
+			long index = logical - 12;
+			if(index < pointers) {
+				return new int[] {1, (int) index};
+			}
+			index -= pointers;
+			if(index < pointers * pointers) {
+				return new int[] {2, (int) (index / pointers), (int) (index % pointers)};
+			}
+			index -= pointers * pointers;
+			if(index < pointers * pointers * pointers) {
+				return new int[] {3, (int) (index / (pointers * pointers)), (int) ((index / pointers) % pointers), (int) (index % pointers)};
+			}
+			throw new IOException("File would be larger than EXT2 allows");
+		}
+	}
+}
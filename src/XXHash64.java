@@ -0,0 +1,137 @@
+import java.security.MessageDigest;
+
+/**
+ * @author Oliver Griffiths
+ * The 64 bit xxHash of a stream of bytes, with a seed of zero, as a MessageDigest so it can stand in for one.
+ * It is not cryptographic: it spreads ordinary content well and is several times faster than MD5, but files can
+ * be made to collide on purpose. The digest is the hash's 8 bytes, most significant first, as xxhsum prints it.
+ */
+final class XXHash64 extends MessageDigest {
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+	private final byte[] buffer = new byte[32]; // A stripe not yet mixed in
+	private int buffered;
+	private long total;
+	private long v1, v2, v3, v4; // The four lanes stripes are mixed into
+
+	/**
+	 * Creates a new XXHash64
+	 */
+	XXHash64() {
+		super(Hasher.XXH64);
+		engineReset();
+	}
+
+	@Override
+	protected void engineReset() {
+		buffered = 0;
+		total = 0;
+		v1 = PRIME1 + PRIME2;
+		v2 = PRIME2;
+		v3 = 0;
+		v4 = -PRIME1;
+	}
+
+	@Override
+	protected void engineUpdate(byte input) {
+		engineUpdate(new byte[] {input}, 0, 1);
+	}
+
+	@Override
+	protected void engineUpdate(byte[] input, int offset, int length) {
+		total += length;
+		int end = offset + length;
+		if(buffered > 0) { // Fill up the stripe left over from last time first
+			int taken = Math.min(32 - buffered, length);
+			System.arraycopy(input, offset, buffer, buffered, taken);
+			buffered += taken;
+			offset += taken;
+			if(buffered < 32) {
+				return;
+			}
+			stripe(buffer, 0);
+			buffered = 0;
+		}
+		for (; offset + 32 <= end; offset += 32) {
+			stripe(input, offset);
+		}
+		System.arraycopy(input, offset, buffer, 0, end - offset);
+		buffered = end - offset;
+	}
+
+	@Override
+	protected byte[] engineDigest() {
+		long hash;
+		if(total >= 32) {
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+			hash = merge(hash, v1);
+			hash = merge(hash, v2);
+			hash = merge(hash, v3);
+			hash = merge(hash, v4);
+		} else {
+			hash = PRIME5;
+		}
+		hash += total;
+
+		int i = 0;
+		for (; i + 8 <= buffered; i += 8) {
+			hash ^= round(0, getLong(buffer, i));
+			hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+		}
+		if(i + 4 <= buffered) {
+			hash ^= (0xFFFFFFFFL & getInt(buffer, i)) * PRIME1;
+			hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+			i += 4;
+		}
+		for (; i < buffered; i++) {
+			hash ^= (buffer[i] & 0xFF) * PRIME5;
+			hash = Long.rotateLeft(hash, 11) * PRIME1;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME2;
+		hash ^= hash >>> 29;
+		hash *= PRIME3;
+		hash ^= hash >>> 32;
+
+		byte[] digest = new byte[8];
+		for (int b = 0; b < 8; b++) {
+			digest[b] = (byte) (hash >>> (56 - (b * 8)));
+		}
+		engineReset();
+		return digest;
+	}
+
+	@Override
+	protected int engineGetDigestLength() {
+		return 8;
+	}
+
+	// Mixes a 32 byte stripe into the four lanes, 8 bytes each
+	private void stripe(byte[] bytes, int offset) {
+		v1 = round(v1, getLong(bytes, offset));
+		v2 = round(v2, getLong(bytes, offset + 8));
+		v3 = round(v3, getLong(bytes, offset + 16));
+		v4 = round(v4, getLong(bytes, offset + 24));
+	}
+
+	private static long round(long lane, long input) {
+		return Long.rotateLeft(lane + (input * PRIME2), 31) * PRIME1;
+	}
+
+	private static long merge(long hash, long lane) {
+		return ((hash ^ round(0, lane)) * PRIME1) + PRIME4;
+	}
+
+	private static long getLong(byte[] bytes, int offset) {
+		return (0xFFFFFFFFL & getInt(bytes, offset)) | ((long) getInt(bytes, offset + 4) << 32);
+	}
+
+	private static int getInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8) | ((bytes[offset + 2] & 0xFF) << 16) | ((bytes[offset + 3] & 0xFF) << 24);
+	}
+}
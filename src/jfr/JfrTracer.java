@@ -0,0 +1,207 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author Oliver Griffiths
+ * Emits the ext2fs flight recorder events. Needs JDK 11 or later to compile, so it's kept apart from the rest of the
+ * source; Tracer loads it when it's there. Every event is off by default, turned on by a recording's settings,
+ * for example ext2fs.jfc next to this file. Until some recording is running no event is even created.
+ */
+class JfrTracer implements Tracer, FlightRecorderListener {
+	private volatile boolean recording = false; // Whether any recording is running, kept up to date by the recorder
+
+	JfrTracer() {
+		FlightRecorder.addListener(this);
+		if(FlightRecorder.isInitialized()) { // Recordings started before now, such as from the command line, won't be announced
+			recordingStateChanged(null);
+		}
+	}
+
+	@Override
+	public void recordingStateChanged(Recording changed) {
+		boolean running = false;
+		for (Recording each : FlightRecorder.getFlightRecorder().getRecordings()) {
+			running |= each.getState() == RecordingState.RUNNING;
+		}
+		recording = running;
+	}
+
+	@Override
+	public Object begin(int event) {
+		if(!recording) {
+			return null;
+		}
+		Event started;
+		switch(event) {
+			case BLOCK_READ:
+				started = new BlockRead();
+				break;
+			case INODE_LOAD:
+				started = new InodeLoad();
+				break;
+			case INDIRECT_READ:
+				started = new IndirectRead();
+				break;
+			case DIRECTORY_SCAN:
+				started = new DirectoryScan();
+				break;
+			default:
+				started = new FileRead();
+				break;
+		}
+		if(!started.isEnabled()) {
+			return null;
+		}
+		started.begin();
+		return started;
+	}
+
+	@Override
+	public void blockRead(Object event, long offset, int length) {
+		BlockRead read = (BlockRead) event;
+		read.end();
+		if(read.shouldCommit()) {
+			read.offset = offset;
+			read.length = length;
+			read.commit();
+		}
+	}
+
+	@Override
+	public void inodeLoad(Object event, int inodePtr, boolean indexed) {
+		InodeLoad load = (InodeLoad) event;
+		load.end();
+		if(load.shouldCommit()) {
+			load.inode = inodePtr;
+			load.indexed = indexed;
+			load.commit();
+		}
+	}
+
+	@Override
+	public void indirectRead(Object event, int level, long block) {
+		IndirectRead read = (IndirectRead) event;
+		read.end();
+		if(read.shouldCommit()) {
+			read.level = level;
+			read.block = block;
+			read.commit();
+		}
+	}
+
+	@Override
+	public void directoryScan(Object event, long size, int entries) {
+		DirectoryScan scan = (DirectoryScan) event;
+		scan.end();
+		if(scan.shouldCommit()) {
+			scan.size = size;
+			scan.entries = entries;
+			scan.commit();
+		}
+	}
+
+	@Override
+	public void fileRead(Object event, int inodePtr, long position, int requested, int read) {
+		FileRead file = (FileRead) event;
+		file.end();
+		if(file.shouldCommit()) {
+			file.inode = inodePtr;
+			file.position = position;
+			file.requested = requested;
+			file.read = read;
+			file.commit();
+		}
+	}
+
+	@Name("ext2fs.BlockRead")
+	@Label("Block Read")
+	@Category("ext2fs")
+	@Description("A read from the storage under a volume")
+	@Enabled(false)
+	@StackTrace(false)
+	static class BlockRead extends Event {
+		@Label("Offset")
+		@Description("The first byte of the image read")
+		long offset;
+
+		@Label("Length")
+		@DataAmount
+		int length;
+	}
+
+	@Name("ext2fs.InodeLoad")
+	@Label("Inode Load")
+	@Category("ext2fs")
+	@Enabled(false)
+	@StackTrace(false)
+	static class InodeLoad extends Event {
+		@Label("Inode")
+		int inode;
+
+		@Label("From Index")
+		@Description("Whether the inode came from the sidecar index rather than the inode table")
+		boolean indexed;
+	}
+
+	@Name("ext2fs.IndirectRead")
+	@Label("Indirect Table Read")
+	@Category("ext2fs")
+	@Description("A pointer table read while following a file's indirect pointers")
+	@Enabled(false)
+	@StackTrace(false)
+	static class IndirectRead extends Event {
+		@Label("Level")
+		@Description("1 for a table of data blocks, up to 3 for the table a treble indirect pointer leads to, or an extent tree node's height above the data")
+		int level;
+
+		@Label("Block")
+		long block;
+	}
+
+	@Name("ext2fs.DirectoryScan")
+	@Label("Directory Scan")
+	@Category("ext2fs")
+	@Description("A read through every entry of a directory")
+	@Enabled(false)
+	@StackTrace(false)
+	static class DirectoryScan extends Event {
+		@Label("Size")
+		@DataAmount
+		long size;
+
+		@Label("Entries")
+		int entries;
+	}
+
+	@Name("ext2fs.FileRead")
+	@Label("File Read")
+	@Category("ext2fs")
+	@Description("A read from an Ext2File")
+	@Enabled(false)
+	@StackTrace(false)
+	static class FileRead extends Event {
+		@Label("Inode")
+		int inode;
+
+		@Label("Position")
+		long position;
+
+		@Label("Requested")
+		@DataAmount
+		int requested;
+
+		@Label("Read")
+		@DataAmount
+		int read;
+	}
+}
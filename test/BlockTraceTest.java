@@ -0,0 +1,117 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BlockTraceTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String[] POLICIES = {"lru", "fifo", "clock", "2q", "opt"};
+
+	@Test
+	public void recordsEveryBlockReadWithItsType() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			String trace = folder.newFile().getPath();
+			vol.startTrace(trace);
+			Fixtures.read(vol, "/big.bin");
+			Fixtures.read(vol, "/logs/f005.log");
+			long recorded = vol.stopTrace();
+			assertEquals(0, vol.stopTrace());
+
+			final List<Long> blocks = new ArrayList<Long>();
+			final Map<Long, Integer> types = new HashMap<Long, Integer>();
+			int blockSize = BlockTrace.read(trace, (block, type) -> {
+				blocks.add(block);
+				types.put(block, type);
+			});
+			assertEquals(vol.getBlockSize(), blockSize);
+			assertEquals(recorded, blocks.size());
+
+			Inode big = vol.getInodeFromPath("/big.bin");
+			int count = (int) ((big.getFileSize() + blockSize - 1) / blockSize);
+			for (int block : vol.mapBlocks(big, 0, count)) {
+				assertEquals(Integer.valueOf(BlockTrace.TYPE_DATA), types.get(0xFFFFFFFFL & block));
+			}
+			assertTrue(types.containsValue(BlockTrace.TYPE_INODE_TABLE));
+			assertTrue(types.containsValue(BlockTrace.TYPE_DIRECTORY));
+			assertTrue(types.containsValue(BlockTrace.TYPE_INDIRECT)); // Pointer tables of big.bin on ext2, the extent tree of /logs on ext4
+			vol.close();
+		}
+	}
+
+	@Test
+	public void closingTheVolumeEndsTheTrace() throws IOException {
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		String trace = folder.newFile().getPath();
+		vol.startTrace(trace);
+		Fixtures.read(vol, "/logs/f001.log");
+		vol.close();
+		final long[] accesses = {0};
+		BlockTrace.read(trace, (block, type) -> accesses[0]++);
+		assertTrue(accesses[0] > 0);
+	}
+
+	@Test
+	public void replaysNoBetterThanTheOptimum() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		String trace = folder.newFile().getPath();
+		vol.startTrace(trace);
+		for (int i = 0; i < 3; i++) { // The same reads again and again, so a big enough cache hits everything after the first pass
+			for (int log = 0; log < 50; log++) {
+				Fixtures.read(vol, String.format("/logs/f%03d.log", log));
+			}
+		}
+		vol.stopTrace();
+		vol.close();
+
+		boolean[] all = new boolean[BlockTrace.TYPE_NAMES.length];
+		Arrays.fill(all, true);
+		long[] sizes = {1, 4, 16, 64, 1 << 20};
+		double[][] rates = new TraceReplay(trace, all).hitRates(POLICIES, sizes);
+		for (int s = 0; s < sizes.length; s++) {
+			for (int p = 0; p < POLICIES.length; p++) {
+				assertTrue(rates[p][s] >= 0 && rates[p][s] <= 1);
+				assertTrue(POLICIES[p] + " at " + sizes[s], rates[p][s] <= rates[4][s] + 1e-9);
+				if(s > 0) {
+					assertTrue(rates[4][s] >= rates[4][s - 1]);
+				}
+			}
+		}
+		for (int p = 0; p < POLICIES.length; p++) { // With room for every block, only first reads miss
+			assertEquals(rates[4][sizes.length - 1], rates[p][sizes.length - 1], 1e-9);
+			assertTrue(rates[p][sizes.length - 1] > 0.6);
+		}
+
+		boolean[] data = new boolean[BlockTrace.TYPE_NAMES.length];
+		data[BlockTrace.TYPE_DATA] = true;
+		double[][] dataRates = new TraceReplay(trace, data).hitRates(new String[] {"opt"}, new long[] {1 << 20});
+		assertEquals(2.0 / 3, dataRates[0][0], 1e-9); // Fifty data blocks, each read three times
+	}
+
+	@Test
+	public void rejectsFilesThatArentTraces() throws IOException {
+		String other = folder.newFile().getPath();
+		Files.write(Paths.get(other), new byte[64]);
+		try {
+			BlockTrace.read(other, (block, type) -> {
+			});
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("isn't a block trace"));
+		}
+	}
+}
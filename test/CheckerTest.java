@@ -0,0 +1,148 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void mkfsImagesAreConsistent() throws IOException {
+		assertEquals(Collections.emptyList(), check(Fixtures.ext2(folder)));
+		assertEquals(Collections.emptyList(), check(Fixtures.ext4(folder))); // Uninitialised groups, 64 byte descriptors and unwritten extents
+	}
+
+	@Test
+	public void generatedImagesAreConsistent() throws IOException {
+		for (int blockSize : new int[] {1024, 4096}) {
+			assertEquals(Collections.emptyList(), check(Fixtures.generate(folder, blockSize)));
+		}
+	}
+
+	@Test
+	public void uninitialisedBlockBitmapIsNotCompared() throws IOException {
+		String image = Fixtures.ext4(folder);
+		Volume vol = new Volume(image);
+		long descriptor = vol.getBlockLocation(2) + vol.getSuperBlock().getDescriptorSize(); // Group 1, in the table after the SuperBlock
+		long bitmap = vol.getBlockLocation(vol.getDescriptor(1).getBlockBitmapPtr());
+		int flags = new GroupDescriptorView().wrap(vol.readDescriptorTable(), 1).getFlags();
+		vol.close();
+		Fixtures.poke(image, descriptor + 18, new byte[] {(byte) (flags | GroupDescriptorView.BLOCK_UNINIT), (byte) (flags >> 8)});
+		Fixtures.poke(image, bitmap, new byte[1024]); // As it is on a volume that has never used the group
+		assertEquals(Collections.emptyList(), check(image));
+	}
+
+	@Test
+	public void findsBlocksMarkedFree() throws IOException {
+		String image = Fixtures.ext2(folder);
+		Volume vol = new Volume(image);
+		Inode inode = vol.getInodeFromPath("/logs/f000.log");
+		long block = 0xFFFFFFFFL & inode.getBlockPointers()[0];
+		GroupDescriptor desc = vol.getDescriptor((int) ((block - 1) / vol.getSuperBlock().getGroupBlocks()));
+		long bitmap = vol.getBlockLocation(desc.getBlockBitmapPtr());
+		int bit = (int) ((block - 1) % vol.getSuperBlock().getGroupBlocks());
+		byte[] bits = vol.getBytes(bitmap + bit / 8, bitmap + bit / 8 + 1);
+		vol.close();
+		Fixtures.poke(image, bitmap + bit / 8, new byte[] {(byte) (bits[0] & ~(1 << (bit % 8)))});
+		List<String> problems = check(image);
+		assertEquals(2, problems.size());
+		assertEquals("Group 0: blocks in use but marked free " + block, problems.get(0));
+		assertEquals("Group 0: descriptor free block count " + (desc.getFreeBlocks() & 0xFFFF) + " should be " + ((desc.getFreeBlocks() & 0xFFFF) + 1), problems.get(1));
+	}
+
+	@Test
+	public void findsBlocksClaimedTwice() throws IOException {
+		String image = Fixtures.ext2(folder);
+		Volume vol = new Volume(image);
+		int first = vol.getInodePtrFromPath("/logs/f000.log");
+		int second = vol.getInodePtrFromPath("/logs/f001.log");
+		long shared = 0xFFFFFFFFL & vol.getInode(first).getBlockPointers()[0];
+		long lost = 0xFFFFFFFFL & vol.getInode(second).getBlockPointers()[0];
+		long offset = Fixtures.inodeOffset(vol, second);
+		vol.close();
+		Fixtures.pokeInt(image, offset + 40, (int) shared); // Point f001 at the block of f000
+		List<String> problems = check(image);
+		assertTrue(first < second); // Inodes are scanned in order, so f001 is the one found claiming the block again
+		assertEquals(Arrays.asList("Group 0: blocks marked in use but not used " + lost,
+			"Inode " + second + ": block " + shared + " is claimed more than once"), problems); // Problems come sorted
+	}
+
+	@Test
+	public void findsWrongLinkCounts() throws IOException {
+		String image = Fixtures.ext2(folder);
+		Volume vol = new Volume(image);
+		int id = vol.getInodePtrFromPath("/logs/f002.log");
+		long offset = Fixtures.inodeOffset(vol, id);
+		vol.close();
+		Fixtures.poke(image, offset + 26, new byte[] {3, 0});
+		assertEquals(Arrays.asList("Inode " + id + ": link count 3 should be 1"), check(image));
+	}
+
+	@Test
+	public void findsEntriesPointingAtInvalidInodes() throws IOException {
+		String image = Fixtures.ext2(folder);
+		Volume vol = new Volume(image);
+		int logs = vol.getInodePtrFromPath("/logs");
+		int id = vol.getInodePtrFromPath("/logs/f003.log");
+		long invalid = (0xFFFFFFFFL & vol.getSuperBlock().getInodes()) + 5;
+		long entry = -1;
+		for (int block : vol.mapBlocks(vol.getInode(logs), 0, 8)) { // Find where the entry of f003.log is
+			byte[] bytes = vol.readBlock(block);
+			DirectoryEntryView view = new DirectoryEntryView();
+			for (int at = 0; at < bytes.length && entry < 0; at += view.getRecordLength()) {
+				if(view.wrap(bytes, at).nameEquals("f003.log")) {
+					entry = vol.getBlockLocation(block) + at;
+				}
+			}
+			if(entry >= 0) {
+				break;
+			}
+		}
+		vol.close();
+		Fixtures.pokeInt(image, entry, (int) invalid);
+		List<String> problems = check(image);
+		assertTrue(problems.toString(), problems.contains("Inode " + logs + ": entry 'f003.log' points at invalid inode " + invalid));
+		assertTrue(problems.toString(), problems.contains("Inode " + id + ": link count 1 should be 0"));
+		assertEquals(2, problems.size());
+	}
+
+	@Test
+	public void findsWrongSuperBlockTotals() throws IOException {
+		String image = Fixtures.ext2(folder);
+		Volume vol = new Volume(image);
+		long freeBlocks = 0xFFFFFFFFL & vol.getSuperBlock().getFreeBlocks();
+		long freeInodes = 0xFFFFFFFFL & vol.getSuperBlock().getFreeInodes();
+		vol.close();
+		Fixtures.pokeInt(image, 1024 + 12, (int) freeBlocks + 7);
+		Fixtures.pokeInt(image, 1024 + 16, (int) freeInodes - 1);
+		assertEquals(Arrays.asList("SuperBlock: free block count " + (freeBlocks + 7) + " should be " + freeBlocks,
+			"SuperBlock: free inode count " + (freeInodes - 1) + " should be " + freeInodes), check(image));
+	}
+
+	@Test
+	public void refusesUnknownIncompatibleFeatures() throws IOException {
+		String image = Fixtures.ext4(folder);
+		Volume vol = new Volume(image);
+		int features = vol.getSuperBlock().getIncompatFeatures() | 0x8000; // Inline data
+		vol.close();
+		byte[] bytes = new byte[4];
+		Converter.intToBytes(features, bytes, 0);
+		Fixtures.poke(image, 1024 + 96, bytes);
+		assertEquals(Arrays.asList("SuperBlock: can't check a volume with incompatible features 0x8000"), check(image));
+	}
+
+	private List<String> check(String image) throws IOException {
+		Volume vol = new Volume(image);
+		List<String> problems = new Checker(vol).check();
+		vol.close();
+		return problems;
+	}
+}
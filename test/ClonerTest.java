@@ -0,0 +1,121 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClonerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sparseCloneHoldsEveryFile() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder), Fixtures.generate(folder, 4096)}) {
+			String clone = folder.newFile().getPath();
+			Volume vol = new Volume(image);
+			long copied = new Cloner(vol).cloneSparse(clone);
+			assertTrue(copied < Files.size(Paths.get(image)));
+			assertEquals(Files.size(Paths.get(image)), Files.size(Paths.get(clone)));
+			assertSameFiles(vol, clone);
+			vol.close();
+		}
+	}
+
+	@Test
+	public void compactCloneRestoresToTheSparseClone() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			String sparse = folder.newFile().getPath();
+			String compact = folder.newFile().getPath();
+			String restored = folder.newFile().getPath();
+			Volume vol = new Volume(image);
+			Cloner cloner = new Cloner(vol);
+			cloner.cloneSparse(sparse);
+			long copied = cloner.cloneCompact(compact);
+			vol.close();
+
+			List<List<long[]>> runs = cloner.getRuns();
+			int runCount = 0;
+			for (List<long[]> group : runs) {
+				runCount += group.size();
+			}
+			assertEquals(24 + 16L * runCount + copied, Files.size(Paths.get(compact))); // Header, index and the runs
+			Cloner.restoreCompact(compact, restored);
+			assertArrayEquals(Files.readAllBytes(Paths.get(sparse)), Files.readAllBytes(Paths.get(restored)));
+		}
+	}
+
+	@Test
+	public void uninitialisedGroupsCopyOnlyTheirMetadata() throws IOException {
+		String image = Fixtures.ext4(folder);
+		Volume vol = new Volume(image);
+		// The SuperBlock copy, one descriptor block and the reserved ones; the journal mke2fs put after them goes
+		SuperBlock superBlock = vol.getSuperBlock();
+		long[] expected = {superBlock.getFirstDataBlock() + superBlock.getGroupBlocks(), 2 + superBlock.getReservedGdtBlocks()};
+		long descriptor = vol.getBlockLocation(2) + vol.getSuperBlock().getDescriptorSize(); // Group 1, in the table after the SuperBlock
+		long bitmap = vol.getBlockLocation(vol.getDescriptor(1).getBlockBitmapPtr());
+		int flags = new GroupDescriptorView().wrap(vol.readDescriptorTable(), 1).getFlags();
+		vol.close();
+		Fixtures.poke(image, descriptor + 18, new byte[] {(byte) (flags | GroupDescriptorView.BLOCK_UNINIT), (byte) (flags >> 8)});
+		byte[] garbage = new byte[1024];
+		Arrays.fill(garbage, (byte) 0xFF);
+		Fixtures.poke(image, bitmap, garbage); // Never initialised, so it could hold anything
+
+		vol = new Volume(image);
+		List<long[]> runs = new Cloner(vol).getRuns().get(1);
+		assertEquals(1, runs.size());
+		assertArrayEquals(expected, runs.get(0));
+		String clone = folder.newFile().getPath();
+		new Cloner(vol).cloneSparse(clone);
+		assertSameFiles(vol, clone);
+		vol.close();
+	}
+
+	@Test
+	public void ext2CloneIsConsistent() throws IOException {
+		String clone = folder.newFile().getPath();
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		new Cloner(vol).cloneSparse(clone);
+		vol.close();
+		vol = new Volume(clone);
+		assertEquals(Collections.emptyList(), new Checker(vol).check());
+		vol.close();
+	}
+
+	@Test
+	public void clonesCompressedImagesThroughTheVolume() throws IOException {
+		String image = Fixtures.ext2(folder);
+		String compressed = folder.newFile().getPath();
+		String clone = folder.newFile().getPath();
+		CompressedStorage.convert(image, compressed);
+		Volume vol = new Volume(compressed);
+		new Cloner(vol).cloneSparse(clone);
+		vol.close();
+		vol = new Volume(image);
+		assertSameFiles(vol, clone);
+		vol.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void restoreRefusesOtherFiles() throws IOException {
+		Cloner.restoreCompact(Fixtures.ext2(folder), folder.newFile().getPath());
+	}
+
+	private void assertSameFiles(Volume original, String clone) throws IOException {
+		Map<String, String> expected = new Hasher(original).hashAll("/");
+		Volume copy = new Volume(clone);
+		Map<String, String> actual = new Hasher(copy).hashAll("/");
+		copy.close();
+		assertTrue(expected.size() > 100);
+		assertEquals(expected, actual);
+	}
+}
@@ -0,0 +1,88 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CompressedStorageTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsBackEveryByteOfTheImage() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			String compressed = folder.newFile().getPath();
+			long size = CompressedStorage.convert(image, compressed, 4096);
+			assertEquals(size, Files.size(Paths.get(compressed)));
+			assertTrue(size < Files.size(Paths.get(image)) / 4); // Mostly free blocks, which take no space at all
+
+			byte[] raw = Files.readAllBytes(Paths.get(image));
+			CompressedStorage storage = new CompressedStorage(compressed, 2);
+			assertEquals(raw.length, storage.size());
+			Random random = new Random(3);
+			for (int i = 0; i < 200; i++) { // Reads of all lengths, many crossing chunks, with a cache too small to hold them
+				int length = random.nextInt(3 * 4096);
+				int position = random.nextInt(raw.length - length);
+				byte[] bytes = new byte[length + 2];
+				storage.read(position, bytes, 1, length);
+				byte[] expected = new byte[length + 2];
+				System.arraycopy(raw, position, expected, 1, length);
+				assertArrayEquals(expected, bytes);
+			}
+			storage.close();
+		}
+	}
+
+	@Test
+	public void volumesOpenCompressedImagesByTheirMagic() throws IOException {
+		String image = Fixtures.ext4(folder);
+		String compressed = folder.newFile().getPath();
+		CompressedStorage.convert(image, compressed);
+		assertTrue(Storage.open(compressed) instanceof CompressedStorage);
+		assertTrue(Storage.open(image) instanceof FileStorage);
+
+		Volume raw = new Volume(image);
+		Volume packed = new Volume(compressed);
+		Map<String, String> expected = new Hasher(raw).hashAll("/");
+		assertEquals(expected, new Hasher(packed).hashAll("/"));
+		assertArrayEquals(Fixtures.sparseContent(), Fixtures.read(packed, "/sparse.bin"));
+		raw.close();
+		packed.close();
+	}
+
+	@Test
+	public void keepsAnImageThatDoesNotFillItsLastChunk() throws IOException {
+		String image = folder.newFile().getPath();
+		byte[] raw = new byte[10000];
+		new Random(5).nextBytes(raw); // Won't deflate, so is stored as it is
+		Files.write(Paths.get(image), raw);
+		String compressed = folder.newFile().getPath();
+		CompressedStorage.convert(image, compressed, 4096);
+		CompressedStorage storage = new CompressedStorage(compressed);
+		byte[] bytes = new byte[raw.length];
+		storage.read(0, bytes, 0, bytes.length);
+		assertArrayEquals(raw, bytes);
+		storage.close();
+	}
+
+	@Test(expected = EOFException.class)
+	public void refusesReadsPastTheEnd() throws IOException {
+		String compressed = folder.newFile().getPath();
+		CompressedStorage.convert(Fixtures.ext2(folder), compressed);
+		CompressedStorage storage = new CompressedStorage(compressed);
+		try {
+			storage.read(storage.size() - 10, new byte[20], 0, 20);
+		} finally {
+			storage.close();
+		}
+	}
+}
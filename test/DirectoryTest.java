@@ -0,0 +1,94 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectoryTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void listsEveryLogOnExt2() throws IOException {
+		assertLogs(Fixtures.ext2(folder));
+	}
+
+	@Test
+	public void listsEveryLogOnExt4() throws IOException {
+		assertLogs(Fixtures.ext4(folder)); // An htree directory, whose index blocks look like a single unused entry
+	}
+
+	@Test
+	public void resolvesPathsOnBothFixtures() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			assertEquals(Fixtures.logContent(7).length, vol.getInodeFromPath("/logs/f007.log").getFileSize());
+			assertEquals(vol.getInodePtrFromPath("/logs"), vol.getInodePtrFromPath("/logs/./"));
+			assertEquals(2, vol.getInodePtrFromPath("/logs/.."));
+			assertEquals(-1, vol.getInodePtrFromPath("/logs/f300.log"));
+			assertEquals(-1, vol.getInodePtrFromPath("/big.bin/f000.log"));
+			vol.close();
+		}
+	}
+
+	@Test
+	public void stopsWhenTheVisitorAsks() throws IOException {
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		final List<String> names = new ArrayList<String>();
+		new Directory(vol, "/logs").forEachEntry((inodePtr, type, name) -> {
+			names.add(name);
+			return names.size() < 5;
+		});
+		assertEquals(5, names.size());
+		vol.close();
+	}
+
+	@Test
+	public void viewComparesNamesWithoutBuildingThem() {
+		byte[] block = new byte[32];
+		Converter.intToBytes(11, block, 0);
+		block[4] = 32; // The one entry fills the block
+		block[6] = 5;
+		block[7] = Directory.TYPE_REGULAR_FILE;
+		System.arraycopy(new byte[] {'h', 'e', 'l', 'l', (byte) 0xE9}, 0, block, 8, 5);
+
+		DirectoryEntryView view = new DirectoryEntryView().wrap(block, 0);
+		assertEquals(11, view.getInodePtr());
+		assertEquals(32, view.getRecordLength());
+		assertEquals(Directory.TYPE_REGULAR_FILE, view.getType());
+		assertEquals("hell\u00e9", view.getName());
+		assertTrue(view.nameEquals("hell\u00e9"));
+		assertFalse(view.nameEquals("hell"));
+		assertFalse(view.nameEquals("hello"));
+
+		final int[] seen = {0};
+		assertTrue(Directory.parseEntries(block, view, entry -> {
+			seen[0] = entry.getInodePtr();
+			return true;
+		}));
+		assertEquals(11, seen[0]);
+	}
+
+	private void assertLogs(String image) throws IOException {
+		Volume vol = new Volume(image);
+		FileInfo[] files = new Directory(vol, "/logs").getFileInfo();
+		assertEquals(Fixtures.LOG_FILES + 2 + 2, files.length); // The logs, the two copies, "." and ".."
+		int logs = 0;
+		for (FileInfo file : files) {
+			if(file.getName().matches("f\\d{3}\\.log")) {
+				int n = Integer.parseInt(file.getName().substring(1, 4));
+				assertEquals(Fixtures.logContent(n).length, file.getSize());
+				assertEquals(vol.getInodePtrFromPath("/logs/" + file.getName()), file.getInodePtr());
+				logs++;
+			}
+		}
+		assertEquals(Fixtures.LOG_FILES, logs);
+		vol.close();
+	}
+}
@@ -0,0 +1,150 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DriverTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Volume vol;
+	private ByteArrayOutputStream printed;
+	private ByteArrayOutputStream content;
+	private Driver driver;
+
+	private void open(String image) {
+		vol = new Volume(image);
+		printed = new ByteArrayOutputStream();
+		content = new ByteArrayOutputStream();
+		driver = new Driver(vol, new PrintStream(printed, true), Channels.newChannel(content));
+	}
+
+	@After
+	public void close() throws IOException {
+		vol.close();
+	}
+
+	private List<String> run(String... command) throws IOException {
+		printed.reset();
+		assertTrue(driver.run(command[0], Arrays.asList(command).subList(1, command.length)));
+		String lines = new String(printed.toByteArray(), StandardCharsets.UTF_8);
+		return lines.isEmpty() ? Collections.<String>emptyList() : Arrays.asList(lines.split("\n"));
+	}
+
+	@Test
+	public void catsFilesWhole() throws IOException {
+		open(Fixtures.ext4(folder));
+		run("cat", "/big.bin", "/logs/f001.log", "/sparse.bin", "/empty");
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write(Fixtures.bigContent());
+		expected.write(Fixtures.logContent(1));
+		expected.write(Fixtures.sparseContent());
+		assertArrayEquals(expected.toByteArray(), content.toByteArray());
+	}
+
+	@Test
+	public void listsDirectoriesAndFiles() throws IOException {
+		open(Fixtures.ext2(folder));
+		List<String> logs = run("ls", "/logs");
+		assertEquals(Fixtures.LOG_FILES + 2 + 2, logs.size()); // With "." and ".."
+		Inode first = vol.getInodeFromPath("/logs/f000.log");
+		assertTrue(logs.contains(first.getFileMode() + " 1 " + first.getUserID() + " " + first.getGroupID() + " 200 "
+			+ first.getLastModified() + " f000.log"));
+
+		List<String> file = run("ls", "/big.bin");
+		assertEquals(1, file.size());
+		assertTrue(file.get(0).endsWith(" 614390 " + vol.getInodeFromPath("/big.bin").getLastModified() + " big.bin"));
+		assertTrue(run("ls", "/missing").isEmpty());
+	}
+
+	@Test
+	public void statsTheLayoutOfFiles() throws IOException {
+		open(Fixtures.ext2(folder));
+		List<String> big = run("stat", "/big.bin");
+		assertEquals("File: /big.bin", big.get(0));
+		assertEquals("Size: 614390", big.get(2).split("  ")[0]);
+		assertEquals("Blocks: 600 in 4 runs, mapped by pointers with 4 indirect tables", big.get(3)); // Each table sits between the blocks before and after it
+		vol.close();
+
+		open(Fixtures.ext4(folder));
+		List<String> sparse = run("stat", "/sparse.bin");
+		assertEquals("File: /sparse.bin", sparse.get(0));
+		assertTrue(sparse.get(3), sparse.get(3).startsWith("Blocks: " + Fixtures.SPARSE_CHUNKS + " in "));
+		assertTrue(sparse.get(3), sparse.get(3).endsWith("mapped by extents with 7 tree nodes"));
+	}
+
+	@Test
+	public void findsByNameAndType() throws IOException {
+		open(Fixtures.ext4(folder));
+		assertEquals(Arrays.asList("/logs/f100.log", "/logs/f110.log", "/logs/f120.log", "/logs/f130.log", "/logs/f140.log",
+			"/logs/f150.log", "/logs/f160.log", "/logs/f170.log", "/logs/f180.log", "/logs/f190.log"),
+			sorted(run("find", "-name", "f1?0.log", "-type", "f")));
+		assertEquals(Arrays.asList("/logs/copy-a.log", "/logs/copy-b.log"), sorted(run("find", "/logs", "-name", "copy-[ab].log")));
+		List<String> directories = run("find", "-type", "d");
+		assertTrue(directories.contains("/logs"));
+		assertTrue(directories.contains("/lost+found"));
+		assertFalse(directories.contains("/big.bin"));
+		assertTrue(run("find", "-name", "*link", "-type", "f").isEmpty()); // Links aren't regular files
+		assertEquals(2, run("find", "-name", "*link").size());
+	}
+
+	@Test
+	public void extractsFilesAndDirectories() throws IOException {
+		open(Fixtures.ext4(folder));
+		File logs = new File(folder.getRoot(), "extracted");
+		run("extract", "/logs", logs.getPath());
+		assertEquals(Fixtures.LOG_FILES + 2, logs.list().length);
+		for (int i = 0; i < Fixtures.LOG_FILES; i += 37) {
+			File log = new File(logs, String.format("f%03d.log", i));
+			assertArrayEquals(Fixtures.logContent(i), Files.readAllBytes(log.toPath()));
+			assertEquals(vol.getInodeFromPath("/logs/" + log.getName()).getLastModified().getTime() / 1000, log.lastModified() / 1000);
+		}
+
+		File sparse = new File(folder.getRoot(), "sparse.bin");
+		run("extract", "/sparse.bin", sparse.getPath());
+		assertArrayEquals(Fixtures.sparseContent(), Files.readAllBytes(sparse.toPath()));
+		assertEquals(0, content.size()); // Nothing went to standard output
+	}
+
+	@Test
+	public void printsTheTreeIndented() throws IOException {
+		open(Fixtures.ext2(folder));
+		List<String> tree = run("tree");
+		assertEquals("/", tree.get(0));
+		assertTrue(tree.contains("  logs/"));
+		assertTrue(tree.contains("    f000.log"));
+		assertTrue(tree.contains("  big.bin"));
+		assertTrue(tree.contains("  lost+found/"));
+		int logs = tree.indexOf("  logs/");
+		assertEquals("    ", tree.get(logs + 1).substring(0, 4)); // The directory's entries follow it straight away
+		assertEquals(1 + 1 + Fixtures.LOG_FILES + 2 + 5 + 1, tree.size());
+	}
+
+	@Test
+	public void rejectsUnknownCommands() throws IOException {
+		open(Fixtures.ext2(folder));
+		assertFalse(driver.run("rm", Arrays.asList("/big.bin")));
+	}
+
+	private static List<String> sorted(List<String> lines) {
+		String[] copy = lines.toArray(new String[0]);
+		Arrays.sort(copy);
+		return Arrays.asList(copy);
+	}
+}
@@ -0,0 +1,178 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.ReadOnlyFileSystemException;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class Ext2FileSystemProviderTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsFilesThroughTheRegisteredProvider() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			FileSystem fs = FileSystems.newFileSystem(Paths.get(image), (ClassLoader) null);
+			assertTrue(fs instanceof Ext2FileSystem);
+			assertTrue(fs.isReadOnly());
+			assertArrayEquals(Fixtures.bigContent(), Files.readAllBytes(fs.getPath("/big.bin")));
+			assertArrayEquals(Fixtures.sparseContent(), Files.readAllBytes(fs.getPath("/sparse.bin")));
+			assertArrayEquals(Fixtures.logContent(123), Files.readAllBytes(fs.getPath("/logs", "f123.log")));
+			assertEquals(0, Files.size(fs.getPath("/empty")));
+			fs.close();
+			assertFalse(fs.isOpen());
+		}
+	}
+
+	@Test
+	public void channelsSeekAnywhereInAFile() throws IOException {
+		FileSystem fs = FileSystems.newFileSystem(Paths.get(Fixtures.ext4(folder)), (ClassLoader) null);
+		byte[] big = Fixtures.bigContent();
+		SeekableByteChannel channel = Files.newByteChannel(fs.getPath("/big.bin"));
+		assertEquals(big.length, channel.size());
+		for (int position : new int[] {600000, 0, 1023, 1024, 70000, big.length - 5}) {
+			ByteBuffer buffer = ByteBuffer.allocate(3000);
+			channel.position(position);
+			int read = channel.read(buffer);
+			assertEquals(Math.min(3000, big.length - position), read);
+			assertArrayEquals(Arrays.copyOfRange(big, position, position + read), Arrays.copyOf(buffer.array(), read));
+			assertEquals(position + read, channel.position());
+		}
+		assertEquals(-1, channel.read(ByteBuffer.allocate(10)));
+		channel.close();
+		fs.close();
+	}
+
+	@Test
+	public void listsAndWalksDirectories() throws IOException {
+		FileSystem fs = FileSystems.newFileSystem(Paths.get(Fixtures.ext2(folder)), (ClassLoader) null);
+		Path logs = fs.getPath("/logs");
+		try (Stream<Path> listed = Files.list(logs)) {
+			assertEquals(Fixtures.LOG_FILES + 2, listed.count());
+		}
+		int matched = 0;
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(logs, "f1??.log")) {
+			for (Path path : stream) {
+				assertEquals(logs, path.getParent());
+				matched++;
+			}
+		}
+		assertEquals(100, matched);
+		try (Stream<Path> walked = Files.walk(fs.getPath("/"))) {
+			assertEquals(1 + 1 + Fixtures.LOG_FILES + 2 + 5 + 1, walked.count()); // Root, logs and its files, the top level files and links, lost+found
+		}
+		assertTrue(fs.getPathMatcher("glob:/logs/*.log").matches(fs.getPath("/logs/copy-a.log")));
+		fs.close();
+	}
+
+	@Test
+	public void readsAttributesAndLinks() throws IOException {
+		String image = Fixtures.ext4(folder);
+		Volume vol = new Volume(image);
+		int bigPtr = vol.getInodePtrFromPath("/big.bin");
+		Inode big = vol.getInode(bigPtr);
+		vol.close();
+
+		FileSystem fs = FileSystems.newFileSystem(Paths.get(image), (ClassLoader) null);
+		PosixFileAttributes attributes = Files.readAttributes(fs.getPath("/big.bin"), PosixFileAttributes.class);
+		assertTrue(attributes.isRegularFile());
+		assertEquals(614390, attributes.size());
+		assertEquals(big.getLastModified().getTime() / 1000, attributes.lastModifiedTime().toMillis() / 1000);
+		assertEquals(big.getUserID() & 0xFFFF, Integer.parseInt(attributes.owner().getName()));
+		assertFalse(attributes.permissions().isEmpty());
+		assertTrue(Files.isDirectory(fs.getPath("/lost+found")));
+
+		Map<String, Object> chosen = Files.readAttributes(fs.getPath("/logs"), "posix:size,isDirectory");
+		assertEquals(2, chosen.size());
+		assertEquals(Boolean.TRUE, chosen.get("isDirectory"));
+
+		assertTrue(Files.isSymbolicLink(fs.getPath("/link")));
+		assertEquals("logs/f000.log", Files.readSymbolicLink(fs.getPath("/link")).toString());
+		assertEquals(82, Files.readSymbolicLink(fs.getPath("/long-link")).toString().length());
+		assertTrue(Files.isSameFile(fs.getPath("/logs/../big.bin"), fs.getPath("/big.bin")));
+		assertFalse(Files.exists(fs.getPath("/logs/missing")));
+		try {
+			Files.readAllBytes(fs.getPath("/missing"));
+			fail();
+		} catch (NoSuchFileException e) {
+			// Expected
+		}
+		assertTrue(Files.exists(fs.getPath("/link"), LinkOption.NOFOLLOW_LINKS));
+		fs.close();
+	}
+
+	@Test
+	public void refusesToWrite() throws IOException {
+		FileSystem fs = FileSystems.newFileSystem(Paths.get(Fixtures.ext2(folder)), (ClassLoader) null);
+		for (Runnable write : new Runnable[] {
+			() -> unchecked(() -> Files.write(fs.getPath("/new"), new byte[1])),
+			() -> unchecked(() -> Files.delete(fs.getPath("/big.bin"))),
+			() -> unchecked(() -> Files.createDirectory(fs.getPath("/dir")))}) {
+			try {
+				write.run();
+				fail();
+			} catch (ReadOnlyFileSystemException e) {
+				// Expected
+			}
+		}
+		assertFalse(Files.isWritable(fs.getPath("/big.bin")));
+		assertTrue(Files.isReadable(fs.getPath("/big.bin")));
+		fs.close();
+	}
+
+	@Test
+	public void opensPathsFromUris() throws IOException {
+		Path image = Paths.get(Fixtures.ext2(folder));
+		FileSystem fs = FileSystems.newFileSystem(image, (ClassLoader) null);
+		URI uri = fs.getPath("/logs/f007.log").toUri();
+		assertTrue(uri.toString().startsWith("ext2:file:"));
+		assertTrue(uri.toString().endsWith("!/logs/f007.log"));
+		assertArrayEquals(Fixtures.logContent(7), Files.readAllBytes(Paths.get(uri)));
+		try {
+			FileSystems.newFileSystem(image, (ClassLoader) null);
+			fail();
+		} catch (FileSystemAlreadyExistsException e) {
+			// Expected
+		}
+		fs.close();
+		FileSystem again = FileSystems.newFileSystem(image, (ClassLoader) null); // Closing lets the image be opened again
+		assertEquals(Ext2FileSystem.class, again.getClass());
+		assertEquals(fs.getPath("/big.bin").toUri(), again.getPath("/big.bin").toUri());
+		assertTrue(again.getFileStores().iterator().next().getTotalSpace() > 0);
+		again.close();
+	}
+
+	private interface IOAction {
+		void run() throws IOException;
+	}
+
+	private static void unchecked(IOAction action) {
+		try {
+			action.run();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
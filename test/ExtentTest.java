@@ -0,0 +1,144 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExtentTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void walksADepthTwoTree() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		Inode sparse = vol.getInodeFromPath("/sparse.bin");
+		assertTrue(sparse.isExtentMapped());
+		final List<int[]> nodes = new ArrayList<int[]>();
+		final List<Long> data = new ArrayList<Long>();
+		final List<Long> unwritten = new ArrayList<Long>();
+		vol.walkBlocks(sparse, new BlockVisitor() {
+			public void dataBlock(long logical, int physical) {
+				data.add(logical);
+			}
+
+			public boolean indirectBlock(int physical, int level) {
+				nodes.add(new int[] {physical, level});
+				return true;
+			}
+
+			public void unwrittenBlock(long logical, int physical) {
+				unwritten.add(logical);
+			}
+		});
+		assertEquals(2, nodes.get(0)[1]); // The one index node below the inode, over six leaves
+		assertEquals(7, nodes.size());
+		for (int i = 1; i < nodes.size(); i++) {
+			assertEquals(1, nodes.get(i)[1]);
+		}
+		assertEquals(Fixtures.SPARSE_CHUNKS, data.size());
+		for (int i = 0; i < data.size(); i++) {
+			assertEquals(i * (long) (Fixtures.SPARSE_SPACING / vol.getBlockSize()), (long) data.get(i));
+		}
+		assertEquals(4 + 7 + 7 + 7 + 2, unwritten.size()); // fallocate'd 100-130, less the chunks written in it
+		assertEquals(100, (long) unwritten.get(0));
+		assertEquals(130, (long) unwritten.get(unwritten.size() - 1));
+		vol.close();
+	}
+
+	@Test
+	public void mapsAnyStretchOfADepthTwoTree() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		Inode sparse = vol.getInodeFromPath("/sparse.bin");
+		int blocks = (int) ((sparse.getFileSize() + vol.getBlockSize() - 1) / vol.getBlockSize());
+		final int[] expected = new int[blocks + 16];
+		vol.walkBlocks(sparse, (logical, physical) -> expected[(int) logical] = physical);
+		assertArrayEquals(expected, vol.mapBlocks(sparse, 0, expected.length));
+
+		Random random = new Random(45);
+		for (int i = 0; i < 300; i++) { // Many starting in holes, in unwritten extents or crossing from one leaf to the next
+			int first = random.nextInt(blocks + 8);
+			int count = 1 + random.nextInt(400);
+			int[] mapped = vol.mapBlocks(sparse, first, count);
+			int[] window = new int[count];
+			System.arraycopy(expected, first, window, 0, Math.min(count, expected.length - first));
+			assertArrayEquals("From " + first + " for " + count, window, mapped);
+		}
+		assertEquals(0, vol.mapBlocks(sparse, 100, 1)[0]); // Unwritten
+		assertTrue(vol.mapBlocks(sparse, 104, 1)[0] != 0); // Written into the middle of the unwritten range
+		assertEquals(0, vol.mapBlocks(sparse, 1, 1)[0]); // A hole
+		vol.close();
+	}
+
+	@Test
+	public void mapsContiguousExtentsHeldInTheInode() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		Inode big = vol.getInodeFromPath("/big.bin");
+		assertTrue(big.isExtentMapped());
+		final int[] nodes = {0};
+		vol.walkBlocks(big, new BlockVisitor() {
+			public void dataBlock(long logical, int physical) {
+			}
+
+			public boolean indirectBlock(int physical, int level) {
+				nodes[0]++;
+				return true;
+			}
+		});
+		assertEquals(0, nodes[0]);
+		int[] mapped = vol.mapBlocks(big, 0, 600);
+		for (int i = 1; i < mapped.length; i++) {
+			assertEquals(mapped[0] + i, mapped[i]);
+		}
+		assertEquals(0, vol.mapBlocks(big, 600, 1)[0]); // Past the end
+		vol.close();
+	}
+
+	@Test
+	public void readsExtentMappedFilesLikeTheirPointerMappedCopies() throws IOException {
+		Volume ext2 = new Volume(Fixtures.ext2(folder));
+		Volume ext4 = new Volume(Fixtures.ext4(folder));
+		assertFalse(ext2.getInodeFromPath("/sparse.bin").isExtentMapped());
+		Random random = new Random(4);
+		for (String path : new String[] {"/sparse.bin", "/big.bin"}) {
+			Inode pointers = ext2.getInodeFromPath(path);
+			Inode extents = ext4.getInodeFromPath(path);
+			assertEquals(pointers.getFileSize(), extents.getFileSize());
+			byte[] content = path.equals("/big.bin") ? Fixtures.bigContent() : Fixtures.sparseContent();
+			for (int i = 0; i < 200; i++) {
+				int length = random.nextInt(40000);
+				long position = (long) (random.nextDouble() * content.length);
+				byte[] fromExtents = new byte[length];
+				byte[] fromPointers = new byte[length];
+				int read = ext4.readFile(extents, position, fromExtents, 0, length);
+				assertEquals(Math.min(length, content.length - position), read);
+				assertEquals(read, ext2.readFile(pointers, position, fromPointers, 0, length));
+				assertArrayEquals(fromPointers, fromExtents);
+				assertArrayEquals(Arrays.copyOfRange(content, (int) position, (int) position + read), Arrays.copyOf(fromExtents, read));
+			}
+		}
+		ext2.close();
+		ext4.close();
+	}
+
+	@Test
+	public void countsTreeNodesAsIndirectReads() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		Inode sparse = vol.getInodeFromPath("/sparse.bin");
+		vol.getMetrics().reset();
+		vol.readFile(sparse, 0, new byte[(int) sparse.getFileSize()], 0, (int) sparse.getFileSize());
+		long[] levels = vol.getMetrics().getSnapshot().getIndirectReads();
+		assertTrue(levels[0] >= 6); // Every leaf
+		assertTrue(levels[1] >= 1); // The index node
+		assertEquals(0, levels[2]);
+		vol.close();
+	}
+}
@@ -0,0 +1,186 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileServerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Volume vol;
+	private FileServer server;
+
+	private void serve(String image) throws IOException {
+		vol = new Volume(image);
+		server = new FileServer(vol, 0);
+		server.start();
+	}
+
+	@After
+	public void stop() throws IOException {
+		if(server != null) {
+			server.stop();
+			vol.close();
+		}
+	}
+
+	private HttpURLConnection open(String path) throws IOException {
+		return (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path).openConnection();
+	}
+
+	private static byte[] body(HttpURLConnection connection) throws IOException {
+		InputStream in = connection.getResponseCode() >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while((read = in.read(buffer)) > 0) {
+			out.write(buffer, 0, read);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void servesWholeFiles() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			serve(image);
+			HttpURLConnection big = open("/big.bin");
+			assertEquals(200, big.getResponseCode());
+			assertEquals(614390, big.getContentLengthLong());
+			assertArrayEquals(Fixtures.bigContent(), body(big));
+			assertArrayEquals(Fixtures.sparseContent(), body(open("/sparse.bin"))); // Holes are sent as zeros
+			assertArrayEquals(Fixtures.logContent(42), body(open("/logs/f042.log")));
+			assertArrayEquals(new byte[0], body(open("/empty")));
+			stop();
+		}
+	}
+
+	@Test
+	public void servesByteRanges() throws IOException {
+		serve(Fixtures.ext4(folder));
+		byte[] big = Fixtures.bigContent();
+		String[][] ranges = {{"bytes=1000-1999", "1000", "2000"}, {"bytes=600000-", "600000", "614390"},
+			{"bytes=-10", "614380", "614390"}, {"bytes=5-99999999", "5", "614390"}};
+		for (String[] range : ranges) {
+			HttpURLConnection connection = open("/big.bin");
+			connection.setRequestProperty("Range", range[0]);
+			assertEquals(206, connection.getResponseCode());
+			int start = Integer.parseInt(range[1]);
+			int end = Integer.parseInt(range[2]);
+			assertEquals("bytes " + start + "-" + (end - 1) + "/614390", connection.getHeaderField("Content-Range"));
+			assertArrayEquals(Arrays.copyOfRange(big, start, end), body(connection));
+		}
+
+		HttpURLConnection past = open("/big.bin");
+		past.setRequestProperty("Range", "bytes=700000-");
+		assertEquals(416, past.getResponseCode());
+		assertEquals("bytes */614390", past.getHeaderField("Content-Range"));
+	}
+
+	@Test
+	public void answersIfModifiedSince() throws IOException {
+		serve(Fixtures.ext2(folder));
+		HttpURLConnection first = open("/logs/f001.log");
+		String modified = first.getHeaderField("Last-Modified");
+		body(first);
+		HttpURLConnection again = open("/logs/f001.log");
+		again.setRequestProperty("If-Modified-Since", modified);
+		assertEquals(304, again.getResponseCode());
+	}
+
+	@Test
+	public void listsDirectoriesAsJson() throws IOException {
+		serve(Fixtures.ext2(folder));
+		HttpURLConnection root = open("/");
+		assertEquals(200, root.getResponseCode());
+		assertTrue(root.getContentType().startsWith("application/json"));
+		String json = new String(body(root), StandardCharsets.UTF_8);
+		assertTrue(json.startsWith("{\"path\":\"/\""));
+		assertTrue(json.contains("{\"name\":\"big.bin\",\"inode\":" + vol.getInodePtrFromPath("/big.bin") + ",\"type\":\"file\",\"size\":614390,"));
+		assertTrue(json.contains("{\"name\":\"logs\","));
+		assertTrue(json.contains("\"type\":\"directory\""));
+		assertTrue(json.contains("\"type\":\"symlink\""));
+		assertTrue(!json.contains("\"name\":\".\""));
+	}
+
+	@Test
+	public void reportsErrors() throws IOException {
+		serve(Fixtures.ext2(folder));
+		assertEquals(404, open("/missing").getResponseCode());
+		assertEquals(403, open("/link").getResponseCode());
+		HttpURLConnection post = open("/big.bin");
+		post.setRequestMethod("DELETE");
+		assertEquals(405, post.getResponseCode());
+		assertEquals("GET, HEAD", post.getHeaderField("Allow"));
+	}
+
+	@Test
+	public void rejectsBadEscapes() throws IOException {
+		serve(Fixtures.ext2(folder));
+		assertEquals(200, open("/logs%2Ff000.log").getResponseCode());
+		assertEquals(400, open("/logs/f%1G.log").getResponseCode()); // Only the second digit is bad
+		assertEquals(400, open("/logs/f%G1.log").getResponseCode());
+		assertEquals(400, open("/logs/f%4").getResponseCode());
+	}
+
+	@Test
+	public void corruptFilesOnlyCloseTheirConnection() throws IOException {
+		String image = Fixtures.ext2(folder);
+		Volume original = new Volume(image);
+		long inode = Fixtures.inodeOffset(original, original.getInodePtrFromPath("/big.bin"));
+		original.close();
+		Fixtures.pokeInt(image, inode + 40 + (12 * 4), 20000); // Indirect block past the end of the volume
+		serve(image);
+
+		Socket socket = new Socket("127.0.0.1", server.getPort());
+		socket.setSoTimeout(10000);
+		socket.getOutputStream().write("GET /big.bin HTTP/1.1\r\nHost: x\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+		InputStream in = socket.getInputStream();
+		byte[] buffer = new byte[8192];
+		while(in.read(buffer) > 0) { // Closed partway through the body
+		}
+		socket.close();
+
+		HttpURLConnection connection = open("/logs/f007.log");
+		connection.setReadTimeout(10000);
+		assertArrayEquals(Fixtures.logContent(7), body(connection));
+	}
+
+	@Test
+	public void keepsConnectionsAliveAcrossRequests() throws IOException {
+		serve(Fixtures.ext2(folder));
+		Socket socket = new Socket("127.0.0.1", server.getPort());
+		OutputStream out = socket.getOutputStream();
+		out.write(("GET /logs/f003.log HTTP/1.1\r\nHost: x\r\n\r\n"
+			+ "HEAD /big.bin HTTP/1.1\r\nHost: x\r\n\r\n"
+			+ "GET /logs/copy-a.log HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+		out.flush();
+		ByteArrayOutputStream received = new ByteArrayOutputStream();
+		InputStream in = socket.getInputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while((read = in.read(buffer)) > 0) { // Ends once the server closes after the last request
+			received.write(buffer, 0, read);
+		}
+		socket.close();
+		String responses = new String(received.toByteArray(), StandardCharsets.ISO_8859_1);
+		assertEquals(3, responses.split("HTTP/1.1 200 OK\r\n", -1).length - 1);
+		assertTrue(responses.contains(new String(Fixtures.logContent(3), StandardCharsets.ISO_8859_1)));
+		assertTrue(responses.contains("Content-Length: 614390\r\n"));
+		assertTrue(responses.endsWith("the same content in two files\n"));
+	}
+}
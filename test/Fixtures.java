@@ -0,0 +1,189 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Oliver Griffiths
+ * Images for the tests: small ones made by ImageGenerator, and the mkfs-made ext2.img and ext4.img from
+ * fixtures, described in fixtures/make-fixtures.sh. Every image is a fresh copy in a temporary folder,
+ * so tests are free to write to them.
+ */
+class Fixtures {
+	static final int LOG_FILES = 300;
+	static final int SPARSE_CHUNKS = 400;
+	static final int SPARSE_SPACING = 8192;
+
+	/**
+	 * Copies out the mkfs.ext2 image
+	 * @param folder Where the copy goes
+	 * @return The path of the copy
+	 * @throws IOException If it can't be written
+	 */
+	static String ext2(TemporaryFolder folder) throws IOException {
+		return unpack(folder, "ext2.img");
+	}
+
+	/**
+	 * Copies out the mkfs.ext4 image
+	 * @param folder Where the copy goes
+	 * @return The path of the copy
+	 * @throws IOException If it can't be written
+	 */
+	static String ext4(TemporaryFolder folder) throws IOException {
+		return unpack(folder, "ext4.img");
+	}
+
+	/**
+	 * Generates a small image: 3 directories of 40 files of up to 8000 bytes, and the files under /bench
+	 * @param folder Where the image goes
+	 * @param blockSize 1024, 2048 or 4096
+	 * @return The path of the image
+	 * @throws IOException If it can't be written
+	 */
+	static String generate(TemporaryFolder folder, int blockSize) throws IOException {
+		return generate(folder, blockSize, 1234L);
+	}
+
+	/**
+	 * Generates a small image like generate(TemporaryFolder, int), from a given seed
+	 * @param folder Where the image goes
+	 * @param blockSize 1024, 2048 or 4096
+	 * @param seed Decides the names, sizes and contents of the files
+	 * @return The path of the image
+	 * @throws IOException If it can't be written
+	 */
+	static String generate(TemporaryFolder folder, int blockSize, long seed) throws IOException {
+		File image = folder.newFile();
+		generator(blockSize, seed).generate(image.getPath());
+		return image.getPath();
+	}
+
+	/**
+	 * Returns the generator generate() uses, for tests that want to know what it made
+	 * @param blockSize 1024, 2048 or 4096
+	 * @param seed Decides the names, sizes and contents of the files
+	 * @return The generator
+	 */
+	static ImageGenerator generator(int blockSize, long seed) {
+		ImageGenerator generator = new ImageGenerator(seed);
+		generator.setBlockSize(blockSize);
+		generator.setDirectories(3);
+		generator.setFilesPerDirectory(40);
+		generator.setMaxFileSize(8000);
+		generator.setTrebleBlocks(16);
+		return generator;
+	}
+
+	/**
+	 * Returns what /logs/fNNN.log holds in the mkfs images
+	 * @param number Which of the files
+	 * @return Its content
+	 */
+	static byte[] logContent(int number) {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			content.append(String.format("entry %03d ", number));
+		}
+		return content.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Returns what /big.bin holds in the mkfs images
+	 * @return Its content
+	 */
+	static byte[] bigContent() {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 600 * 1024 / 14; i++) {
+			content.append(String.format("line %08d\n", i));
+		}
+		return content.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Returns what /sparse.bin holds in the mkfs images, its holes as zeros
+	 * @return Its content
+	 */
+	static byte[] sparseContent() {
+		byte[] content = new byte[(SPARSE_CHUNKS - 1) * SPARSE_SPACING + 9];
+		for (int i = 0; i < SPARSE_CHUNKS; i++) {
+			byte[] chunk = String.format("chunk %03d", i).getBytes(StandardCharsets.US_ASCII);
+			System.arraycopy(chunk, 0, content, i * SPARSE_SPACING, chunk.length);
+		}
+		return content;
+	}
+
+	/**
+	 * Reads the whole of a file
+	 * @param vol The volume holding it
+	 * @param path The path of the file
+	 * @return Its content
+	 * @throws IOException If the volume can't be read
+	 */
+	static byte[] read(Volume vol, String path) throws IOException {
+		Inode inode = vol.getInode(vol.getInodePtrFromPath(path));
+		byte[] content = new byte[(int) inode.getFileSize()];
+		int read = vol.readFile(inode, 0, content, 0, content.length);
+		if(read != content.length) {
+			throw new IOException("Read " + read + " of " + content.length + " bytes of " + path);
+		}
+		return content;
+	}
+
+	/**
+	 * Returns where an inode is in the image, for tests that change it behind the volume's back
+	 * @param vol The volume holding the inode
+	 * @param id The inode pointer
+	 * @return The byte offset of the inode
+	 */
+	static long inodeOffset(Volume vol, int id) {
+		SuperBlock superBlock = vol.getSuperBlock();
+		int group = (id - 1) / superBlock.getGroupInodes();
+		int within = (id - 1) % superBlock.getGroupInodes();
+		return vol.getBlockLocation(vol.getDescriptor(group).getInodeTablePtr()) + ((long) within * superBlock.getInodeSize());
+	}
+
+	/**
+	 * Writes bytes straight into an image file
+	 * @param image The path of the image
+	 * @param offset Where to write
+	 * @param bytes What to write
+	 * @throws IOException If the image can't be written
+	 */
+	static void poke(String image, long offset, byte[] bytes) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(image, "rw")) {
+			file.seek(offset);
+			file.write(bytes);
+		}
+	}
+
+	/**
+	 * Writes a little endian int straight into an image file
+	 * @param image The path of the image
+	 * @param offset Where to write
+	 * @param value What to write
+	 * @throws IOException If the image can't be written
+	 */
+	static void pokeInt(String image, long offset, int value) throws IOException {
+		poke(image, offset, new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+	}
+
+	private static String unpack(TemporaryFolder folder, String name) throws IOException {
+		File image = File.createTempFile(name.substring(0, name.indexOf('.')), ".img", folder.getRoot()); // Unique, so a test can take several copies
+		try (InputStream in = new GZIPInputStream(Fixtures.class.getResourceAsStream("/fixtures/" + name + ".gz"));
+				OutputStream out = new FileOutputStream(image)) {
+			byte[] buffer = new byte[64 * 1024];
+			int read;
+			while((read = in.read(buffer)) > 0) {
+				out.write(buffer, 0, read);
+			}
+		}
+		return image.getPath();
+	}
+}
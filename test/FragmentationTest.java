@@ -0,0 +1,92 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FragmentationTest {
+	private static final int FILES_WITH_BLOCKS = Fixtures.LOG_FILES + 2 + 7; // Everything but /link, whose target is kept in its inode
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void measuresEveryFileWithBlocks() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			List<FileFragmentation> files = new Fragmentation(vol).analyse();
+			assertEquals(FILES_WITH_BLOCKS, files.size());
+			for (int i = 1; i < files.size(); i++) { // Most fragmented first
+				assertTrue(files.get(i - 1).getExtents() >= files.get(i).getExtents());
+			}
+			vol.close();
+		}
+	}
+
+	@Test
+	public void sequentialFileIsOneExtent() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			int id = vol.getInodePtrFromPath("/big.bin");
+			FileFragmentation big = new Fragmentation(vol).measure(id, vol.getInode(id));
+			assertEquals(Fixtures.bigContent().length, big.getSize());
+			assertTrue(big.getBlocks() >= (Fixtures.bigContent().length + 1023) / 1024); // The data, and on ext2 its pointer tables
+			assertEquals(1, big.getExtents());
+			assertEquals(0, big.getSeekDistance());
+			vol.close();
+		}
+	}
+
+	@Test
+	public void skipsUninitialisedInodesOnExt4() throws IOException {
+		String image = Fixtures.ext4(folder);
+		Volume vol = new Volume(image);
+		int groupInodes = vol.getSuperBlock().getGroupInodes();
+		int unused = new GroupDescriptorView().wrap(vol.readDescriptorTable(), 0).getUnusedInodes();
+		int[] ids = {groupInodes + 1, groupInodes - unused + 1}; // In the INODE_UNINIT group 1, and past the used part of group 0
+		long[] offsets = {Fixtures.inodeOffset(vol, ids[0]), Fixtures.inodeOffset(vol, ids[1])};
+		vol.close();
+		byte[] leftover = new byte[128]; // Never written, so anything could be there, even what looks like a live file
+		Converter.shortToBytes(0x81A4, leftover, 0);
+		Converter.intToBytes(1024, leftover, 4); // Size
+		Converter.shortToBytes(1, leftover, 26); // Links
+		Converter.intToBytes(2, leftover, 28); // Sectors
+		Converter.intToBytes(16000, leftover, 40);
+		for (long offset : offsets) {
+			Fixtures.poke(image, offset, leftover);
+		}
+
+		vol = new Volume(image);
+		List<FileFragmentation> files = new Fragmentation(vol).analyse();
+		assertEquals(FILES_WITH_BLOCKS, files.size());
+		for (FileFragmentation file : files) {
+			assertTrue(file.getInodePtr() != ids[0] && file.getInodePtr() != ids[1]);
+		}
+		vol.close();
+	}
+
+	@Test
+	public void worstFilesComeWithPaths() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		List<FileFragmentation> worst = new Fragmentation(vol).worst(2);
+		assertEquals(Arrays.asList("/sparse.bin", "/logs"), Arrays.asList(worst.get(0).getPath(), worst.get(1).getPath()));
+		assertTrue(worst.get(0).getExtents() > 1);
+		assertTrue(worst.get(0).getSeekDistance() > 0);
+		vol.close();
+	}
+
+	@Test
+	public void fragmentedShareCountsFilesOfSeveralExtents() {
+		FileFragmentation whole = new FileFragmentation(12, 4096, 4, 1, 0);
+		FileFragmentation split = new FileFragmentation(13, 4096, 4, 3, 40);
+		assertEquals(0.5, Fragmentation.fragmentedShare(Arrays.asList(whole, split)), 0);
+		assertEquals(0.0, Fragmentation.fragmentedShare(Collections.<FileFragmentation>emptyList()), 0);
+		assertEquals(4.0 / 3, split.getAverageExtentLength(), 1e-9);
+	}
+}
@@ -0,0 +1,90 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HasherTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void findsOnlyTheCopiesOnExt2() throws IOException {
+		assertOnlyCopies(Fixtures.ext2(folder));
+	}
+
+	@Test
+	public void findsOnlyTheCopiesOnExt4() throws IOException {
+		assertOnlyCopies(Fixtures.ext4(folder)); // Every log is the same size, so only their first blocks tell them apart
+	}
+
+	@Test
+	public void hashesMatchTheContent() throws Exception {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			Hasher hasher = new Hasher(vol, "MD5");
+			Map<String, String> digests = hasher.hashAll("/");
+			assertEquals(md5(Fixtures.bigContent()), digests.get("/big.bin"));
+			assertEquals(md5(Fixtures.sparseContent()), digests.get("/sparse.bin"));
+			assertEquals(md5(Fixtures.logContent(42)), digests.get("/logs/f042.log"));
+			assertEquals(md5(new byte[0]), digests.get("/empty"));
+			assertEquals(Fixtures.LOG_FILES + 2 + 3, digests.size()); // Logs, copies, big, sparse and empty; links aren't regular files
+			vol.close();
+		}
+	}
+
+	@Test
+	public void findsCopiesOnAGeneratedImage() throws IOException {
+		String image = Fixtures.generate(folder, 1024);
+		Volume vol = new Volume(image);
+		Ext2File copy = Ext2File.create(vol, "/dir0/copy");
+		byte[] content = Fixtures.read(vol, "/dir1/file3");
+		copy.append(content);
+		vol.close();
+
+		vol = new Volume(image);
+		List<List<String>> duplicates = new Hasher(vol).findDuplicates("/dir0");
+		assertEquals(Collections.emptyList(), duplicates); // The original is outside the directory searched
+		duplicates = new Hasher(vol).findDuplicates("/");
+		assertEquals(Collections.singletonList(Arrays.asList("/dir0/copy", "/dir1/file3")), duplicates);
+		vol.close();
+	}
+
+	@Test
+	public void xxh64MatchesTheContent() throws IOException {
+		assertEquals("ef46db3751d8e999", xxh64(new byte[0])); // Reference values from the xxHash project
+		assertEquals("fbcea83c8a378bf1", xxh64("Nobody inspects the spammish repetition".getBytes(StandardCharsets.US_ASCII)));
+
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		Hasher hasher = new Hasher(vol, Hasher.XXH64);
+		Map<String, String> digests = hasher.hashAll("/");
+		assertEquals(xxh64(Fixtures.bigContent()), digests.get("/big.bin")); // Streamed a run at a time
+		assertEquals(xxh64(Fixtures.sparseContent()), digests.get("/sparse.bin"));
+		assertEquals(xxh64(Fixtures.logContent(42)), digests.get("/logs/f042.log"));
+		assertEquals(new Hasher(vol).findDuplicates("/"), hasher.findDuplicates("/"));
+		vol.close();
+	}
+
+	private void assertOnlyCopies(String image) throws IOException {
+		Volume vol = new Volume(image);
+		List<List<String>> duplicates = new Hasher(vol).findDuplicates("/");
+		assertEquals(Collections.singletonList(Arrays.asList("/logs/copy-a.log", "/logs/copy-b.log")), duplicates);
+		vol.close();
+	}
+
+	private static String md5(byte[] content) throws Exception {
+		return Hasher.toHex(MessageDigest.getInstance("MD5").digest(content));
+	}
+
+	private static String xxh64(byte[] content) {
+		return Hasher.toHex(new XXHash64().digest(content));
+	}
+}
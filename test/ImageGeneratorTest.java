@@ -0,0 +1,105 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImageGeneratorTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sameSeedGivesSameTree() throws IOException {
+		Map<String, String> first = digests(Fixtures.generate(folder, 1024, 7L));
+		Map<String, String> second = digests(Fixtures.generate(folder, 1024, 7L));
+		Map<String, String> other = digests(Fixtures.generate(folder, 1024, 8L));
+		assertEquals(first, second);
+		assertEquals(first.keySet(), other.keySet());
+		assertFalse(first.equals(other));
+	}
+
+	@Test
+	public void benchFilesReachEveryPointerRange() throws IOException {
+		for (int blockSize : new int[] {1024, 2048, 4096}) {
+			Volume vol = new Volume(Fixtures.generate(folder, blockSize));
+			long[] sizes = Fixtures.generator(blockSize, 1234L).getBenchSizes(blockSize);
+			String[] names = {"direct", "indirect", "double", "treble"};
+			for (int i = 0; i < names.length; i++) {
+				assertEquals(names[i], sizes[i], vol.getInode(vol.getInodePtrFromPath("/bench/" + names[i])).getFileSize());
+			}
+			Inode treble = vol.getInode(vol.getInodePtrFromPath("/bench/treble"));
+			long start = ImageGenerator.getTrebleStart(blockSize);
+			byte[] bytes = new byte[2 * blockSize];
+			assertEquals(bytes.length, vol.readFile(treble, start - blockSize, bytes, 0, bytes.length));
+			for (int i = 0; i < blockSize; i++) {
+				assertEquals("hole before the treble range", 0, bytes[i]);
+			}
+			int[] physical = vol.mapBlocks(treble, start / blockSize, 1);
+			assertTrue("data in the treble range is allocated", physical[0] != 0);
+			vol.close();
+		}
+	}
+
+	@Test
+	public void generatedImagePassesE2fsck() throws Exception {
+		File e2fsck = new File("/sbin/e2fsck");
+		Assume.assumeTrue(e2fsck.canExecute());
+		for (int blockSize : new int[] {1024, 4096}) {
+			String image = Fixtures.generate(folder, blockSize);
+			Process check = new ProcessBuilder(e2fsck.getPath(), "-fn", image).redirectErrorStream(true).start();
+			check.getInputStream().skip(Long.MAX_VALUE);
+			assertEquals("e2fsck of a " + blockSize + " byte block image", 0, check.waitFor());
+		}
+	}
+
+	@Test
+	public void formatLeavesRootAndLostFound() throws IOException {
+		String image = folder.newFile().getPath();
+		new ImageGenerator(1L).format(image, 2048, 64);
+		Volume vol = new Volume(image);
+		final Map<String, Integer> names = new TreeMap<String, Integer>();
+		new Directory(vol.getInode(2), vol).forEachEntry((inodePtr, type, name) -> {
+			names.put(name, inodePtr);
+			return true;
+		});
+		assertEquals(3, names.size());
+		assertEquals(Integer.valueOf(2), names.get("."));
+		assertEquals(Integer.valueOf(11), names.get("lost+found"));
+		assertTrue(vol.getInode(11).isDirectory());
+		vol.close();
+	}
+
+	// The digest of every file on an image, by path
+	private Map<String, String> digests(String image) throws IOException {
+		final Volume vol = new Volume(image);
+		final Map<String, String> digests = new TreeMap<String, String>();
+		vol.walkTree("/", (path, inodePtr, directory) -> {
+			if(!directory) {
+				try {
+					MessageDigest md5 = MessageDigest.getInstance("MD5");
+					vol.readContent(vol.getInode(inodePtr), (bytes, offset, length) -> {
+						md5.update(bytes, offset, length);
+						return true;
+					});
+					digests.put(path, new BigInteger(1, md5.digest()).toString(16));
+				} catch (NoSuchAlgorithmException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+			return true;
+		});
+		vol.close();
+		return digests;
+	}
+}
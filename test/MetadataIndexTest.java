@@ -0,0 +1,90 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MetadataIndexTest {
+	private static final String[] PATHS = {"/", "/logs", "/logs/f000.log", "/logs/f299.log", "/logs/copy-b.log", "/big.bin", "/sparse.bin", "/empty", "/long-link", "/lost+found"};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void resolvesPathsLikeTheVolume() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			MetadataIndex index = MetadataIndex.build(vol, folder.newFile().getPath());
+			for (String path : PATHS) {
+				int id = vol.getInodePtrFromPath(path);
+				assertEquals(path, id, index.lookup(path));
+				Inode inode = vol.getInode(id);
+				Inode indexed = index.getInode(id);
+				assertEquals(path, inode.getFileSize(), indexed.getFileSize());
+				assertEquals(path, inode.getModeBits(), indexed.getModeBits());
+				assertEquals(path, inode.getLastModified(), indexed.getLastModified());
+				assertEquals(path, inode.getHardLinks(), indexed.getHardLinks());
+			}
+			assertEquals(-1, index.lookup("/logs/f300.log"));
+			assertEquals(-1, index.lookup("/big.bin/f000.log"));
+			assertNull(index.getInode(vol.getSuperBlock().getInodes())); // Free
+			vol.close();
+		}
+	}
+
+	@Test
+	public void readsFilesThroughTheIndexedBlockMaps() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			vol.useIndex(folder.newFile().getPath() + ".idx");
+			assertArrayEquals(Fixtures.bigContent(), Fixtures.read(vol, "/big.bin"));
+			assertArrayEquals(Fixtures.sparseContent(), Fixtures.read(vol, "/sparse.bin"));
+			assertArrayEquals(Fixtures.logContent(77), Fixtures.read(vol, "/logs/f077.log"));
+			vol.close();
+		}
+	}
+
+	@Test
+	public void reopensUntilTheVolumeChanges() throws IOException {
+		String image = Fixtures.ext2(folder);
+		Volume vol = new Volume(image);
+		vol.useIndex();
+		File sidecar = new File(image + ".idx");
+		assertTrue(sidecar.exists());
+		long built = sidecar.lastModified();
+		vol.close();
+
+		vol = new Volume(image);
+		MetadataIndex index = MetadataIndex.open(vol, sidecar.getPath());
+		assertNotNull(index);
+		assertEquals(vol.getInodePtrFromPath("/logs/f123.log"), index.lookup("/logs/f123.log"));
+		assertEquals(built, sidecar.lastModified());
+		vol.createFile("/logs/f300.log");
+		vol.close();
+
+		vol = new Volume(image);
+		assertNull(MetadataIndex.open(vol, sidecar.getPath())); // The SuperBlock's free counts no longer match
+		vol.useIndex();
+		assertTrue(vol.getInodePtrFromPath("/logs/f300.log") > 0);
+		vol.close();
+	}
+
+	@Test
+	public void ignoresFilesThatAreNotIndexes() throws IOException {
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		File other = folder.newFile();
+		Files.write(Paths.get(other.getPath()), new byte[128]);
+		assertNull(MetadataIndex.open(vol, other.getPath()));
+		assertNull(MetadataIndex.open(vol, other.getPath() + ".missing"));
+		vol.close();
+	}
+}
@@ -0,0 +1,120 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NameIndexTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void findsNamesOnBothFixtures() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			NameIndex index = NameIndex.build(vol);
+			assertEquals(Arrays.asList("/logs/copy-a.log", "/logs/copy-b.log"), index.getPaths(index.findPrefix("copy-")));
+			assertEquals(Arrays.asList("/big.bin", "/sparse.bin"), index.getPaths(index.findSuffix(".bin")));
+			assertEquals(Arrays.asList("/logs/f123.log"), index.getPaths(index.findSubstring("123")));
+			assertEquals(Fixtures.LOG_FILES, index.findGlob("f???.log").length);
+			assertEquals(Arrays.asList("/logs/f290.log", "/logs/f291.log"), index.getPaths(index.findGlob("f29[01].log")));
+			assertEquals(Arrays.asList("/long-link"), index.getPaths(index.findGlob("long-*")));
+			vol.close();
+		}
+	}
+
+	@Test
+	public void negatedSetsMatchOutsideTheSet() throws IOException {
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		NameIndex index = NameIndex.build(vol);
+		assertEquals(Fixtures.LOG_FILES - 100, index.findGlob("f[!0]??.log").length);
+		assertEquals(Arrays.asList("/logs/f000.log", "/logs/f001.log"), index.getPaths(index.findGlob("f00[!2-9].log")));
+		assertEquals(index.getPaths(index.findGlob("f00[!2-9].log")), index.getPaths(index.findGlob("f00[^2-9].log")));
+		vol.close();
+	}
+
+	@Test
+	public void unclosedBracketIsAnOrdinaryCharacter() throws IOException {
+		String image = Fixtures.generate(folder, 1024);
+		Volume vol = new Volume(image);
+		vol.createFile("/dir0/a[b");
+		vol.createFile("/dir0/a]b");
+		vol.close();
+
+		vol = new Volume(image);
+		NameIndex index = NameIndex.build(vol);
+		assertEquals(Arrays.asList("/dir0/a[b"), index.getPaths(index.findGlob("a[b")));
+		assertEquals(Arrays.asList("/dir0/a[b"), index.getPaths(index.findGlob("*[b")));
+		assertEquals(Arrays.asList("/dir0/a]b"), index.getPaths(index.findGlob("a[]]b")));
+		assertEquals(Collections.emptyList(), index.getPaths(index.findGlob("a[!]")));
+		vol.close();
+	}
+
+	@Test
+	public void closingBracketFirstInASetIsAMember() throws IOException {
+		String image = Fixtures.generate(folder, 1024);
+		Volume vol = new Volume(image);
+		for (String name : new String[] {"xacd1", "x]cd1", "xbcd1", "xzcd1"}) {
+			vol.createFile("/dir0/" + name);
+		}
+		vol.close();
+
+		vol = new Volume(image);
+		NameIndex index = NameIndex.build(vol);
+		// Globs found by prefix, by suffix and through the trigrams of their longest literal
+		for (String glob : new String[] {"x[]ab]cd1", "*[]ab]cd1", "*[]ab]cd*", "x[!]ab]cd1", "*[!]ab]cd1", "*[!]ab]cd*"}) {
+			Pattern pattern = Pattern.compile(NameIndex.globToRegex(glob));
+			List<Integer> expected = new ArrayList<Integer>();
+			for (int entry = 0; entry < index.size(); entry++) {
+				if(pattern.matcher(index.getName(entry)).matches()) {
+					expected.add(entry);
+				}
+			}
+			List<Integer> found = new ArrayList<Integer>();
+			for (int entry : index.findGlob(glob)) {
+				found.add(entry);
+			}
+			Collections.sort(found);
+			assertEquals(glob, expected, found);
+			assertTrue(glob, !found.isEmpty());
+		}
+		assertEquals(Arrays.asList("/dir0/x]cd1", "/dir0/xacd1", "/dir0/xbcd1"), sorted(index.getPaths(index.findGlob("*[]ab]cd*"))));
+		assertEquals(Arrays.asList("/dir0/xzcd1"), index.getPaths(index.findGlob("*[!]ab]cd1")));
+		vol.close();
+	}
+
+	@Test
+	public void translatesGlobs() {
+		assertTrue(matches("*.log", "f000.log"));
+		assertFalse(matches("*.log", "f000.logs"));
+		assertTrue(matches("f?0.log", "f10.log"));
+		assertTrue(matches("[!a-c]x", "dx"));
+		assertFalse(matches("[!a-c]x", "bx"));
+		assertTrue(matches("[]x]", "]"));
+		assertTrue(matches("[a&&b]", "&"));
+		assertTrue(matches("[[]", "["));
+		assertTrue(matches("a[", "a["));
+		assertTrue(matches("[!", "[!"));
+		assertTrue(matches("a.b(c)", "a.b(c)"));
+		assertFalse(matches("a.b", "axb"));
+	}
+
+	private static List<String> sorted(List<String> paths) {
+		List<String> copy = new ArrayList<String>(paths);
+		Collections.sort(copy);
+		return copy;
+	}
+
+	private static boolean matches(String glob, String name) {
+		return Pattern.compile(NameIndex.globToRegex(glob)).matcher(name).matches();
+	}
+}
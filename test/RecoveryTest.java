@@ -0,0 +1,133 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RecoveryTest {
+	private static final byte[] DELETED = "deleted file content\n".getBytes(StandardCharsets.US_ASCII);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void recoversTheDeletedFile() throws IOException {
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		Recovery recovery = new Recovery(vol);
+		List<DeletedFile> found = recovery.scan();
+		assertEquals(1, found.size());
+		DeletedFile file = found.get(0);
+		assertEquals(DELETED.length, file.getSize());
+		assertEquals(1, file.getExpectedBlocks());
+		assertEquals(1.0, file.getConfidence(), 0);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		recovery.recover(file, out);
+		assertArrayEquals(DELETED, out.toByteArray());
+		vol.close();
+	}
+
+	@Test
+	public void findsNothingWithoutDeletions() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		assertEquals(Collections.emptyList(), new Recovery(vol).scan());
+		vol.close();
+		vol = new Volume(Fixtures.generate(folder, 1024));
+		assertEquals(Collections.emptyList(), new Recovery(vol).scan());
+		vol.close();
+	}
+
+	@Test
+	public void reusedBlocksComeBackAsZeros() throws IOException {
+		String image = Fixtures.ext2(folder);
+		Volume vol = new Volume(image);
+		DeletedFile file = new Recovery(vol).scan().get(0);
+		long block = 0xFFFFFFFFL & file.getInode().getBlockPointers()[0];
+		int groupBlocks = vol.getSuperBlock().getGroupBlocks();
+		long bitmap = vol.getBlockLocation(vol.getDescriptor((int) ((block - 1) / groupBlocks)).getBlockBitmapPtr());
+		int bit = (int) ((block - 1) % groupBlocks);
+		byte[] bits = vol.getBytes(bitmap + bit / 8, bitmap + bit / 8 + 1);
+		vol.close();
+		Fixtures.poke(image, bitmap + bit / 8, new byte[] {(byte) (bits[0] | (1 << (bit % 8)))}); // Handed out to another file
+
+		vol = new Volume(image);
+		Recovery recovery = new Recovery(vol);
+		file = recovery.scan().get(0);
+		assertEquals(0, file.getFreeBlocks());
+		assertEquals(0.0, file.getConfidence(), 0);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		recovery.recover(file, out);
+		assertArrayEquals(new byte[DELETED.length], out.toByteArray());
+		vol.close();
+	}
+
+	@Test
+	public void skipsUninitialisedGroupsOnExt4() throws IOException {
+		String image = Fixtures.ext4(folder);
+		Volume vol = new Volume(image);
+		int groupInodes = vol.getSuperBlock().getGroupInodes();
+		byte[] table = vol.readDescriptorTable();
+		int unused = new GroupDescriptorView().wrap(table, 0).getUnusedInodes();
+		int flags = new GroupDescriptorView().wrap(table, 1).getFlags();
+		assertEquals(GroupDescriptorView.INODE_UNINIT, flags & GroupDescriptorView.INODE_UNINIT);
+		assertTrue(unused > 0);
+		int deleted = vol.getInodePtrFromPath("/logs/f001.log");
+		long uninitGroup = Fixtures.inodeOffset(vol, groupInodes + 1);
+		long unusedTail = Fixtures.inodeOffset(vol, groupInodes - unused + 1);
+		long deletedOffset = Fixtures.inodeOffset(vol, deleted);
+		long inodeBitmap = vol.getBlockLocation(vol.getDescriptor(0).getInodeBitmapPtr());
+		byte[] bits = vol.getBytes(inodeBitmap + (deleted - 1) / 8, inodeBitmap + (deleted - 1) / 8 + 1);
+		long descriptor = vol.getBlockLocation(2) + vol.getSuperBlock().getDescriptorSize(); // Group 1, in the table after the SuperBlock
+		long blockBitmap = vol.getBlockLocation(vol.getDescriptor(1).getBlockBitmapPtr());
+		long backup = 0xFFFFFFFFL & (vol.getSuperBlock().getFirstDataBlock() + vol.getSuperBlock().getGroupBlocks());
+		vol.close();
+
+		// Leftovers in tables the kernel never initialised would look like deleted files pointing at free blocks
+		Fixtures.poke(image, uninitGroup, deletedInode(16000));
+		Fixtures.poke(image, unusedTail, deletedInode(16001));
+		// A real deletion pointing at group 1's SuperBlock copy, which is in use though the group's bitmap says nothing
+		Fixtures.poke(image, deletedOffset, deletedInode(backup));
+		Fixtures.poke(image, inodeBitmap + (deleted - 1) / 8, new byte[] {(byte) (bits[0] & ~(1 << ((deleted - 1) % 8)))});
+		Fixtures.poke(image, descriptor + 18, new byte[] {(byte) (flags | GroupDescriptorView.BLOCK_UNINIT), (byte) (flags >> 8)});
+		Fixtures.poke(image, blockBitmap, new byte[1024]);
+
+		vol = new Volume(image);
+		List<DeletedFile> found = new Recovery(vol).scan();
+		assertEquals(1, found.size());
+		assertEquals(deleted, found.get(0).getInodePtr());
+		assertEquals(0, found.get(0).getFreeBlocks());
+		assertEquals(0.0, found.get(0).getConfidence(), 0);
+		vol.close();
+	}
+
+	@Test
+	public void recoverAllWritesFilesNamedByInode() throws IOException {
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		String directory = folder.newFolder().getPath();
+		List<DeletedFile> recovered = new Recovery(vol).recoverAll(directory, 0.5);
+		assertEquals(1, recovered.size());
+		assertArrayEquals(DELETED, Files.readAllBytes(Paths.get(directory, "inode-" + recovered.get(0).getInodePtr())));
+		assertEquals(Collections.emptyList(), new Recovery(vol).recoverAll(folder.newFolder().getPath(), 1.1));
+		vol.close();
+	}
+
+	// The start of a deleted one block file mapped by block pointers
+	private static byte[] deletedInode(long block) {
+		byte[] inode = new byte[128];
+		Converter.shortToBytes(0x81A4, inode, 0);
+		Converter.intToBytes(1024, inode, 4); // Size
+		Converter.intToBytes(1700000000, inode, 20); // Deletion time
+		Converter.intToBytes(2, inode, 28); // Sectors
+		Converter.intToBytes((int) block, inode, 40);
+		return inode;
+	}
+}
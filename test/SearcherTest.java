@@ -0,0 +1,65 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SearcherTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void findsEveryOccurrenceInOneFile() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			List<SearchMatch> matches = new Searcher(vol, "entry 042").search("/");
+			assertEquals(20, matches.size());
+			for (int i = 0; i < matches.size(); i++) {
+				assertEquals("/logs/f042.log", matches.get(i).getPath());
+				assertEquals(i * 10L, matches.get(i).getOffset());
+				assertEquals("entry 042", matches.get(i).getText());
+			}
+			vol.close();
+		}
+	}
+
+	@Test
+	public void findsMatchesAcrossBlockBoundaries() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			List<SearchMatch> matches = new Searcher(vol, "line 00000073").search("/");
+			assertEquals(1, matches.size());
+			assertEquals(73 * 14L, matches.get(0).getOffset()); // Starts 2 bytes before the end of the first block
+			String around = new String(Fixtures.bigContent(), 73 * 14 - 32, 13 + 64, StandardCharsets.US_ASCII);
+			assertEquals(around.replace('\n', '.'), matches.get(0).getContext()); // 32 bytes either side, line breaks made printable
+			vol.close();
+		}
+	}
+
+	@Test
+	public void searchesPastHolesWithARegex() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			List<SearchMatch> matches = new Searcher(vol, Pattern.compile("chunk 3[0-9]{2}"), 9).search("/");
+			assertEquals(100, matches.size());
+			assertEquals("/sparse.bin", matches.get(0).getPath());
+			assertEquals(300L * Fixtures.SPARSE_SPACING, matches.get(0).getOffset());
+			assertEquals(399L * Fixtures.SPARSE_SPACING, matches.get(99).getOffset());
+			vol.close();
+		}
+	}
+
+	@Test
+	public void searchesOnlyBelowTheDirectory() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		Searcher searcher = new Searcher(vol, "the same content");
+		assertEquals(20, searcher.search("/logs").size());
+		assertEquals(0, searcher.search("/lost+found").size());
+		vol.close();
+	}
+}
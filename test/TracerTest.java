@@ -0,0 +1,72 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TracerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String[] EVENTS = {"ext2fs.BlockRead", "ext2fs.InodeLoad", "ext2fs.IndirectRead", "ext2fs.DirectoryScan", "ext2fs.FileRead"};
+
+	@Test
+	public void tracesNothingWithoutARecording() throws IOException {
+		for (int event = Tracer.BLOCK_READ; event <= Tracer.FILE_READ; event++) {
+			assertNull(Tracer.INSTANCE.begin(event));
+		}
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		assertArrayEquals(Fixtures.bigContent(), Fixtures.read(vol, "/big.bin"));
+		vol.close();
+	}
+
+	@Test
+	public void recordsEventsWhileARecordingRuns() throws Exception {
+		// The tests build for Java 8, so the JDK 11 recorder API is only reached through reflection
+		Assume.assumeTrue(Tracer.INSTANCE.getClass().getName().equals("JfrTracer"));
+		Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+		Object recording = recordingClass.getDeclaredConstructor().newInstance();
+		for (String event : EVENTS) {
+			recordingClass.getMethod("enable", String.class).invoke(recording, event);
+		}
+		recordingClass.getMethod("start").invoke(recording);
+
+		FileSystem fs = FileSystems.newFileSystem(Paths.get(Fixtures.ext2(folder)), (ClassLoader) null);
+		assertArrayEquals(Fixtures.bigContent(), Files.readAllBytes(fs.getPath("/big.bin")));
+		Object traced = Tracer.INSTANCE.begin(Tracer.INODE_LOAD);
+		assertNotNull(traced);
+		Tracer.INSTANCE.inodeLoad(traced, 2, false);
+		fs.close();
+
+		recordingClass.getMethod("stop").invoke(recording);
+		Path dump = folder.newFile("trace.jfr").toPath();
+		recordingClass.getMethod("dump", Path.class).invoke(recording, dump);
+		recordingClass.getMethod("close").invoke(recording);
+		assertNull(Tracer.INSTANCE.begin(Tracer.INODE_LOAD)); // Nothing is recording any more
+
+		Set<String> recorded = new HashSet<String>();
+		Method eventType = Class.forName("jdk.jfr.consumer.RecordedEvent").getMethod("getEventType");
+		Method name = Class.forName("jdk.jfr.EventType").getMethod("getName");
+		for (Object event : (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", Path.class).invoke(null, dump)) {
+			recorded.add((String) name.invoke(eventType.invoke(event)));
+		}
+		for (String event : EVENTS) {
+			assertTrue(event, recorded.contains(event));
+		}
+	}
+}
@@ -0,0 +1,114 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ViewsTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void superBlockViewMatchesTheSuperBlock() throws IOException {
+		for (String image : images()) {
+			Volume vol = new Volume(image);
+			SuperBlock superBlock = vol.getSuperBlock();
+			SuperBlockView view = new SuperBlockView().wrap(vol.getBytes(0, 2048), 1024);
+			assertEquals(superBlock.getMagicNumber(), view.getMagicNumber());
+			assertEquals(superBlock.getInodes(), view.getInodes());
+			assertEquals(superBlock.getBlocks(), view.getBlocks());
+			assertEquals(superBlock.getFreeBlocks(), view.getFreeBlocks());
+			assertEquals(superBlock.getFreeInodes(), view.getFreeInodes());
+			assertEquals(superBlock.getFirstDataBlock(), view.getFirstDataBlock());
+			assertEquals(superBlock.getBlockSize(), view.getBlockSize());
+			assertEquals(superBlock.getGroupBlocks(), view.getGroupBlocks());
+			assertEquals(superBlock.getGroupInodes(), view.getGroupInodes());
+			assertEquals(superBlock.getWriteTime().getTime() / 1000, view.getWriteSeconds());
+			assertEquals(superBlock.getRevision(), view.getRevision());
+			assertEquals(superBlock.getInodeSize(), view.getInodeSize());
+			assertEquals(superBlock.getRoCompatFeatures(), view.getRoCompatFeatures());
+			vol.close();
+		}
+	}
+
+	@Test
+	public void groupDescriptorViewMatchesEveryDescriptor() throws IOException {
+		for (String image : images()) {
+			Volume vol = new Volume(image);
+			byte[] table = vol.readDescriptorTable(); // 64 byte ext4 descriptors come back cut down to 32
+			GroupDescriptorView view = new GroupDescriptorView();
+			for (int group = 0; group < vol.getGroupCount(); group++) {
+				GroupDescriptor desc = vol.getDescriptor(group);
+				view.wrap(table, group);
+				assertEquals(desc.getBlockBitmapPtr(), view.getBlockBitmapPtr());
+				assertEquals(desc.getInodeBitmapPtr(), view.getInodeBitmapPtr());
+				assertEquals(desc.getInodeTablePtr(), view.getInodeTablePtr());
+				assertEquals(desc.getFreeBlocks(), view.getFreeBlocks());
+				assertEquals(desc.getFreeInodes(), view.getFreeInodes());
+				assertEquals(desc.getUsedDirs(), view.getUsedDirs());
+			}
+			vol.close();
+		}
+	}
+
+	@Test
+	public void inodeViewMatchesEveryInodeOfTheFirstGroup() throws IOException {
+		for (String image : images()) {
+			Volume vol = new Volume(image);
+			int size = vol.getSuperBlock().getInodeSize();
+			byte[] table = vol.readInodeTable(0);
+			InodeView view = new InodeView();
+			for (int i = 0; i < vol.getSuperBlock().getGroupInodes(); i++) {
+				Inode inode = vol.getInode(i + 1);
+				view.wrap(table, i * size);
+				assertEquals(inode.getModeBits(), view.getModeBits());
+				assertEquals(inode.getFileMode(), view.getFileMode());
+				assertEquals(inode.getFileSize(), view.getFileSize());
+				assertEquals(inode.getHardLinks(), view.getHardLinks());
+				assertEquals(inode.getUserID(), view.getUserID());
+				assertEquals(inode.getGroupID(), view.getGroupID());
+				assertEquals(inode.getLastModified(), view.getLastModified());
+				assertEquals(inode.getSectors(), view.getSectors());
+				assertEquals(inode.isExtentMapped(), view.isExtentMapped());
+				if(inode.isExtentMapped()) { // The inode keeps either the root or the pointers, the view reads both from the same bytes
+					assertArrayEquals(inode.getExtentRoot(), view.getExtentRoot());
+				} else {
+					assertArrayEquals(inode.getBlockPointers(), view.getBlockPointers());
+					assertEquals(inode.getIndirectPointer(), view.getIndirectPointer());
+					assertEquals(inode.getDoubleIndirectPointer(), view.getDoubleIndirectPointer());
+					assertEquals(inode.getTripleIndirectPointer(), view.getTripleIndirectPointer());
+				}
+				assertEquals(inode.getFileSize(), view.toInode(size).getFileSize());
+			}
+			vol.close();
+		}
+	}
+
+	@Test
+	public void inodeViewSettersWriteThrough() {
+		byte[] table = new byte[512];
+		ByteBuffer buffer = ByteBuffer.wrap(table).order(ByteOrder.BIG_ENDIAN); // The view reads little endian whatever it's given
+		InodeView view = new InodeView().wrap(buffer, 256);
+		view.setModeBits(0x81A4);
+		view.setFileSize((5L << 32) + 7);
+		view.setHardLinks(3);
+		view.setBlockPointer(4, 1234);
+		view.setTablePointer(2, 99);
+		InodeView other = new InodeView().wrap(table, 256);
+		assertEquals(0x81A4, other.getModeBits());
+		assertEquals((5L << 32) + 7, other.getFileSize());
+		assertEquals(3, other.getHardLinks());
+		assertEquals(1234, other.getBlockPointer(4));
+		assertEquals(99, other.getDoubleIndirectPointer());
+		assertEquals(0, new InodeView().wrap(table, 0).getModeBits());
+	}
+
+	private String[] images() throws IOException {
+		return new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder), Fixtures.generate(folder, 4096)};
+	}
+}
@@ -0,0 +1,86 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VolumeDiffTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void identicalSnapshotsHaveNoDifferences() throws IOException {
+		VolumeDiff diff = new VolumeDiff(new Volume(Fixtures.ext2(folder)), new Volume(Fixtures.ext2(folder)));
+		diff.compare();
+		assertEquals(Collections.emptyList(), diff.getAdded());
+		assertEquals(Collections.emptyList(), diff.getRemoved());
+		assertEquals(Collections.emptyList(), diff.getModified());
+	}
+
+	@Test
+	public void findsChangesMadeThroughTheWriter() throws IOException {
+		String before = Fixtures.ext2(folder);
+		String after = Fixtures.ext2(folder);
+		Volume vol = new Volume(after);
+		vol.createDirectory("/new");
+		vol.createFile("/new/a");
+		vol.createFile("/logs/f300.log");
+		byte[] more = "appended".getBytes(StandardCharsets.US_ASCII);
+		vol.append(vol.getInodePtrFromPath("/logs/f010.log"), more, 0, more.length);
+		vol.close();
+
+		VolumeDiff diff = new VolumeDiff(new Volume(before), new Volume(after));
+		diff.compare();
+		assertEquals(Arrays.asList("/logs/f300.log", "/new", "/new/a"), diff.getAdded());
+		assertEquals(Collections.emptyList(), diff.getRemoved());
+		assertEquals(Collections.singletonList("/logs/f010.log"), diff.getModified());
+
+		diff = new VolumeDiff(new Volume(after), new Volume(before)); // The other way round, what was added is removed
+		diff.compare();
+		assertEquals(Collections.emptyList(), diff.getAdded());
+		assertEquals(Arrays.asList("/logs/f300.log", "/new", "/new/a"), diff.getRemoved());
+		assertEquals(Collections.singletonList("/logs/f010.log"), diff.getModified());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void refusesVolumesWithDifferentLayouts() throws IOException {
+		new VolumeDiff(new Volume(Fixtures.ext2(folder)), new Volume(Fixtures.generate(folder, 1024)));
+	}
+
+	@Test
+	public void extentMovedToDifferentContentIsModified() throws IOException {
+		String before = Fixtures.ext4(folder);
+		String after = folder.newFile().getPath();
+		Files.copy(Paths.get(before), Paths.get(after), StandardCopyOption.REPLACE_EXISTING);
+
+		Volume vol = new Volume(after);
+		long inode = Fixtures.inodeOffset(vol, vol.getInodePtrFromPath("/logs/f001.log"));
+		long moved = vol.getBlockLocation(16000); // Free on the fixture
+		long copied = vol.getBlockLocation(16001);
+		byte[] original = Fixtures.read(vol, "/logs/f002.log");
+		vol.close();
+		byte[] changed = Fixtures.logContent(1);
+		changed[0] = 'E';
+		Fixtures.poke(after, moved, changed);
+		Fixtures.pokeInt(after, inode + 40 + 12 + 8, 16000); // The start of the one extent in the root, size and times left alone
+		Fixtures.poke(after, copied, original);
+		vol = new Volume(after);
+		Fixtures.pokeInt(after, Fixtures.inodeOffset(vol, vol.getInodePtrFromPath("/logs/f002.log")) + 40 + 12 + 8, 16001);
+		vol.close();
+
+		VolumeDiff diff = new VolumeDiff(new Volume(before), new Volume(after));
+		diff.compare();
+		assertEquals(Collections.singletonList("/logs/f001.log"), diff.getModified()); // f002 moved with its content intact
+		assertEquals(Collections.emptyList(), diff.getAdded());
+		assertEquals(Collections.emptyList(), diff.getRemoved());
+		assertEquals("Entry 001 ", new String(Fixtures.read(new Volume(after), "/logs/f001.log"), 0, 10, StandardCharsets.US_ASCII));
+	}
+}
@@ -0,0 +1,117 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VolumeManagerTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void managedVolumesReadTheSameAsOpeningTheImage() throws IOException {
+		VolumeManager manager = new VolumeManager(256 * 1024, 1, 0);
+		String[] images = {Fixtures.ext2(folder), Fixtures.ext4(folder), Fixtures.ext4(folder)};
+		for (String image : images) {
+			Volume direct = new Volume(image);
+			Map<String, String> expected = new Hasher(direct).hashAll("/");
+			direct.close();
+			Volume managed = manager.get(image);
+			assertSame(managed, manager.get(image));
+			assertEquals(expected, new Hasher(managed).hashAll("/"));
+			assertTrue(manager.getCachedBytes() <= 256 * 1024);
+			assertTrue(manager.getOpenHandles() <= 1);
+		}
+		for (String image : images) { // Switching back reopens the images closed to stay within the one handle
+			assertArrayEquals(Fixtures.logContent(7), Fixtures.read(manager.get(image), "/logs/f007.log"));
+			assertTrue(manager.getOpenHandles() <= 1);
+		}
+		assertTrue(manager.getUsage(images[0]).getOpens() >= 2);
+		manager.close();
+	}
+
+	@Test
+	public void repeatedReadsAreServedFromTheCache() throws IOException {
+		VolumeManager manager = new VolumeManager(4 * 1024 * 1024);
+		String image = Fixtures.ext4(folder);
+		Volume vol = manager.get(image);
+		Fixtures.read(vol, "/logs/f100.log");
+		long misses = manager.getUsage(image).getMisses();
+		assertTrue(misses > 0);
+		assertArrayEquals(Fixtures.logContent(100), Fixtures.read(vol, "/logs/f100.log"));
+		VolumeUsage usage = manager.getUsage(image);
+		assertEquals(misses, usage.getMisses());
+		assertTrue(usage.getHits() > 0);
+		assertTrue(usage.getHitRate() > 0);
+		assertEquals(manager.getCachedBytes(), usage.getCachedBytes());
+		manager.close();
+	}
+
+	@Test
+	public void usageIsListedBusiestFirst() throws IOException {
+		VolumeManager manager = new VolumeManager(4 * 1024 * 1024);
+		String quiet = Fixtures.ext2(folder);
+		String busy = Fixtures.ext4(folder);
+		Fixtures.read(manager.get(quiet), "/empty");
+		assertArrayEquals(Fixtures.bigContent(), Fixtures.read(manager.get(busy), "/big.bin"));
+		List<VolumeUsage> usage = manager.getUsage();
+		assertEquals(2, usage.size());
+		assertEquals(busy, usage.get(0).getFilename());
+		assertEquals(quiet, usage.get(1).getFilename());
+		assertTrue(usage.get(0).getBytesRead() > usage.get(1).getBytesRead());
+		manager.close();
+	}
+
+	@Test
+	public void idleImagesAreClosedAndReopened() throws IOException, InterruptedException {
+		VolumeManager manager = new VolumeManager(1024 * 1024, 8, 50);
+		String image = Fixtures.ext2(folder);
+		Volume vol = manager.get(image);
+		Fixtures.read(vol, "/logs/f001.log");
+		assertTrue(manager.getUsage(image).isOpen());
+		Thread.sleep(100);
+		manager.closeIdle();
+		assertEquals(0, manager.getOpenHandles());
+		assertTrue(!manager.getUsage(image).isOpen());
+
+		assertArrayEquals(Fixtures.logContent(2), Fixtures.read(vol, "/logs/f002.log"));
+		assertEquals(2, manager.getUsage(image).getOpens());
+		manager.close();
+	}
+
+	@Test
+	public void closingIdleOnlyClosesUnusedImages() throws IOException {
+		VolumeManager manager = new VolumeManager(1024 * 1024, 8, 60000);
+		String image = Fixtures.ext2(folder);
+		Fixtures.read(manager.get(image), "/logs/f001.log");
+		assertEquals(0, manager.closeIdle());
+		assertEquals(1, manager.getOpenHandles());
+		manager.close();
+	}
+
+	@Test
+	public void removingAVolumeDropsItsPages() throws IOException {
+		VolumeManager manager = new VolumeManager(4 * 1024 * 1024);
+		String image = Fixtures.ext2(folder);
+		Fixtures.read(manager.get(image), "/logs/f010.log");
+		assertTrue(manager.getCachedBytes() > 0);
+		manager.remove(image);
+		assertNull(manager.getUsage(image));
+		assertEquals(0, manager.getCachedBytes());
+		assertEquals(0, manager.getOpenHandles());
+		manager.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void atLeastOneHandleMustBeAllowed() {
+		new VolumeManager(1024, 0, 0);
+	}
+}
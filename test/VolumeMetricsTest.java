@@ -0,0 +1,105 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VolumeMetricsTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void countsTheWorkOfReadingAFile() throws IOException {
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		VolumeMetrics metrics = vol.getMetrics();
+		metrics.reset();
+		Fixtures.read(vol, "/big.bin"); // 600 blocks, past the double indirect pointer
+		MetricsSnapshot snapshot = metrics.getSnapshot();
+		assertTrue(snapshot.getBytesRead() >= 614390);
+		assertEquals(snapshot.getBytesRead(), metrics.getBytesRead());
+		assertTrue(snapshot.getStorageReads().getCount() > 0);
+		assertEquals(snapshot.getStorageReads().getCount(), metrics.getStorageReads());
+		assertTrue(snapshot.getPathResolutions().getCount() > 0);
+		assertTrue(snapshot.getInodeLoads().getCount() > 0);
+		assertTrue(snapshot.getIndirectReads()[0] > 0);
+		assertTrue(snapshot.getIndirectReads()[1] > 0);
+		assertEquals(0, snapshot.getIndirectReads()[2]);
+		assertTrue(metrics.getIndirectReads() >= snapshot.getIndirectReads()[0] + snapshot.getIndirectReads()[1]);
+		assertTrue(snapshot.getStorageReads().getMaxNanos() >= snapshot.getStorageReads().getP50Nanos());
+		vol.close();
+	}
+
+	@Test
+	public void countsDirectoryEntriesParsed() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		VolumeMetrics metrics = vol.getMetrics();
+		metrics.reset();
+		new Directory(vol.getInode(vol.getInodePtrFromPath("/logs")), vol).getFileInfo();
+		MetricsSnapshot snapshot = metrics.getSnapshot();
+		assertTrue(metrics.getDirectoryParses() > 0);
+		assertTrue(snapshot.getDirectoryEntries() >= Fixtures.LOG_FILES + 2 + 2); // The files, "." and ".."
+		vol.close();
+	}
+
+	@Test
+	public void resetsToZero() throws IOException {
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		Fixtures.read(vol, "/logs/f010.log");
+		VolumeMetrics metrics = vol.getMetrics();
+		assertTrue(metrics.getBytesRead() > 0);
+		metrics.reset();
+		MetricsSnapshot snapshot = metrics.getSnapshot();
+		assertEquals(0, snapshot.getBytesRead());
+		assertEquals(0, snapshot.getStorageReads().getCount());
+		assertEquals(0, snapshot.getInodeLoads().getCount());
+		assertEquals(0, metrics.getIndirectReads());
+		for (long hits : snapshot.getCacheHits()) {
+			assertEquals(0, hits);
+		}
+		vol.close();
+	}
+
+	@Test
+	public void countsManagedCachePages() throws IOException {
+		VolumeManager manager = new VolumeManager(4 * 1024 * 1024);
+		Volume vol = manager.get(Fixtures.ext2(folder));
+		Fixtures.read(vol, "/logs/f020.log");
+		Fixtures.read(vol, "/logs/f020.log");
+		MetricsSnapshot snapshot = vol.getMetrics().getSnapshot();
+		assertTrue(snapshot.getCacheMisses()[VolumeMetrics.CACHE_PAGES] > 0);
+		assertTrue(snapshot.getCacheHits()[VolumeMetrics.CACHE_PAGES] > 0);
+		manager.close();
+	}
+
+	@Test
+	public void registersWithThePlatformServer() throws IOException, JMException {
+		Volume vol = new Volume(Fixtures.ext2(folder));
+		Fixtures.read(vol, "/logs/f030.log");
+		VolumeMetrics metrics = vol.getMetrics();
+		ObjectName name = metrics.register("fixture \"ext2\"");
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		assertTrue(server.isRegistered(name));
+		assertEquals("Volume", name.getKeyProperty("type"));
+		assertEquals(metrics.getBytesRead(), server.getAttribute(name, "BytesRead"));
+		assertEquals(metrics.getInodeLoads(), server.getAttribute(name, "InodeLoads"));
+
+		ObjectName renamed = metrics.register("renamed");
+		assertFalse(server.isRegistered(name));
+		assertTrue(server.isRegistered(renamed));
+		server.invoke(renamed, "reset", new Object[0], new String[0]);
+		assertEquals(0L, metrics.getBytesRead());
+		metrics.unregister();
+		assertFalse(server.isRegistered(renamed));
+		metrics.unregister(); // Harmless once unregistered
+		vol.close();
+	}
+}
@@ -0,0 +1,55 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VolumeTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readFromFileMatchesTheContent() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			assertRange(vol, "/big.bin", Fixtures.bigContent(), 0, 100);
+			assertRange(vol, "/big.bin", Fixtures.bigContent(), 12 * 1024 - 10, 12 * 1024 + 10); // Into the indirect blocks on ext2
+			assertRange(vol, "/big.bin", Fixtures.bigContent(), 200 * 1024, 330 * 1024); // Into the double indirect blocks
+			assertRange(vol, "/sparse.bin", Fixtures.sparseContent(), 3 * Fixtures.SPARSE_SPACING - 5, 5 * Fixtures.SPARSE_SPACING + 20); // Across holes
+			assertRange(vol, "/logs/f123.log", Fixtures.logContent(123), 0, Fixtures.logContent(123).length);
+			vol.close();
+		}
+	}
+
+	@Test
+	public void readFromFileReadsRunsTogether() throws IOException {
+		for (String image : new String[] {Fixtures.ext2(folder), Fixtures.ext4(folder)}) {
+			Volume vol = new Volume(image);
+			Inode inode = vol.getInodeFromPath("/big.bin");
+			vol.getMetrics().reset();
+			vol.readFromFile(inode, 0, 64 * 1024);
+			assertTrue("Took " + vol.getMetrics().getStorageReads() + " reads", vol.getMetrics().getStorageReads() < 16);
+			vol.close();
+		}
+	}
+
+	@Test
+	public void readFromFileGivesZerosPastTheEnd() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		byte[] content = Fixtures.logContent(5);
+		byte[] bytes = vol.readFromFile(vol.getInodeFromPath("/logs/f005.log"), content.length - 4, content.length + 4);
+		byte[] expected = new byte[8];
+		System.arraycopy(content, content.length - 4, expected, 0, 4);
+		assertArrayEquals(expected, bytes);
+		vol.close();
+	}
+
+	private void assertRange(Volume vol, String path, byte[] content, int start, int end) {
+		byte[] bytes = vol.readFromFile(vol.getInodeFromPath(path), start, end);
+		assertArrayEquals(path + " " + start + "-" + end, Arrays.copyOfRange(content, start, end), bytes);
+	}
+}
@@ -0,0 +1,154 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class VolumeWriterTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void appendedFileReadsBack() throws Exception {
+		String image = Fixtures.ext2(folder);
+		byte[] content = new byte[300 * 1024]; // Into the double indirect blocks
+		new Random(7).nextBytes(content);
+		Volume vol = new Volume(image);
+		int id = vol.createFile("/logs/new.bin");
+		for (int at = 0; at < content.length; at += 7000) { // Appends that don't line up with blocks
+			vol.append(id, content, at, Math.min(7000, content.length - at));
+		}
+		vol.close();
+
+		vol = new Volume(image);
+		assertArrayEquals(content, Fixtures.read(vol, "/logs/new.bin"));
+		assertArrayEquals(Fixtures.bigContent(), Fixtures.read(vol, "/big.bin"));
+		vol.close();
+		assertConsistent(image);
+	}
+
+	@Test
+	public void truncateFreesTheBlocks() throws Exception {
+		String image = Fixtures.ext2(folder);
+		Volume vol = new Volume(image);
+		long free = 0xFFFFFFFFL & vol.getSuperBlock().getFreeBlocks();
+		int id = vol.createFile("/shrinking");
+		vol.append(id, new byte[100 * 1024], 0, 100 * 1024);
+		vol.flush();
+		assertTrue((0xFFFFFFFFL & vol.getSuperBlock().getFreeBlocks()) < free - 100);
+		vol.truncate(id, 1500);
+		vol.flush();
+		assertEquals(free - 2, 0xFFFFFFFFL & vol.getSuperBlock().getFreeBlocks()); // The two blocks still holding data
+		assertEquals(1500, vol.getInode(id).getFileSize());
+		vol.close();
+		assertConsistent(image);
+	}
+
+	@Test
+	public void directoriesGrowPastOneBlock() throws Exception {
+		String image = Fixtures.ext2(folder);
+		Volume vol = new Volume(image);
+		vol.createDirectory("/many");
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 200; i++) {
+			String name = String.format("a-fairly-long-file-name-%03d", i);
+			vol.createFile("/many/" + name);
+			expected.add(name);
+		}
+		vol.link("/many/" + expected.get(0), "/logs/hard-link");
+		vol.close();
+
+		vol = new Volume(image);
+		final List<String> names = new ArrayList<String>();
+		new Directory(vol, "/many").forEachEntry((inodePtr, type, name) -> {
+			if(!name.equals(".") && !name.equals("..")) {
+				names.add(name);
+			}
+			return true;
+		});
+		Collections.sort(names);
+		assertEquals(expected, names);
+		assertTrue(vol.getInode(vol.getInodePtrFromPath("/many")).getFileSize() > 1024);
+		assertEquals(2, vol.getInode(vol.getInodePtrFromPath("/logs/hard-link")).getHardLinks());
+		vol.close();
+		assertConsistent(image);
+	}
+
+	@Test
+	public void filesInADirectoryStayTogether() throws IOException {
+		Volume vol = new Volume(Fixtures.generate(folder, 1024));
+		int first = vol.createFile("/dir1/first");
+		vol.append(first, new byte[5000], 0, 5000);
+		int second = vol.createFile("/dir1/second");
+		vol.append(second, new byte[5000], 0, 5000);
+		Allocator allocator = new Allocator(vol);
+		assertEquals(allocator.groupOfInode(vol.getInodePtrFromPath("/dir1")), allocator.groupOfInode(first));
+		int[] a = vol.mapBlocks(vol.getInode(first), 0, 5);
+		int[] b = vol.mapBlocks(vol.getInode(second), 0, 5);
+		for (int i = 1; i < 5; i++) {
+			assertEquals(a[0] + i, a[i]); // Each file in one run
+			assertEquals(b[0] + i, b[i]);
+		}
+		assertEquals(a[4] + 1, b[0]); // The second straight after the first
+		vol.close();
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void refusesExt4Volumes() throws IOException {
+		Volume vol = new Volume(Fixtures.ext4(folder));
+		try {
+			vol.createFile("/new");
+		} finally {
+			vol.close();
+		}
+	}
+
+	@Test
+	public void refusesChecksummedVolumes() throws IOException {
+		String image = Fixtures.ext4(folder);
+		Volume vol = new Volume(image);
+		int roCompat = vol.getSuperBlock().getRoCompatFeatures();
+		vol.close();
+		assertTrue((roCompat & SuperBlock.RO_COMPAT_METADATA_CSUM) != 0);
+		byte[] bytes = new byte[4];
+		Converter.intToBytes(SuperBlock.INCOMPAT_FILETYPE, bytes, 0);
+		Fixtures.poke(image, 1024 + 96, bytes); // Leave only the read-only compatible features in the way
+		byte[] before = Files.readAllBytes(Paths.get(image));
+		vol = new Volume(image);
+		try {
+			vol.createFile("/new");
+			fail();
+		} catch (UnsupportedOperationException e) {
+			assertEquals("Can't write to a volume with read-only compatible features 0x"
+				+ Integer.toHexString(roCompat & ~(SuperBlock.RO_COMPAT_SPARSE_SUPER | SuperBlock.RO_COMPAT_LARGE_FILE)), e.getMessage());
+		} finally {
+			vol.close();
+		}
+		assertArrayEquals(before, Files.readAllBytes(Paths.get(image))); // Nothing was written
+	}
+
+	// The volume's own checker, and e2fsck where it's installed
+	private void assertConsistent(String image) throws Exception {
+		Volume vol = new Volume(image);
+		assertEquals(Collections.emptyList(), new Checker(vol).check());
+		vol.close();
+		File e2fsck = new File("/sbin/e2fsck");
+		Assume.assumeTrue(e2fsck.canExecute());
+		Process check = new ProcessBuilder(e2fsck.getPath(), "-fn", image).redirectErrorStream(true).start();
+		check.getInputStream().skip(Long.MAX_VALUE);
+		assertEquals(0, check.waitFor());
+	}
+}
@@ -0,0 +1,49 @@
+#!/bin/sh
+# Rebuilds the mkfs-made images the tests read, with e2fsprogs 1.47 or later.
+# Both hold the same tree; ext4.img is made with mkfs.ext4's own defaults (extents, 64bit, flex_bg,
+# metadata_csum, uninitialised groups) and ext2.img with plain mkfs.ext2. The tree is:
+#   /logs/f000.log ... f299.log   300 different files of the same size, for duplicate detection
+#   /logs/copy-a.log, copy-b.log  two files with the same content
+#   /big.bin                      600KB, reaching the double indirect range on ext2
+#   /sparse.bin                   one block of data every 8 blocks for 400 blocks, a depth 2 extent tree on ext4
+#   /empty                        nothing
+#   /link, /long-link             a symbolic link short enough to live in the inode, and one that isn't
+# On ext4 blocks 100 to 130 of /sparse.bin are then preallocated, as unwritten extents, and on ext2 a file
+# /deleted.txt is written and removed, leaving its inode for recovery.
+set -e
+cd "$(dirname "$0")"
+TREE=$(mktemp -d)
+DELETED=$(mktemp)
+trap 'rm -rf "$TREE" "$DELETED"' EXIT
+python3 - "$TREE" <<'PY'
+import os, sys
+root = sys.argv[1]
+os.mkdir(os.path.join(root, "logs"))
+for i in range(300):
+    with open(os.path.join(root, "logs", "f%03d.log" % i), "w") as f:
+        f.write(("entry %03d " % i) * 20)
+for name in ("copy-a.log", "copy-b.log"):
+    with open(os.path.join(root, "logs", name), "w") as f:
+        f.write("the same content in two files\n" * 10)
+with open(os.path.join(root, "big.bin"), "wb") as f:
+    f.write(b"".join(b"line %08d\n" % i for i in range(600 * 1024 // 14)))
+with open(os.path.join(root, "sparse.bin"), "wb") as f:
+    for i in range(400):
+        f.seek(i * 8192)
+        f.write(b"chunk %03d" % i)
+open(os.path.join(root, "empty"), "w").close()
+os.symlink("logs/f000.log", os.path.join(root, "link"))
+os.symlink("logs/" + "x" * 70 + "/target", os.path.join(root, "long-link"))
+PY
+touch -h -d @1500000000 "$TREE" "$TREE"/* "$TREE"/logs/*
+export E2FSPROGS_FAKE_TIME=1500000000
+rm -f ext2.img ext4.img ext2.img.gz ext4.img.gz
+mkfs.ext2 -q -b 1024 -U 11111111-2222-3333-4444-555555555555 -E hash_seed=11111111-2222-3333-4444-555555555555 -d "$TREE" ext2.img 16M
+printf 'deleted file content\n' > "$DELETED"
+debugfs -w -R "write $DELETED deleted.txt" ext2.img >/dev/null 2>&1
+debugfs -w -R "rm deleted.txt" ext2.img >/dev/null 2>&1
+mkfs.ext4 -q -b 1024 -U 11111111-2222-3333-4444-555555555555 -E hash_seed=11111111-2222-3333-4444-555555555555 -d "$TREE" ext4.img 16M
+debugfs -w -R "fallocate /sparse.bin 100 130" ext4.img >/dev/null 2>&1
+e2fsck -fn ext2.img >/dev/null
+e2fsck -fn ext4.img >/dev/null
+gzip -9n ext2.img ext4.img